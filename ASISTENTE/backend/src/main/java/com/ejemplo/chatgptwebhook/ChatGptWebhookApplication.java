@@ -2,11 +2,13 @@ package com.ejemplo.chatgptwebhook;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * Aplicación principal del webhook de ChatGPT
  */
 @SpringBootApplication
+@EnableScheduling
 public class ChatGptWebhookApplication {
 
     public static void main(String[] args) {
@@ -0,0 +1,41 @@
+package com.ejemplo.chatgptwebhook.config;
+
+import com.ejemplo.chatgptwebhook.util.LimiteAimd;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.web.cors.CorsConfigurationSource;
+
+import java.time.Duration;
+
+/**
+ * Registra el control de admisión solo en los endpoints caros (los que llaman a ChatGPT) y antes que
+ * la cadena de Spring Security, para rechazar el exceso de carga sin gastar nada en él. Como también va
+ * antes que el filtro de CORS, recibe la misma configuración de CORS para aplicarla a sus rechazos.
+ */
+@Configuration
+@ConditionalOnProperty(name = "control-admision.enabled", havingValue = "true", matchIfMissing = true)
+public class AdmissionControlConfig {
+
+    @Bean
+    public FilterRegistrationBean<AdmissionControlFilter> admissionControlFilter(
+            @Value("${control-admision.limite-inicial:20}") int limiteInicial,
+            @Value("${control-admision.limite-minimo:4}") int limiteMinimo,
+            @Value("${control-admision.limite-maximo:200}") int limiteMaximo,
+            @Value("${control-admision.factor-reduccion:0.9}") double factorReduccion,
+            @Value("${control-admision.latencia-maxima:45s}") Duration latenciaMaxima,
+            @Value("${control-admision.retry-after:2s}") Duration retryAfter,
+            CorsConfigurationSource corsConfigurationSource,
+            MeterRegistry meterRegistry) {
+        LimiteAimd limite = new LimiteAimd(limiteInicial, limiteMinimo, limiteMaximo, factorReduccion);
+        FilterRegistrationBean<AdmissionControlFilter> registro = new FilterRegistrationBean<>(
+                new AdmissionControlFilter(limite, latenciaMaxima, retryAfter, corsConfigurationSource, meterRegistry));
+        registro.addUrlPatterns("/api/menu/procesar/*", "/webhook/chat", "/webhook/chat/stream");
+        registro.setOrder(Ordered.HIGHEST_PRECEDENCE + 10);
+        return registro;
+    }
+}
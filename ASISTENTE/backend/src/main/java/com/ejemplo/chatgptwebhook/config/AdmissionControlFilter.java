@@ -0,0 +1,165 @@
+package com.ejemplo.chatgptwebhook.config;
+
+import com.ejemplo.chatgptwebhook.util.LimiteAimd;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.cors.CorsConfiguration;
+import org.springframework.web.cors.CorsConfigurationSource;
+import org.springframework.web.cors.CorsProcessor;
+import org.springframework.web.cors.DefaultCorsProcessor;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Control de admisión de los endpoints que llaman a ChatGPT (/api/menu/procesar/**, /webhook/chat).
+ * Con un límite de concurrencia adaptativo (AIMD) admite solo las peticiones que el servidor puede
+ * atender a tiempo y rechaza el resto al instante con 503 y Retry-After, en lugar de dejar que se
+ * acumulen en la cola de Tomcat hasta que todas caduquen. Los endpoints baratos (opciones del menú,
+ * salud) no pasan por este filtro, así que siguen respondiendo aunque el límite esté lleno.
+ * Las peticiones asíncronas (Mono/Flux) liberan su plaza cuando termina la respuesta, no al salir del filtro.
+ * Solo una respuesta 2xx hace crecer el límite; los 5xx (incluido el 503 con el que los controladores
+ * responden cuando el limitador, el planificador o el circuit breaker de OpenAI rechazan la llamada), las
+ * excepciones y las respuestas lentas lo reducen, y los 4xx (como los 401 de peticiones sin token, que Spring
+ * Security responde al instante) no lo modifican.
+ * El filtro se ejecuta antes que el de CORS de Spring Security, así que el 503 lleva sus propias cabeceras
+ * CORS: sin ellas el navegador no dejaría al frontend leer el estado ni Retry-After.
+ */
+public class AdmissionControlFilter extends OncePerRequestFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdmissionControlFilter.class);
+
+    private static final String MENSAJE_SATURADO = "El servidor está saturado, inténtalo de nuevo en unos segundos";
+
+    private final LimiteAimd limite;
+    private final long latenciaMaximaNanos;
+    private final String retryAfter;
+    private final CorsConfigurationSource cors;
+    private final CorsProcessor procesadorCors = new DefaultCorsProcessor();
+    private final Timer latencia;
+    private final MeterRegistry meterRegistry;
+
+    public AdmissionControlFilter(LimiteAimd limite, Duration latenciaMaxima, Duration retryAfter,
+                                  CorsConfigurationSource cors, MeterRegistry meterRegistry) {
+        this.limite = limite;
+        this.latenciaMaximaNanos = latenciaMaxima.toNanos();
+        this.retryAfter = String.valueOf(Math.max(1, retryAfter.toSeconds()));
+        this.cors = cors;
+        this.meterRegistry = meterRegistry;
+        this.latencia = Timer.builder("control_admision.latencia")
+                .description("Duración de las peticiones admitidas por el control de admisión")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        meterRegistry.gauge("control_admision.limite", limite, LimiteAimd::limite);
+        meterRegistry.gauge("control_admision.en_curso", limite, LimiteAimd::enCurso);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        // Las peticiones CORS previas (preflight) no llegan a ChatGPT
+        return HttpMethod.OPTIONS.matches(request.getMethod());
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+
+        String grupo = request.getRequestURI().startsWith("/webhook") ? "webhook" : "menu";
+        if (!limite.adquirir()) {
+            meterRegistry.counter("control_admision.rechazos", "grupo", grupo).increment();
+            logger.warn("Petición {} rechazada por el control de admisión (límite {})",
+                    request.getRequestURI(), limite.limite());
+            CorsConfiguration configuracionCors = cors.getCorsConfiguration(request);
+            if (configuracionCors != null && !procesadorCors.processRequest(configuracionCors, request, response)) {
+                // Origen no permitido: el procesador ya respondió 403, como haría el filtro de CORS
+                return;
+            }
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, retryAfter);
+            response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+            response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+            response.getWriter().write(MENSAJE_SATURADO);
+            return;
+        }
+        meterRegistry.counter("control_admision.admitidas", "grupo", grupo).increment();
+
+        Plaza plaza = new Plaza(request.getRequestURI().endsWith("/stream"));
+        boolean error = true;
+        try {
+            filterChain.doFilter(request, response);
+            error = false;
+        } finally {
+            if (!error && request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(plaza);
+            } else {
+                plaza.liberar(response.getStatus(), error);
+            }
+        }
+    }
+
+    /**
+     * Plaza admitida de una petición; se libera una sola vez, al terminar la respuesta
+     */
+    private final class Plaza implements AsyncListener {
+        private final long inicio = System.nanoTime();
+        // En un stream la duración depende de la longitud de la respuesta: solo cuentan los errores
+        private final boolean stream;
+        private final AtomicBoolean liberada = new AtomicBoolean(false);
+
+        Plaza(boolean stream) {
+            this.stream = stream;
+        }
+
+        void liberar(int status, boolean error) {
+            if (!liberada.compareAndSet(false, true)) {
+                return;
+            }
+            long duracion = System.nanoTime() - inicio;
+            latencia.record(duracion, TimeUnit.NANOSECONDS);
+            if (error || status >= 500 || (!stream && duracion > latenciaMaximaNanos)) {
+                limite.liberar(true, inicio);
+            } else if (status >= 200 && status < 300) {
+                limite.liberar(false, inicio);
+            } else {
+                limite.descartar();
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            liberar(((HttpServletResponse) event.getSuppliedResponse()).getStatus(), false);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            liberar(HttpStatus.SERVICE_UNAVAILABLE.value(), true);
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            liberar(HttpStatus.INTERNAL_SERVER_ERROR.value(), true);
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // Un nuevo ciclo asíncrono sobre la misma petición sigue necesitando la plaza
+            event.getAsyncContext().addListener(this);
+        }
+    }
+}
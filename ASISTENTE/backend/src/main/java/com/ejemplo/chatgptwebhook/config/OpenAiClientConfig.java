@@ -0,0 +1,71 @@
+package com.ejemplo.chatgptwebhook.config;
+
+import io.netty.channel.ChannelOption;
+import io.netty.handler.timeout.WriteTimeoutHandler;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Configuración del WebClient dedicado a la API de OpenAI: pool de conexiones propio,
+ * timeouts en todas las fases de la petición y métricas del pool en Micrometer
+ * (reactor.netty.connection.provider.* y reactor.netty.http.client.*).
+ */
+@Configuration
+@EnableConfigurationProperties(OpenAiHttpProperties.class)
+public class OpenAiClientConfig {
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider openAiConnectionProvider(OpenAiHttpProperties props) {
+        return ConnectionProvider.builder("openai")
+                .maxConnections(props.getMaxConnections())
+                .pendingAcquireMaxCount(props.getPendingAcquireMaxCount())
+                .pendingAcquireTimeout(props.getPendingAcquireTimeout())
+                .maxIdleTime(props.getMaxIdleTime())
+                .maxLifeTime(props.getMaxLifeTime())
+                .evictInBackground(props.getEvictInBackground())
+                .metrics(true)
+                .build();
+    }
+
+    @Bean
+    public WebClient openAiWebClient(ConnectionProvider openAiConnectionProvider,
+                                     OpenAiHttpProperties props,
+                                     @Value("${openai.api.key}") String apiKey,
+                                     @Value("${openai.api.url:https://api.openai.com/v1/chat/completions}") String apiUrl) {
+        HttpClient httpClient = HttpClient.create(openAiConnectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) props.getConnectTimeout().toMillis())
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                // Tiempo máximo sin recibir datos mientras se lee una respuesta, fragmentos del stream incluidos.
+                // Reactor Netty lo aplica solo durante cada petición: un ReadTimeoutHandler fijo en la conexión
+                // seguiría activo en las conexiones inactivas del pool y cortaría antes los streams
+                .responseTimeout(props.getResponseTimeout())
+                .doOnConnected(conn -> conn
+                        .addHandlerLast(new WriteTimeoutHandler(props.getWriteTimeout().toMillis(), TimeUnit.MILLISECONDS)))
+                .compress(props.isCompression())
+                // Se usa una única URI, así que la etiqueta de la métrica no crece
+                .metrics(true, uri -> uri);
+
+        if (props.isHttp2()) {
+            // HTTP/2 negociado por ALPN sobre TLS, con HTTP/1.1 como alternativa
+            httpClient = httpClient.protocol(HttpProtocol.H2, HttpProtocol.HTTP11);
+        }
+
+        return WebClient.builder()
+                .baseUrl(apiUrl)
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .defaultHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .defaultHeader(HttpHeaders.AUTHORIZATION, "Bearer " + apiKey)
+                .build();
+    }
+}
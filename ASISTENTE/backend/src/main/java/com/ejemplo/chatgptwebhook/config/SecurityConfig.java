@@ -43,6 +43,7 @@ public class SecurityConfig {
                 .requestMatchers("/api/config/**").permitAll() // Configuración pública
                 .requestMatchers("/api/menu/**").permitAll() // Menú del chatbot (público para funcionalidad)
                 .requestMatchers("/api/webhook/**").permitAll() // Webhook de ChatGPT (público para funcionalidad)
+                .requestMatchers("/api/jobs/**").permitAll() // Trabajos de generación (también anónimos)
                 
                 // Recursos estáticos (frontend)
                 .requestMatchers("/").permitAll()
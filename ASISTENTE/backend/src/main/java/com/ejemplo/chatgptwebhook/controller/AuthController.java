@@ -4,22 +4,30 @@ import com.ejemplo.chatgptwebhook.model.User;
 import com.ejemplo.chatgptwebhook.model.SesionLogin;
 import com.ejemplo.chatgptwebhook.model.JwtResponse;
 import com.ejemplo.chatgptwebhook.repository.UserRepository;
-import com.ejemplo.chatgptwebhook.repository.SesionLoginRepository;
 import com.ejemplo.chatgptwebhook.util.JwtUtil;
+import com.ejemplo.chatgptwebhook.service.CorreosRegistrados;
 import com.ejemplo.chatgptwebhook.service.CustomUserDetailsService;
+import com.ejemplo.chatgptwebhook.service.PasswordHashingService;
+import com.ejemplo.chatgptwebhook.service.SesionLoginWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.userdetails.UserDetails;
-import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.web.bind.annotation.*;
 
 import jakarta.servlet.http.HttpServletRequest;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Controlador REST para gestionar la autenticación de usuarios.
@@ -35,11 +43,14 @@ public class AuthController {
 
     private static final Logger logger = LoggerFactory.getLogger(AuthController.class);
 
+    private static final String MENSAJE_SATURADO = "El servidor está ocupado, inténtalo de nuevo en unos segundos";
+    private static final int SEGUNDOS_REINTENTO = 1;
+
     @Autowired
     private UserRepository userRepository;
 
     @Autowired
-    private SesionLoginRepository sesionLoginRepository;
+    private SesionLoginWriter sesionLoginWriter;
 
     @Autowired
     private JwtUtil jwtUtil;
@@ -48,16 +59,27 @@ public class AuthController {
     private CustomUserDetailsService userDetailsService;
 
     @Autowired
-    private PasswordEncoder passwordEncoder;
+    private PasswordHashingService passwordHashingService;
+
+    @Autowired
+    private CorreosRegistrados correosRegistrados;
+
+    // Executor de tareas de la aplicación: las continuaciones que acceden a la base de datos no
+    // deben ocupar los hilos del pool de hashing, que solo calculan hashes
+    @Autowired
+    @Qualifier("applicationTaskExecutor")
+    private Executor tareasExecutor;
 
     /**
      * Registra un nuevo usuario en el sistema.
+     * El hash de la contraseña se calcula en el pool de hashing, fuera del hilo de la petición, y el
+     * usuario se guarda después en el executor de tareas.
      * 
      * @param request Mapa con los datos del usuario: nombre, correo, cargo, contraseña
      * @return ResponseEntity con el resultado del registro
      */
     @PostMapping("/register")
-    public ResponseEntity<Map<String, Object>> register(@RequestBody Map<String, String> request) {
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> register(@RequestBody Map<String, String> request) {
         Map<String, Object> response = new HashMap<>();
         
         try {
@@ -77,7 +99,7 @@ public class AuthController {
                 logger.warn("Intento de registro con campos vacíos");
                 response.put("success", false);
                 response.put("message", "Los campos nombre, correo y contraseña son obligatorios");
-                return ResponseEntity.badRequest().body(response);
+                return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(response));
             }
             
             // Validar formato de correo básico
@@ -85,49 +107,58 @@ public class AuthController {
                 logger.warn("Intento de registro con correo inválido: {}", correo);
                 response.put("success", false);
                 response.put("message", "El formato del correo electrónico no es válido");
-                return ResponseEntity.badRequest().body(response);
+                return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(response));
             }
             
-            // Verificar si el correo ya existe
-            if (userRepository.existsByCorreo(correo)) {
-                logger.warn("Intento de registro con correo existente: {}", correo);
-                response.put("success", false);
-                response.put("message", "Ya existe un usuario con este correo electrónico");
-                return ResponseEntity.badRequest().body(response);
+            // Verificar si el correo ya existe: solo se consulta si el filtro no lo descarta, para no
+            // calcular el hash de un duplicado probable. La restricción única cubre el resto de casos
+            if (correosRegistrados.puedeEstarRegistrado(correo) && userRepository.existsByCorreo(correo)) {
+                return CompletableFuture.completedFuture(correoExistente(response, correo));
             }
             
             // Crear nuevo usuario con contraseña encriptada
-            String contraseñaEncriptada = passwordEncoder.encode(contraseña);
-            User nuevoUsuario = new User(nombre, correo, cargo, contraseñaEncriptada);
-            User usuarioGuardado = userRepository.save(nuevoUsuario);
-            
-            logger.info("Usuario registrado exitosamente con ID: {}", usuarioGuardado.getId());
-            
-            response.put("success", true);
-            response.put("message", "Usuario registrado exitosamente");
-            response.put("userId", usuarioGuardado.getId());
-            response.put("nombre", usuarioGuardado.getNombre());
-            response.put("correo", usuarioGuardado.getCorreo());
-            
-            return ResponseEntity.ok(response);
+            return passwordHashingService.encode(contraseña)
+                .thenApplyAsync(contraseñaEncriptada -> {
+                    User nuevoUsuario = new User(nombre, correo, cargo, contraseñaEncriptada);
+                    User usuarioGuardado;
+                    try {
+                        usuarioGuardado = userRepository.save(nuevoUsuario);
+                    } catch (DataIntegrityViolationException e) {
+                        if (!userRepository.existsByCorreo(correo)) {
+                            throw e;
+                        }
+                        return correoExistente(response, correo);
+                    }
+                    correosRegistrados.agregar(correo);
+                    
+                    logger.info("Usuario registrado exitosamente con ID: {}", usuarioGuardado.getId());
+                    
+                    response.put("success", true);
+                    response.put("message", "Usuario registrado exitosamente");
+                    response.put("userId", usuarioGuardado.getId());
+                    response.put("nombre", usuarioGuardado.getNombre());
+                    response.put("correo", usuarioGuardado.getCorreo());
+                    
+                    return ResponseEntity.ok(response);
+                }, tareasExecutor)
+                .exceptionally(ex -> errorRegistro(response, causa(ex)));
             
         } catch (Exception e) {
-            logger.error("Error al registrar usuario", e);
-            response.put("success", false);
-            response.put("message", "Error al registrar usuario: " + e.getMessage());
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+            return CompletableFuture.completedFuture(errorRegistro(response, e));
         }
     }
 
     /**
      * Autentica un usuario y genera un token JWT.
+     * La contraseña se verifica en el pool de hashing, fuera del hilo de la petición, y el token
+     * y la sesión de login se preparan después en el executor de tareas.
      * 
      * @param request Mapa con correo y contraseña del usuario
      * @param httpRequest Request HTTP para obtener información de la sesión
      * @return ResponseEntity con el token JWT y datos del usuario
      */
     @PostMapping("/login")
-    public ResponseEntity<JwtResponse> login(@RequestBody Map<String, String> request, HttpServletRequest httpRequest) {
+    public CompletableFuture<ResponseEntity<JwtResponse>> login(@RequestBody Map<String, String> request, HttpServletRequest httpRequest) {
         try {
             String correo = request.get("correo");
             String contraseña = request.get("contraseña");
@@ -137,8 +168,8 @@ public class AuthController {
                 contraseña == null || contraseña.trim().isEmpty()) {
                 
                 logger.warn("Intento de login con campos vacíos");
-                return ResponseEntity.badRequest()
-                    .body(new JwtResponse(null, null, null, null, "Correo y contraseña son obligatorios"));
+                return CompletableFuture.completedFuture(ResponseEntity.badRequest()
+                    .body(new JwtResponse(null, null, null, null, "Correo y contraseña son obligatorios")));
             }
             
             // Buscar usuario por correo
@@ -146,41 +177,82 @@ public class AuthController {
             
             if (usuarioOpt.isEmpty()) {
                 logger.warn("Intento de login con usuario no encontrado: {}", correo);
-                return ResponseEntity.badRequest()
-                    .body(new JwtResponse(null, null, null, null, "Usuario no encontrado"));
+                return CompletableFuture.completedFuture(ResponseEntity.badRequest()
+                    .body(new JwtResponse(null, null, null, null, "Usuario no encontrado")));
             }
             
             User usuario = usuarioOpt.get();
             
-            // Verificar contraseña
-            if (!passwordEncoder.matches(contraseña, usuario.getContraseña())) {
-                logger.warn("Intento de login con contraseña incorrecta para: {}", correo);
-                return ResponseEntity.badRequest()
-                    .body(new JwtResponse(null, null, null, null, "Contraseña incorrecta"));
-            }
-            
-            // Generar token JWT
-            UserDetails userDetails = userDetailsService.loadUserByUsername(usuario.getCorreo());
-            String token = jwtUtil.generateToken(userDetails);
-            Long expirationTime = jwtUtil.getExpirationTime();
-            
-            // Crear sesión de login
+            // Los datos de la petición se leen antes de salir del hilo de Tomcat
             String ipAddress = getClientIpAddress(httpRequest);
             String userAgent = httpRequest.getHeader("User-Agent");
             
-            SesionLogin sesion = new SesionLogin(usuario, ipAddress, userAgent);
-            sesionLoginRepository.save(sesion);
-            
-            logger.info("Login exitoso para usuario: {}", correo);
-            
-            return ResponseEntity.ok(new JwtResponse(token, expirationTime, usuario.getNombre(), 
-                usuario.getCorreo(), "Login exitoso"));
+            // Verificar contraseña
+            return passwordHashingService.matches(contraseña, usuario.getContraseña())
+                .thenApplyAsync(coincide -> {
+                    if (!coincide) {
+                        logger.warn("Intento de login con contraseña incorrecta para: {}", correo);
+                        return ResponseEntity.badRequest()
+                            .body(new JwtResponse(null, null, null, null, "Contraseña incorrecta"));
+                    }
+                    
+                    // Generar token JWT
+                    UserDetails userDetails = userDetailsService.loadUserByUsername(usuario.getCorreo());
+                    String token = jwtUtil.generateToken(userDetails);
+                    Long expirationTime = jwtUtil.getExpirationTime();
+                    
+                    // Crear sesión de login (se guarda en segundo plano)
+                    sesionLoginWriter.registrar(new SesionLogin(usuario, ipAddress, userAgent));
+                    
+                    logger.info("Login exitoso para usuario: {}", correo);
+                    
+                    return ResponseEntity.ok(new JwtResponse(token, expirationTime, usuario.getNombre(), 
+                        usuario.getCorreo(), "Login exitoso"));
+                }, tareasExecutor)
+                .exceptionally(ex -> errorLogin(causa(ex)));
             
         } catch (Exception e) {
-            logger.error("Error al hacer login", e);
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                .body(new JwtResponse(null, null, null, null, "Error al hacer login: " + e.getMessage()));
+            return CompletableFuture.completedFuture(errorLogin(e));
+        }
+    }
+
+    private ResponseEntity<Map<String, Object>> correoExistente(Map<String, Object> response, String correo) {
+        logger.warn("Intento de registro con correo existente: {}", correo);
+        response.put("success", false);
+        response.put("message", "Ya existe un usuario con este correo electrónico");
+        return ResponseEntity.badRequest().body(response);
+    }
+
+    private ResponseEntity<Map<String, Object>> errorRegistro(Map<String, Object> response, Throwable e) {
+        response.put("success", false);
+        if (e instanceof RejectedExecutionException) {
+            response.put("message", MENSAJE_SATURADO);
+            return servicioSaturado().body(response);
+        }
+        logger.error("Error al registrar usuario", e);
+        response.put("message", "Error al registrar usuario: " + e.getMessage());
+        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+    }
+
+    private ResponseEntity<JwtResponse> errorLogin(Throwable e) {
+        if (e instanceof RejectedExecutionException) {
+            return servicioSaturado().body(new JwtResponse(null, null, null, null, MENSAJE_SATURADO));
         }
+        logger.error("Error al hacer login", e);
+        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+            .body(new JwtResponse(null, null, null, null, "Error al hacer login: " + e.getMessage()));
+    }
+
+    /**
+     * 503 con Retry-After cuando el pool de hashing no admite más trabajo
+     */
+    private static ResponseEntity.BodyBuilder servicioSaturado() {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+            .header(HttpHeaders.RETRY_AFTER, String.valueOf(SEGUNDOS_REINTENTO));
+    }
+
+    private static Throwable causa(Throwable ex) {
+        return ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
     }
 
     /**
@@ -194,7 +266,8 @@ public class AuthController {
         Map<String, Object> response = new HashMap<>();
         
         try {
-            boolean exists = userRepository.existsByCorreo(correo);
+            // El filtro descarta sin consultar la base de datos los correos que seguro no están registrados
+            boolean exists = correosRegistrados.puedeEstarRegistrado(correo) && userRepository.existsByCorreo(correo);
             response.put("exists", exists);
             response.put("message", exists ? "El correo ya está registrado" : "El correo está disponible");
             
@@ -0,0 +1,45 @@
+package com.ejemplo.chatgptwebhook.controller;
+
+import com.ejemplo.chatgptwebhook.model.TrabajoGeneracion;
+import com.ejemplo.chatgptwebhook.service.GenerationJobService;
+import com.ejemplo.chatgptwebhook.service.MenuService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Objects;
+
+/**
+ * Controlador REST para consultar los trabajos de generación de proyectos en segundo plano
+ */
+@RestController
+@RequestMapping("/api/jobs")
+@CrossOrigin(origins = "*") // Permitir CORS para pruebas
+public class JobController {
+    
+    // Intervalo sugerido al cliente entre consultas mientras el trabajo no termina (segundos)
+    private static final String REINTENTO_CONSULTA = "2";
+    
+    @Autowired
+    private GenerationJobService generationJobService;
+    
+    /**
+     * Estado de un trabajo y, cuando termina, su resultado (o el error)
+     * 
+     * @param id ID del trabajo devuelto al encolarlo
+     * @return El trabajo, o 404 si no existe, ya no se conserva o pertenece a otro usuario
+     */
+    @GetMapping("/{id}")
+    public ResponseEntity<TrabajoGeneracion> consultarTrabajo(@PathVariable String id) {
+        
+        return generationJobService.buscar(id)
+                // Los trabajos de un usuario autenticado solo los ve ese usuario
+                .filter(trabajo -> trabajo.getUsuario() == null
+                        || Objects.equals(trabajo.getUsuario(), MenuService.usuarioActual()))
+                .map(trabajo -> trabajo.isTerminado()
+                        ? ResponseEntity.ok(trabajo)
+                        : ResponseEntity.ok().header(HttpHeaders.RETRY_AFTER, REINTENTO_CONSULTA).body(trabajo))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+}
@@ -1,12 +1,28 @@
 package com.ejemplo.chatgptwebhook.controller;
 
 import com.ejemplo.chatgptwebhook.model.MenuResponse;
+import com.ejemplo.chatgptwebhook.model.TrabajoGeneracion;
+import com.ejemplo.chatgptwebhook.service.ChatGptService;
+import com.ejemplo.chatgptwebhook.service.GenerationJobService;
 import com.ejemplo.chatgptwebhook.service.MenuService;
+import jakarta.servlet.http.HttpServletRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Controlador REST para gestionar las opciones del menú
@@ -21,6 +37,13 @@ public class MenuController {
     @Autowired
     private MenuService menuService;
     
+    @Autowired
+    private GenerationJobService generationJobService;
+    
+    // Espera sugerida al cliente cuando OpenAI está saturado (igual que el control de admisión)
+    @Value("${control-admision.retry-after:2s}")
+    private Duration retryAfter;
+    
     /**
      * Endpoint para obtener todas las opciones del menú principal
      * Usa el método mostrarMenuPrincipal con bucle do-while
@@ -91,31 +114,92 @@ public class MenuController {
      * @param optionId El ID de la opción seleccionada
      * @param datos Los datos adicionales para la opción
      * @param sessionId ID de sesión para mantener contexto (opcional)
-     * @return Respuesta de la acción ejecutada
+     * @return Respuesta de la acción ejecutada. Se devuelve como Mono para liberar el hilo
+     *         del servidor mientras ChatGPT genera la respuesta.
      */
     @PostMapping("/procesar/{optionId}/datos")
-    public ResponseEntity<String> procesarOpcionConDatos(@PathVariable int optionId, 
-                                                        @RequestBody String datos,
-                                                        @RequestParam(required = false) String sessionId) {
+    public Mono<ResponseEntity<String>> procesarOpcionConDatos(@PathVariable int optionId, 
+                                                              @RequestBody String datos,
+                                                              @RequestParam(required = false) String sessionId) {
         
-        try {
-            String resultado;
-            
-            if (sessionId != null && !sessionId.isEmpty()) {
-                // Usar el método con sesión específica
-                resultado = menuService.procesarOpcionWebConDatosYSesion(optionId, datos, sessionId);
-            } else {
-                // Usar el método sin sesión específica (fallback)
-                resultado = menuService.procesarOpcionWebConDatos(optionId, datos);
-            }
-           
-            return ResponseEntity.ok(resultado);
-            
-        } catch (Exception ex) {
-            return ResponseEntity.internalServerError().body("Error al procesar la opción con datos: " + ex.getMessage());
+        Mono<String> resultado;
+        
+        if (sessionId != null && !sessionId.isEmpty()) {
+            // Usar el método con sesión específica
+            resultado = menuService.procesarOpcionWebConDatosYSesion(optionId, datos, sessionId);
+        } else {
+            // Usar el método sin sesión específica (fallback)
+            resultado = menuService.procesarOpcionWebConDatos(optionId, datos);
         }
+        
+        return resultado
+                .map(ResponseEntity::ok)
+                .onErrorResume(ChatGptService::esRechazoPorSaturacion, ex -> {
+                    logger.warn("Opción {} rechazada: el servicio de OpenAI está saturado ({})", optionId, ex.getMessage());
+                    return Mono.just(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                            .header(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, retryAfter.toSeconds())))
+                            .body("El servicio está saturado, inténtalo de nuevo en unos segundos"));
+                })
+                .onErrorResume(ex -> {
+                    logger.error("Error al procesar la opción {} del menú con datos", optionId, ex);
+                    return Mono.just(ResponseEntity.internalServerError()
+                            .body("Error al procesar la opción con datos: " + ex.getMessage()));
+                });
     }
     
+    /**
+     * Versión asíncrona de la opción 1 (?async=true): encola la generación del proyecto y responde
+     * de inmediato 202 con el id del trabajo. El resultado se consulta en GET /api/jobs/{id} y, al
+     * terminar, el proyecto y sus tareas quedan guardados en la sesión igual que con /procesar/1/datos.
+     * 
+     * @param datos La idea del proyecto
+     * @param sessionId ID de sesión donde se guarda el proyecto (opcional)
+     * @return 202 con el trabajo en cola, 429 si el usuario ya tiene demasiados trabajos o 503 si la cola está llena
+     */
+    @PostMapping(value = "/procesar/1/datos", params = "async=true")
+    public ResponseEntity<?> encolarProyecto(@RequestBody String datos,
+                                             @RequestParam(required = false) String sessionId,
+                                             HttpServletRequest request) {
+        
+        if (datos == null || datos.trim().isEmpty()) {
+            return ResponseEntity.badRequest().body(Map.of("error", "No se proporcionó una idea de proyecto"));
+        }
+        String sesion = sessionId != null && !sessionId.isEmpty() ? sessionId : "default_session";
+        
+        try {
+            TrabajoGeneracion trabajo = generationJobService.encolar(datos.trim(), sesion, MenuService.usuarioActual(),
+                    request.getRemoteAddr());
+            return ResponseEntity.accepted()
+                    .location(URI.create("/api/jobs/" + trabajo.getId()))
+                    .body(trabajo);
+        } catch (GenerationJobService.LimitePorUsuarioException ex) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, "30")
+                    .body(Map.of("error", ex.getMessage()));
+        } catch (RejectedExecutionException ex) {
+            logger.warn("Cola de generación de proyectos llena, se rechaza la petición de la sesión {}", sesion);
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "30")
+                    .body(Map.of("error", "El servicio está saturado, inténtalo de nuevo en unos segundos"));
+        }
+    }
     
+    /**
+     * Endpoint de streaming (Server-Sent Events) para la opción 1 "Crear un proyecto".
+     * Envía los fragmentos de la respuesta de ChatGPT a medida que se generan; al terminar,
+     * el proyecto y sus tareas quedan guardados en la sesión igual que con /procesar/1/datos.
+     * 
+     * @param datos La idea del proyecto
+     * @param sessionId ID de sesión para mantener contexto (opcional)
+     * @return Flujo de eventos con los fragmentos de la respuesta y un evento final "fin"
+     */
+    @PostMapping(value = "/procesar/1/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<String>> transmitirProyecto(@RequestBody String datos,
+                                                            @RequestParam(required = false) String sessionId) {
+        
+        return menuService.transmitirIdeaProyecto(datos, sessionId)
+                .map(fragmento -> ServerSentEvent.builder(fragmento).build())
+                .concatWithValues(ServerSentEvent.builder("").event("fin").build());
+    }
     
 }
@@ -3,14 +3,26 @@ package com.ejemplo.chatgptwebhook.controller;
 import com.ejemplo.chatgptwebhook.model.WebhookRequest;
 import com.ejemplo.chatgptwebhook.model.WebhookResponse;
 import com.ejemplo.chatgptwebhook.service.ChatGptService;
+import com.ejemplo.chatgptwebhook.service.OpenAiFairScheduler;
 import jakarta.validation.Valid;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.time.Duration;
+
 /**
  * Controlador REST para el webhook de ChatGPT
  */
@@ -24,6 +36,10 @@ public class WebhookController {
     @Autowired
     private ChatGptService chatGptService;
 
+    // Espera sugerida al cliente cuando OpenAI está saturado (igual que el control de admisión)
+    @Value("${control-admision.retry-after:2s}")
+    private Duration retryAfter;
+
     /**
      * Endpoint principal del webhook para recibir mensajes y enviarlos a ChatGPT
      * 
@@ -34,7 +50,9 @@ public class WebhookController {
     public Mono<ResponseEntity<WebhookResponse>> procesarMensaje(@Valid @RequestBody WebhookRequest request) {
         logger.info("Recibida petición del webhook: {}", request);
 
-        return chatGptService.enviarMensaje(request.getMensaje())
+        String usuario = identificarUsuario(request);
+        return chatGptService.enviarMensajeConMemoria(usuario, request.getMensaje(), 2000)
+                .contextWrite(OpenAiFairScheduler.contexto(usuario, OpenAiFairScheduler.Clase.INTERACTIVO))
                 .map(respuestaChatGpt -> {
                     WebhookResponse response = new WebhookResponse(
                             respuestaChatGpt,
@@ -44,6 +62,17 @@ public class WebhookController {
                     logger.info("Enviando respuesta: {}", response);
                     return ResponseEntity.ok(response);
                 })
+                .onErrorResume(ChatGptService::esRechazoPorSaturacion, ex -> {
+                    logger.warn("Mensaje rechazado: el servicio de OpenAI está saturado ({})", ex.getMessage());
+                    WebhookResponse saturado = new WebhookResponse(
+                            "El servicio está saturado, inténtalo de nuevo en unos segundos",
+                            "error",
+                            request.getUsuario()
+                    );
+                    return Mono.just(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                            .header(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, retryAfter.toSeconds())))
+                            .body(saturado));
+                })
                 .onErrorResume(ex -> {
                     logger.error("Error al procesar el mensaje", ex);
                     WebhookResponse errorResponse = new WebhookResponse(
@@ -55,6 +84,40 @@ public class WebhookController {
                 });
     }
 
+    /**
+     * Endpoint de streaming (Server-Sent Events) del webhook: reenvía al cliente los fragmentos
+     * de la respuesta de ChatGPT a medida que se generan, en lugar de esperar la respuesta completa.
+     * 
+     * @param request La petición con el mensaje del usuario
+     * @return Flujo de eventos con los fragmentos de la respuesta y un evento final "fin"
+     */
+    @PostMapping(value = "/chat/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<String>> transmitirMensaje(@Valid @RequestBody WebhookRequest request) {
+        logger.info("Recibida petición de streaming del webhook: {}", request);
+
+        String usuario = identificarUsuario(request);
+        return chatGptService.transmitirMensajeConMemoria(usuario, request.getMensaje(), 2000)
+                .contextWrite(OpenAiFairScheduler.contexto(usuario, OpenAiFairScheduler.Clase.INTERACTIVO))
+                .map(fragmento -> ServerSentEvent.builder(fragmento).build())
+                .concatWithValues(ServerSentEvent.builder("").event("fin").build());
+    }
+
+    /**
+     * Identifica al dueño de la conversación: el usuario del token JWT si la petición está
+     * autenticada o, si no, el campo "usuario" de la petición (en un espacio de nombres aparte
+     * para que no pueda suplantar a un usuario autenticado)
+     */
+    private String identificarUsuario(WebhookRequest request) {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth != null && auth.isAuthenticated() && !(auth instanceof AnonymousAuthenticationToken)) {
+            return "jwt:" + auth.getName();
+        }
+        if (request.getUsuario() != null && !request.getUsuario().isBlank()) {
+            return "anonimo:" + request.getUsuario().trim();
+        }
+        return null;
+    }
+
     /**
      * Endpoint de salud para verificar que el webhook está funcionando
      * 
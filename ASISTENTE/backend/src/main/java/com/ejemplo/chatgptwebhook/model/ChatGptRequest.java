@@ -1,5 +1,6 @@
 package com.ejemplo.chatgptwebhook.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import java.util.List;
 import java.util.Map;
@@ -20,6 +21,10 @@ public class ChatGptRequest {
     
     @JsonProperty("temperature")
     private Double temperature;
+    
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonProperty("stream")
+    private Boolean stream;
 
     public ChatGptRequest() {}
 
@@ -61,4 +66,12 @@ public class ChatGptRequest {
     public void setTemperature(Double temperature) {
         this.temperature = temperature;
     }
+
+    public Boolean getStream() {
+        return stream;
+    }
+
+    public void setStream(Boolean stream) {
+        this.stream = stream;
+    }
 }
@@ -86,6 +86,9 @@ public class ChatGptResponse {
         @JsonProperty("message")
         private Message message;
         
+        @JsonProperty("delta")
+        private Message delta; // Fragmento incremental cuando se usa stream=true
+        
         @JsonProperty("finish_reason")
         private String finishReason;
 
@@ -107,6 +110,14 @@ public class ChatGptResponse {
             this.message = message;
         }
 
+        public Message getDelta() {
+            return delta;
+        }
+
+        public void setDelta(Message delta) {
+            this.delta = delta;
+        }
+
         public String getFinishReason() {
             return finishReason;
         }
@@ -0,0 +1,7 @@
+package com.ejemplo.chatgptwebhook.model;
+
+/**
+ * Proyección ligera de User con lo mínimo necesario para autenticar
+ */
+public record CredencialesUsuario(String correo, String contraseña, Boolean activo) {
+}
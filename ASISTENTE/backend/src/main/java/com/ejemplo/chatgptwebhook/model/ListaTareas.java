@@ -0,0 +1,198 @@
+package com.ejemplo.chatgptwebhook.model;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Lista de tareas de un proyecto ya analizada: cada línea numerada ("3. Texto") es una tarea
+ * y las líneas sin número (detalles, viñetas) se conservan para mostrarlas en su sitio.
+ * El estado de cada tarea se guarda en un BitSet indexado por su número, de modo que contar,
+ * buscar, agregar y marcar son O(1) y la lista solo se recorre al renderizarla.
+ */
+public class ListaTareas {
+
+    // Memoria aproximada de cada línea (objeto, referencias y entrada del índice)
+    private static final int BYTES_POR_LINEA = 64;
+
+    private final List<Linea> lineas = new ArrayList<>();
+    private final Map<Integer, String> textoPorNumero = new HashMap<>();
+    private final BitSet completadas = new BitSet();
+    private int total;
+    private int totalCompletadas;
+    private int caracteres;
+
+    public ListaTareas() {}
+
+    /**
+     * Analiza el texto de tareas (una por línea, numeradas como "1. ...") en una única pasada
+     */
+    public static ListaTareas desdeTexto(String tareas) {
+        ListaTareas lista = new ListaTareas();
+        if (tareas == null) {
+            return lista;
+        }
+        for (String linea : tareas.split("\n")) {
+            if (!linea.isBlank()) {
+                lista.agregarLinea(linea);
+            }
+        }
+        return lista;
+    }
+
+    /**
+     * Agrega una tarea al final de la lista con el siguiente número
+     *
+     * @return El número asignado a la tarea
+     */
+    public int agregar(String texto) {
+        int numero = total + 1;
+        agregarLinea(numero + ". " + texto);
+        return numero;
+    }
+
+    /**
+     * Marca una tarea como completada
+     *
+     * @return false si ya estaba completada
+     */
+    public boolean marcarCompletada(int numero) {
+        if (completadas.get(numero)) {
+            return false;
+        }
+        completadas.set(numero);
+        totalCompletadas++;
+        return true;
+    }
+
+    public boolean estaCompletada(int numero) {
+        return numero >= 0 && completadas.get(numero);
+    }
+
+    /**
+     * Texto de la tarea con el número indicado (sin el número), o "Tarea #n" si no existe
+     */
+    public String texto(int numero) {
+        String texto = textoPorNumero.get(numero);
+        return texto != null && !texto.isEmpty() ? texto : "Tarea #" + numero;
+    }
+
+    public int total() {
+        return total;
+    }
+
+    public int completadas() {
+        return totalCompletadas;
+    }
+
+    /**
+     * Números de las tareas completadas, en orden creciente
+     */
+    public IntStream numerosCompletados() {
+        return completadas.stream();
+    }
+
+    public boolean isEmpty() {
+        return lineas.isEmpty();
+    }
+
+    /**
+     * Líneas de la lista en orden (vista de solo lectura)
+     */
+    public List<Linea> lineas() {
+        return Collections.unmodifiableList(lineas);
+    }
+
+    /**
+     * Renderiza la lista tal cual, una línea por tarea o detalle
+     */
+    public String renderizar() {
+        StringBuilder texto = new StringBuilder(caracteres + lineas.size());
+        for (Linea linea : lineas) {
+            if (texto.length() > 0) {
+                texto.append('\n');
+            }
+            texto.append(linea.texto());
+        }
+        return texto.toString();
+    }
+
+    /**
+     * Renderiza la lista con el estado de cada tarea (✅ completada / ⏳ pendiente)
+     */
+    public String renderizarConEstado() {
+        StringBuilder texto = new StringBuilder(caracteres + lineas.size() * 20);
+        for (Linea linea : lineas) {
+            if (texto.length() > 0) {
+                texto.append('\n');
+            }
+            boolean completada = linea.numero() > 0 && completadas.get(linea.numero());
+            texto.append(completada ? "✅ " : "⏳ ")
+                 .append(linea.texto().trim())
+                 .append(completada ? " **(COMPLETADA)**" : " (Pendiente)");
+        }
+        return texto.toString();
+    }
+
+    /**
+     * Copia independiente de la lista
+     */
+    public ListaTareas copia() {
+        ListaTareas copia = new ListaTareas();
+        copia.lineas.addAll(lineas);
+        copia.textoPorNumero.putAll(textoPorNumero);
+        copia.completadas.or(completadas);
+        copia.total = total;
+        copia.totalCompletadas = totalCompletadas;
+        copia.caracteres = caracteres;
+        return copia;
+    }
+
+    /**
+     * Estimación de la memoria ocupada por la lista
+     */
+    public int bytesEstimados() {
+        return caracteres * 2 + lineas.size() * BYTES_POR_LINEA + completadas.size() / 8;
+    }
+
+    /**
+     * Agrega una línea tal cual: si empieza por "N." es la tarea N, si no es una línea de detalle
+     */
+    public void agregarLinea(String linea) {
+        int numero = numeroDeTarea(linea);
+        lineas.add(new Linea(numero, linea));
+        caracteres += linea.length();
+        if (numero > 0) {
+            total++;
+            // Si ChatGPT repite un número se conserva el texto de la primera aparición
+            textoPorNumero.putIfAbsent(numero, linea.substring(linea.indexOf('.') + 1).trim());
+        }
+    }
+
+    /**
+     * Número de la tarea si la línea empieza por "N.", o 0 si es una línea de detalle
+     */
+    private static int numeroDeTarea(String linea) {
+        int i = 0;
+        int numero = 0;
+        // Como máximo 6 dígitos: números mayores no son tareas (p. ej. importes)
+        while (i < linea.length() && i < 6 && linea.charAt(i) >= '0' && linea.charAt(i) <= '9') {
+            numero = numero * 10 + (linea.charAt(i) - '0');
+            i++;
+        }
+        if (i == 0 || i >= linea.length() || linea.charAt(i) != '.') {
+            return 0;
+        }
+        return numero;
+    }
+
+    /**
+     * Línea de la lista: número de tarea (0 si es un detalle) y texto original
+     */
+    public record Linea(int numero, String texto) {
+    }
+}
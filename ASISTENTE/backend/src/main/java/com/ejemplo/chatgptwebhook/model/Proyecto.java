@@ -0,0 +1,124 @@
+package com.ejemplo.chatgptwebhook.model;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Proyecto creado con ChatGPT en una sesión del menú. Se escribe en segundo plano
+ * (ProyectosWriteBehind) y se lee al recuperar una sesión que ya no está en memoria.
+ */
+@Entity
+@Table(name = "proyectos", indexes = {
+    @Index(name = "idx_proyectos_usuario", columnList = "user_id")
+})
+public class Proyecto {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @Column(name = "session_id", nullable = false, unique = true, length = 100)
+    private String sessionId;
+    
+    // Usuario autenticado que creó el proyecto (null si se creó sin JWT)
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "user_id", foreignKey = @ForeignKey(name = "fk_proyectos_usuario"))
+    private User user;
+    
+    @Column(name = "nombre", length = 255)
+    private String nombre;
+    
+    @Column(name = "contexto", columnDefinition = "TEXT")
+    private String contexto;
+    
+    // Versión de la sesión que refleja el proyecto (siempre 0 con el almacén de sesiones en memoria)
+    @Column(name = "version_sesion", nullable = false, columnDefinition = "BIGINT DEFAULT 0")
+    private Long versionSesion;
+    
+    @Column(name = "fecha_creacion", nullable = false)
+    private LocalDateTime fechaCreacion;
+    
+    @Column(name = "fecha_actualizacion", nullable = false)
+    private LocalDateTime fechaActualizacion;
+    
+    // Constructores
+    public Proyecto() {
+        this.fechaCreacion = LocalDateTime.now();
+        this.fechaActualizacion = this.fechaCreacion;
+        this.versionSesion = 0L;
+    }
+    
+    // Getters y Setters
+    public Long getId() {
+        return id;
+    }
+    
+    public void setId(Long id) {
+        this.id = id;
+    }
+    
+    public String getSessionId() {
+        return sessionId;
+    }
+    
+    public void setSessionId(String sessionId) {
+        this.sessionId = sessionId;
+    }
+    
+    public User getUser() {
+        return user;
+    }
+    
+    public void setUser(User user) {
+        this.user = user;
+    }
+    
+    public String getNombre() {
+        return nombre;
+    }
+    
+    public void setNombre(String nombre) {
+        this.nombre = nombre;
+    }
+    
+    public String getContexto() {
+        return contexto;
+    }
+    
+    public void setContexto(String contexto) {
+        this.contexto = contexto;
+    }
+    
+    public Long getVersionSesion() {
+        return versionSesion;
+    }
+    
+    public void setVersionSesion(Long versionSesion) {
+        this.versionSesion = versionSesion;
+    }
+    
+    public LocalDateTime getFechaCreacion() {
+        return fechaCreacion;
+    }
+    
+    public void setFechaCreacion(LocalDateTime fechaCreacion) {
+        this.fechaCreacion = fechaCreacion;
+    }
+    
+    public LocalDateTime getFechaActualizacion() {
+        return fechaActualizacion;
+    }
+    
+    public void setFechaActualizacion(LocalDateTime fechaActualizacion) {
+        this.fechaActualizacion = fechaActualizacion;
+    }
+    
+    @Override
+    public String toString() {
+        return "Proyecto{" +
+                "id=" + id +
+                ", sessionId='" + sessionId + '\'' +
+                ", nombre='" + nombre + '\'' +
+                '}';
+    }
+}
@@ -3,16 +3,27 @@ package com.ejemplo.chatgptwebhook.model;
 import jakarta.persistence.*;
 import java.time.LocalDateTime;
 
+/**
+ * Sesión de login. La tabla está particionada por meses de fecha_login (ver db/sesiones_login.sql):
+ * las consultas por rango de fechas solo leen las particiones afectadas.
+ */
 @Entity
-@Table(name = "sesiones_login")
+@Table(name = "sesiones_login", indexes = {
+    @Index(name = "idx_sesiones_login_usuario_fecha", columnList = "user_id, fecha_login"),
+    @Index(name = "idx_sesiones_login_fecha", columnList = "fecha_login"),
+    @Index(name = "idx_sesiones_login_ip", columnList = "ip_address")
+})
 public class SesionLogin {
     
+    // Secuencia con reserva de 50 ids: permite agrupar las inserciones en batches JDBC
+    // (con IDENTITY Hibernate tiene que insertar las filas de una en una)
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "sesiones_login_seq")
+    @SequenceGenerator(name = "sesiones_login_seq", sequenceName = "sesiones_login_seq", allocationSize = 50)
     private Long id;
     
     @ManyToOne(fetch = FetchType.LAZY)
-    @JoinColumn(name = "user_id", nullable = false)
+    @JoinColumn(name = "user_id", nullable = false, foreignKey = @ForeignKey(name = "fk_sesiones_login_usuario"))
     private User user;
     
     @Column(name = "fecha_login", nullable = false)
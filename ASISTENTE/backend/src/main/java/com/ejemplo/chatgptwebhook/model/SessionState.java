@@ -0,0 +1,108 @@
+package com.ejemplo.chatgptwebhook.model;
+
+/**
+ * Estado de una sesión del menú: bucle do-while, proyecto creado con ChatGPT y progreso de sus tareas
+ */
+public class SessionState {
+
+    // Memoria aproximada de un objeto vacío
+    private static final int BYTES_BASE = 96;
+
+    private boolean activa = true;
+    private int interacciones;
+    private String contextoProyecto;
+    private String nombreProyecto;
+    private ListaTareas tareas;
+    // Correo del usuario autenticado que creó el proyecto (null si es anónimo)
+    private String usuario;
+
+    public SessionState() {}
+
+    /**
+     * Copia independiente del estado para leerlo fuera del almacén
+     */
+    public SessionState copia() {
+        SessionState copia = new SessionState();
+        copia.activa = activa;
+        copia.interacciones = interacciones;
+        copia.contextoProyecto = contextoProyecto;
+        copia.nombreProyecto = nombreProyecto;
+        copia.tareas = tareas != null ? tareas.copia() : null;
+        copia.usuario = usuario;
+        return copia;
+    }
+
+    /**
+     * Olvida el proyecto y sus tareas
+     */
+    public void limpiarProyecto() {
+        contextoProyecto = null;
+        nombreProyecto = null;
+        tareas = null;
+        usuario = null;
+    }
+
+    /**
+     * Estimación de la memoria ocupada por la sesión (los textos de ChatGPT son lo que más pesa)
+     */
+    public int bytesEstimados() {
+        return BYTES_BASE
+                + bytesTexto(contextoProyecto)
+                + bytesTexto(nombreProyecto)
+                + bytesTexto(usuario)
+                + (tareas != null ? tareas.bytesEstimados() : 0);
+    }
+
+    private static int bytesTexto(String texto) {
+        // Cabecera del String más hasta 2 bytes por carácter
+        return texto == null ? 0 : 40 + texto.length() * 2;
+    }
+
+    public boolean isActiva() {
+        return activa;
+    }
+
+    public void setActiva(boolean activa) {
+        this.activa = activa;
+    }
+
+    public int getInteracciones() {
+        return interacciones;
+    }
+
+    public void setInteracciones(int interacciones) {
+        this.interacciones = interacciones;
+    }
+
+    public String getContextoProyecto() {
+        return contextoProyecto;
+    }
+
+    public void setContextoProyecto(String contextoProyecto) {
+        this.contextoProyecto = contextoProyecto;
+    }
+
+    public String getNombreProyecto() {
+        return nombreProyecto;
+    }
+
+    public void setNombreProyecto(String nombreProyecto) {
+        this.nombreProyecto = nombreProyecto;
+    }
+
+    public ListaTareas getTareas() {
+        return tareas;
+    }
+
+    public void setTareas(ListaTareas tareas) {
+        this.tareas = tareas;
+    }
+
+    public String getUsuario() {
+        return usuario;
+    }
+
+    public void setUsuario(String usuario) {
+        this.usuario = usuario;
+    }
+}
@@ -0,0 +1,87 @@
+package com.ejemplo.chatgptwebhook.model;
+
+import jakarta.persistence.*;
+
+/**
+ * Línea de la lista de tareas de un proyecto, en su posición original.
+ * Las líneas de detalle (viñetas bajo una tarea) se guardan con número 0.
+ */
+@Entity
+@Table(name = "tareas", uniqueConstraints = {
+    @UniqueConstraint(name = "uk_tareas_proyecto_posicion", columnNames = {"proyecto_id", "posicion"})
+})
+public class Tarea {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "proyecto_id", nullable = false, foreignKey = @ForeignKey(name = "fk_tareas_proyecto"))
+    private Proyecto proyecto;
+    
+    @Column(name = "posicion", nullable = false)
+    private Integer posicion;
+    
+    @Column(name = "numero", nullable = false)
+    private Integer numero;
+    
+    @Column(name = "texto", nullable = false, columnDefinition = "TEXT")
+    private String texto;
+    
+    @Column(name = "completada", nullable = false)
+    private Boolean completada = false;
+    
+    // Constructores
+    public Tarea() {
+    }
+    
+    // Getters y Setters
+    public Long getId() {
+        return id;
+    }
+    
+    public void setId(Long id) {
+        this.id = id;
+    }
+    
+    public Proyecto getProyecto() {
+        return proyecto;
+    }
+    
+    public void setProyecto(Proyecto proyecto) {
+        this.proyecto = proyecto;
+    }
+    
+    public Integer getPosicion() {
+        return posicion;
+    }
+    
+    public void setPosicion(Integer posicion) {
+        this.posicion = posicion;
+    }
+    
+    public Integer getNumero() {
+        return numero;
+    }
+    
+    public void setNumero(Integer numero) {
+        this.numero = numero;
+    }
+    
+    public String getTexto() {
+        return texto;
+    }
+    
+    public void setTexto(String texto) {
+        this.texto = texto;
+    }
+    
+    public Boolean getCompletada() {
+        return completada;
+    }
+    
+    public void setCompletada(Boolean completada) {
+        this.completada = completada;
+    }
+}
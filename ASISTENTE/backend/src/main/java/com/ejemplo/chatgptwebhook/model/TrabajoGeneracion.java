@@ -0,0 +1,118 @@
+package com.ejemplo.chatgptwebhook.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.time.LocalDateTime;
+
+/**
+ * Trabajo de generación de un proyecto (opción 1 del menú) ejecutado en segundo plano.
+ * El cliente lo consulta por su id hasta que termina y entonces obtiene el resultado.
+ */
+public class TrabajoGeneracion {
+
+    public enum Estado {
+        EN_COLA, EN_CURSO, COMPLETADO, FALLIDO
+    }
+
+    private final String id;
+    private final String sessionId;
+    private final String idea;
+    private final String usuario;
+    private final String origen;
+    private final LocalDateTime fechaCreacion;
+    private volatile Estado estado = Estado.EN_COLA;
+    private volatile LocalDateTime fechaInicio;
+    private volatile LocalDateTime fechaFin;
+    private volatile String resultado;
+    private volatile String error;
+
+    public TrabajoGeneracion(String id, String sessionId, String idea, String usuario, String origen) {
+        this.id = id;
+        this.sessionId = sessionId;
+        this.idea = idea;
+        this.usuario = usuario;
+        this.origen = origen;
+        this.fechaCreacion = LocalDateTime.now();
+    }
+
+    public void iniciar() {
+        this.fechaInicio = LocalDateTime.now();
+        this.estado = Estado.EN_CURSO;
+    }
+
+    public void completar(String resultado) {
+        this.resultado = resultado;
+        this.fechaFin = LocalDateTime.now();
+        this.estado = Estado.COMPLETADO;
+    }
+
+    public void fallar(String error) {
+        this.error = error;
+        this.fechaFin = LocalDateTime.now();
+        this.estado = Estado.FALLIDO;
+    }
+
+    @JsonIgnore
+    public boolean isTerminado() {
+        return estado == Estado.COMPLETADO || estado == Estado.FALLIDO;
+    }
+
+    // Getters
+    public String getId() {
+        return id;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    @JsonIgnore
+    public String getIdea() {
+        return idea;
+    }
+
+    // Correo del usuario que encargó el trabajo (null si es anónimo); no se expone en la respuesta
+    @JsonIgnore
+    public String getUsuario() {
+        return usuario;
+    }
+
+    // Dirección IP del cliente que encargó el trabajo; no se expone en la respuesta
+    @JsonIgnore
+    public String getOrigen() {
+        return origen;
+    }
+
+    public Estado getEstado() {
+        return estado;
+    }
+
+    public LocalDateTime getFechaCreacion() {
+        return fechaCreacion;
+    }
+
+    public LocalDateTime getFechaInicio() {
+        return fechaInicio;
+    }
+
+    public LocalDateTime getFechaFin() {
+        return fechaFin;
+    }
+
+    public String getResultado() {
+        return resultado;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return "TrabajoGeneracion{" +
+                "id='" + id + '\'' +
+                ", sessionId='" + sessionId + '\'' +
+                ", estado=" + estado +
+                '}';
+    }
+}
@@ -1,10 +1,12 @@
 package com.ejemplo.chatgptwebhook.model;
 
+import com.ejemplo.chatgptwebhook.security.UsuarioEntityListener;
 import jakarta.persistence.*;
 import java.time.LocalDateTime;
 
 @Entity
 @Table(name = "users")
+@EntityListeners(UsuarioEntityListener.class)
 public class User {
     
     @Id
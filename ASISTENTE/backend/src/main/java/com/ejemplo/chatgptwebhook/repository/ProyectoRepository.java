@@ -0,0 +1,25 @@
+package com.ejemplo.chatgptwebhook.repository;
+
+import com.ejemplo.chatgptwebhook.model.Proyecto;
+import com.ejemplo.chatgptwebhook.model.User;
+import org.springframework.data.jpa.repository.EntityGraph;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface ProyectoRepository extends JpaRepository<Proyecto, Long> {
+    
+    /**
+     * Busca el proyecto de una sesión del menú, con su usuario
+     */
+    @EntityGraph(attributePaths = "user")
+    Optional<Proyecto> findBySessionId(String sessionId);
+    
+    /**
+     * Busca los proyectos de un usuario, los más recientes primero
+     */
+    List<Proyecto> findByUserOrderByFechaActualizacionDesc(User user);
+}
@@ -20,11 +20,17 @@ public interface SesionLoginRepository extends JpaRepository<SesionLogin, Long>
     @Query("SELECT s FROM SesionLogin s WHERE s.user = :user AND s.activa = true")
     List<SesionLogin> findActiveSessionsByUser(@Param("user") User user);
     
+    /**
+     * Busca la última sesión activa de un usuario (LIMIT 1 sobre el índice parcial de sesiones activas)
+     */
+    Optional<SesionLogin> findFirstByUserAndActivaTrueOrderByFechaLoginDesc(User user);
+    
     /**
      * Busca la última sesión activa de un usuario
      */
-    @Query("SELECT s FROM SesionLogin s WHERE s.user = :user AND s.activa = true ORDER BY s.fechaLogin DESC")
-    Optional<SesionLogin> findLastActiveSessionByUser(@Param("user") User user);
+    default Optional<SesionLogin> findLastActiveSessionByUser(User user) {
+        return findFirstByUserAndActivaTrueOrderByFechaLoginDesc(user);
+    }
     
     /**
      * Busca sesiones por rango de fechas
@@ -34,9 +40,9 @@ public interface SesionLoginRepository extends JpaRepository<SesionLogin, Long>
                                              @Param("fechaFin") LocalDateTime fechaFin);
     
     /**
-     * Cuenta sesiones activas
+     * Cuenta sesiones activas (contador mantenido por triggers, ver db/sesiones_login.sql)
      */
-    @Query("SELECT COUNT(s) FROM SesionLogin s WHERE s.activa = true")
+    @Query(value = "SELECT COALESCE((SELECT activas FROM sesiones_login_contadores WHERE id = 1), 0)", nativeQuery = true)
     long countActiveSessions();
     
     /**
@@ -0,0 +1,16 @@
+package com.ejemplo.chatgptwebhook.repository;
+
+import com.ejemplo.chatgptwebhook.model.Tarea;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface TareaRepository extends JpaRepository<Tarea, Long> {
+    
+    /**
+     * Busca las líneas de tareas de un proyecto en su orden original
+     */
+    List<Tarea> findByProyectoIdOrderByPosicionAsc(Long proyectoId);
+}
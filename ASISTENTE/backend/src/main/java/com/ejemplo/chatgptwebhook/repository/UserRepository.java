@@ -1,5 +1,6 @@
 package com.ejemplo.chatgptwebhook.repository;
 
+import com.ejemplo.chatgptwebhook.model.CredencialesUsuario;
 import com.ejemplo.chatgptwebhook.model.User;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
@@ -16,6 +17,13 @@ public interface UserRepository extends JpaRepository<User, Long> {
      */
     Optional<User> findByCorreo(String correo);
     
+    /**
+     * Obtiene solo las credenciales de un usuario por su correo (sin cargar la entidad completa)
+     */
+    @Query("SELECT new com.ejemplo.chatgptwebhook.model.CredencialesUsuario(u.correo, u.contraseña, u.activo) " +
+           "FROM User u WHERE u.correo = :correo")
+    Optional<CredencialesUsuario> findCredencialesByCorreo(@Param("correo") String correo);
+    
     /**
      * Verifica si existe un usuario con el correo dado
      */
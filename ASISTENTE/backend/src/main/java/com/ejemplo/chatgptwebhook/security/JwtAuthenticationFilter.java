@@ -1,6 +1,7 @@
 package com.ejemplo.chatgptwebhook.security;
 
 import com.ejemplo.chatgptwebhook.util.JwtUtil;
+import io.jsonwebtoken.Claims;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -25,6 +26,9 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
     @Autowired
     private UserDetailsService userDetailsService;
 
+    @Autowired
+    private VerifiedTokenCache verifiedTokenCache;
+
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
             throws ServletException, IOException {
@@ -32,15 +36,28 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         final String authorizationHeader = request.getHeader("Authorization");
 
         String username = null;
-        String jwt = null;
+        Claims claims = null;
+        String claveToken = null;
 
-        // Extraer token del header Authorization
-        if (authorizationHeader != null && authorizationHeader.startsWith("Bearer ")) {
-            jwt = authorizationHeader.substring(7);
-            try {
-                username = jwtUtil.extractUsername(jwt);
-            } catch (Exception e) {
-                logger.error("Error al extraer username del token JWT", e);
+        // Extraer token del header Authorization y verificarlo una sola vez
+        if (authorizationHeader != null && authorizationHeader.startsWith("Bearer ")
+                && SecurityContextHolder.getContext().getAuthentication() == null) {
+            String jwt = authorizationHeader.substring(7);
+            claveToken = verifiedTokenCache.clave(jwt);
+
+            // Token ya verificado: sin comprobar la firma ni consultar la base de datos
+            UserDetails verificado = verifiedTokenCache.obtener(claveToken);
+            if (verificado != null) {
+                autenticar(verificado, request);
+                filterChain.doFilter(request, response);
+                return;
+            }
+
+            claims = jwtUtil.parseToken(jwt).orElse(null);
+            if (claims != null) {
+                username = claims.getSubject();
+            } else {
+                logger.debug("Token JWT inválido o expirado");
             }
         }
 
@@ -50,13 +67,10 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
             try {
                 UserDetails userDetails = this.userDetailsService.loadUserByUsername(username);
 
-                // Validar token
-                if (jwtUtil.validateToken(jwt, userDetails)) {
-                    UsernamePasswordAuthenticationToken authToken = 
-                        new UsernamePasswordAuthenticationToken(
-                            userDetails, null, userDetails.getAuthorities());
-                    authToken.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
-                    SecurityContextHolder.getContext().setAuthentication(authToken);
+                // Validar token con los claims ya verificados (los usuarios desactivados no se autentican)
+                if (userDetails.isEnabled() && jwtUtil.validateToken(claims, userDetails)) {
+                    autenticar(userDetails, request);
+                    verifiedTokenCache.guardar(claveToken, userDetails, claims.getExpiration());
                 }
             } catch (Exception e) {
                 logger.error("Error al cargar usuario o validar token", e);
@@ -67,4 +81,12 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
         filterChain.doFilter(request, response);
     }
+
+    private void autenticar(UserDetails userDetails, HttpServletRequest request) {
+        UsernamePasswordAuthenticationToken authToken = 
+            new UsernamePasswordAuthenticationToken(
+                userDetails, null, userDetails.getAuthorities());
+        authToken.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
+        SecurityContextHolder.getContext().setAuthentication(authToken);
+    }
 }
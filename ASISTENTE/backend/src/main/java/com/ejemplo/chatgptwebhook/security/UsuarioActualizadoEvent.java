@@ -0,0 +1,10 @@
+package com.ejemplo.chatgptwebhook.security;
+
+/**
+ * Evento que se publica cuando un usuario se modifica o elimina (por ejemplo, al desactivarlo),
+ * para que las cachés de autenticación descarten lo que tengan guardado de él
+ *
+ * @param correo Correo (nombre de usuario) del usuario modificado
+ */
+public record UsuarioActualizadoEvent(String correo) {
+}
@@ -0,0 +1,26 @@
+package com.ejemplo.chatgptwebhook.security;
+
+import com.ejemplo.chatgptwebhook.model.User;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+/**
+ * Listener JPA de la entidad User: avisa de los cambios de un usuario con un UsuarioActualizadoEvent
+ */
+@Component
+public class UsuarioEntityListener {
+
+    private final ApplicationEventPublisher eventPublisher;
+
+    public UsuarioEntityListener(ApplicationEventPublisher eventPublisher) {
+        this.eventPublisher = eventPublisher;
+    }
+
+    @PostUpdate
+    @PostRemove
+    public void usuarioModificado(User user) {
+        eventPublisher.publishEvent(new UsuarioActualizadoEvent(user.getCorreo()));
+    }
+}
@@ -0,0 +1,109 @@
+package com.ejemplo.chatgptwebhook.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Date;
+
+/**
+ * Caché de tokens JWT ya verificados.
+ * Guarda el usuario autenticado de cada token (indexado por el SHA-256 del token, nunca el token
+ * en claro) hasta lo que ocurra antes: la expiración del token o el TTL de la caché. Así las
+ * peticiones repetidas con el mismo token no vuelven a verificar la firma ni a consultar la base
+ * de datos. Las entradas de un usuario se descartan en cuanto se modifica o desactiva.
+ */
+@Component
+public class VerifiedTokenCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(VerifiedTokenCache.class);
+
+    private final long ttlNanos;
+    private final Cache<String, TokenVerificado> cache;
+
+    public VerifiedTokenCache(@Value("${jwt.cache.ttl:5m}") Duration ttl,
+                              @Value("${jwt.cache.max-size:10000}") long maxEntradas,
+                              MeterRegistry meterRegistry) {
+        this.ttlNanos = ttl.toNanos();
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxEntradas)
+                .expireAfter(new Expiry<String, TokenVerificado>() {
+                    @Override
+                    public long expireAfterCreate(String clave, TokenVerificado token, long ahora) {
+                        return token.vigenciaNanos();
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String clave, TokenVerificado token, long ahora, long restante) {
+                        return token.vigenciaNanos();
+                    }
+
+                    @Override
+                    public long expireAfterRead(String clave, TokenVerificado token, long ahora, long restante) {
+                        return restante;
+                    }
+                })
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "auth.tokens");
+    }
+
+    /**
+     * Calcula la clave de la caché para un token
+     */
+    public String clave(String token) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(digest.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
+
+    /**
+     * Usuario del token si ya se verificó y sigue vigente, o null
+     */
+    public UserDetails obtener(String clave) {
+        TokenVerificado token = cache.getIfPresent(clave);
+        return token != null ? token.usuario() : null;
+    }
+
+    /**
+     * Guarda un token verificado hasta su expiración o el TTL de la caché
+     */
+    public void guardar(String clave, UserDetails usuario, Date expiracion) {
+        long hastaExpiracion = Duration.ofMillis(expiracion.getTime() - System.currentTimeMillis()).toNanos();
+        long vigencia = Math.min(ttlNanos, hastaExpiracion);
+        if (vigencia > 0) {
+            cache.put(clave, new TokenVerificado(usuario, vigencia));
+        }
+    }
+
+    /**
+     * Descarta los tokens de un usuario modificado, una vez confirmada la transacción
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void usuarioActualizado(UsuarioActualizadoEvent event) {
+        boolean descartados = cache.asMap().values()
+                .removeIf(token -> token.usuario().getUsername().equals(event.correo()));
+        if (descartados) {
+            logger.info("Tokens en caché descartados para el usuario {}", event.correo());
+        }
+    }
+
+    private record TokenVerificado(UserDetails usuario, long vigenciaNanos) {
+    }
+}
@@ -0,0 +1,96 @@
+package com.ejemplo.chatgptwebhook.service;
+
+import com.ejemplo.chatgptwebhook.model.ChatGptRequest;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Caché en memoria de respuestas de ChatGPT.
+ * La clave es un hash del mensaje normalizado junto con el modelo, la temperatura y max_tokens,
+ * de modo que ideas casi idénticas ("Tienda online" / "tienda  online") comparten la respuesta.
+ * Solo se guardan respuestas exitosas; los mensajes de error nunca llegan a la caché.
+ */
+@Component
+public class ChatGptResponseCache {
+
+    private static final Pattern ESPACIOS = Pattern.compile("\\s+");
+
+    private final boolean habilitada;
+    private final Cache<String, String> cache;
+
+    public ChatGptResponseCache(@Value("${openai.cache.enabled:true}") boolean habilitada,
+                                @Value("${openai.cache.max-weight:5000000}") long pesoMaximo,
+                                @Value("${openai.cache.ttl:1h}") Duration ttl,
+                                MeterRegistry meterRegistry) {
+        this.habilitada = habilitada;
+        // El peso de cada entrada es el número de caracteres de la respuesta
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(pesoMaximo)
+                .weigher((String clave, String respuesta) -> respuesta.length())
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        // Exporta aciertos, fallos, expulsiones y tamaño como métricas cache.*{cache="openai.respuestas"}
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "openai.respuestas");
+    }
+
+    public boolean isHabilitada() {
+        return habilitada;
+    }
+
+    /**
+     * Calcula la clave de la caché para una petición a ChatGPT
+     */
+    public String clave(ChatGptRequest request) {
+        StringBuilder huella = new StringBuilder()
+                .append(request.getModel()).append('|')
+                .append(request.getTemperature()).append('|')
+                .append(request.getMaxTokens());
+        for (Map<String, String> mensaje : request.getMessages()) {
+            huella.append('|').append(mensaje.get("role"))
+                  .append(':').append(normalizar(mensaje.get("content")));
+        }
+        return sha256(huella.toString());
+    }
+
+    /**
+     * Busca una respuesta en la caché; el Mono queda vacío si no existe
+     */
+    public Mono<String> obtener(String clave) {
+        return Mono.fromSupplier(() -> cache.getIfPresent(clave));
+    }
+
+    public void guardar(String clave, String respuesta) {
+        cache.put(clave, respuesta);
+    }
+
+    private static String normalizar(String texto) {
+        if (texto == null) {
+            return "";
+        }
+        return ESPACIOS.matcher(texto.trim().toLowerCase(Locale.ROOT)).replaceAll(" ");
+    }
+
+    private static String sha256(String texto) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(texto.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
+}
@@ -2,18 +2,27 @@ package com.ejemplo.chatgptwebhook.service;
 
 import com.ejemplo.chatgptwebhook.model.ChatGptRequest;
 import com.ejemplo.chatgptwebhook.model.ChatGptResponse;
+import com.ejemplo.chatgptwebhook.util.EstimadorTokens;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.HttpHeaders;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Servicio para comunicarse con la API de ChatGPT
@@ -22,100 +31,400 @@ import java.util.Map;
 public class ChatGptService {
 
     private static final Logger logger = LoggerFactory.getLogger(ChatGptService.class);
-    
+
+    // Marcador con el que OpenAI cierra un stream de eventos
+    private static final String FIN_STREAM = "[DONE]";
+
     private final WebClient webClient;
-    @SuppressWarnings("unused")
-    private final String apiKey;
+    private final ObjectMapper objectMapper;
+    private final ChatGptResponseCache responseCache;
+    private final OpenAiFairScheduler planificador;
+    private final OpenAiRateLimiter rateLimiter;
+    private final OpenAiRetry retry;
+    private final OpenAiCircuitBreaker circuitBreaker;
+    private final ConversationMemory memoria;
+    
+    // Llamadas a OpenAI en curso indexadas por la huella de la petición (single-flight)
+    private final Map<String, Mono<String>> llamadasEnCurso = new ConcurrentHashMap<>();
+    private final Counter llamadasCoalescidas;
 
-    public ChatGptService(@Value("${openai.api.key}") String apiKey,
-                         @Value("${openai.api.url:https://api.openai.com/v1/chat/completions}") String apiUrl) {
-        this.apiKey = apiKey;
-        this.webClient = WebClient.builder()
-                .baseUrl(apiUrl)
-                .defaultHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
-                .defaultHeader(HttpHeaders.AUTHORIZATION, "Bearer " + apiKey)
-                .build();
+    public ChatGptService(WebClient openAiWebClient,
+                         ObjectMapper objectMapper,
+                         ChatGptResponseCache responseCache,
+                         OpenAiFairScheduler planificador,
+                         OpenAiRateLimiter rateLimiter,
+                         OpenAiRetry retry,
+                         OpenAiCircuitBreaker circuitBreaker,
+                         ConversationMemory memoria,
+                         MeterRegistry meterRegistry) {
+        this.webClient = openAiWebClient;
+        this.objectMapper = objectMapper;
+        this.responseCache = responseCache;
+        this.planificador = planificador;
+        this.rateLimiter = rateLimiter;
+        this.retry = retry;
+        this.circuitBreaker = circuitBreaker;
+        this.memoria = memoria;
+        this.llamadasCoalescidas = meterRegistry.counter("openai.llamadas.coalescidas");
+        meterRegistry.gaugeMapSize("openai.llamadas.en_curso", List.of(), llamadasEnCurso);
     }
 
     /**
      * Envía un mensaje a ChatGPT y obtiene la respuesta
-     * 
+     *
      * @param mensaje El mensaje del usuario
      * @return La respuesta de ChatGPT
      */
     public Mono<String> enviarMensaje(String mensaje) {
         return enviarMensajeConTokens(mensaje, 2000);
     }
+
+    /**
+     * Envía un mensaje a ChatGPT y obtiene la respuesta con un límite específico de tokens.
+     * La respuesta no se guarda en caché.
+     * 
+     * @param mensaje El mensaje del usuario
+     * @param maxTokens Límite máximo de tokens para la respuesta
+     * @return La respuesta de ChatGPT
+     */
+    public Mono<String> enviarMensajeConTokens(String mensaje, int maxTokens) {
+        return enviarMensajeConTokens(mensaje, maxTokens, false);
+    }
     
     /**
      * Envía un mensaje a ChatGPT y obtiene la respuesta con un límite específico de tokens
      * 
      * @param mensaje El mensaje del usuario
      * @param maxTokens Límite máximo de tokens para la respuesta
+     * @param usarCache true para reutilizar respuestas de peticiones equivalentes ya resueltas
      * @return La respuesta de ChatGPT
      */
-    public Mono<String> enviarMensajeConTokens(String mensaje, int maxTokens) {
+    public Mono<String> enviarMensajeConTokens(String mensaje, int maxTokens, boolean usarCache) {
+        return responderConCache(mensaje, maxTokens, usarCache)
+                .defaultIfEmpty("No pude generar una respuesta. Inténtalo de nuevo.")
+                .onErrorResume(ex -> Mono.just(mensajeDeError(ex)));
+    }
+
+    /**
+     * Igual que enviarMensajeConTokens, pero sin traducir los errores a un mensaje para el usuario:
+     * quien llama decide qué hacer si OpenAI falla o no devuelve contenido
+     * 
+     * @param mensaje El mensaje del usuario
+     * @param maxTokens Límite máximo de tokens para la respuesta
+     * @param usarCache true para reutilizar respuestas de peticiones equivalentes ya resueltas
+     * @return La respuesta de ChatGPT, o un error si no se pudo obtener
+     */
+    public Mono<String> solicitarMensajeConTokens(String mensaje, int maxTokens, boolean usarCache) {
+        return responderConCache(mensaje, maxTokens, usarCache)
+                .switchIfEmpty(Mono.error(() -> new IllegalStateException("ChatGPT no devolvió ninguna respuesta")));
+    }
+
+    /**
+     * Respuesta de ChatGPT (de la caché si procede); vacía si OpenAI no devuelve contenido y con los errores sin traducir
+     */
+    private Mono<String> responderConCache(String mensaje, int maxTokens, boolean usarCache) {
         logger.info("Enviando mensaje a ChatGPT con {} tokens máximo: {}", maxTokens, mensaje);
 
-        // Crear la petición para ChatGPT
-        ChatGptRequest request = new ChatGptRequest();
-        request.setModel("gpt-3.5-turbo");
-        request.setMaxTokens(maxTokens);
-        request.setTemperature(0.7);
-        
-        // Configurar el mensaje
-        List<Map<String, String>> messages = List.of(
-            Map.of("role", "user", "content", mensaje)
-        );
-        request.setMessages(messages);
+        ChatGptRequest request = crearPeticion(mensaje, maxTokens);
+        String huella = responseCache.clave(request);
+        Mono<String> respuesta = solicitarSinDuplicados(huella, request);
+
+        if (usarCache && responseCache.isHabilitada()) {
+            // Solo se guardan respuestas exitosas: los errores se traducen después de la caché
+            respuesta = responseCache.obtener(huella)
+                    .doOnNext(r -> logger.info("Respuesta de ChatGPT obtenida de la caché ({} caracteres)", r.length()))
+                    .switchIfEmpty(respuesta.doOnNext(r -> responseCache.guardar(huella, r)));
+        }
+        return respuesta;
+    }
+
+    /**
+     * Envía un mensaje a ChatGPT incluyendo el historial reciente de la conversación del usuario.
+     * El turno solo se guarda en la memoria si OpenAI responde correctamente. Los errores se traducen
+     * a un mensaje para el usuario, salvo los rechazos por saturación (ver {@link #esRechazoPorSaturacion}),
+     * que se propagan para que el controlador responda 503.
+     *
+     * @param usuario Identificador del usuario dueño de la conversación (sin memoria si es null)
+     * @param mensaje El mensaje del usuario
+     * @param maxTokens Límite máximo de tokens para la respuesta
+     * @return La respuesta de ChatGPT
+     */
+    public Mono<String> enviarMensajeConMemoria(String usuario, String mensaje, int maxTokens) {
+        Mono<String> respuesta;
+        if (usuario == null || !memoria.isHabilitada()) {
+            respuesta = responderConCache(mensaje, maxTokens, false);
+        } else {
+            logger.info("Enviando mensaje a ChatGPT con memoria de conversación para {}: {}", usuario, mensaje);
+
+            ChatGptRequest request = crearPeticion(memoria.construirMensajes(usuario, mensaje), maxTokens);
+            respuesta = solicitarSinDuplicados(responseCache.clave(request), request)
+                    .doOnNext(r -> memoria.registrarTurno(usuario, mensaje, r));
+        }
+        return respuesta
+                .defaultIfEmpty("No pude generar una respuesta. Inténtalo de nuevo.")
+                .onErrorResume(ex -> !esRechazoPorSaturacion(ex), ex -> Mono.just(mensajeDeError(ex)));
+    }
+
+    /**
+     * true si la llamada no llegó a OpenAI porque el servicio está saturado: cola del planificador o
+     * del limitador llena o agotada, o circuito abierto. Es la señal de sobrecarga que debe llegar al
+     * cliente como 503 (y al control de admisión) en lugar de convertirse en una respuesta normal.
+     */
+    public static boolean esRechazoPorSaturacion(Throwable error) {
+        return error instanceof OpenAiRateLimiter.LimiteExcedidoException
+                || error instanceof OpenAiCircuitBreaker.CircuitoAbiertoException;
+    }
+
+    /**
+     * Agrupa las peticiones idénticas que llegan mientras otra igual está en curso
+     * (doble clic, reintentos del frontend) para que compartan una única llamada a OpenAI.
+     * La llamada compartida se cancela solo cuando todos los suscriptores la cancelan.
+     */
+    private Mono<String> solicitarSinDuplicados(String huella, ChatGptRequest request) {
+        return Mono.defer(() -> {
+            AtomicBoolean nueva = new AtomicBoolean(false);
+            Mono<String> compartida = llamadasEnCurso.computeIfAbsent(huella, clave -> {
+                nueva.set(true);
+                return crearLlamadaCompartida(clave, request);
+            });
+            if (!nueva.get()) {
+                llamadasCoalescidas.increment();
+                logger.info("Petición idéntica en curso, se reutiliza la llamada a ChatGPT existente");
+            }
+            return compartida;
+        });
+    }
+
+    private Mono<String> crearLlamadaCompartida(String huella, ChatGptRequest request) {
+        AtomicReference<Mono<String>> propia = new AtomicReference<>();
+        // El turno del planificador se pide una vez por llamada compartida (con el usuario de la primera
+        // petición) y cubre todos sus reintentos. La entrada se elimina antes de entregar el resultado
+        // para que ninguna petición posterior se una a una llamada ya terminada
+        Mono<String> compartida = Mono.usingWhen(
+                        planificador.adquirir(EstimadorTokens.estimarPeticion(request)),
+                        turno -> solicitarCompletado(request),
+                        turno -> Mono.fromRunnable(turno::liberar))
+                .doOnTerminate(() -> llamadasEnCurso.remove(huella, propia.get()))
+                .doOnCancel(() -> llamadasEnCurso.remove(huella, propia.get()))
+                .flux()
+                .publish()
+                .refCount(1)
+                .next();
+        propia.set(compartida);
+        return compartida;
+    }
+
+    /**
+     * Realiza la llamada a OpenAI y devuelve el contenido de la respuesta.
+     * Cada intento espera en el limitador de velocidad; los fallos transitorios se
+     * reintentan y el circuit breaker corta las llamadas mientras OpenAI está caído.
+     * Queda vacío si OpenAI no devuelve contenido; los errores se propagan sin traducir.
+     */
+    private Mono<String> solicitarCompletado(ChatGptRequest request) {
+        Mono<String> intento = Mono.usingWhen(
+                rateLimiter.adquirir(EstimadorTokens.estimarPeticion(request)),
+                permiso -> llamarOpenAI(request),
+                permiso -> Mono.fromRunnable(permiso::liberar));
+        return circuitBreaker.proteger(intento.retryWhen(retry.politica()));
+    }
 
+    private Mono<String> llamarOpenAI(ChatGptRequest request) {
         return webClient.post()
                 .bodyValue(request)
                 .retrieve()
                 .bodyToMono(ChatGptResponse.class)
-                .map(response -> {
-                    if (response.getChoices() != null && !response.getChoices().isEmpty()) {
-                        ChatGptResponse.Message message = response.getChoices().get(0).getMessage();
-                        String content = message != null ? message.getContent() : "Sin respuesta";
-                        logger.info("Respuesta recibida de ChatGPT ({} tokens solicitados): {} caracteres", maxTokens, content.length());
-                        return content;
-                    } else {
+                .mapNotNull(response -> {
+                    if (response.getChoices() == null || response.getChoices().isEmpty()) {
                         logger.warn("No se recibieron opciones en la respuesta de ChatGPT");
-                        return "No pude generar una respuesta. Inténtalo de nuevo.";
+                        return null;
                     }
-                })
-                .onErrorResume(WebClientResponseException.class, ex -> {
-                    logger.error("Error al comunicarse con ChatGPT: {} - {}", ex.getStatusCode(), ex.getResponseBodyAsString());
-                    
-                    String errorMessage = ex.getResponseBodyAsString();
-                    if (errorMessage.contains("insufficient_quota")) {
-                        return Mono.just("❌ **Cuota de OpenAI excedida**\n\n" +
-                                       "Tu cuenta de OpenAI ha alcanzado el límite de uso.\n\n" +
-                                       "**Para solucionarlo:**\n" +
-                                       "• Ve a https://platform.openai.com/account/billing\n" +
-                                       "• Agrega créditos a tu cuenta\n" +
-                                       "• O espera hasta el próximo período de facturación\n\n" +
-                                       "Una vez resuelto, la funcionalidad funcionará correctamente.");
-                    } else if (errorMessage.contains("invalid_api_key")) {
-                        return Mono.just("❌ **API Key inválida**\n\n" +
-                                       "La API key de OpenAI no es válida o ha expirado.\n\n" +
-                                       "**Para solucionarlo:**\n" +
-                                       "• Ve a https://platform.openai.com/account/api-keys\n" +
-                                       "• Crea una nueva API key\n" +
-                                       "• Actualiza la configuración del backend");
-                    } else {
-                        return Mono.just("❌ **Error de conexión con OpenAI**\n\n" +
-                                       "No se pudo conectar con la API de OpenAI.\n\n" +
-                                       "**Posibles causas:**\n" +
-                                       "• Problemas de conectividad\n" +
-                                       "• Servicio temporalmente no disponible\n" +
-                                       "• Límite de velocidad alcanzado\n\n" +
-                                       "Por favor, inténtalo más tarde.");
+                    ChatGptResponse.Message message = response.getChoices().get(0).getMessage();
+                    String content = message != null ? message.getContent() : null;
+                    if (content != null) {
+                        logger.info("Respuesta recibida de ChatGPT ({} tokens solicitados): {} caracteres", request.getMaxTokens(), content.length());
                     }
-                })
-                .onErrorResume(Exception.class, ex -> {
-                    logger.error("Error inesperado al comunicarse con ChatGPT", ex);
-                    return Mono.just("Ocurrió un error inesperado. Por favor, inténtalo más tarde.");
+                    return content;
                 });
     }
+
+    /**
+     * Envía un mensaje a ChatGPT en modo streaming (stream=true) y emite los fragmentos
+     * de texto a medida que OpenAI los genera, sin esperar a la respuesta completa.
+     *
+     * @param mensaje El mensaje del usuario
+     * @param maxTokens Límite máximo de tokens para la respuesta
+     * @return Flujo con los fragmentos de texto de la respuesta
+     */
+    public Flux<String> transmitirMensajeConTokens(String mensaje, int maxTokens) {
+        logger.info("Enviando mensaje a ChatGPT en modo streaming con {} tokens máximo: {}", maxTokens, mensaje);
+
+        return transmitir(crearPeticion(mensaje, maxTokens))
+                .onErrorResume(ex -> Flux.just(mensajeDeError(ex)));
+    }
+
+    /**
+     * Igual que transmitirMensajeConTokens, pero sin convertir los errores en un fragmento de texto:
+     * quien llama sabe si el stream terminó bien antes de usar la respuesta acumulada
+     *
+     * @param mensaje El mensaje del usuario
+     * @param maxTokens Límite máximo de tokens para la respuesta
+     * @return Flujo con los fragmentos de texto de la respuesta, o un error si OpenAI falla
+     */
+    public Flux<String> solicitarTransmisionConTokens(String mensaje, int maxTokens) {
+        logger.info("Enviando mensaje a ChatGPT en modo streaming con {} tokens máximo: {}", maxTokens, mensaje);
+
+        return transmitir(crearPeticion(mensaje, maxTokens));
+    }
+
+    /**
+     * Igual que transmitirMensajeConTokens, pero incluyendo el historial de la conversación del usuario.
+     * La respuesta completa se guarda en la memoria al terminar el stream sin errores.
+     *
+     * @param usuario Identificador del usuario dueño de la conversación (sin memoria si es null)
+     * @param mensaje El mensaje del usuario
+     * @param maxTokens Límite máximo de tokens para la respuesta
+     * @return Flujo con los fragmentos de texto de la respuesta
+     */
+    public Flux<String> transmitirMensajeConMemoria(String usuario, String mensaje, int maxTokens) {
+        if (usuario == null || !memoria.isHabilitada()) {
+            return transmitirMensajeConTokens(mensaje, maxTokens);
+        }
+        logger.info("Enviando mensaje a ChatGPT en modo streaming con memoria de conversación para {}: {}", usuario, mensaje);
+
+        return Flux.defer(() -> {
+            StringBuilder respuesta = new StringBuilder();
+            return transmitir(crearPeticion(memoria.construirMensajes(usuario, mensaje), maxTokens))
+                    .doOnNext(respuesta::append)
+                    .doOnComplete(() -> {
+                        if (respuesta.length() > 0) {
+                            memoria.registrarTurno(usuario, mensaje, respuesta.toString());
+                        }
+                    });
+        }).onErrorResume(ex -> Flux.just(mensajeDeError(ex)));
+    }
+
+    /**
+     * Realiza la llamada en streaming a OpenAI; los errores se propagan sin traducir
+     */
+    private Flux<String> transmitir(ChatGptRequest request) {
+        request.setStream(true);
+
+        Flux<String> fragmentos = webClient.post()
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .bodyValue(request)
+                .retrieve()
+                .bodyToFlux(new ParameterizedTypeReference<ServerSentEvent<String>>() {})
+                .mapNotNull(ServerSentEvent::data)
+                .takeWhile(data -> !FIN_STREAM.equals(data.trim()))
+                .concatMapIterable(this::extraerFragmentos);
+
+        Flux<String> conReintentos = Flux.defer(() -> {
+            // Solo se reintenta si el cliente todavía no ha recibido ningún fragmento
+            AtomicBoolean emitido = new AtomicBoolean(false);
+            // El permiso del limitador se mantiene mientras dura el stream
+            Flux<String> intento = Flux.usingWhen(
+                    rateLimiter.adquirir(EstimadorTokens.estimarPeticion(request)),
+                    permiso -> fragmentos,
+                    permiso -> Mono.fromRunnable(permiso::liberar));
+            return circuitBreaker.proteger(intento
+                    .doOnNext(fragmento -> emitido.set(true))
+                    .retryWhen(retry.politica(() -> !emitido.get())));
+        });
+        // El turno del planificador se mantiene mientras dura el stream, incluidos los reintentos
+        return Flux.usingWhen(
+                planificador.adquirir(EstimadorTokens.estimarPeticion(request)),
+                turno -> conReintentos,
+                turno -> Mono.fromRunnable(turno::liberar));
+    }
+
+    /**
+     * Crea la petición base para ChatGPT con un único mensaje del usuario
+     */
+    private ChatGptRequest crearPeticion(String mensaje, int maxTokens) {
+        return crearPeticion(List.of(Map.of("role", "user", "content", mensaje)), maxTokens);
+    }
+
+    /**
+     * Crea la petición base para ChatGPT con la lista de mensajes indicada
+     */
+    private ChatGptRequest crearPeticion(List<Map<String, String>> messages, int maxTokens) {
+        ChatGptRequest request = new ChatGptRequest();
+        request.setModel("gpt-3.5-turbo");
+        request.setMaxTokens(maxTokens);
+        request.setTemperature(0.7);
+        request.setMessages(messages);
+        return request;
+    }
+
+    /**
+     * Extrae el texto incremental (delta) de un evento del stream de OpenAI
+     */
+    private List<String> extraerFragmentos(String data) {
+        try {
+            ChatGptResponse chunk = objectMapper.readValue(data, ChatGptResponse.class);
+            if (chunk.getChoices() == null || chunk.getChoices().isEmpty()) {
+                return List.of();
+            }
+            ChatGptResponse.Message delta = chunk.getChoices().get(0).getDelta();
+            if (delta == null || delta.getContent() == null || delta.getContent().isEmpty()) {
+                return List.of();
+            }
+            return List.of(delta.getContent());
+        } catch (JsonProcessingException e) {
+            logger.warn("Fragmento del stream de ChatGPT no reconocido: {}", data);
+            return List.of();
+        }
+    }
+
+    /**
+     * Traduce un error de la comunicación con OpenAI al mensaje que se muestra al usuario
+     */
+    String mensajeDeError(Throwable error) {
+        if (error instanceof OpenAiCircuitBreaker.CircuitoAbiertoException) {
+            logger.warn("Petición a ChatGPT rechazada: el circuito de OpenAI está abierto");
+            return "❌ **Servicio de OpenAI no disponible temporalmente**\n\n" +
+                   "Detectamos varios fallos seguidos al conectar con OpenAI y pausamos las peticiones por unos segundos.\n\n" +
+                   "Por favor, inténtalo de nuevo en un momento.";
+        }
+
+        if (error instanceof OpenAiRateLimiter.LimiteExcedidoException) {
+            logger.warn("Petición a ChatGPT rechazada por el limitador de velocidad: {}", error.getMessage());
+            return "⏳ **Demasiadas solicitudes en este momento**\n\n" +
+                   "El asistente está atendiendo muchas peticiones a la vez y no pudo procesar la tuya a tiempo.\n\n" +
+                   "Por favor, inténtalo de nuevo en unos segundos.";
+        }
+
+        if (error instanceof WebClientResponseException ex) {
+            logger.error("Error al comunicarse con ChatGPT: {} - {}", ex.getStatusCode(), ex.getResponseBodyAsString());
+
+            String errorMessage = ex.getResponseBodyAsString();
+            if (errorMessage.contains("insufficient_quota")) {
+                return "❌ **Cuota de OpenAI excedida**\n\n" +
+                       "Tu cuenta de OpenAI ha alcanzado el límite de uso.\n\n" +
+                       "**Para solucionarlo:**\n" +
+                       "• Ve a https://platform.openai.com/account/billing\n" +
+                       "• Agrega créditos a tu cuenta\n" +
+                       "• O espera hasta el próximo período de facturación\n\n" +
+                       "Una vez resuelto, la funcionalidad funcionará correctamente.";
+            } else if (errorMessage.contains("invalid_api_key")) {
+                return "❌ **API Key inválida**\n\n" +
+                       "La API key de OpenAI no es válida o ha expirado.\n\n" +
+                       "**Para solucionarlo:**\n" +
+                       "• Ve a https://platform.openai.com/account/api-keys\n" +
+                       "• Crea una nueva API key\n" +
+                       "• Actualiza la configuración del backend";
+            } else {
+                return "❌ **Error de conexión con OpenAI**\n\n" +
+                       "No se pudo conectar con la API de OpenAI.\n\n" +
+                       "**Posibles causas:**\n" +
+                       "• Problemas de conectividad\n" +
+                       "• Servicio temporalmente no disponible\n" +
+                       "• Límite de velocidad alcanzado\n\n" +
+                       "Por favor, inténtalo más tarde.";
+            }
+        }
+
+        logger.error("Error inesperado al comunicarse con ChatGPT", error);
+        return "Ocurrió un error inesperado. Por favor, inténtalo más tarde.";
+    }
 }
@@ -0,0 +1,162 @@
+package com.ejemplo.chatgptwebhook.service;
+
+import com.ejemplo.chatgptwebhook.util.EstimadorTokens;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Memoria de conversación por usuario para el chat del webhook.
+ * Guarda los últimos turnos de cada usuario en una caché acotada por tamaño y con expiración
+ * por inactividad. Cuando el historial supera el presupuesto de tokens, los turnos más antiguos
+ * se compactan en un resumen local que se envía como mensaje de sistema, de modo que el tamaño
+ * del prompt se mantiene estable aunque la conversación crezca.
+ */
+@Component
+public class ConversationMemory {
+
+    // Caracteres que se conservan de cada turno al compactarlo en el resumen
+    private static final int CARACTERES_POR_TURNO_COMPACTADO = 200;
+
+    private final boolean habilitada;
+    private final int presupuestoTokens;
+    private final int presupuestoResumen;
+    private final Cache<String, Conversacion> conversaciones;
+
+    public ConversationMemory(@Value("${openai.memoria.enabled:true}") boolean habilitada,
+                              @Value("${openai.memoria.token-budget:1500}") int presupuestoTokens,
+                              @Value("${openai.memoria.max-weight:2000000}") long pesoMaximo,
+                              @Value("${openai.memoria.ttl:30m}") Duration ttl,
+                              MeterRegistry meterRegistry) {
+        this.habilitada = habilitada;
+        this.presupuestoTokens = presupuestoTokens;
+        // El resumen ocupa como mucho una cuarta parte del presupuesto
+        this.presupuestoResumen = presupuestoTokens / 4;
+        // El peso de cada conversación es el número de caracteres que retiene
+        this.conversaciones = Caffeine.newBuilder()
+                .maximumWeight(pesoMaximo)
+                .weigher((String usuario, Conversacion conversacion) -> conversacion.caracteres())
+                .expireAfterAccess(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, conversaciones, "openai.conversaciones");
+    }
+
+    public boolean isHabilitada() {
+        return habilitada;
+    }
+
+    /**
+     * Construye los mensajes a enviar a ChatGPT: resumen de lo anterior (si existe),
+     * los turnos recientes que caben en el presupuesto y el mensaje nuevo del usuario
+     *
+     * @param usuario Identificador del usuario
+     * @param mensaje Mensaje nuevo del usuario
+     * @return Lista de mensajes en el formato de la API de chat
+     */
+    public List<Map<String, String>> construirMensajes(String usuario, String mensaje) {
+        Map<String, String> nuevo = Map.of("role", "user", "content", mensaje);
+        Conversacion conversacion = conversaciones.getIfPresent(usuario);
+        if (conversacion == null) {
+            return List.of(nuevo);
+        }
+
+        List<Map<String, String>> mensajes = new ArrayList<>();
+        if (!conversacion.resumen().isEmpty()) {
+            mensajes.add(Map.of("role", "system",
+                    "content", "Resumen de la conversación anterior con el usuario:\n" + conversacion.resumen()));
+        }
+
+        // Se toman los pares pregunta/respuesta más recientes que caben junto al mensaje nuevo
+        int disponible = presupuestoTokens - EstimadorTokens.estimarMensajes(mensajes) - EstimadorTokens.estimarMensajes(List.of(nuevo));
+        List<Map<String, String>> turnos = conversacion.turnos();
+        int desde = turnos.size();
+        while (desde >= 2) {
+            int costo = EstimadorTokens.estimarMensajes(turnos.subList(desde - 2, desde));
+            if (costo > disponible) {
+                break;
+            }
+            disponible -= costo;
+            desde -= 2;
+        }
+        mensajes.addAll(turnos.subList(desde, turnos.size()));
+        mensajes.add(nuevo);
+        return mensajes;
+    }
+
+    /**
+     * Registra un turno completo (pregunta y respuesta) en la memoria del usuario
+     */
+    public void registrarTurno(String usuario, String mensaje, String respuesta) {
+        conversaciones.asMap().compute(usuario, (clave, anterior) -> {
+            Conversacion actual = anterior != null ? anterior : new Conversacion("", List.of());
+            List<Map<String, String>> turnos = new ArrayList<>(actual.turnos());
+            turnos.add(Map.of("role", "user", "content", mensaje));
+            turnos.add(Map.of("role", "assistant", "content", respuesta));
+            return compactar(actual.resumen(), turnos);
+        });
+    }
+
+    /**
+     * Olvida la conversación de un usuario
+     */
+    public void olvidar(String usuario) {
+        conversaciones.invalidate(usuario);
+    }
+
+    /**
+     * Mueve los turnos más antiguos al resumen hasta que el historial cabe en el presupuesto.
+     * El resumen es extractivo (el inicio de cada turno) y conserva solo su parte más reciente.
+     */
+    private Conversacion compactar(String resumen, List<Map<String, String>> turnos) {
+        int desde = 0;
+        StringBuilder compactado = new StringBuilder(resumen);
+        // Siempre se conserva al menos el último par pregunta/respuesta
+        while (turnos.size() - desde > 2
+                && EstimadorTokens.estimarMensajes(turnos.subList(desde, turnos.size())) > presupuestoTokens) {
+            // Los turnos se compactan por pares para que el historial empiece siempre por una pregunta
+            for (Map<String, String> turno : turnos.subList(desde, desde + 2)) {
+                String rol = "user".equals(turno.get("role")) ? "Usuario" : "Asistente";
+                String contenido = turno.get("content");
+                if (contenido.length() > CARACTERES_POR_TURNO_COMPACTADO) {
+                    contenido = contenido.substring(0, CARACTERES_POR_TURNO_COMPACTADO) + "…";
+                }
+                if (compactado.length() > 0) {
+                    compactado.append('\n');
+                }
+                compactado.append("- ").append(rol).append(": ").append(contenido.replace('\n', ' '));
+            }
+            desde += 2;
+        }
+
+        String nuevoResumen = compactado.toString();
+        int maxCaracteres = presupuestoResumen * 4;
+        if (nuevoResumen.length() > maxCaracteres) {
+            // Se descartan las líneas más antiguas del resumen
+            int corte = nuevoResumen.indexOf('\n', nuevoResumen.length() - maxCaracteres);
+            nuevoResumen = corte >= 0 ? nuevoResumen.substring(corte + 1) : "";
+        }
+        return new Conversacion(nuevoResumen, List.copyOf(turnos.subList(desde, turnos.size())));
+    }
+
+    /**
+     * Estado inmutable de la conversación de un usuario
+     */
+    private record Conversacion(String resumen, List<Map<String, String>> turnos) {
+        int caracteres() {
+            int total = resumen.length();
+            for (Map<String, String> turno : turnos) {
+                total += turno.get("content").length();
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.ejemplo.chatgptwebhook.service;
+
+import com.ejemplo.chatgptwebhook.util.FiltroBloom;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Filtro de Bloom con los correos registrados, para responder sin consultar la base de datos
+ * cuando un correo seguro que no está registrado (el caso habitual en el formulario de registro).
+ * Se carga al arrancar recorriendo users.correo, se actualiza con cada registro y se reconstruye
+ * periódicamente para incorporar los registros de otras instancias y descartar usuarios borrados.
+ * Mientras no está cargado, todas las consultas se resuelven en la base de datos.
+ */
+@Component
+public class CorreosRegistrados {
+
+    private static final Logger logger = LoggerFactory.getLogger(CorreosRegistrados.class);
+
+    private static final int FILAS_POR_LECTURA = 5000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final long capacidadMinima;
+    private final double tasaFalsosPositivos;
+    private final Counter descartados;
+    private final Counter posibles;
+
+    // null hasta la primera carga completa
+    private volatile FiltroBloom filtro;
+    // Correos registrados mientras se reconstruye el filtro, para no perderlos en el cambio
+    private List<String> registradosDuranteCarga;
+
+    public CorreosRegistrados(DataSource dataSource,
+                              PlatformTransactionManager transactionManager,
+                              @Value("${usuarios.correos.capacidad:100000}") long capacidadMinima,
+                              @Value("${usuarios.correos.tasa-falsos-positivos:0.01}") double tasaFalsosPositivos,
+                              MeterRegistry meterRegistry) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(FILAS_POR_LECTURA);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.capacidadMinima = capacidadMinima;
+        this.tasaFalsosPositivos = tasaFalsosPositivos;
+        this.descartados = meterRegistry.counter("usuarios.correos.filtro", "resultado", "no_registrado");
+        this.posibles = meterRegistry.counter("usuarios.correos.filtro", "resultado", "posible");
+        meterRegistry.gauge("usuarios.correos.filtro.bytes", this, c -> c.filtro != null ? c.filtro.bytes() : 0);
+    }
+
+    /**
+     * @return false si el correo seguro que no está registrado; true si puede estarlo (hay que consultar la base de datos)
+     */
+    public boolean puedeEstarRegistrado(String correo) {
+        FiltroBloom actual = filtro;
+        if (actual == null) {
+            return true;
+        }
+        if (actual.puedeContener(correo)) {
+            posibles.increment();
+            return true;
+        }
+        descartados.increment();
+        return false;
+    }
+
+    /**
+     * Añade un correo recién registrado
+     */
+    public void agregar(String correo) {
+        synchronized (this) {
+            if (registradosDuranteCarga != null) {
+                registradosDuranteCarga.add(correo);
+            }
+        }
+        FiltroBloom actual = filtro;
+        if (actual != null) {
+            actual.agregar(correo);
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void cargarAlArrancar() {
+        recargar();
+    }
+
+    @Scheduled(initialDelayString = "${usuarios.correos.recarga:PT1H}", fixedDelayString = "${usuarios.correos.recarga:PT1H}")
+    public void recargar() {
+        synchronized (this) {
+            registradosDuranteCarga = new ArrayList<>();
+        }
+        try {
+            long inicio = System.nanoTime();
+            Long total = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM users", Long.class);
+            // Holgura para los registros hasta la siguiente recarga
+            FiltroBloom nuevo = new FiltroBloom(Math.max(capacidadMinima, (total != null ? total : 0) * 2), tasaFalsosPositivos);
+            long[] cargados = {0};
+            transactionTemplate.executeWithoutResult(status ->
+                    jdbcTemplate.query("SELECT correo FROM users", (RowCallbackHandler) rs -> {
+                        nuevo.agregar(rs.getString(1));
+                        cargados[0]++;
+                    }));
+            synchronized (this) {
+                registradosDuranteCarga.forEach(nuevo::agregar);
+                filtro = nuevo;
+            }
+            logger.info("Filtro de correos registrados cargado: {} correos, {} KB, {} ms",
+                    cargados[0], nuevo.bytes() / 1024, (System.nanoTime() - inicio) / 1_000_000);
+        } catch (RuntimeException e) {
+            logger.error("No se pudo cargar el filtro de correos registrados; se consultará la base de datos", e);
+        } finally {
+            synchronized (this) {
+                registradosDuranteCarga = null;
+            }
+        }
+    }
+}
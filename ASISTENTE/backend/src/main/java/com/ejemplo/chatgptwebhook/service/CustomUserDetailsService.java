@@ -1,30 +1,69 @@
 package com.ejemplo.chatgptwebhook.service;
 
-import com.ejemplo.chatgptwebhook.model.User;
+import com.ejemplo.chatgptwebhook.model.CredencialesUsuario;
 import com.ejemplo.chatgptwebhook.repository.UserRepository;
-import org.springframework.beans.factory.annotation.Autowired;
+import com.ejemplo.chatgptwebhook.security.UsuarioActualizadoEvent;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
 
+import java.time.Duration;
 import java.util.ArrayList;
 
+/**
+ * Carga los usuarios para Spring Security.
+ * Las credenciales se leen con una proyección ligera y se guardan en caché; la entrada de un
+ * usuario se descarta cuando se modifica o elimina (UsuarioActualizadoEvent).
+ */
 @Service
 public class CustomUserDetailsService implements UserDetailsService {
 
-    @Autowired
-    private UserRepository userRepository;
+    private final UserRepository userRepository;
+    private final Cache<String, CredencialesUsuario> credenciales;
+
+    public CustomUserDetailsService(UserRepository userRepository,
+                                    @Value("${usuarios.cache.ttl:10m}") Duration ttl,
+                                    @Value("${usuarios.cache.max-size:10000}") long maxEntradas,
+                                    MeterRegistry meterRegistry) {
+        this.userRepository = userRepository;
+        this.credenciales = Caffeine.newBuilder()
+                .maximumSize(maxEntradas)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        // Exporta aciertos, fallos y tiempo de carga como métricas cache.*{cache="usuarios.credenciales"}
+        CaffeineCacheMetrics.monitor(meterRegistry, credenciales, "usuarios.credenciales");
+    }
 
     @Override
     public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
-        User user = userRepository.findByCorreo(username)
-                .orElseThrow(() -> new UsernameNotFoundException("Usuario no encontrado: " + username));
+        // Los usuarios inexistentes no se guardan en caché (el loader devuelve null)
+        CredencialesUsuario user = credenciales.get(username,
+                correo -> userRepository.findCredencialesByCorreo(correo).orElse(null));
+        if (user == null) {
+            throw new UsernameNotFoundException("Usuario no encontrado: " + username);
+        }
 
         return org.springframework.security.core.userdetails.User.builder()
-                .username(user.getCorreo())
-                .password(user.getContraseña())
+                .username(user.correo())
+                .password(user.contraseña())
                 .authorities(new ArrayList<>()) // Sin roles específicos por ahora
+                .disabled(!Boolean.TRUE.equals(user.activo()))
                 .build();
     }
+
+    /**
+     * Descarta las credenciales de un usuario modificado, una vez confirmada la transacción
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void usuarioActualizado(UsuarioActualizadoEvent event) {
+        credenciales.invalidate(event.correo());
+    }
 }
@@ -0,0 +1,302 @@
+package com.ejemplo.chatgptwebhook.service;
+
+import com.ejemplo.chatgptwebhook.model.TrabajoGeneracion;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Trabajos en segundo plano para la generación de proyectos (opción 1 del menú).
+ * La petición solo encola el trabajo y devuelve su id; como mucho max-concurrentes trabajos
+ * esperan a la vez la respuesta de ChatGPT y el resto espera en una cola acotada.
+ * La cola es justa por usuario: cada usuario tiene su propia fila y se atienden por turnos, de modo
+ * que quien encarga muchos trabajos no retrasa a los demás. Los trabajos de usuarios autenticados
+ * tienen prioridad sobre los anónimos, aunque cada cierto número se atiende uno anónimo para que no
+ * esperen indefinidamente. Los anónimos se reparten por dirección IP (el id de sesión lo elige el
+ * cliente y cambiarlo no debe dar más turnos) y además tienen un tope conjunto. Los resultados se conservan un tiempo limitado y con un tamaño máximo.
+ * Los trabajos viven en la memoria de la instancia que los recibió.
+ */
+@Service
+public class GenerationJobService {
+
+    private static final Logger logger = LoggerFactory.getLogger(GenerationJobService.class);
+
+    private final MenuService menuService;
+    private final int maxConcurrentes;
+    private final int maxCola;
+    private final int maxPorUsuario;
+    private final int maxAnonimos;
+    private final int cadaAnonimo;
+    private final Duration duracionMaxima;
+
+    private final Map<String, TrabajoGeneracion> activos = new ConcurrentHashMap<>();
+    private final Cache<String, TrabajoGeneracion> terminados;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ColaPorUsuario autenticados = new ColaPorUsuario();
+    private final ColaPorUsuario anonimos = new ColaPorUsuario();
+    // Trabajos en cola o en curso de cada usuario
+    private final Map<String, Integer> porUsuario = new HashMap<>();
+    private int enCola;
+    private int enCurso;
+    private int anonimosPendientes;
+    private int autenticadosSeguidos;
+
+    private final Timer espera;
+    private final Timer ejecucion;
+    private final MeterRegistry meterRegistry;
+
+    public GenerationJobService(MenuService menuService,
+                                @Value("${generacion.trabajos.max-concurrentes:4}") int maxConcurrentes,
+                                @Value("${generacion.trabajos.max-cola:200}") int maxCola,
+                                @Value("${generacion.trabajos.max-por-usuario:5}") int maxPorUsuario,
+                                @Value("${generacion.trabajos.max-anonimos:50}") int maxAnonimos,
+                                @Value("${generacion.trabajos.cada-anonimo:4}") int cadaAnonimo,
+                                @Value("${generacion.trabajos.duracion-maxima:5m}") Duration duracionMaxima,
+                                @Value("${generacion.trabajos.retencion:1h}") Duration retencion,
+                                @Value("${generacion.trabajos.max-caracteres:5000000}") long maxCaracteres,
+                                MeterRegistry meterRegistry) {
+        this.menuService = menuService;
+        this.maxConcurrentes = maxConcurrentes;
+        this.maxCola = maxCola;
+        this.maxPorUsuario = maxPorUsuario;
+        this.maxAnonimos = maxAnonimos;
+        this.cadaAnonimo = cadaAnonimo;
+        this.duracionMaxima = duracionMaxima;
+        this.meterRegistry = meterRegistry;
+        // Los resultados se pesan por su longitud: son textos largos de ChatGPT
+        this.terminados = Caffeine.newBuilder()
+                .maximumWeight(maxCaracteres)
+                .weigher((String id, TrabajoGeneracion trabajo) -> 1 + longitud(trabajo.getResultado())
+                        + longitud(trabajo.getError()))
+                .expireAfterWrite(retencion)
+                .build();
+
+        meterRegistry.gauge("generacion.trabajos.cola", this, s -> s.enCola);
+        meterRegistry.gauge("generacion.trabajos.en_curso", this, s -> s.enCurso);
+        meterRegistry.gauge("generacion.trabajos.resultados", terminados, Cache::estimatedSize);
+        this.espera = Timer.builder("generacion.trabajos.espera")
+                .description("Tiempo en cola de los trabajos de generación")
+                .register(meterRegistry);
+        this.ejecucion = Timer.builder("generacion.trabajos.ejecucion")
+                .description("Tiempo de ejecución de los trabajos de generación")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Encola la generación de un proyecto
+     *
+     * @param idea La idea del proyecto
+     * @param sessionId ID de sesión donde se guardará el proyecto
+     * @param usuario Correo del usuario autenticado, o null si es anónimo
+     * @param origen Dirección IP del cliente
+     * @return El trabajo en cola
+     * @throws LimitePorUsuarioException si el usuario ya tiene el máximo de trabajos pendientes
+     * @throws RejectedExecutionException si la cola está llena o ya hay demasiados trabajos anónimos
+     */
+    public TrabajoGeneracion encolar(String idea, String sessionId, String usuario, String origen) {
+        TrabajoGeneracion trabajo = new TrabajoGeneracion(UUID.randomUUID().toString(), sessionId, idea, usuario, origen);
+        String clave = clave(trabajo);
+        lock.lock();
+        try {
+            if (porUsuario.getOrDefault(clave, 0) >= maxPorUsuario) {
+                rechazado("usuario");
+                throw new LimitePorUsuarioException("Ya tienes " + maxPorUsuario + " proyectos en preparación");
+            }
+            if (enCola >= maxCola) {
+                rechazado("cola_llena");
+                throw new RejectedExecutionException("Cola de generación llena");
+            }
+            if (usuario == null && anonimosPendientes >= maxAnonimos) {
+                rechazado("anonimos");
+                throw new RejectedExecutionException("Demasiados trabajos anónimos en preparación");
+            }
+            if (usuario == null) {
+                anonimosPendientes++;
+            }
+            porUsuario.merge(clave, 1, Integer::sum);
+            (usuario != null ? autenticados : anonimos).agregar(clave, trabajo);
+            enCola++;
+            activos.put(trabajo.getId(), trabajo);
+        } finally {
+            lock.unlock();
+        }
+        logger.info("Trabajo de generación {} encolado para sesión {}", trabajo.getId(), sessionId);
+        despachar();
+        return trabajo;
+    }
+
+    /**
+     * Busca un trabajo en curso o terminado (mientras se conserve su resultado)
+     */
+    public Optional<TrabajoGeneracion> buscar(String id) {
+        TrabajoGeneracion trabajo = activos.get(id);
+        return Optional.ofNullable(trabajo != null ? trabajo : terminados.getIfPresent(id));
+    }
+
+    /**
+     * Inicia trabajos de la cola mientras haya hueco
+     */
+    private void despachar() {
+        List<TrabajoGeneracion> iniciar = new ArrayList<>();
+        lock.lock();
+        try {
+            while (enCurso < maxConcurrentes) {
+                TrabajoGeneracion trabajo = siguiente();
+                if (trabajo == null) {
+                    break;
+                }
+                enCola--;
+                enCurso++;
+                trabajo.iniciar();
+                iniciar.add(trabajo);
+            }
+        } finally {
+            lock.unlock();
+        }
+        iniciar.forEach(this::ejecutar);
+    }
+
+    /**
+     * Siguiente trabajo: primero los autenticados, pero cada cadaAnonimo trabajos seguidos se atiende uno anónimo
+     */
+    private TrabajoGeneracion siguiente() {
+        if (autenticadosSeguidos >= cadaAnonimo || autenticados.isEmpty()) {
+            TrabajoGeneracion trabajo = anonimos.tomar();
+            if (trabajo != null) {
+                autenticadosSeguidos = 0;
+                return trabajo;
+            }
+        }
+        TrabajoGeneracion trabajo = autenticados.tomar();
+        if (trabajo != null) {
+            autenticadosSeguidos++;
+        }
+        return trabajo;
+    }
+
+    private void ejecutar(TrabajoGeneracion trabajo) {
+        espera.record(Duration.between(trabajo.getFechaCreacion(), trabajo.getFechaInicio()));
+        long inicio = System.nanoTime();
+        // La suscripción se hace fuera del hilo que despacha: una respuesta en caché termina al instante
+        Mono.defer(() -> menuService.generarProyecto(trabajo.getIdea(), trabajo.getSessionId(), trabajo.getUsuario()))
+                .timeout(duracionMaxima)
+                .subscribeOn(Schedulers.boundedElastic())
+                .subscribe(
+                        resultado -> terminar(trabajo, resultado, null, inicio),
+                        error -> terminar(trabajo, null, error, inicio));
+    }
+
+    private void terminar(TrabajoGeneracion trabajo, String resultado, Throwable error, long inicio) {
+        ejecucion.record(System.nanoTime() - inicio, TimeUnit.NANOSECONDS);
+        if (error == null) {
+            trabajo.completar(resultado);
+            logger.info("Trabajo de generación {} completado", trabajo.getId());
+        } else {
+            trabajo.fallar("No se pudo generar el proyecto: " + error.getMessage());
+            logger.error("Trabajo de generación {} fallido", trabajo.getId(), error);
+        }
+        meterRegistry.counter("generacion.trabajos.terminados", "estado", trabajo.getEstado().name()).increment();
+        terminados.put(trabajo.getId(), trabajo);
+        activos.remove(trabajo.getId());
+
+        String clave = clave(trabajo);
+        lock.lock();
+        try {
+            enCurso--;
+            if (trabajo.getUsuario() == null) {
+                anonimosPendientes--;
+            }
+            porUsuario.computeIfPresent(clave, (k, n) -> n > 1 ? n - 1 : null);
+        } finally {
+            lock.unlock();
+        }
+        despachar();
+    }
+
+    /**
+     * Fila del trabajo en la cola justa: el usuario autenticado o, si es anónimo, la IP del cliente
+     */
+    private static String clave(TrabajoGeneracion trabajo) {
+        return trabajo.getUsuario() != null ? trabajo.getUsuario() : "ip:" + trabajo.getOrigen();
+    }
+
+    private void rechazado(String motivo) {
+        meterRegistry.counter("generacion.trabajos.rechazados", "motivo", motivo).increment();
+    }
+
+    private static int longitud(String texto) {
+        return texto != null ? texto.length() : 0;
+    }
+
+    @PreDestroy
+    public void cerrar() {
+        if (!activos.isEmpty()) {
+            logger.warn("Se detiene el servicio con {} trabajos de generación sin terminar", activos.size());
+        }
+    }
+
+    /**
+     * Un usuario ya tiene el máximo de trabajos en cola o en curso
+     */
+    public static class LimitePorUsuarioException extends RejectedExecutionException {
+        public LimitePorUsuarioException(String mensaje) {
+            super(mensaje);
+        }
+    }
+
+    /**
+     * Filas de trabajos por usuario atendidas por turnos (round robin). No es segura entre hilos:
+     * se usa con el lock del servicio.
+     */
+    private static final class ColaPorUsuario {
+
+        // Orden de inserción = orden de turno; el usuario atendido pasa al final
+        private final LinkedHashMap<String, ArrayDeque<TrabajoGeneracion>> filas = new LinkedHashMap<>();
+
+        void agregar(String clave, TrabajoGeneracion trabajo) {
+            filas.computeIfAbsent(clave, k -> new ArrayDeque<>()).add(trabajo);
+        }
+
+        TrabajoGeneracion tomar() {
+            Iterator<Map.Entry<String, ArrayDeque<TrabajoGeneracion>>> it = filas.entrySet().iterator();
+            if (!it.hasNext()) {
+                return null;
+            }
+            Map.Entry<String, ArrayDeque<TrabajoGeneracion>> primera = it.next();
+            TrabajoGeneracion trabajo = primera.getValue().poll();
+            it.remove();
+            if (!primera.getValue().isEmpty()) {
+                filas.put(primera.getKey(), primera.getValue());
+            }
+            return trabajo;
+        }
+
+        boolean isEmpty() {
+            return filas.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.ejemplo.chatgptwebhook.service;
+
+import com.ejemplo.chatgptwebhook.model.SessionState;
+import com.ejemplo.chatgptwebhook.util.ExpiryWheel;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Almacén en memoria del estado de las sesiones del menú.
+ * Cada sesión tiene un único SessionState; las sesiones inactivas expiran tras el TTL
+ * y, si se supera el tamaño máximo (medido en bytes estimados), se expulsan las menos usadas.
+ * Las modificaciones de una sesión son atómicas. Las sesiones finalizadas se eliminan
+ * de forma diferida mediante una rueda de temporización compartida.
+ * Si una sesión no está en memoria (reinicio, expiración) se recupera su proyecto de la base de datos.
+ * Es el almacén por defecto (sesiones.store=memoria) y solo sirve con una única instancia.
+ */
+@Component
+@ConditionalOnProperty(name = "sesiones.store", havingValue = "memoria", matchIfMissing = true)
+public class InMemorySessionStateStore implements SessionStateStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(InMemorySessionStateStore.class);
+
+    // Número de ranuras de la rueda de expiración
+    private static final int RANURAS_EXPIRACION = 512;
+
+    private final Cache<String, SessionState> sesiones;
+    private final ExpiryWheel<String> eliminacionesDiferidas;
+    private final ProyectosWriteBehind proyectosWriteBehind;
+
+    public InMemorySessionStateStore(ProyectosWriteBehind proyectosWriteBehind,
+                                     @Value("${sesiones.ttl:30m}") Duration ttl,
+                                     @Value("${sesiones.max-bytes:67108864}") long maxBytes,
+                                     @Value("${sesiones.expiracion.tick:1s}") Duration tickExpiracion,
+                                     MeterRegistry meterRegistry) {
+        this.proyectosWriteBehind = proyectosWriteBehind;
+        this.sesiones = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String sessionId, SessionState estado) -> estado.bytesEstimados())
+                .expireAfterAccess(ttl)
+                .removalListener((String sessionId, SessionState estado, RemovalCause causa) -> {
+                    if (causa.wasEvicted()) {
+                        logger.info("Sesión {} descartada de memoria ({})", sessionId, causa);
+                    }
+                })
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, sesiones, "menu.sesiones");
+        meterRegistry.gauge("menu.sesiones.vivas", sesiones, Cache::estimatedSize);
+        meterRegistry.gauge("menu.sesiones.bytes", sesiones, cache -> cache.policy().eviction()
+                .map(eviction -> eviction.weightedSize().orElse(0))
+                .orElse(0L));
+
+        this.eliminacionesDiferidas = new ExpiryWheel<>("sesiones-expiracion", tickExpiracion,
+                RANURAS_EXPIRACION, this::eliminarFinalizadas);
+        meterRegistry.gauge("menu.sesiones.eliminaciones_pendientes", eliminacionesDiferidas, ExpiryWheel::pendientes);
+    }
+
+    @Override
+    public SessionState leer(String sessionId) {
+        cargarSiFalta(sessionId);
+        SessionState[] copia = new SessionState[1];
+        // computeIfPresent serializa la lectura con las modificaciones concurrentes de la misma sesión
+        sesiones.asMap().computeIfPresent(sessionId, (clave, estado) -> {
+            copia[0] = estado.copia();
+            return estado;
+        });
+        return copia[0] != null ? copia[0] : new SessionState();
+    }
+
+    @Override
+    public boolean existe(String sessionId) {
+        cargarSiFalta(sessionId);
+        return sesiones.getIfPresent(sessionId) != null;
+    }
+
+    /**
+     * La función se aplica una sola vez, dentro de la operación atómica de la caché.
+     * El peso de la sesión se recalcula tras cada cambio.
+     */
+    @Override
+    public <T> T actualizar(String sessionId, Function<SessionState, T> cambio) {
+        cargarSiFalta(sessionId);
+        Object[] resultado = new Object[1];
+        sesiones.asMap().compute(sessionId, (clave, estado) -> {
+            SessionState actual = estado != null ? estado : new SessionState();
+            resultado[0] = cambio.apply(actual);
+            return actual;
+        });
+        @SuppressWarnings("unchecked")
+        T valor = (T) resultado[0];
+        return valor;
+    }
+
+    /**
+     * Si la sesión no está en memoria, la recupera de la base de datos. La consulta se hace fuera
+     * de la operación atómica de la caché; si no hay nada guardado se deja una sesión nueva para no
+     * repetir la consulta en cada acceso.
+     */
+    private void cargarSiFalta(String sessionId) {
+        if (sesiones.getIfPresent(sessionId) != null) {
+            return;
+        }
+        SessionState estado;
+        try {
+            estado = proyectosWriteBehind.cargar(sessionId)
+                    .map(ProyectosWriteBehind.ProyectoGuardado::estado)
+                    .orElseGet(SessionState::new);
+        } catch (RuntimeException e) {
+            logger.warn("No se pudo recuperar la sesión {} de la base de datos: {}", sessionId, e.getMessage());
+            return;
+        }
+        sesiones.asMap().putIfAbsent(sessionId, estado);
+    }
+
+    @Override
+    public void eliminar(String sessionId) {
+        eliminacionesDiferidas.cancelar(sessionId);
+        sesiones.invalidate(sessionId);
+    }
+
+    @Override
+    public void programarEliminacion(String sessionId, Duration retraso) {
+        eliminacionesDiferidas.programar(sessionId, retraso);
+    }
+
+    @Override
+    public void cancelarEliminacion(String sessionId) {
+        eliminacionesDiferidas.cancelar(sessionId);
+    }
+
+    /**
+     * Elimina de una vez todas las sesiones vencidas en un tick de la rueda
+     */
+    private void eliminarFinalizadas(List<String> sessionIds) {
+        int eliminadas = 0;
+        for (String sessionId : sessionIds) {
+            boolean[] eliminada = new boolean[1];
+            sesiones.asMap().computeIfPresent(sessionId, (clave, estado) -> {
+                eliminada[0] = !estado.isActiva();
+                return eliminada[0] ? null : estado;
+            });
+            if (eliminada[0]) {
+                eliminadas++;
+            }
+        }
+        logger.info("Datos de {} sesiones finalizadas limpiados (contexto del proyecto, tareas y estado)", eliminadas);
+    }
+
+    @PreDestroy
+    public void cerrar() {
+        eliminacionesDiferidas.close();
+    }
+}
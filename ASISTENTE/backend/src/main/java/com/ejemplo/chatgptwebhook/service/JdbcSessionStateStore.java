@@ -0,0 +1,335 @@
+package com.ejemplo.chatgptwebhook.service;
+
+import com.ejemplo.chatgptwebhook.model.SessionState;
+import com.ejemplo.chatgptwebhook.util.CodificadorSesion;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.function.Function;
+
+/**
+ * Almacén del estado de las sesiones del menú compartido entre instancias (sesiones.store=jdbc).
+ * Cada sesión es una fila de sesiones_estado con el estado serializado en binario y un número de
+ * versión: las modificaciones se aplican sobre la última versión leída y se guardan con una
+ * comparación de versión (compare-and-set); si otra instancia se adelantó, se relee y se reintenta.
+ * Las lecturas se sirven de una caché local que se invalida con las notificaciones (LISTEN/NOTIFY)
+ * que emite cada escritura, de modo que solo se consulta la base de datos tras un cambio remoto.
+ * Una sesión que no está en la tabla se recupera del proyecto guardado, continuando su versión, pero
+ * su fila solo se crea con la primera modificación: leer una sesión desconocida no escribe nada.
+ */
+@Component
+@ConditionalOnProperty(name = "sesiones.store", havingValue = "jdbc")
+public class JdbcSessionStateStore implements SessionStateStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(JdbcSessionStateStore.class);
+
+    private static final String CANAL = "sesiones_estado";
+    private static final long ELIMINADA = -1;
+    private static final int MAX_INTENTOS = 10;
+
+    private static final String LEER =
+            "SELECT version, datos FROM sesiones_estado WHERE session_id = ?";
+    // Cada escritura notifica "sessionId:versión" a las demás instancias en la misma sentencia
+    private static final String INSERTAR =
+            "WITH insertada AS (INSERT INTO sesiones_estado (session_id, version, activa, datos, actualizada) " +
+            "VALUES (?, ?, ?, ?, now()) ON CONFLICT (session_id) DO NOTHING RETURNING session_id, version) " +
+            "SELECT pg_notify('" + CANAL + "', session_id || ':' || version) FROM insertada";
+    private static final String ACTUALIZAR =
+            "WITH actualizada AS (UPDATE sesiones_estado SET version = version + 1, activa = ?, datos = ?, " +
+            "actualizada = now() WHERE session_id = ? AND version = ? RETURNING session_id, version) " +
+            "SELECT pg_notify('" + CANAL + "', session_id || ':' || version) FROM actualizada";
+    private static final String ELIMINAR =
+            "WITH borradas AS (DELETE FROM sesiones_estado WHERE session_id = ? RETURNING session_id) " +
+            "SELECT pg_notify('" + CANAL + "', session_id || ':" + ELIMINADA + "') FROM borradas";
+    // Sesiones finalizadas cuya eliminación venció y sesiones sin cambios durante el TTL
+    private static final String LIMPIAR =
+            "WITH borradas AS (DELETE FROM sesiones_estado WHERE (eliminar_en < now() AND NOT activa) " +
+            "OR actualizada < now() - make_interval(secs => ?) RETURNING session_id) " +
+            "SELECT pg_notify('" + CANAL + "', session_id || ':" + ELIMINADA + "') FROM borradas";
+    private static final String PROGRAMAR_ELIMINACION =
+            "UPDATE sesiones_estado SET eliminar_en = now() + make_interval(secs => ?) WHERE session_id = ?";
+    private static final String CANCELAR_ELIMINACION =
+            "UPDATE sesiones_estado SET eliminar_en = NULL WHERE session_id = ? AND eliminar_en IS NOT NULL";
+
+    private static final ResultSetExtractor<Integer> CONTAR_FILAS = rs -> {
+        int filas = 0;
+        while (rs.next()) {
+            filas++;
+        }
+        return filas;
+    };
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ProyectosWriteBehind proyectosWriteBehind;
+    private final Duration ttl;
+    private final String url;
+    private final String usuario;
+    private final String password;
+
+    // Caché local de la última versión conocida de cada sesión
+    private final Cache<String, Entrada> cercana;
+    // Última versión notificada de cada sesión, para no guardar en la caché una versión ya superada
+    private final Cache<String, Long> notificadas;
+    private final Thread escucha;
+    private volatile boolean activo = true;
+
+    private final Counter conflictos;
+    private final Counter invalidaciones;
+    private final DistributionSummary bytesSerializados;
+
+    public JdbcSessionStateStore(DataSource dataSource,
+                                 ProyectosWriteBehind proyectosWriteBehind,
+                                 @Value("${sesiones.ttl:30m}") Duration ttl,
+                                 @Value("${sesiones.max-bytes:67108864}") long maxBytes,
+                                 @Value("${sesiones.jdbc.cache-ttl:5m}") Duration ttlCache,
+                                 @Value("${spring.datasource.url}") String url,
+                                 @Value("${spring.datasource.username:}") String usuario,
+                                 @Value("${spring.datasource.password:}") String password,
+                                 MeterRegistry meterRegistry) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.proyectosWriteBehind = proyectosWriteBehind;
+        this.ttl = ttl;
+        this.url = url;
+        this.usuario = usuario;
+        this.password = password;
+        // Si se pierde una notificación, la entrada caduca igualmente tras ttlCache
+        this.cercana = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String sessionId, Entrada entrada) -> entrada.estado().bytesEstimados())
+                .expireAfterWrite(ttlCache)
+                .recordStats()
+                .build();
+        this.notificadas = Caffeine.newBuilder()
+                .maximumSize(100_000)
+                .expireAfterWrite(ttlCache)
+                .build();
+        this.escucha = new Thread(this::escuchar, "sesiones-estado-listener");
+        this.escucha.setDaemon(true);
+
+        CaffeineCacheMetrics.monitor(meterRegistry, cercana, "menu.sesiones");
+        meterRegistry.gauge("menu.sesiones.vivas", cercana, Cache::estimatedSize);
+        this.conflictos = meterRegistry.counter("menu.sesiones.conflictos");
+        this.invalidaciones = meterRegistry.counter("menu.sesiones.invalidaciones");
+        this.bytesSerializados = DistributionSummary.builder("menu.sesiones.bytes_serializados")
+                .description("Tamaño del estado serializado de cada sesión guardada")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void iniciar() {
+        escucha.start();
+    }
+
+    @Override
+    public SessionState leer(String sessionId) {
+        return cargar(sessionId).estado().copia();
+    }
+
+    @Override
+    public boolean existe(String sessionId) {
+        // Como en el almacén en memoria, consultar una sesión la deja disponible (recuperando su proyecto
+        // si lo hay), aunque solo en la caché local: la fila se crea con la primera modificación
+        cargar(sessionId);
+        return true;
+    }
+
+    @Override
+    public <T> T actualizar(String sessionId, Function<SessionState, T> cambio) {
+        for (int intento = 1; ; intento++) {
+            Entrada actual = cargar(sessionId);
+            SessionState nuevo = actual.estado().copia();
+            T resultado = cambio.apply(nuevo);
+            byte[] datos = CodificadorSesion.codificar(nuevo);
+            long version = actual.version() + 1;
+            // Sin fila todavía, se crea; si otra instancia la creó a la vez, la inserción no hace nada
+            Integer filas = actual.enBase()
+                    ? jdbcTemplate.query(ACTUALIZAR, CONTAR_FILAS, nuevo.isActiva(), datos, sessionId, actual.version())
+                    : jdbcTemplate.query(INSERTAR, CONTAR_FILAS, sessionId, version, nuevo.isActiva(), datos);
+            if (filas != null && filas > 0) {
+                bytesSerializados.record(datos.length);
+                guardarEnCache(sessionId, new Entrada(version, nuevo, true));
+                proyectosWriteBehind.estadoConfirmado(sessionId, version, nuevo);
+                return resultado;
+            }
+            // Otra instancia modificó, creó o eliminó la sesión: se descarta la copia local y se reintenta
+            conflictos.increment();
+            cercana.invalidate(sessionId);
+            if (intento >= MAX_INTENTOS) {
+                throw new IllegalStateException("No se pudo actualizar la sesión " + sessionId
+                        + " tras " + MAX_INTENTOS + " conflictos de versión");
+            }
+        }
+    }
+
+    @Override
+    public void eliminar(String sessionId) {
+        jdbcTemplate.query(ELIMINAR, CONTAR_FILAS, sessionId);
+        cercana.invalidate(sessionId);
+    }
+
+    @Override
+    public void programarEliminacion(String sessionId, Duration retraso) {
+        jdbcTemplate.update(PROGRAMAR_ELIMINACION, retraso.toMillis() / 1000.0, sessionId);
+    }
+
+    @Override
+    public void cancelarEliminacion(String sessionId) {
+        jdbcTemplate.update(CANCELAR_ELIMINACION, sessionId);
+    }
+
+    /**
+     * Elimina las sesiones finalizadas cuya eliminación venció y las que llevan el TTL sin cambios.
+     * Los proyectos siguen guardados y se recuperan si la sesión vuelve a usarse.
+     */
+    @Scheduled(fixedDelayString = "${sesiones.jdbc.limpieza:PT10S}")
+    public void limpiar() {
+        try {
+            Integer eliminadas = jdbcTemplate.query(LIMPIAR, CONTAR_FILAS, ttl.toMillis() / 1000.0);
+            if (eliminadas != null && eliminadas > 0) {
+                logger.info("Datos de {} sesiones finalizadas o caducadas limpiados", eliminadas);
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Error al limpiar las sesiones del menú: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Última versión de la sesión: de la caché local, de la tabla o, si no está, recuperada del
+     * proyecto guardado (o vacía) sin crear su fila
+     */
+    private Entrada cargar(String sessionId) {
+        Entrada entrada = cercana.getIfPresent(sessionId);
+        if (entrada != null) {
+            return entrada;
+        }
+        entrada = leerDeBase(sessionId);
+        if (entrada == null) {
+            ProyectosWriteBehind.ProyectoGuardado guardado = proyectosWriteBehind.cargar(sessionId)
+                    .orElseGet(() -> new ProyectosWriteBehind.ProyectoGuardado(new SessionState(), 0));
+            entrada = new Entrada(guardado.version(), guardado.estado(), false);
+        }
+        guardarEnCache(sessionId, entrada);
+        return entrada;
+    }
+
+    private Entrada leerDeBase(String sessionId) {
+        return jdbcTemplate.query(LEER, rs -> rs.next()
+                ? new Entrada(rs.getLong(1), CodificadorSesion.decodificar(rs.getBytes(2)), true)
+                : null, sessionId);
+    }
+
+    /**
+     * Guarda una versión en la caché salvo que ya se conozca otra posterior
+     */
+    private void guardarEnCache(String sessionId, Entrada entrada) {
+        cercana.asMap().compute(sessionId, (clave, actual) -> {
+            Long notificada = notificadas.getIfPresent(clave);
+            if (notificada != null && notificada > entrada.version()) {
+                return null;
+            }
+            return actual != null && actual.version() >= entrada.version() ? actual : entrada;
+        });
+    }
+
+    /**
+     * Hilo que escucha las notificaciones de cambios con una conexión propia (fuera del pool)
+     * e invalida las entradas de la caché que quedaron atrasadas
+     */
+    private void escuchar() {
+        while (activo) {
+            try (Connection conexion = DriverManager.getConnection(url, usuario, password)) {
+                try (Statement statement = conexion.createStatement()) {
+                    statement.execute("LISTEN " + CANAL);
+                }
+                // Mientras no se escuchaba pudo perderse cualquier cambio
+                cercana.invalidateAll();
+                PGConnection pg = conexion.unwrap(PGConnection.class);
+                while (activo) {
+                    PGNotification[] notificaciones = pg.getNotifications(500);
+                    if (notificaciones != null) {
+                        for (PGNotification notificacion : notificaciones) {
+                            procesar(notificacion.getParameter());
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                if (!activo) {
+                    return;
+                }
+                logger.warn("Conexión de notificaciones de sesiones perdida, se reconecta: {}", e.getMessage());
+                cercana.invalidateAll();
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void procesar(String mensaje) {
+        int separador = mensaje.lastIndexOf(':');
+        if (separador < 0) {
+            return;
+        }
+        String sessionId = mensaje.substring(0, separador);
+        long version = Long.parseLong(mensaje.substring(separador + 1));
+        if (version == ELIMINADA) {
+            notificadas.invalidate(sessionId);
+            if (cercana.asMap().remove(sessionId) != null) {
+                invalidaciones.increment();
+            }
+            return;
+        }
+        notificadas.asMap().merge(sessionId, version, Math::max);
+        boolean[] invalidada = new boolean[1];
+        cercana.asMap().computeIfPresent(sessionId, (clave, entrada) -> {
+            invalidada[0] = entrada.version() < version;
+            return invalidada[0] ? null : entrada;
+        });
+        if (invalidada[0]) {
+            invalidaciones.increment();
+        }
+    }
+
+    @PreDestroy
+    public void cerrar() {
+        activo = false;
+        escucha.interrupt();
+        try {
+            escucha.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Versión de una sesión y su estado (no se modifica: las actualizaciones trabajan sobre una copia).
+     * enBase es false si la sesión todavía no tiene fila (estado recuperado del proyecto o nuevo).
+     */
+    private record Entrada(long version, SessionState estado, boolean enBase) {
+    }
+}
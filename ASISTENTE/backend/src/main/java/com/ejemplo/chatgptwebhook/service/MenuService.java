@@ -1,18 +1,24 @@
 package com.ejemplo.chatgptwebhook.service;
 
+import com.ejemplo.chatgptwebhook.model.ListaTareas;
 import com.ejemplo.chatgptwebhook.model.MenuOption;
 import com.ejemplo.chatgptwebhook.model.MenuResponse;
+import com.ejemplo.chatgptwebhook.model.SessionState;
+import com.ejemplo.chatgptwebhook.util.AnalizadorRespuestaProyecto;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
+import java.time.Duration;
 import java.util.Arrays;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Servicio para gestionar las opciones del menú principal (versión web únicamente)
@@ -22,20 +28,27 @@ public class MenuService {
     
     private static final Logger logger = LoggerFactory.getLogger(MenuService.class);
     
-    // Mapa para almacenar el estado de las sesiones del menú (do-while)
-    private final Map<String, Boolean> sesionesActivas = new ConcurrentHashMap<>();
-    private final Map<String, Integer> contadorInteracciones = new ConcurrentHashMap<>();
+    // Cierre común de la respuesta de un proyecto desarrollado
+    private static final String FIN_PROYECTO_DESARROLLADO = "\n\n" +
+            "✅ **Proyecto creado exitosamente**\n" +
+            "🎯 **Siguiente paso:** Puedes gestionar las tareas usando las opciones del menú principal\n\n" +
+            "MOSTRAR_MENU_PRINCIPAL";
     
-    // Mapa para almacenar el contexto del proyecto por sesión
-    private final Map<String, String> contextoyProyectoSesion = new ConcurrentHashMap<>();
-    private final Map<String, String> nombreProyectoSesion = new ConcurrentHashMap<>();
-    private final Map<String, String> tareasProyectoSesion = new ConcurrentHashMap<>();
-    private final Map<String, Set<Integer>> tareasCompletadasSesion = new ConcurrentHashMap<>();
+    // Tiempo que se conservan los datos de una sesión tras salir del menú
+    private static final Duration RETRASO_LIMPIEZA_SESION = Duration.ofSeconds(30);
     
     // Inyección del servicio de ChatGPT
     @Autowired
     private ChatGptService chatGptService;
     
+    // Estado de las sesiones del menú (do-while, proyecto y tareas)
+    @Autowired
+    private SessionStateStore sessionStore;
+    
+    // Persistencia en segundo plano de los proyectos y tareas de las sesiones
+    @Autowired
+    private ProyectosWriteBehind proyectosWriteBehind;
+    
     /**
      * Obtiene las opciones del menú principal (Versión web que usa mostrarMenuPrincipal)
      * Implementa bucle do-while para mantener el menú activo hasta que el usuario seleccione "salir"
@@ -54,8 +67,8 @@ public class MenuService {
         );
         
         // Si es la primera vez, inicializar como activa
-        if (!sesionesActivas.containsKey(sessionId)) {
-            sesionesActivas.put(sessionId, true);
+        if (!sessionStore.existe(sessionId)) {
+            sessionStore.actualizar(sessionId, estado -> null);
         }
         
         String estado ="activo";
@@ -147,9 +160,9 @@ public class MenuService {
      * 
      * @param opcion La opción seleccionada por el usuario
      * @param datos Los datos específicos para la opción (puede ser null)
-     * @return String con la respuesta de la acción ejecutada
+     * @return Mono con la respuesta de la acción ejecutada (no bloquea el hilo mientras responde ChatGPT)
      */
-    public String procesarOpcionWebConDatos(int opcion, String datos) {
+    public Mono<String> procesarOpcionWebConDatos(int opcion, String datos) {
         logger.info("Procesando opción {} con datos: {}", opcion, datos);
         
         switch (opcion) {
@@ -160,14 +173,14 @@ public class MenuService {
                 return crearTareasProyectoWebConDatos(datos);
                 
             case 3:
-                return consultarTareasProyectoWebConDatos(datos);
+                return Mono.fromSupplier(() -> consultarTareasProyectoWebConDatos(datos));
                 
             case 4:
-                return salirWeb();
+                return Mono.fromSupplier(this::salirWeb);
                 
             default:
                 logger.warn("Opción inválida seleccionada desde web: {}", opcion);
-                return "❌ Opción inválida. Por favor, seleccione una opción del 1 al 4.";
+                return Mono.just("❌ Opción inválida. Por favor, seleccione una opción del 1 al 4.");
         }
     }
     
@@ -177,26 +190,26 @@ public class MenuService {
      * @param opcion La opción seleccionada por el usuario
      * @param datos Los datos específicos para la opción (puede ser null)
      * @param sessionId ID de sesión para mantener contexto
-     * @return String con la respuesta de la acción ejecutada
+     * @return Mono con la respuesta de la acción ejecutada (no bloquea el hilo mientras responde ChatGPT)
      */
-    public String procesarOpcionWebConDatosYSesion(int opcion, String datos, String sessionId) {
+    public Mono<String> procesarOpcionWebConDatosYSesion(int opcion, String datos, String sessionId) {
         
         switch (opcion) {
             case 1:
                 return crearProyectoWebConDatosYSesion(datos, sessionId);
                 
             case 2:
-                return crearTareasProyectoWebConDatosYSesion(datos, sessionId);
+                return Mono.fromSupplier(() -> crearTareasProyectoWebConDatosYSesion(datos, sessionId));
                 
             case 3:
-                return consultarTareasProyectoWebConDatosYSesion(datos, sessionId);
+                return Mono.fromSupplier(() -> consultarTareasProyectoWebConDatosYSesion(datos, sessionId));
                 
             case 4:
-                return salirWebConSesion(sessionId);
+                return Mono.fromSupplier(() -> salirWebConSesion(sessionId));
                 
             default:
                 logger.warn("Opción inválida seleccionada desde web: {}", opcion);
-                return "❌ Opción inválida. Por favor, seleccione una opción del 1 al 4.";
+                return Mono.just("❌ Opción inválida. Por favor, seleccione una opción del 1 al 4.");
         }
     }
     
@@ -218,85 +231,87 @@ public class MenuService {
     /**
      * Versión web de crear proyecto con datos específicos (idea del usuario)
      */
-    private String crearProyectoWebConDatos(String datos) {
+    private Mono<String> crearProyectoWebConDatos(String datos) {
         logger.info("Procesando idea del proyecto: {}", datos);
         
         if (datos == null || datos.trim().isEmpty()) {
-            return "❌ **Error:** No se proporcionó una idea de proyecto.\n\n" +
-                   "Por favor, describe tu idea de proyecto para poder ayudarte a desarrollarla.";
+            return Mono.just("❌ **Error:** No se proporcionó una idea de proyecto.\n\n" +
+                   "Por favor, describe tu idea de proyecto para poder ayudarte a desarrollarla.");
         }
         
         String ideaProyecto = datos.trim();
         logger.info("💡 Idea del proyecto recibida: {}", ideaProyecto);
         
         // Ahora sí enviar a ChatGPT con la idea del usuario usando sesión por defecto
-        return procesarIdeaProyectoConChatGPT(ideaProyecto, "default_session");
+        return conGuiaBasica(procesarIdeaProyectoConChatGPT(ideaProyecto, "default_session", usuarioActual()), ideaProyecto);
     }
     
     /**
      * Versión web de crear proyecto con datos específicos y sesión (idea del usuario)
      */
-    private String crearProyectoWebConDatosYSesion(String datos, String sessionId) {
+    private Mono<String> crearProyectoWebConDatosYSesion(String datos, String sessionId) {
         
         if (datos == null || datos.trim().isEmpty()) {
-            return "❌ **Error:** No se proporcionó una idea de proyecto.\n\n" +
-                   "Por favor, describe tu idea de proyecto para poder ayudarte a desarrollarla.";
+            return Mono.just("❌ **Error:** No se proporcionó una idea de proyecto.\n\n" +
+                   "Por favor, describe tu idea de proyecto para poder ayudarte a desarrollarla.");
         }
         
         String ideaProyecto = datos.trim();
         logger.info("💡 Idea del proyecto recibida: {} para sesión: {}", ideaProyecto, sessionId);
         
         // Ahora sí enviar a ChatGPT con la idea del usuario usando la sesión específica
-        return procesarIdeaProyectoConChatGPT(ideaProyecto, sessionId);
+        return conGuiaBasica(procesarIdeaProyectoConChatGPT(ideaProyecto, sessionId, usuarioActual()), ideaProyecto);
     }
     
     /**
-     * Procesa la idea del proyecto con ChatGPT y guarda el contexto
+     * Opción 1 para un trabajo en segundo plano: genera el proyecto y lo guarda en la sesión igual
+     * que /procesar/1/datos. El usuario se indica explícitamente porque no hay petición en curso.
+     * A diferencia de la versión síncrona, los errores de OpenAI se propagan para que el trabajo
+     * termine como fallido en lugar de guardar la guía básica como resultado.
+     * 
+     * @param datos La idea del proyecto escrita por el usuario
+     * @param sessionId ID de sesión donde se guarda el proyecto
+     * @param usuario Correo del usuario que encargó el trabajo (null si es anónimo)
      */
-    private String procesarIdeaProyectoConChatGPT(String ideaProyecto, String sessionId) {
-        try {
-            // Construir mensaje específico para ChatGPT con la idea del usuario
-            String mensajeParaChatGPT = String.format(
-                "El usuario tiene la siguiente idea de proyecto: \"%s\"\n\n" +
-                "Eres un experto en arquitectura de software de proyectos. Por favor, ayúdalo a desarrollar y definir completamente este proyecto. " +
-                "Proporciona 10 tareas principales que se deben realizar para desarrollar este proyecto:\n" +
-                "Las tareas deben ser específicas y detalladas, y deben ser realizadas en orden cronológico.\n" +
-                "Al final, indica claramente cuál sería el nombre específico del proyecto para usarlo como referencia.",
-                ideaProyecto
-            );
-            
-            logger.info("🤖 Enviando idea del proyecto a ChatGPT para sesión: {}", sessionId);
-            
-            // Usar más tokens para respuestas largas de ChatGPT
-            String respuestaChatGPT = chatGptService.enviarMensajeConTokens(mensajeParaChatGPT, 3000).block();
-            
-            // Guardar el contexto completo de la respuesta
-            contextoyProyectoSesion.put(sessionId, respuestaChatGPT);
-            
-            // Intentar extraer el nombre del proyecto de la respuesta
-            String nombreProyecto = extraerNombreProyecto(respuestaChatGPT);
-            if (nombreProyecto != null && !nombreProyecto.isEmpty()) {
-                nombreProyectoSesion.put(sessionId, nombreProyecto);
-                logger.info("📝 Proyecto guardado en sesión {}: {}", sessionId, nombreProyecto);
-            }
-            
-            // Extraer y guardar las tareas del proyecto
-            String tareasExtraidas = extraerTareasProyecto(respuestaChatGPT);
-            if (tareasExtraidas != null && !tareasExtraidas.isEmpty()) {
-                tareasProyectoSesion.put(sessionId, tareasExtraidas);
-                logger.info("📋 Tareas guardadas en sesión {}: {} tareas encontradas", sessionId, contarTareas(tareasExtraidas));
-            }
-            
-            logger.info("✅ Respuesta recibida de ChatGPT para idea de proyecto y contexto guardado");
-            
-            return "🚀 **PROYECTO DESARROLLADO**\n\n" + respuestaChatGPT + "\n\n" +
-                   "✅ **Proyecto creado exitosamente**\n" +
-                   "🎯 **Siguiente paso:** Puedes gestionar las tareas usando las opciones del menú principal\n\n" +
-                   "MOSTRAR_MENU_PRINCIPAL";
-            
-        } catch (Exception e) {
+    public Mono<String> generarProyecto(String datos, String sessionId, String usuario) {
+        if (datos == null || datos.trim().isEmpty()) {
+            return Mono.error(new IllegalArgumentException("No se proporcionó una idea de proyecto"));
+        }
+        return procesarIdeaProyectoConChatGPT(datos.trim(), sessionId, usuario);
+    }
+    
+    /**
+     * Procesa la idea del proyecto con ChatGPT y guarda el contexto.
+     * El hilo de la petición queda libre mientras se espera la respuesta de OpenAI, por lo que el
+     * usuario se lee antes, en el hilo de la petición. Los errores de OpenAI se propagan.
+     */
+    private Mono<String> procesarIdeaProyectoConChatGPT(String ideaProyecto, String sessionId, String usuario) {
+        String mensajeParaChatGPT = construirMensajeIdeaProyecto(ideaProyecto);
+        
+        logger.info("🤖 Enviando idea del proyecto a ChatGPT para sesión: {}", sessionId);
+        
+        // Usar más tokens para respuestas largas de ChatGPT (respuesta reutilizable desde la caché)
+        return chatGptService.solicitarMensajeConTokens(mensajeParaChatGPT, 3000, true)
+                // Generación masiva: en el planificador de OpenAI cede el paso al chat interactivo
+                .contextWrite(OpenAiFairScheduler.contexto(usuarioPlanificador(usuario, sessionId), OpenAiFairScheduler.Clase.MASIVO))
+                // La respuesta llega en un hilo de E/S de Reactor Netty, compartido por todas las conexiones
+                // con OpenAI: guardar en la sesión puede esperar a la base de datos y se hace fuera de él
+                .publishOn(Schedulers.boundedElastic())
+                .map(respuestaChatGPT -> {
+                    guardarProyectoEnSesion(respuestaChatGPT, sessionId, usuario);
+                    
+                    return "🚀 **PROYECTO DESARROLLADO**\n\n" + respuestaChatGPT + FIN_PROYECTO_DESARROLLADO;
+                });
+    }
+    
+    /**
+     * Respuesta de la opción 1 síncrona: si ChatGPT falla se muestra una guía básica en lugar del error.
+     * Los rechazos por saturación se propagan para que el controlador responda 503.
+     */
+    private Mono<String> conGuiaBasica(Mono<String> proyecto, String ideaProyecto) {
+        return proyecto.onErrorResume(e -> !ChatGptService.esRechazoPorSaturacion(e), e -> {
             logger.error("❌ Error al comunicarse con ChatGPT para procesar idea de proyecto", e);
-            return "🚀 **DESARROLLO DE PROYECTO**\n\n" +
+            return Mono.just("🚀 **DESARROLLO DE PROYECTO**\n\n" +
                    "❌ **Error de conexión con la API de OpenAI**\n\n" +
                    "💡 **Tu idea de proyecto:** " + ideaProyecto + "\n\n" +
                    "**Posibles causas del error:**\n" +
@@ -310,8 +325,119 @@ public class MenuService {
                    "4. Define las fechas de inicio y fin\n" +
                    "5. Crea la lista de características principales\n\n" +
                    "🔧 **Para solucionar:** Verifica la configuración de la API key en el backend\n\n" +
-                   "MOSTRAR_MENU_PRINCIPAL";
+                   "MOSTRAR_MENU_PRINCIPAL");
+        });
+    }
+    
+    /**
+     * Versión en streaming de la opción 1: emite la respuesta de ChatGPT a medida que se genera.
+     * Al terminar el stream, el texto acumulado se procesa igual que en la versión normal
+     * para guardar el nombre y las tareas del proyecto en la sesión. Si OpenAI falla (antes o en
+     * mitad del stream) se emite el mensaje de error y la sesión no se modifica: ni el aviso ni una
+     * respuesta cortada se guardan como proyecto.
+     * 
+     * @param datos La idea del proyecto escrita por el usuario
+     * @param sessionId ID de sesión donde se guarda el proyecto (opcional)
+     * @return Flujo con los fragmentos de la respuesta
+     */
+    public Flux<String> transmitirIdeaProyecto(String datos, String sessionId) {
+        if (datos == null || datos.trim().isEmpty()) {
+            return Flux.just("❌ **Error:** No se proporcionó una idea de proyecto.\n\n" +
+                   "Por favor, describe tu idea de proyecto para poder ayudarte a desarrollarla.");
+        }
+        
+        String ideaProyecto = datos.trim();
+        String sesion = sessionId != null && !sessionId.isEmpty() ? sessionId : "default_session";
+        String usuario = usuarioActual();
+        logger.info("💡 Idea del proyecto recibida en modo streaming: {} para sesión: {}", ideaProyecto, sesion);
+        
+        return Flux.defer(() -> {
+            // Acumulador propio de cada suscripción al stream
+            StringBuilder respuestaAcumulada = new StringBuilder();
+            Flux<String> fragmentos = chatGptService
+                    .solicitarTransmisionConTokens(construirMensajeIdeaProyecto(ideaProyecto), 3000)
+                    .contextWrite(OpenAiFairScheduler.contexto(usuarioPlanificador(usuario, sesion), OpenAiFairScheduler.Clase.MASIVO))
+                    .doOnNext(respuestaAcumulada::append);
+            
+            return Flux.concat(
+                    Mono.just("🚀 **PROYECTO DESARROLLADO**\n\n"),
+                    fragmentos,
+                    // Solo se llega aquí si el stream terminó sin errores. Se guarda fuera del hilo de E/S
+                    // que entregó el último fragmento, como en la versión normal
+                    Mono.fromSupplier(() -> {
+                        guardarProyectoEnSesion(respuestaAcumulada.toString(), sesion, usuario);
+                        return FIN_PROYECTO_DESARROLLADO;
+                    }).subscribeOn(Schedulers.boundedElastic()))
+                    .onErrorResume(e -> {
+                        logger.error("❌ Error en el streaming de la idea de proyecto para sesión: {}", sesion, e);
+                        return Mono.just("\n\n" + chatGptService.mensajeDeError(e) + "\n\nMOSTRAR_MENU_PRINCIPAL");
+                    });
+        });
+    }
+    
+    /**
+     * Construye el mensaje que se envía a ChatGPT con la idea del proyecto del usuario
+     */
+    private String construirMensajeIdeaProyecto(String ideaProyecto) {
+        return String.format(
+            "El usuario tiene la siguiente idea de proyecto: \"%s\"\n\n" +
+            "Eres un experto en arquitectura de software de proyectos. Por favor, ayúdalo a desarrollar y definir completamente este proyecto. " +
+            "Proporciona 10 tareas principales que se deben realizar para desarrollar este proyecto:\n" +
+            "Las tareas deben ser específicas y detalladas, y deben ser realizadas en orden cronológico.\n" +
+            "Al final, indica claramente cuál sería el nombre específico del proyecto para usarlo como referencia.",
+            ideaProyecto
+        );
+    }
+    
+    /**
+     * Correo del usuario autenticado con JWT, o null si la petición es anónima
+     */
+    public static String usuarioActual() {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        return auth != null && auth.isAuthenticated() && !(auth instanceof AnonymousAuthenticationToken)
+                ? auth.getName() : null;
+    }
+    
+    /**
+     * Usuario para el reparto de OpenAI: el autenticado o, si es anónimo, la sesión
+     */
+    private static String usuarioPlanificador(String usuario, String sessionId) {
+        return usuario != null ? "jwt:" + usuario : "sesion:" + sessionId;
+    }
+    
+    /**
+     * Guarda en la sesión el contexto, el nombre y las tareas extraídas de la respuesta de ChatGPT
+     */
+    private void guardarProyectoEnSesion(String respuestaChatGPT, String sessionId, String usuario) {
+        // Extraer el nombre y las tareas del proyecto de la respuesta en una sola pasada
+        AnalizadorRespuestaProyecto.Resultado proyecto = AnalizadorRespuestaProyecto.analizar(respuestaChatGPT);
+        String nombreProyecto = proyecto.nombre();
+        ListaTareas tareas = proyecto.tareas() != null && !proyecto.tareas().isEmpty() ? proyecto.tareas() : null;
+        
+        sessionStore.actualizar(sessionId, estado -> {
+            // Guardar el contexto completo de la respuesta
+            estado.setContextoProyecto(respuestaChatGPT);
+            if (nombreProyecto != null && !nombreProyecto.isEmpty()) {
+                estado.setNombreProyecto(nombreProyecto);
+            }
+            if (tareas != null) {
+                estado.setTareas(tareas);
+            }
+            if (usuario != null) {
+                estado.setUsuario(usuario);
+            }
+            proyectosWriteBehind.proyectoGuardado(sessionId, estado);
+            return null;
+        });
+        
+        if (nombreProyecto != null && !nombreProyecto.isEmpty()) {
+            logger.info("📝 Proyecto guardado en sesión {}: {}", sessionId, nombreProyecto);
         }
+        if (tareas != null) {
+            logger.info("📋 Tareas guardadas en sesión {}: {} tareas encontradas", sessionId, tareas.total());
+        }
+        
+        logger.info("✅ Respuesta recibida de ChatGPT para idea de proyecto y contexto guardado");
     }
     
     /**
@@ -320,13 +446,14 @@ public class MenuService {
     private String crearTareasProyectoWebConSesion(String sessionId) {
         
         // Verificar si hay tareas y proyecto en la sesión
-        String tareasExistentes = tareasProyectoSesion.get(sessionId);
-        String nombreProyecto = nombreProyectoSesion.get(sessionId);
+        SessionState estado = sessionStore.leer(sessionId);
+        ListaTareas tareasExistentes = estado.getTareas();
+        String nombreProyecto = estado.getNombreProyecto();
         
         if (tareasExistentes != null && !tareasExistentes.isEmpty()) {
             // Hay tareas en la sesión, mostrarlas y pedir nueva tarea
             String tituloProyecto = nombreProyecto != null ? nombreProyecto : "Proyecto definido anteriormente";
-            int numeroTareas = contarTareas(tareasExistentes);
+            int numeroTareas = tareasExistentes.total();
             
            
             return String.format(
@@ -338,12 +465,12 @@ public class MenuService {
                 "✍️ Escribe la descripción de la nueva tarea que quieres agregar al proyecto.\n\n" +
                 "📝 **Ejemplo:** \"Configurar base de datos PostgreSQL\" o \"Implementar sistema de autenticación\"\n\n" +
                 "🔄 **La nueva tarea se agregará automáticamente a la lista existente.**",
-                tituloProyecto, numeroTareas, tareasExistentes
+                tituloProyecto, numeroTareas, tareasExistentes.renderizar()
             );
             
         } else {
             // No hay tareas, verificar si hay contexto del proyecto
-            String contextoProyecto = contextoyProyectoSesion.get(sessionId);
+            String contextoProyecto = estado.getContextoProyecto();
             
             if (contextoProyecto != null && !contextoProyecto.isEmpty()) {
                 // Hay contexto pero no tareas (caso raro), solicitar primera tarea
@@ -388,54 +515,53 @@ public class MenuService {
     /**
      * Versión web de crear tareas con datos específicos - envía a ChatGPT
      */
-    private String crearTareasProyectoWebConDatos(String datos) {
+    private Mono<String> crearTareasProyectoWebConDatos(String datos) {
         logger.info("📋 Creando tareas para proyecto con datos: {}", datos);
         
         String nombreProyecto = datos != null && !datos.trim().isEmpty() ? datos : "Proyecto sin nombre";
         
-        try {
-            // Construir mensaje específico para ChatGPT
-            String mensajeParaChatGPT = String.format(
-                "Tengo un proyecto llamado '%s'. " +
-                "Por favor, proporciona las 10 tareas principales que debo realizar para desarrollar este proyecto. " +
-                "Enumera cada tarea de forma clara y específica, del 1 al 10.",
-                nombreProyecto
-            );
-            
-            // Usar más tokens para respuestas largas de ChatGPT
-            String respuestaChatGPT = chatGptService.enviarMensajeConTokens(mensajeParaChatGPT, 3000).block();
-            
-            
-            return String.format(
-                "📋 **TAREAS DEL PROYECTO: %s**\n\n" +
-                "🤖 **Tareas generadas por el sistema:**\n\n%s\n\n" +
-                "✅ **Tareas creadas exitosamente**\n" +
-                "💡 **Siguiente paso:** Puedes usar las opciones del menú para gestionar estas tareas\n\n" +
-                "MOSTRAR_MENU_PRINCIPAL",
-                nombreProyecto, respuestaChatGPT
-            );
-            
-        } catch (Exception e) {
-            logger.error("❌ Error al comunicarse con ChatGPT para generar tareas", e);
-            
-            return String.format(
-                "📋 **TAREAS DEL PROYECTO: %s**\n\n" +
-                "❌ No pude conectar con ChatGPT en este momento.\n\n" +
-                "💡 **Tareas básicas sugeridas:**\n" +
-                "1. Definir requisitos del proyecto\n" +
-                "2. Crear plan de trabajo\n" +
-                "3. Asignar responsabilidades\n" +
-                "4. Establecer cronograma\n" +
-                "5. Configurar entorno de desarrollo\n" +
-                "6. Diseñar arquitectura del sistema\n" +
-                "7. Implementar funcionalidades core\n" +
-                "8. Realizar pruebas\n" +
-                "9. Documentar el proyecto\n" +
-                "10. Desplegar y entregar\n\n" +
-                "MOSTRAR_MENU_PRINCIPAL",
-                nombreProyecto
-            );
-        }
+        // Construir mensaje específico para ChatGPT
+        String mensajeParaChatGPT = String.format(
+            "Tengo un proyecto llamado '%s'. " +
+            "Por favor, proporciona las 10 tareas principales que debo realizar para desarrollar este proyecto. " +
+            "Enumera cada tarea de forma clara y específica, del 1 al 10.",
+            nombreProyecto
+        );
+        
+        // Usar más tokens para respuestas largas de ChatGPT (respuesta reutilizable desde la caché).
+        // Los rechazos por saturación se propagan para que el controlador responda 503
+        return chatGptService.solicitarMensajeConTokens(mensajeParaChatGPT, 3000, true)
+                .contextWrite(OpenAiFairScheduler.contexto(usuarioPlanificador(usuarioActual(), "default_session"),
+                        OpenAiFairScheduler.Clase.MASIVO))
+                .map(respuestaChatGPT -> String.format(
+                    "📋 **TAREAS DEL PROYECTO: %s**\n\n" +
+                    "🤖 **Tareas generadas por el sistema:**\n\n%s\n\n" +
+                    "✅ **Tareas creadas exitosamente**\n" +
+                    "💡 **Siguiente paso:** Puedes usar las opciones del menú para gestionar estas tareas\n\n" +
+                    "MOSTRAR_MENU_PRINCIPAL",
+                    nombreProyecto, respuestaChatGPT
+                ))
+                .onErrorResume(e -> !ChatGptService.esRechazoPorSaturacion(e), e -> {
+                    logger.error("❌ Error al comunicarse con ChatGPT para generar tareas", e);
+                    
+                    return Mono.just(String.format(
+                        "📋 **TAREAS DEL PROYECTO: %s**\n\n" +
+                        "❌ No pude conectar con ChatGPT en este momento.\n\n" +
+                        "💡 **Tareas básicas sugeridas:**\n" +
+                        "1. Definir requisitos del proyecto\n" +
+                        "2. Crear plan de trabajo\n" +
+                        "3. Asignar responsabilidades\n" +
+                        "4. Establecer cronograma\n" +
+                        "5. Configurar entorno de desarrollo\n" +
+                        "6. Diseñar arquitectura del sistema\n" +
+                        "7. Implementar funcionalidades core\n" +
+                        "8. Realizar pruebas\n" +
+                        "9. Documentar el proyecto\n" +
+                        "10. Desplegar y entregar\n\n" +
+                        "MOSTRAR_MENU_PRINCIPAL",
+                        nombreProyecto
+                    ));
+                });
     }
     
     
@@ -445,21 +571,19 @@ public class MenuService {
     private String consultarTareasProyectoWebConSesion(String sessionId) {
         
         // Verificar si hay tareas guardadas en la sesión
-        String tareasGuardadas = tareasProyectoSesion.get(sessionId);
-        String nombreProyecto = nombreProyectoSesion.get(sessionId);
+        SessionState estado = sessionStore.leer(sessionId);
+        ListaTareas tareasGuardadas = estado.getTareas();
+        String nombreProyecto = estado.getNombreProyecto();
         
         if (tareasGuardadas != null && !tareasGuardadas.isEmpty()) {
             String tituloProyecto = nombreProyecto != null ? nombreProyecto : "Proyecto definido anteriormente";
-            int numeroTareas = contarTareas(tareasGuardadas);
-            
-            // Obtener tareas completadas para esta sesión
-            Set<Integer> tareasCompletadas = tareasCompletadasSesion.getOrDefault(sessionId, new HashSet<>());
+            int numeroTareas = tareasGuardadas.total();
             
             // Formatear lista de tareas con estado
-            String tareasConEstado = formatearTareasConEstado(tareasGuardadas, tareasCompletadas);
+            String tareasConEstado = tareasGuardadas.renderizarConEstado();
             
             // Contar tareas completadas y pendientes
-            int tareasCompletadasCount = tareasCompletadas.size();
+            int tareasCompletadasCount = tareasGuardadas.completadas();
             int tareasPendientes = numeroTareas - tareasCompletadasCount;
             
             logger.info("✅ Tareas encontradas en sesión {}: {} tareas ({} completadas, {} pendientes) para proyecto '{}'", 
@@ -568,37 +692,27 @@ public class MenuService {
      */
     public void finalizarSesion(String sessionId) {
         logger.info("Finalizando sesión del menú: {}", sessionId);
-        sesionesActivas.put(sessionId, false);
+        sessionStore.actualizar(sessionId, estado -> {
+            estado.setActiva(false);
+            return null;
+        });
         
         // Limpiar datos de la sesión después de un tiempo
-        new Thread(() -> {
-            try {
-                Thread.sleep(30000); // Esperar 30 segundos
-                sesionesActivas.remove(sessionId);
-                contadorInteracciones.remove(sessionId);
-                contextoyProyectoSesion.remove(sessionId);
-                nombreProyectoSesion.remove(sessionId);
-                tareasProyectoSesion.remove(sessionId);
-                tareasCompletadasSesion.remove(sessionId);
-                logger.info("Datos de sesión {} limpiados (incluyendo contexto del proyecto, tareas y estado)", sessionId);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
-        }).start();
+        sessionStore.programarEliminacion(sessionId, RETRASO_LIMPIEZA_SESION);
     }
     
     /**
      * Verifica si una sesión está activa (para el bucle do-while)
      */
     public boolean esSesionActiva(String sessionId) {
-        return sesionesActivas.getOrDefault(sessionId, true);
+        return sessionStore.leer(sessionId).isActiva();
     }
     
     /**
      * Obtiene el número de interacciones de una sesión
      */
     public int getInteraccionesSesion(String sessionId) {
-        return contadorInteracciones.getOrDefault(sessionId, 0);
+        return sessionStore.leer(sessionId).getInteracciones();
     }
     
     /**
@@ -606,140 +720,15 @@ public class MenuService {
      */
     public void reiniciarSesion(String sessionId) {
         logger.info("Reiniciando sesión del menú: {}", sessionId);
-        sesionesActivas.put(sessionId, true);
-        contadorInteracciones.put(sessionId, 0);
-        // Limpiar también el contexto del proyecto, tareas y estado
-        contextoyProyectoSesion.remove(sessionId);
-        nombreProyectoSesion.remove(sessionId);
-        tareasProyectoSesion.remove(sessionId);
-        tareasCompletadasSesion.remove(sessionId);
-    }
-    
-    /**
-     * Extrae el nombre del proyecto de la respuesta de ChatGPT
-     */
-    private String extraerNombreProyecto(String respuestaChatGPT) {
-        // Intentar extraer el nombre del proyecto de la respuesta
-        // Buscar patrones comunes como "proyecto llamado", "nombre del proyecto", etc.
-        
-        if (respuestaChatGPT == null || respuestaChatGPT.isEmpty()) {
-            return null;
-        }
-        
-        // Patrones para buscar el nombre del proyecto
-        String[] patrones = {
-            "proyecto llamado \"([^\"]+)\"",
-            "proyecto: ([^\n]+)",
-            "nombre del proyecto: ([^\n]+)",
-            "proyecto \"([^\"]+)\"",
-            "llamado \"([^\"]+)\"",
-            "proyecto ([A-Z][^,.\\n]+)"
-        };
-        
-        for (String patron : patrones) {
-            java.util.regex.Pattern pattern = java.util.regex.Pattern.compile(patron);
-            java.util.regex.Matcher matcher = pattern.matcher(respuestaChatGPT);
-            if (matcher.find()) {
-                String nombreEncontrado = matcher.group(1).trim();
-                if (!nombreEncontrado.isEmpty()) {
-                    logger.info("📝 Nombre del proyecto extraído: {}", nombreEncontrado);
-                    return nombreEncontrado;
-                }
-            }
-        }
-        
-        logger.info("📝 No se pudo extraer el nombre del proyecto automáticamente");
-        return "Proyecto definido con ChatGPT";
-    }
-    
-    /**
-     * Extrae las tareas del proyecto de la respuesta de ChatGPT
-     */
-    private String extraerTareasProyecto(String respuestaChatGPT) {
-        if (respuestaChatGPT == null || respuestaChatGPT.isEmpty()) {
+        sessionStore.cancelarEliminacion(sessionId);
+        sessionStore.actualizar(sessionId, estado -> {
+            estado.setActiva(true);
+            estado.setInteracciones(0);
+            // Limpiar también el contexto del proyecto, tareas y estado
+            estado.limpiarProyecto();
+            proyectosWriteBehind.proyectoEliminado(sessionId);
             return null;
-        }
-        
-        // Buscar patrones de tareas numeradas (1., 2., 3., etc.)
-        java.util.regex.Pattern pattern = java.util.regex.Pattern.compile(
-            "(?:^|\\n)(\\d+\\.\\s+[^\\n]+(?:\\n(?!\\d+\\.).*)*)", 
-            java.util.regex.Pattern.MULTILINE | java.util.regex.Pattern.DOTALL
-        );
-        
-        java.util.regex.Matcher matcher = pattern.matcher(respuestaChatGPT);
-        StringBuilder tareasEncontradas = new StringBuilder();
-        
-        while (matcher.find()) {
-            String tarea = matcher.group(1).trim();
-            if (!tarea.isEmpty()) {
-                tareasEncontradas.append(tarea).append("\n");
-            }
-        }
-        
-        String tareas = tareasEncontradas.toString().trim();
-        
-        if (!tareas.isEmpty()) {
-            logger.info("📋 Tareas extraídas exitosamente de la respuesta de ChatGPT");
-            return tareas;
-        }
-        
-        logger.info("📋 No se pudieron extraer tareas numeradas, guardando respuesta completa");
-        return respuestaChatGPT; // Si no se encuentran tareas numeradas, guardar toda la respuesta
-    }
-    
-    /**
-     * Cuenta el número de tareas en el texto de tareas
-     */
-    private int contarTareas(String tareas) {
-        if (tareas == null || tareas.isEmpty()) {
-            return 0;
-        }
-        
-        // Contar líneas que empiezan con número seguido de punto
-        java.util.regex.Pattern pattern = java.util.regex.Pattern.compile("^\\d+\\.", java.util.regex.Pattern.MULTILINE);
-        java.util.regex.Matcher matcher = pattern.matcher(tareas);
-        
-        int contador = 0;
-        while (matcher.find()) {
-            contador++;
-        }
-        
-        return contador;
-    }
-    
-    /**
-     * Formatea las tareas con su estado (completada/pendiente)
-     */
-    private String formatearTareasConEstado(String tareas, Set<Integer> tareasCompletadas) {
-        if (tareas == null || tareas.isEmpty()) {
-            return "";
-        }
-        
-        String[] lineasTareas = tareas.split("\n");
-        StringBuilder tareasFormateadas = new StringBuilder();
-        
-        for (String linea : lineasTareas) {
-            if (linea.trim().isEmpty()) continue;
-            
-            // Extraer número de tarea
-            java.util.regex.Pattern pattern = java.util.regex.Pattern.compile("^(\\d+)\\.");
-            java.util.regex.Matcher matcher = pattern.matcher(linea.trim());
-            
-            if (matcher.find()) {
-                int numeroTarea = Integer.parseInt(matcher.group(1));
-                boolean completada = tareasCompletadas.contains(numeroTarea);
-                
-                String estado = completada ? "✅" : "⏳";
-                String estadoTexto = completada ? " **(COMPLETADA)**" : " (Pendiente)";
-                
-                tareasFormateadas.append(estado).append(" ").append(linea.trim()).append(estadoTexto).append("\n");
-            } else {
-                // Si no tiene número, agregar como está
-                tareasFormateadas.append("⏳ ").append(linea.trim()).append(" (Pendiente)").append("\n");
-            }
-        }
-        
-        return tareasFormateadas.toString().trim();
+        });
     }
     
     /**
@@ -748,52 +737,44 @@ public class MenuService {
     private String agregarNuevaTareaASesion(String nuevaTarea, String sessionId) {
         logger.info("➕ Agregando nueva tarea a sesión {}: {}", sessionId, nuevaTarea);
         
-        // Verificar que hay un proyecto en la sesión
-        String nombreProyecto = nombreProyectoSesion.get(sessionId);
-        if (nombreProyecto == null || nombreProyecto.isEmpty()) {
-            return "❌ **Error:** No hay proyecto definido en esta sesión.\n\n" +
-                   "💡 Primero debes crear un proyecto usando la **opción 1**.\n\n" +
-                   "MOSTRAR_MENU_PRINCIPAL";
-        }
-        
-        // Obtener tareas existentes
-        String tareasExistentes = tareasProyectoSesion.get(sessionId);
-        
-        // Calcular el número de la nueva tarea
-        int numeroNuevaTarea = 1;
-        if (tareasExistentes != null && !tareasExistentes.isEmpty()) {
-            numeroNuevaTarea = contarTareas(tareasExistentes) + 1;
-        }
-        
-        // Formatear la nueva tarea
-        String tareaFormateada = String.format("%d. %s", numeroNuevaTarea, nuevaTarea);
+        // La lectura de las tareas y la escritura de la lista actualizada son una única operación atómica
+        return sessionStore.actualizar(sessionId, estado -> {
+            // Verificar que hay un proyecto en la sesión
+            String nombreProyecto = estado.getNombreProyecto();
+            if (nombreProyecto == null || nombreProyecto.isEmpty()) {
+                return "❌ **Error:** No hay proyecto definido en esta sesión.\n\n" +
+                       "💡 Primero debes crear un proyecto usando la **opción 1**.\n\n" +
+                       "MOSTRAR_MENU_PRINCIPAL";
+            }
         
-        // Agregar la nueva tarea a las existentes
-        String tareasActualizadas;
-        if (tareasExistentes != null && !tareasExistentes.isEmpty()) {
-            tareasActualizadas = tareasExistentes + "\n" + tareaFormateada;
-        } else {
-            tareasActualizadas = tareaFormateada;
-        }
+            // Obtener tareas existentes
+            ListaTareas tareas = estado.getTareas();
+            if (tareas == null) {
+                tareas = new ListaTareas();
+                estado.setTareas(tareas);
+            }
         
-        // Guardar las tareas actualizadas en la sesión
-        tareasProyectoSesion.put(sessionId, tareasActualizadas);
+            // Agregar la nueva tarea con el siguiente número
+            int posicion = tareas.lineas().size();
+            int numeroNuevaTarea = tareas.agregar(nuevaTarea);
+            proyectosWriteBehind.tareaAgregada(sessionId, posicion, tareas.lineas().get(posicion));
         
-        logger.info("✅ Nueva tarea agregada. Total de tareas en sesión {}: {}", sessionId, contarTareas(tareasActualizadas));
+            logger.info("✅ Nueva tarea agregada. Total de tareas en sesión {}: {}", sessionId, tareas.total());
         
-        return String.format(
-            "✅ **TAREA AGREGADA EXITOSAMENTE**\n\n" +
-            "📋 **Proyecto:** %s\n" +
-            "➕ **Nueva tarea #%d:** %s\n\n" +
-            "📊 **Total de tareas:** %d\n\n" +
-            "**Lista actualizada:**\n%s\n\n" +
-            "💡 **Puedes:**\n" +
-            "• Seleccionar **'2. Crear tareas'** para agregar otra tarea\n" +
-            "• Seleccionar **'3. Consultar tareas'** para ver todas las tareas\n" +
-            "• Continuar con tu proyecto\n\n" +
-            "MOSTRAR_MENU_PRINCIPAL",
-            nombreProyecto, numeroNuevaTarea, nuevaTarea, contarTareas(tareasActualizadas), tareasActualizadas
-        );
+            return String.format(
+                "✅ **TAREA AGREGADA EXITOSAMENTE**\n\n" +
+                "📋 **Proyecto:** %s\n" +
+                "➕ **Nueva tarea #%d:** %s\n\n" +
+                "📊 **Total de tareas:** %d\n\n" +
+                "**Lista actualizada:**\n%s\n\n" +
+                "💡 **Puedes:**\n" +
+                "• Seleccionar **'2. Crear tareas'** para agregar otra tarea\n" +
+                "• Seleccionar **'3. Consultar tareas'** para ver todas las tareas\n" +
+                "• Continuar con tu proyecto\n\n" +
+                "MOSTRAR_MENU_PRINCIPAL",
+                nombreProyecto, numeroNuevaTarea, nuevaTarea, tareas.total(), tareas.renderizar()
+            );
+        });
     }
     
     /**
@@ -802,108 +783,84 @@ public class MenuService {
     private String marcarTareaComoCompletada(int numeroTarea, String sessionId) {
         logger.info("🎯 Marcando tarea #{} como completada en sesión: {}", numeroTarea, sessionId);
         
-        // Verificar que hay un proyecto en la sesión
-        String nombreProyecto = nombreProyectoSesion.get(sessionId);
-        if (nombreProyecto == null || nombreProyecto.isEmpty()) {
-            return "❌ **Error:** No hay proyecto definido en esta sesión.\n\n" +
-                   "💡 Primero debes crear un proyecto usando la **opción 1**.\n\n" +
-                   "MOSTRAR_MENU_PRINCIPAL";
-        }
-        
-        // Verificar que hay tareas en la sesión
-        String tareasGuardadas = tareasProyectoSesion.get(sessionId);
-        if (tareasGuardadas == null || tareasGuardadas.isEmpty()) {
-            return "❌ **Error:** No hay tareas definidas en esta sesión.\n\n" +
-                   "💡 Primero debes crear tareas usando la **opción 1** o **opción 2**.\n\n" +
-                   "MOSTRAR_MENU_PRINCIPAL";
-        }
-        
-        // Validar que el número de tarea existe
-        int totalTareas = contarTareas(tareasGuardadas);
-        if (numeroTarea < 1 || numeroTarea > totalTareas) {
-            return String.format(
-                "❌ **Error:** Número de tarea inválido.\n\n" +
-                "💡 **Tareas disponibles:** del 1 al %d\n" +
-                "📝 **Tu entrada:** %d\n\n" +
-                "Por favor, ingresa un número válido entre 1 y %d.\n\n" +
-                "MOSTRAR_MENU_PRINCIPAL",
-                totalTareas, numeroTarea, totalTareas
-            );
-        }
-        
-        // Obtener tareas completadas para esta sesión
-        Set<Integer> tareasCompletadas = tareasCompletadasSesion.computeIfAbsent(sessionId, k -> new HashSet<>());
-        
-        // Verificar si la tarea ya está completada
-        if (tareasCompletadas.contains(numeroTarea)) {
-            return String.format(
-                "ℹ️ **TAREA YA COMPLETADA**\n\n" +
-                "📋 **Proyecto:** %s\n" +
-                "✅ **Tarea #%d** ya estaba marcada como completada.\n\n" +
-                "💡 **Estado actual:** Esta tarea ya se encuentra en tu lista de tareas completadas.\n\n" +
-                "🔄 **Puedes:**\n" +
-                "• Seleccionar **'3. Consultar tareas'** para ver el estado de todas las tareas\n" +
-                "• Marcar otra tarea como completada\n" +
-                "• Continuar con tu proyecto\n\n" +
-                "MOSTRAR_MENU_PRINCIPAL",
-                nombreProyecto, numeroTarea
-            );
-        }
+        // La validación y el marcado de la tarea son una única operación atómica
+        return sessionStore.actualizar(sessionId, estado -> {
+            // Verificar que hay un proyecto en la sesión
+            String nombreProyecto = estado.getNombreProyecto();
+            if (nombreProyecto == null || nombreProyecto.isEmpty()) {
+                return "❌ **Error:** No hay proyecto definido en esta sesión.\n\n" +
+                       "💡 Primero debes crear un proyecto usando la **opción 1**.\n\n" +
+                       "MOSTRAR_MENU_PRINCIPAL";
+            }
         
-        // Extraer el texto de la tarea específica
-        String textoTarea = extraerTextoTarea(tareasGuardadas, numeroTarea);
+            // Verificar que hay tareas en la sesión
+            ListaTareas tareasGuardadas = estado.getTareas();
+            if (tareasGuardadas == null || tareasGuardadas.isEmpty()) {
+                return "❌ **Error:** No hay tareas definidas en esta sesión.\n\n" +
+                       "💡 Primero debes crear tareas usando la **opción 1** o **opción 2**.\n\n" +
+                       "MOSTRAR_MENU_PRINCIPAL";
+            }
         
-        // Marcar la tarea como completada
-        tareasCompletadas.add(numeroTarea);
+            // Validar que el número de tarea existe
+            int totalTareas = tareasGuardadas.total();
+            if (numeroTarea < 1 || numeroTarea > totalTareas) {
+                return String.format(
+                    "❌ **Error:** Número de tarea inválido.\n\n" +
+                    "💡 **Tareas disponibles:** del 1 al %d\n" +
+                    "📝 **Tu entrada:** %d\n\n" +
+                    "Por favor, ingresa un número válido entre 1 y %d.\n\n" +
+                    "MOSTRAR_MENU_PRINCIPAL",
+                    totalTareas, numeroTarea, totalTareas
+                );
+            }
         
-        // Calcular estadísticas
-        int tareasCompletadasCount = tareasCompletadas.size();
-        double porcentajeProgreso = (tareasCompletadasCount * 100.0) / totalTareas;
+            // Verificar si la tarea ya está completada
+            if (tareasGuardadas.estaCompletada(numeroTarea)) {
+                return String.format(
+                    "ℹ️ **TAREA YA COMPLETADA**\n\n" +
+                    "📋 **Proyecto:** %s\n" +
+                    "✅ **Tarea #%d** ya estaba marcada como completada.\n\n" +
+                    "💡 **Estado actual:** Esta tarea ya se encuentra en tu lista de tareas completadas.\n\n" +
+                    "🔄 **Puedes:**\n" +
+                    "• Seleccionar **'3. Consultar tareas'** para ver el estado de todas las tareas\n" +
+                    "• Marcar otra tarea como completada\n" +
+                    "• Continuar con tu proyecto\n\n" +
+                    "MOSTRAR_MENU_PRINCIPAL",
+                    nombreProyecto, numeroTarea
+                );
+            }
         
-        logger.info("✅ Tarea #{} marcada como completada. Progreso: {}/{} ({}%) para proyecto '{}' en sesión: {}", 
-                   numeroTarea, tareasCompletadasCount, totalTareas, String.format("%.1f", porcentajeProgreso), nombreProyecto, sessionId);
+            // Extraer el texto de la tarea específica
+            String textoTarea = tareasGuardadas.texto(numeroTarea);
         
-        return String.format(
-            "🎉 **TAREA COMPLETADA EXITOSAMENTE**\n\n" +
-            "📋 **Proyecto:** %s\n" +
-            "✅ **Tarea #%d completada:** %s\n\n" +
-            "📊 **Progreso actualizado:**\n" +
-            "• **Completadas:** %d/%d tareas (%.1f%%)\n" +
-            "• **Pendientes:** %d tareas\n\n" +
-            "🎯 **¡Excelente trabajo!** Has completado una tarea más de tu proyecto.\n\n" +
-            "💡 **Puedes:**\n" +
-            "• Seleccionar **'3. Consultar tareas'** para marcar otra tarea como completada\n" +
-            "• Seleccionar **'2. Crear tareas'** para agregar nuevas tareas\n" +
-            "• Continuar trabajando en tu proyecto\n\n" +
-            "MOSTRAR_MENU_PRINCIPAL",
-            nombreProyecto, numeroTarea, textoTarea,
-            tareasCompletadasCount, totalTareas, porcentajeProgreso,
-            totalTareas - tareasCompletadasCount
-        );
-    }
-    
-    /**
-     * Extrae el texto de una tarea específica por su número
-     */
-    private String extraerTextoTarea(String tareas, int numeroTarea) {
-        if (tareas == null || tareas.isEmpty()) {
-            return "Descripción no disponible";
-        }
+            // Marcar la tarea como completada
+            tareasGuardadas.marcarCompletada(numeroTarea);
+            proyectosWriteBehind.tareaCompletada(sessionId, numeroTarea);
         
-        String[] lineasTareas = tareas.split("\n");
+            // Calcular estadísticas
+            int tareasCompletadasCount = tareasGuardadas.completadas();
+            double porcentajeProgreso = (tareasCompletadasCount * 100.0) / totalTareas;
         
-        for (String linea : lineasTareas) {
-            if (linea.trim().isEmpty()) continue;
-            
-            // Buscar línea que comience con el número de tarea
-            java.util.regex.Pattern pattern = java.util.regex.Pattern.compile("^" + numeroTarea + "\\. (.+)");
-            java.util.regex.Matcher matcher = pattern.matcher(linea.trim());
-            
-            if (matcher.find()) {
-                return matcher.group(1); // Devolver solo el texto sin el número
-            }
-        }
+            logger.info("✅ Tarea #{} marcada como completada. Progreso: {}/{} ({}%) para proyecto '{}' en sesión: {}", 
+                       numeroTarea, tareasCompletadasCount, totalTareas, String.format("%.1f", porcentajeProgreso), nombreProyecto, sessionId);
         
-        return "Tarea #" + numeroTarea;
+            return String.format(
+                "🎉 **TAREA COMPLETADA EXITOSAMENTE**\n\n" +
+                "📋 **Proyecto:** %s\n" +
+                "✅ **Tarea #%d completada:** %s\n\n" +
+                "📊 **Progreso actualizado:**\n" +
+                "• **Completadas:** %d/%d tareas (%.1f%%)\n" +
+                "• **Pendientes:** %d tareas\n\n" +
+                "🎯 **¡Excelente trabajo!** Has completado una tarea más de tu proyecto.\n\n" +
+                "💡 **Puedes:**\n" +
+                "• Seleccionar **'3. Consultar tareas'** para marcar otra tarea como completada\n" +
+                "• Seleccionar **'2. Crear tareas'** para agregar nuevas tareas\n" +
+                "• Continuar trabajando en tu proyecto\n\n" +
+                "MOSTRAR_MENU_PRINCIPAL",
+                nombreProyecto, numeroTarea, textoTarea,
+                tareasCompletadasCount, totalTareas, porcentajeProgreso,
+                totalTareas - tareasCompletadasCount
+            );
+        });
     }
 }
\ No newline at end of file
@@ -0,0 +1,182 @@
+package com.ejemplo.chatgptwebhook.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Circuit breaker para las llamadas a OpenAI.
+ * Tras varios fallos transitorios seguidos el circuito se abre y las peticiones fallan
+ * inmediatamente, sin esperar timeouts. Pasado el tiempo de apertura pasa a semiabierto
+ * y deja pasar unas pocas llamadas de prueba: si tienen éxito se cierra, si fallan se vuelve a abrir.
+ */
+@Component
+public class OpenAiCircuitBreaker {
+
+    private static final Logger logger = LoggerFactory.getLogger(OpenAiCircuitBreaker.class);
+
+    public enum Estado {
+        CERRADO, SEMI_ABIERTO, ABIERTO
+    }
+
+    private final int umbralFallos;
+    private final long tiempoAperturaNanos;
+    private final int maxSondas;
+
+    // Estado protegido por el monitor de esta instancia
+    private Estado estado = Estado.CERRADO;
+    private int fallosConsecutivos;
+    private long abiertoDesde;
+    private int sondasEnCurso;
+
+    private final Counter rechazos;
+    private final Counter aperturas;
+
+    public OpenAiCircuitBreaker(@Value("${openai.circuit-breaker.failure-threshold:5}") int umbralFallos,
+                                @Value("${openai.circuit-breaker.open-duration:30s}") Duration tiempoApertura,
+                                @Value("${openai.circuit-breaker.half-open-probes:1}") int maxSondas,
+                                MeterRegistry meterRegistry) {
+        this.umbralFallos = umbralFallos;
+        this.tiempoAperturaNanos = tiempoApertura.toNanos();
+        this.maxSondas = maxSondas;
+        this.rechazos = meterRegistry.counter("openai.circuito.rechazos");
+        this.aperturas = meterRegistry.counter("openai.circuito.aperturas");
+        // 0 = cerrado, 1 = semiabierto, 2 = abierto
+        meterRegistry.gauge("openai.circuito.estado", this, cb -> cb.getEstado().ordinal());
+    }
+
+    public synchronized Estado getEstado() {
+        return estado;
+    }
+
+    /**
+     * Ejecuta la llamada protegida por el circuito
+     */
+    public <T> Mono<T> proteger(Mono<T> llamada) {
+        return Mono.defer(() -> {
+            Intento intento = adquirir();
+            if (intento == null) {
+                return Mono.error(new CircuitoAbiertoException());
+            }
+            return llamada
+                    .doOnError(intento::fallo)
+                    .doFinally(intento::fin);
+        });
+    }
+
+    /**
+     * Ejecuta una llamada en streaming protegida por el circuito
+     */
+    public <T> Flux<T> proteger(Flux<T> llamada) {
+        return Flux.defer(() -> {
+            Intento intento = adquirir();
+            if (intento == null) {
+                return Flux.error(new CircuitoAbiertoException());
+            }
+            return llamada
+                    .doOnError(intento::fallo)
+                    .doFinally(intento::fin);
+        });
+    }
+
+    private synchronized Intento adquirir() {
+        if (estado == Estado.ABIERTO) {
+            if (System.nanoTime() - abiertoDesde < tiempoAperturaNanos) {
+                rechazos.increment();
+                return null;
+            }
+            logger.info("Circuito de OpenAI semiabierto: se permiten llamadas de prueba");
+            estado = Estado.SEMI_ABIERTO;
+            sondasEnCurso = 0;
+        }
+        if (estado == Estado.SEMI_ABIERTO) {
+            if (sondasEnCurso >= maxSondas) {
+                rechazos.increment();
+                return null;
+            }
+            sondasEnCurso++;
+            return new Intento(true);
+        }
+        return new Intento(false);
+    }
+
+    private synchronized void registrarExito(boolean sonda) {
+        if (sonda) {
+            sondasEnCurso--;
+        }
+        fallosConsecutivos = 0;
+        if (estado == Estado.SEMI_ABIERTO) {
+            logger.info("Llamada de prueba exitosa: circuito de OpenAI cerrado");
+            estado = Estado.CERRADO;
+        }
+    }
+
+    private synchronized void registrarFallo(boolean sonda) {
+        if (sonda) {
+            sondasEnCurso--;
+        }
+        fallosConsecutivos++;
+        if (estado == Estado.SEMI_ABIERTO || (estado == Estado.CERRADO && fallosConsecutivos >= umbralFallos)) {
+            logger.warn("Circuito de OpenAI abierto tras {} fallos consecutivos", fallosConsecutivos);
+            estado = Estado.ABIERTO;
+            abiertoDesde = System.nanoTime();
+            aperturas.increment();
+        }
+    }
+
+    private synchronized void liberarSonda(boolean sonda) {
+        if (sonda) {
+            sondasEnCurso--;
+        }
+    }
+
+    /**
+     * Resultado de una llamada admitida por el circuito; se registra una única vez
+     */
+    private final class Intento {
+        private final boolean sonda;
+        private final AtomicBoolean registrado = new AtomicBoolean(false);
+        private volatile Throwable error;
+
+        Intento(boolean sonda) {
+            this.sonda = sonda;
+        }
+
+        void fallo(Throwable error) {
+            this.error = error;
+        }
+
+        void fin(SignalType senal) {
+            if (!registrado.compareAndSet(false, true)) {
+                return;
+            }
+            if (senal == SignalType.CANCEL || error instanceof OpenAiRateLimiter.LimiteExcedidoException) {
+                // Sin respuesta de OpenAI: no dice nada sobre el estado del servicio
+                liberarSonda(sonda);
+            } else if (error != null && OpenAiRetry.esTransitorio(error)) {
+                registrarFallo(sonda);
+            } else {
+                // Los errores no transitorios (cuota, API key) no indican caída del servicio
+                registrarExito(sonda);
+            }
+        }
+    }
+
+    /**
+     * Se lanza cuando el circuito está abierto y la llamada se rechaza sin contactar con OpenAI
+     */
+    public static class CircuitoAbiertoException extends RuntimeException {
+        public CircuitoAbiertoException() {
+            super("Circuito de OpenAI abierto");
+        }
+    }
+}
@@ -0,0 +1,446 @@
+package com.ejemplo.chatgptwebhook.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.context.Context;
+import reactor.util.context.ContextView;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Planificador justo de las llamadas a OpenAI entre usuarios.
+ * Delante del limitador de velocidad, deja pasar como mucho max-concurrencia llamadas a la vez y
+ * decide el orden de las que esperan con deficit round robin (DRR) en dos niveles, medido en tokens
+ * estimados: primero entre las clases de trabajo (el chat interactivo pesa más que la generación
+ * masiva de proyectos) y dentro de cada clase entre usuarios. Así un usuario que encadena muchas
+ * peticiones largas no acapara la cuota de OpenAI mientras los demás esperan.
+ * El usuario y la clase de cada llamada viajan en el contexto de Reactor (ver {@link #contexto});
+ * ninguna espera bloquea hilos.
+ */
+@Component
+public class OpenAiFairScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(OpenAiFairScheduler.class);
+
+    private static final String CLAVE_USUARIO = OpenAiFairScheduler.class.getName() + ".usuario";
+    private static final String CLAVE_CLASE = OpenAiFairScheduler.class.getName() + ".clase";
+    private static final String USUARIO_DESCONOCIDO = "desconocido";
+
+    private static final int PENDIENTE = 0;
+    private static final int CONCEDIDA = 1;
+    private static final int DESCARTADA = 2;
+
+    /**
+     * Clase de trabajo de una llamada a OpenAI
+     */
+    public enum Clase {
+        INTERACTIVO, MASIVO
+    }
+
+    private final int maxConcurrencia;
+    private final int maxCola;
+    private final Duration maxEspera;
+    private final long quantum;
+
+    // Estado protegido por el monitor de esta instancia
+    private final Map<Clase, ColaClase> clases = new EnumMap<>(Clase.class);
+    private final Clase[] orden = Clase.values();
+    private int claseActual;
+    private int enCola;
+    private int enCurso;
+
+    private final Map<Clase, Timer> tiemposEspera = new EnumMap<>(Clase.class);
+    // Tiempos de espera recientes por usuario, para consultarlos en el endpoint del planificador
+    private final Cache<String, EsperasRecientes> esperasPorUsuario;
+    private final MeterRegistry meterRegistry;
+
+    public OpenAiFairScheduler(@Value("${openai.planificador.max-concurrencia:20}") int maxConcurrencia,
+                               @Value("${openai.planificador.max-cola:500}") int maxCola,
+                               @Value("${openai.planificador.max-espera:15s}") Duration maxEspera,
+                               @Value("${openai.planificador.quantum:1000}") long quantum,
+                               @Value("${openai.planificador.peso-interactivo:4}") int pesoInteractivo,
+                               @Value("${openai.planificador.peso-masivo:1}") int pesoMasivo,
+                               MeterRegistry meterRegistry) {
+        this.maxConcurrencia = maxConcurrencia;
+        this.maxCola = maxCola;
+        this.maxEspera = maxEspera;
+        this.quantum = quantum;
+        this.meterRegistry = meterRegistry;
+        clases.put(Clase.INTERACTIVO, new ColaClase(pesoInteractivo));
+        clases.put(Clase.MASIVO, new ColaClase(pesoMasivo));
+
+        this.esperasPorUsuario = Caffeine.newBuilder()
+                .maximumSize(1000)
+                .expireAfterAccess(Duration.ofMinutes(10))
+                .build();
+        for (Clase clase : Clase.values()) {
+            tiemposEspera.put(clase, Timer.builder("openai.planificador.espera")
+                    .description("Tiempo de espera en el planificador antes de pasar al limitador de OpenAI")
+                    .tag("clase", clase.name())
+                    .publishPercentiles(0.5, 0.95, 0.99)
+                    .register(meterRegistry));
+            meterRegistry.gauge("openai.planificador.cola", Tags.of("clase", clase.name()), this, s -> s.profundidad(clase));
+        }
+        meterRegistry.gauge("openai.planificador.en_curso", this, OpenAiFairScheduler::llamadasEnCurso);
+        meterRegistry.gauge("openai.planificador.usuarios_en_cola", this, OpenAiFairScheduler::usuariosEnCola);
+    }
+
+    /**
+     * Contexto de Reactor con el usuario y la clase de trabajo de las llamadas a OpenAI de un flujo.
+     * Se aplica con contextWrite al final de la cadena que llama a ChatGptService.
+     *
+     * @param usuario Identificador del usuario (sujeto del JWT, o la sesión si es anónimo)
+     * @param clase Clase de trabajo
+     */
+    public static Context contexto(String usuario, Clase clase) {
+        return Context.of(CLAVE_USUARIO, usuario != null ? usuario : USUARIO_DESCONOCIDO, CLAVE_CLASE, clase);
+    }
+
+    /**
+     * Espera el turno de una llamada a OpenAI según el usuario y la clase del contexto.
+     * El turno debe liberarse al terminar la llamada (se recomienda usar Mono/Flux.usingWhen).
+     *
+     * @param costoTokens Tokens estimados de la llamada
+     * @return Mono que emite el turno, o falla con LimiteExcedidoException si la cola está llena o se agota la espera
+     */
+    public Mono<Turno> adquirir(int costoTokens) {
+        return Mono.<Turno>create(sink -> {
+            ContextView contexto = sink.contextView();
+            String usuario = contexto.getOrDefault(CLAVE_USUARIO, USUARIO_DESCONOCIDO);
+            Clase clase = contexto.getOrDefault(CLAVE_CLASE, Clase.INTERACTIVO);
+            Espera espera = new Espera(sink, usuario, clase, Math.max(1, costoTokens));
+            espera.plazo = Schedulers.parallel().schedule(() -> expirar(espera),
+                    maxEspera.toMillis(), TimeUnit.MILLISECONDS);
+            sink.onCancel(() -> descartar(espera));
+
+            boolean encolada;
+            synchronized (this) {
+                encolada = enCola < maxCola;
+                if (encolada) {
+                    clases.get(clase).agregar(espera);
+                    enCola++;
+                }
+            }
+            if (!encolada) {
+                descartar(espera);
+                meterRegistry.counter("openai.planificador.rechazos", "motivo", "cola_llena").increment();
+                logger.warn("Cola del planificador de OpenAI llena ({} peticiones en espera)", maxCola);
+                sink.error(new OpenAiRateLimiter.LimiteExcedidoException("Cola de peticiones a OpenAI llena"));
+                return;
+            }
+
+            despachar();
+        }).doOnDiscard(Turno.class, Turno::liberar);
+    }
+
+    public synchronized int llamadasEnCurso() {
+        return enCurso;
+    }
+
+    public synchronized int usuariosEnCola() {
+        int usuarios = 0;
+        for (ColaClase cola : clases.values()) {
+            usuarios += cola.flujos.size();
+        }
+        return usuarios;
+    }
+
+    /**
+     * Resumen corto de la clave de un usuario: conserva el tipo (jwt, sesion) y sustituye el resto
+     * por los primeros caracteres de su SHA-256
+     */
+    static String anonimizar(String usuario) {
+        int separador = usuario.indexOf(':');
+        String tipo = separador >= 0 ? usuario.substring(0, separador + 1) : "";
+        try {
+            byte[] resumen = MessageDigest.getInstance("SHA-256").digest(usuario.getBytes(StandardCharsets.UTF_8));
+            return tipo + HexFormat.of().formatHex(resumen, 0, 6);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
+
+    private synchronized int profundidad(Clase clase) {
+        return clases.get(clase).pendientes;
+    }
+
+    /**
+     * Instantánea del planificador: llamadas en curso, y por clase y usuario las peticiones en cola
+     * y los percentiles de los tiempos de espera recientes. Los usuarios se muestran con un resumen de
+     * su clave: el correo o el id de sesión no deben salir de la instancia.
+     */
+    public Map<String, Object> estado() {
+        Map<String, Object> estado = new LinkedHashMap<>();
+        Map<String, Object> porClase = new LinkedHashMap<>();
+        synchronized (this) {
+            estado.put("enCurso", enCurso);
+            estado.put("maxConcurrencia", maxConcurrencia);
+            estado.put("enCola", enCola);
+            clases.forEach((clase, cola) -> {
+                Map<String, Object> detalle = new LinkedHashMap<>();
+                detalle.put("peso", cola.peso);
+                detalle.put("enCola", cola.pendientes);
+                Map<String, Integer> usuarios = new LinkedHashMap<>();
+                cola.flujos.forEach((usuario, flujo) -> usuarios.merge(anonimizar(usuario), flujo.esperas.size(), Integer::sum));
+                detalle.put("colaPorUsuario", usuarios);
+                porClase.put(clase.name(), detalle);
+            });
+        }
+        estado.put("clases", porClase);
+        Map<String, Object> esperas = new LinkedHashMap<>();
+        esperasPorUsuario.asMap().forEach((usuario, recientes) -> esperas.put(anonimizar(usuario), recientes.percentiles()));
+        estado.put("esperaPorUsuarioMs", esperas);
+        return estado;
+    }
+
+    /**
+     * Concede turnos a las peticiones en espera mientras haya hueco, en el orden del DRR
+     */
+    private void despachar() {
+        List<Espera> concedidas = new ArrayList<>();
+        synchronized (this) {
+            while (enCurso < maxConcurrencia && enCola > 0) {
+                Espera espera = siguiente();
+                enCola--;
+                // Una petición puede cancelarse o expirar mientras se elige: solo se concede si sigue pendiente
+                if (espera.estado.compareAndSet(PENDIENTE, CONCEDIDA)) {
+                    enCurso++;
+                    concedidas.add(espera);
+                }
+            }
+        }
+        for (Espera espera : concedidas) {
+            espera.plazo.dispose();
+            long esperado = System.nanoTime() - espera.inicio;
+            tiemposEspera.get(espera.clase).record(esperado, TimeUnit.NANOSECONDS);
+            esperasPorUsuario.get(espera.usuario, u -> new EsperasRecientes()).registrar(esperado);
+            espera.sink.success(new Turno());
+        }
+    }
+
+    /**
+     * Siguiente petición según el DRR de dos niveles. Cada visita a una clase le suma quantum x peso
+     * tokens de crédito y cada visita a un usuario, quantum; una petición sale cuando su coste cabe en
+     * el crédito de su usuario y de su clase. Solo se llama con peticiones en cola.
+     */
+    private Espera siguiente() {
+        while (true) {
+            ColaClase clase = clases.get(orden[claseActual]);
+            if (clase.flujos.isEmpty()) {
+                clase.deficit = 0;
+                clase.visitada = false;
+                claseActual = (claseActual + 1) % orden.length;
+                continue;
+            }
+            if (!clase.visitada) {
+                clase.deficit += quantum * clase.peso;
+                clase.visitada = true;
+            }
+            Flujo flujo = clase.flujos.values().iterator().next();
+            if (!flujo.visitado) {
+                flujo.deficit += quantum;
+                flujo.visitado = true;
+            }
+            Espera espera = flujo.esperas.peekFirst();
+            if (espera.costo > flujo.deficit) {
+                // El usuario agotó su crédito en esta ronda: pasa al final de la clase
+                flujo.visitado = false;
+                clase.rotar(flujo);
+                continue;
+            }
+            if (espera.costo > clase.deficit) {
+                // La clase agotó su crédito en esta ronda: turno de la siguiente clase
+                clase.visitada = false;
+                claseActual = (claseActual + 1) % orden.length;
+                continue;
+            }
+            flujo.deficit -= espera.costo;
+            clase.deficit -= espera.costo;
+            clase.quitarPrimera(flujo);
+            return espera;
+        }
+    }
+
+    private void expirar(Espera espera) {
+        if (espera.estado.compareAndSet(PENDIENTE, DESCARTADA)) {
+            quitar(espera);
+            meterRegistry.counter("openai.planificador.rechazos", "motivo", "espera_agotada").increment();
+            tiemposEspera.get(espera.clase).record(System.nanoTime() - espera.inicio, TimeUnit.NANOSECONDS);
+            logger.warn("Petición a OpenAI de {} descartada tras esperar {} en el planificador", espera.usuario, maxEspera);
+            espera.sink.error(new OpenAiRateLimiter.LimiteExcedidoException("Tiempo de espera agotado en la cola de OpenAI"));
+        }
+    }
+
+    private void descartar(Espera espera) {
+        if (espera.estado.compareAndSet(PENDIENTE, DESCARTADA)) {
+            espera.plazo.dispose();
+            quitar(espera);
+        }
+    }
+
+    private synchronized void quitar(Espera espera) {
+        if (clases.get(espera.clase).quitar(espera)) {
+            enCola--;
+        }
+    }
+
+    private void liberar() {
+        synchronized (this) {
+            enCurso--;
+        }
+        despachar();
+    }
+
+    /**
+     * Peticiones en espera de una clase, con una fila por usuario en orden de turno
+     */
+    private static final class ColaClase {
+        final int peso;
+        final LinkedHashMap<String, Flujo> flujos = new LinkedHashMap<>();
+        long deficit;
+        boolean visitada;
+        int pendientes;
+
+        ColaClase(int peso) {
+            this.peso = Math.max(1, peso);
+        }
+
+        void agregar(Espera espera) {
+            flujos.computeIfAbsent(espera.usuario, u -> new Flujo(u)).esperas.addLast(espera);
+            pendientes++;
+        }
+
+        void quitarPrimera(Flujo flujo) {
+            flujo.esperas.pollFirst();
+            pendientes--;
+            if (flujo.esperas.isEmpty()) {
+                // Un usuario sin peticiones no acumula crédito para la siguiente vez
+                flujos.remove(flujo.usuario);
+            }
+        }
+
+        boolean quitar(Espera espera) {
+            Flujo flujo = flujos.get(espera.usuario);
+            if (flujo == null || !flujo.esperas.remove(espera)) {
+                return false;
+            }
+            pendientes--;
+            if (flujo.esperas.isEmpty()) {
+                flujos.remove(flujo.usuario);
+            }
+            return true;
+        }
+
+        void rotar(Flujo flujo) {
+            flujos.remove(flujo.usuario);
+            flujos.put(flujo.usuario, flujo);
+        }
+    }
+
+    /**
+     * Fila de peticiones de un usuario dentro de una clase
+     */
+    private static final class Flujo {
+        final String usuario;
+        final ArrayDeque<Espera> esperas = new ArrayDeque<>();
+        long deficit;
+        boolean visitado;
+
+        Flujo(String usuario) {
+            this.usuario = usuario;
+        }
+    }
+
+    /**
+     * Petición esperando turno
+     */
+    private static final class Espera {
+        final MonoSink<Turno> sink;
+        final String usuario;
+        final Clase clase;
+        final long costo;
+        final long inicio = System.nanoTime();
+        final AtomicInteger estado = new AtomicInteger(PENDIENTE);
+        Disposable plazo;
+
+        Espera(MonoSink<Turno> sink, String usuario, Clase clase, long costo) {
+            this.sink = sink;
+            this.usuario = usuario;
+            this.clase = clase;
+            this.costo = costo;
+        }
+    }
+
+    /**
+     * Últimos tiempos de espera de un usuario (ventana circular)
+     */
+    private static final class EsperasRecientes {
+        private static final int TAMANO = 128;
+        private final long[] nanos = new long[TAMANO];
+        private int total;
+
+        synchronized void registrar(long espera) {
+            nanos[total % TAMANO] = espera;
+            total++;
+        }
+
+        synchronized Map<String, Double> percentiles() {
+            long[] ordenadas = Arrays.copyOf(nanos, Math.min(total, TAMANO));
+            Arrays.sort(ordenadas);
+            Map<String, Double> percentiles = new LinkedHashMap<>();
+            percentiles.put("p50", percentil(ordenadas, 0.50));
+            percentiles.put("p95", percentil(ordenadas, 0.95));
+            percentiles.put("p99", percentil(ordenadas, 0.99));
+            return percentiles;
+        }
+
+        private static double percentil(long[] ordenadas, double p) {
+            if (ordenadas.length == 0) {
+                return 0;
+            }
+            int indice = (int) Math.ceil(p * ordenadas.length) - 1;
+            return ordenadas[Math.max(0, indice)] / 1_000_000.0;
+        }
+    }
+
+    /**
+     * Turno concedido para una llamada a OpenAI. Liberarlo más de una vez no tiene efecto.
+     */
+    public final class Turno {
+        private final AtomicBoolean liberado = new AtomicBoolean(false);
+
+        private Turno() {
+        }
+
+        public void liberar() {
+            if (liberado.compareAndSet(false, true)) {
+                OpenAiFairScheduler.this.liberar();
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.ejemplo.chatgptwebhook.service;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Endpoint de Actuator "planificador" con la cola por usuario del planificador de OpenAI y los
+ * percentiles de espera de cada usuario (con la clave resumida). Solo se expone por JMX: ver
+ * management.endpoints.jmx.exposure.include. Las métricas agregadas por clase están en /actuator/metrics.
+ */
+@Component
+@Endpoint(id = "planificador")
+public class OpenAiFairSchedulerEndpoint {
+
+    private final OpenAiFairScheduler planificador;
+
+    public OpenAiFairSchedulerEndpoint(OpenAiFairScheduler planificador) {
+        this.planificador = planificador;
+    }
+
+    @ReadOperation
+    public Map<String, Object> estado() {
+        return planificador.estado();
+    }
+}
@@ -0,0 +1,258 @@
+package com.ejemplo.chatgptwebhook.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limitador de velocidad del lado del cliente para las llamadas a OpenAI.
+ * Combina dos cubetas de tokens (peticiones por minuto y tokens por minuto) con un
+ * límite de concurrencia (bulkhead). Las peticiones que no caben esperan en una cola
+ * acotada con un plazo máximo; ninguna decisión bloquea hilos, la espera se resuelve
+ * con temporizadores de Reactor.
+ */
+@Component
+public class OpenAiRateLimiter {
+
+    private static final Logger logger = LoggerFactory.getLogger(OpenAiRateLimiter.class);
+
+    private static final long NANOS_POR_MINUTO = TimeUnit.MINUTES.toNanos(1);
+
+    private static final int PENDIENTE = 0;
+    private static final int CONCEDIDA = 1;
+    private static final int DESCARTADA = 2;
+
+    private final double peticionesPorMinuto;
+    private final double tokensPorMinuto;
+    private final int maxConcurrencia;
+    private final int maxCola;
+    private final Duration maxEspera;
+
+    // Estado protegido por el monitor de esta instancia
+    private double peticionesDisponibles;
+    private double tokensDisponibles;
+    private long ultimaRecarga;
+    private int enCurso;
+    private boolean drenajeProgramado;
+    private final Deque<Espera> cola = new ArrayDeque<>();
+
+    private final Timer tiempoEspera;
+    private final Counter rechazos;
+
+    public OpenAiRateLimiter(@Value("${openai.limiter.requests-per-minute:500}") int peticionesPorMinuto,
+                             @Value("${openai.limiter.tokens-per-minute:90000}") int tokensPorMinuto,
+                             @Value("${openai.limiter.max-concurrency:20}") int maxConcurrencia,
+                             @Value("${openai.limiter.queue-size:200}") int maxCola,
+                             @Value("${openai.limiter.max-wait:10s}") Duration maxEspera,
+                             MeterRegistry meterRegistry) {
+        this.peticionesPorMinuto = peticionesPorMinuto;
+        this.tokensPorMinuto = tokensPorMinuto;
+        this.maxConcurrencia = maxConcurrencia;
+        this.maxCola = maxCola;
+        this.maxEspera = maxEspera;
+        this.peticionesDisponibles = peticionesPorMinuto;
+        this.tokensDisponibles = tokensPorMinuto;
+        this.ultimaRecarga = System.nanoTime();
+
+        this.tiempoEspera = Timer.builder("openai.limitador.espera")
+                .description("Tiempo de espera en cola antes de llamar a OpenAI")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        this.rechazos = meterRegistry.counter("openai.limitador.rechazos");
+        meterRegistry.gauge("openai.limitador.cola", this, OpenAiRateLimiter::profundidadCola);
+        meterRegistry.gauge("openai.limitador.en_curso", this, OpenAiRateLimiter::llamadasEnCurso);
+    }
+
+    /**
+     * Solicita permiso para realizar una llamada a OpenAI.
+     * El permiso debe liberarse al terminar la llamada (se recomienda usar Mono/Flux.usingWhen).
+     *
+     * @param costoTokens Tokens estimados de la llamada (prompt más max_tokens)
+     * @return Mono que emite el permiso cuando hay capacidad, o falla con LimiteExcedidoException
+     */
+    public Mono<Permiso> adquirir(int costoTokens) {
+        return Mono.<Permiso>create(sink -> {
+            // Una petición mayor que la cubeta completa nunca cabría: se limita a la capacidad
+            Espera espera = new Espera(sink, Math.min(costoTokens, tokensPorMinuto));
+            espera.plazo = Schedulers.parallel().schedule(() -> expirar(espera),
+                    maxEspera.toMillis(), TimeUnit.MILLISECONDS);
+            sink.onCancel(() -> descartar(espera));
+
+            boolean encolada;
+            synchronized (this) {
+                encolada = cola.size() < maxCola;
+                if (encolada) {
+                    cola.addLast(espera);
+                }
+            }
+            if (!encolada) {
+                descartar(espera);
+                rechazos.increment();
+                logger.warn("Cola del limitador de OpenAI llena ({} peticiones en espera)", maxCola);
+                sink.error(new LimiteExcedidoException("Cola de peticiones a OpenAI llena"));
+                return;
+            }
+
+            drenar();
+        }).doOnDiscard(Permiso.class, Permiso::liberar);
+    }
+
+    public synchronized int profundidadCola() {
+        return cola.size();
+    }
+
+    public synchronized int llamadasEnCurso() {
+        return enCurso;
+    }
+
+    /**
+     * Concede permisos a las peticiones en cola mientras haya capacidad.
+     * Si falta saldo en las cubetas programa un nuevo intento para cuando se haya recargado.
+     */
+    private void drenar() {
+        List<Espera> concedidas = new ArrayList<>();
+        long retrasoNanos = 0;
+
+        synchronized (this) {
+            recargar();
+            while (!cola.isEmpty() && enCurso < maxConcurrencia) {
+                Espera espera = cola.peekFirst();
+                if (espera.estado.get() != PENDIENTE) {
+                    cola.pollFirst();
+                    continue;
+                }
+                if (peticionesDisponibles < 1 || tokensDisponibles < espera.costo) {
+                    retrasoNanos = tiempoHastaSaldo(espera.costo);
+                    break;
+                }
+                cola.pollFirst();
+                if (espera.estado.compareAndSet(PENDIENTE, CONCEDIDA)) {
+                    peticionesDisponibles -= 1;
+                    tokensDisponibles -= espera.costo;
+                    enCurso++;
+                    concedidas.add(espera);
+                }
+            }
+            if (retrasoNanos > 0 && !drenajeProgramado) {
+                drenajeProgramado = true;
+            } else {
+                retrasoNanos = 0;
+            }
+        }
+
+        for (Espera espera : concedidas) {
+            espera.plazo.dispose();
+            tiempoEspera.record(System.nanoTime() - espera.inicio, TimeUnit.NANOSECONDS);
+            espera.sink.success(new Permiso());
+        }
+
+        if (retrasoNanos > 0) {
+            Schedulers.parallel().schedule(() -> {
+                synchronized (this) {
+                    drenajeProgramado = false;
+                }
+                drenar();
+            }, retrasoNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void recargar() {
+        long ahora = System.nanoTime();
+        double fraccion = (double) (ahora - ultimaRecarga) / NANOS_POR_MINUTO;
+        ultimaRecarga = ahora;
+        peticionesDisponibles = Math.min(peticionesPorMinuto, peticionesDisponibles + fraccion * peticionesPorMinuto);
+        tokensDisponibles = Math.min(tokensPorMinuto, tokensDisponibles + fraccion * tokensPorMinuto);
+    }
+
+    private long tiempoHastaSaldo(double costo) {
+        double faltanPeticiones = Math.max(0, 1 - peticionesDisponibles) / peticionesPorMinuto;
+        double faltanTokens = Math.max(0, costo - tokensDisponibles) / tokensPorMinuto;
+        return Math.max(1, (long) Math.ceil(Math.max(faltanPeticiones, faltanTokens) * NANOS_POR_MINUTO));
+    }
+
+    private void expirar(Espera espera) {
+        if (espera.estado.compareAndSet(PENDIENTE, DESCARTADA)) {
+            synchronized (this) {
+                cola.remove(espera);
+            }
+            rechazos.increment();
+            tiempoEspera.record(System.nanoTime() - espera.inicio, TimeUnit.NANOSECONDS);
+            logger.warn("Petición a OpenAI descartada tras esperar {} en la cola del limitador", maxEspera);
+            espera.sink.error(new LimiteExcedidoException("Tiempo de espera agotado en la cola de OpenAI"));
+        }
+    }
+
+    private void descartar(Espera espera) {
+        if (espera.estado.compareAndSet(PENDIENTE, DESCARTADA)) {
+            espera.plazo.dispose();
+            synchronized (this) {
+                cola.remove(espera);
+            }
+        }
+    }
+
+    private void liberar() {
+        synchronized (this) {
+            enCurso--;
+        }
+        drenar();
+    }
+
+    /**
+     * Petición esperando capacidad en la cola del limitador
+     */
+    private static final class Espera {
+        final MonoSink<Permiso> sink;
+        final double costo;
+        final long inicio = System.nanoTime();
+        final AtomicInteger estado = new AtomicInteger(PENDIENTE);
+        Disposable plazo;
+
+        Espera(MonoSink<Permiso> sink, double costo) {
+            this.sink = sink;
+            this.costo = costo;
+        }
+    }
+
+    /**
+     * Permiso concedido para una llamada a OpenAI. Liberarlo más de una vez no tiene efecto.
+     */
+    public final class Permiso {
+        private final AtomicBoolean liberado = new AtomicBoolean(false);
+
+        private Permiso() {
+        }
+
+        public void liberar() {
+            if (liberado.compareAndSet(false, true)) {
+                OpenAiRateLimiter.this.liberar();
+            }
+        }
+    }
+
+    /**
+     * Se lanza cuando una petición no puede admitirse: cola llena o plazo de espera agotado
+     */
+    public static class LimiteExcedidoException extends RuntimeException {
+        public LimiteExcedidoException(String message) {
+            super(message);
+        }
+    }
+}
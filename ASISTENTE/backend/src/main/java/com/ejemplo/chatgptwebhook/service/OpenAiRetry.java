@@ -0,0 +1,144 @@
+package com.ejemplo.chatgptwebhook.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Política de reintentos para las llamadas a OpenAI.
+ * Solo reintenta fallos transitorios (429 por límite de velocidad, 5xx, timeouts y errores
+ * de conexión) con backoff exponencial "decorrelated jitter", respetando la cabecera
+ * Retry-After cuando OpenAI la envía. Un reintento solo empieza dentro de la ventana de reintentos,
+ * contada desde el primer intento, para que la llamada completa quepa en el timeout de la petición HTTP.
+ */
+@Component
+public class OpenAiRetry {
+
+    private static final Logger logger = LoggerFactory.getLogger(OpenAiRetry.class);
+
+    private final int maxReintentos;
+    private final long esperaBaseMs;
+    private final long esperaMaximaMs;
+    private final long ventanaNanos;
+    private final Counter reintentos;
+
+    public OpenAiRetry(@Value("${openai.retry.max-attempts:3}") int maxReintentos,
+                       @Value("${openai.retry.base-delay:500ms}") Duration esperaBase,
+                       @Value("${openai.retry.max-delay:10s}") Duration esperaMaxima,
+                       @Value("${openai.retry.ventana:30s}") Duration ventana,
+                       MeterRegistry meterRegistry) {
+        this.maxReintentos = maxReintentos;
+        this.esperaBaseMs = esperaBase.toMillis();
+        this.esperaMaximaMs = esperaMaxima.toMillis();
+        this.ventanaNanos = ventana.toNanos();
+        this.reintentos = meterRegistry.counter("openai.reintentos");
+    }
+
+    /**
+     * Política de reintentos para llamadas que se pueden repetir sin efectos secundarios
+     */
+    public Retry politica() {
+        return politica(() -> true);
+    }
+
+    /**
+     * Política de reintentos condicionada: solo reintenta mientras puedeReintentar sea cierto
+     * (por ejemplo, un stream que todavía no ha enviado ningún fragmento al cliente)
+     */
+    public Retry politica(BooleanSupplier puedeReintentar) {
+        return Retry.from(senales -> {
+            // Estado propio de cada suscripción: inicio del primer intento y última espera aplicada
+            long inicio = System.nanoTime();
+            long[] esperaAnterior = {esperaBaseMs};
+            return senales.concatMap(senal -> {
+                Throwable error = senal.failure();
+                if (senal.totalRetries() >= maxReintentos || !esTransitorio(error) || !puedeReintentar.getAsBoolean()) {
+                    return Mono.error(error);
+                }
+
+                // Decorrelated jitter: aleatorio entre la base y el triple de la espera anterior
+                long limiteSuperior = Math.max(esperaBaseMs + 1, esperaAnterior[0] * 3);
+                long espera = Math.min(esperaMaximaMs, ThreadLocalRandom.current().nextLong(esperaBaseMs, limiteSuperior));
+                esperaAnterior[0] = espera;
+
+                Long retryAfter = retryAfterMs(error);
+                if (retryAfter != null) {
+                    if (retryAfter > esperaMaximaMs) {
+                        logger.warn("OpenAI pide esperar {} ms antes de reintentar; se supera la espera máxima y no se reintenta", retryAfter);
+                        return Mono.error(error);
+                    }
+                    espera = Math.max(espera, retryAfter);
+                }
+
+                if (System.nanoTime() - inicio + TimeUnit.MILLISECONDS.toNanos(espera) > ventanaNanos) {
+                    logger.warn("El reintento {} empezaría fuera de la ventana de reintentos; no se reintenta",
+                            senal.totalRetries() + 1);
+                    return Mono.error(error);
+                }
+
+                reintentos.increment();
+                logger.warn("Fallo transitorio al llamar a OpenAI ({}), reintento {} de {} en {} ms",
+                        error.toString(), senal.totalRetries() + 1, maxReintentos, espera);
+                return Mono.delay(Duration.ofMillis(espera));
+            });
+        });
+    }
+
+    /**
+     * Indica si un error de OpenAI es transitorio y tiene sentido reintentar o contarlo como caída del servicio.
+     * La cuota agotada (también un 429) y los errores de la petición no son transitorios.
+     */
+    public static boolean esTransitorio(Throwable error) {
+        if (error instanceof WebClientResponseException ex) {
+            int status = ex.getStatusCode().value();
+            if (status == HttpStatus.TOO_MANY_REQUESTS.value()) {
+                return !ex.getResponseBodyAsString().contains("insufficient_quota");
+            }
+            return status == HttpStatus.REQUEST_TIMEOUT.value() || ex.getStatusCode().is5xxServerError();
+        }
+        return error instanceof WebClientRequestException || error instanceof TimeoutException;
+    }
+
+    /**
+     * Lee el tiempo de espera sugerido por OpenAI (retry-after-ms o Retry-After en segundos o fecha HTTP)
+     */
+    private static Long retryAfterMs(Throwable error) {
+        if (!(error instanceof WebClientResponseException ex)) {
+            return null;
+        }
+        try {
+            String retryAfterMs = ex.getHeaders().getFirst("retry-after-ms");
+            if (retryAfterMs != null) {
+                return (long) Double.parseDouble(retryAfterMs.trim());
+            }
+            String retryAfter = ex.getHeaders().getFirst("Retry-After");
+            if (retryAfter == null) {
+                return null;
+            }
+            if (retryAfter.trim().chars().allMatch(Character::isDigit)) {
+                return Long.parseLong(retryAfter.trim()) * 1000;
+            }
+            ZonedDateTime fecha = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+            return Math.max(0, Duration.between(ZonedDateTime.now(), fecha).toMillis());
+        } catch (NumberFormatException | DateTimeParseException e) {
+            return null;
+        }
+    }
+}
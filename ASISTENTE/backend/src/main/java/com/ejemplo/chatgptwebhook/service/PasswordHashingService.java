@@ -0,0 +1,121 @@
+package com.ejemplo.chatgptwebhook.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Ejecuta el hash y la verificación de contraseñas (BCrypt) en un pool propio, dimensionado
+ * a los núcleos de CPU y con una cola acotada. Así una ráfaga de logins o registros no ocupa
+ * los hilos de Tomcat que atienden el resto de endpoints; cuando el pool está saturado la
+ * operación se rechaza de inmediato con RejectedExecutionException.
+ * El pool solo calcula hashes: quien usa el resultado para acceder a la base de datos debe continuar
+ * en otro executor (thenApplyAsync) para no ocupar estos hilos con esperas de E/S.
+ */
+@Service
+public class PasswordHashingService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PasswordHashingService.class);
+
+    private final PasswordEncoder passwordEncoder;
+    private final ThreadPoolExecutor executor;
+    private final MeterRegistry meterRegistry;
+    private final Medicion medicionEncode;
+    private final Medicion medicionMatches;
+
+    public PasswordHashingService(PasswordEncoder passwordEncoder,
+                                  @Value("${auth.hashing.threads:0}") int hilos,
+                                  @Value("${auth.hashing.queue-size:100}") int maxCola,
+                                  MeterRegistry meterRegistry) {
+        this.passwordEncoder = passwordEncoder;
+        this.meterRegistry = meterRegistry;
+
+        // 0 = un hilo por núcleo: BCrypt es trabajo de CPU puro
+        int tamano = hilos > 0 ? hilos : Runtime.getRuntime().availableProcessors();
+        AtomicInteger contador = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(tamano, tamano, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxCola),
+                r -> {
+                    Thread t = new Thread(r, "bcrypt-" + contador.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+
+        meterRegistry.gauge("auth.hashing.cola", executor, e -> e.getQueue().size());
+        meterRegistry.gauge("auth.hashing.activos", executor, ThreadPoolExecutor::getActiveCount);
+        this.medicionEncode = medicion("encode");
+        this.medicionMatches = medicion("matches");
+    }
+
+    /**
+     * Calcula el hash de una contraseña
+     */
+    public CompletableFuture<String> encode(String contraseña) {
+        return ejecutar(medicionEncode, () -> passwordEncoder.encode(contraseña));
+    }
+
+    /**
+     * Verifica una contraseña contra su hash
+     */
+    public CompletableFuture<Boolean> matches(String contraseña, String hash) {
+        return ejecutar(medicionMatches, () -> passwordEncoder.matches(contraseña, hash));
+    }
+
+    private <T> CompletableFuture<T> ejecutar(Medicion medicion, Supplier<T> tarea) {
+        long encolada = System.nanoTime();
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                long inicio = System.nanoTime();
+                medicion.espera().record(inicio - encolada, TimeUnit.NANOSECONDS);
+                try {
+                    return tarea.get();
+                } finally {
+                    medicion.calculo().record(System.nanoTime() - inicio, TimeUnit.NANOSECONDS);
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            meterRegistry.counter("auth.hashing.rechazos", "operacion", medicion.operacion()).increment();
+            logger.warn("Pool de hashing de contraseñas saturado: se rechaza la operación {}", medicion.operacion());
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private Medicion medicion(String operacion) {
+        return new Medicion(operacion,
+                timer("auth.hashing.espera", "Tiempo en cola antes de calcular el hash", operacion),
+                timer("auth.hashing.calculo", "Tiempo de cálculo del hash", operacion));
+    }
+
+    private Timer timer(String nombre, String descripcion, String operacion) {
+        return Timer.builder(nombre)
+                .description(descripcion)
+                .tag("operacion", operacion)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Temporizadores de una operación, creados una sola vez
+     */
+    private record Medicion(String operacion, Timer espera, Timer calculo) {
+    }
+
+    @PreDestroy
+    public void cerrar() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,387 @@
+package com.ejemplo.chatgptwebhook.service;
+
+import com.ejemplo.chatgptwebhook.model.ListaTareas;
+import com.ejemplo.chatgptwebhook.model.Proyecto;
+import com.ejemplo.chatgptwebhook.model.SessionState;
+import com.ejemplo.chatgptwebhook.model.Tarea;
+import com.ejemplo.chatgptwebhook.repository.ProyectoRepository;
+import com.ejemplo.chatgptwebhook.repository.TareaRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Persistencia en segundo plano (write-behind) de los proyectos y tareas de las sesiones del menú.
+ * El menú trabaja siempre sobre la sesión en memoria y aquí solo se anotan los cambios; los cambios
+ * de una misma sesión se combinan (un proyecto nuevo reemplaza lo pendiente, las tareas agregadas
+ * y completadas se acumulan) y cada intervalo se escriben los de todas las sesiones en una
+ * transacción con sentencias JDBC en batch.
+ * Cuando una sesión ya no está en memoria (reinicio, expiración), se reconstruye desde la base de datos.
+ * Con el almacén de sesiones compartido (sesiones.store=jdbc) los cambios incrementales no se anotan:
+ * el almacén entrega el estado completo de cada versión confirmada y solo se escribe la más reciente.
+ * Cada proyecto guarda la versión de la sesión que refleja y nunca se sobrescribe con una anterior.
+ */
+@Component
+public class ProyectosWriteBehind {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProyectosWriteBehind.class);
+
+    private static final int MAX_NOMBRE = 255;
+
+    private static final String BORRAR_TAREAS =
+            "DELETE FROM tareas WHERE proyecto_id = (SELECT id FROM proyectos WHERE session_id = ?)";
+    private static final String BORRAR_PROYECTO =
+            "DELETE FROM proyectos WHERE session_id = ?";
+    // Un proyecto solo se reemplaza por el de una versión igual o posterior de la sesión
+    private static final String GUARDAR_PROYECTO =
+            "INSERT INTO proyectos (session_id, user_id, nombre, contexto, version_sesion, fecha_creacion, fecha_actualizacion) " +
+            "VALUES (?, (SELECT id FROM users WHERE correo = ?), ?, ?, ?, ?, ?) " +
+            "ON CONFLICT (session_id) DO UPDATE SET user_id = COALESCE(EXCLUDED.user_id, proyectos.user_id), " +
+            "nombre = EXCLUDED.nombre, contexto = EXCLUDED.contexto, version_sesion = EXCLUDED.version_sesion, " +
+            "fecha_actualizacion = EXCLUDED.fecha_actualizacion " +
+            "WHERE proyectos.version_sesion <= EXCLUDED.version_sesion";
+    // Las tareas de un proyecto reemplazado solo se tocan si el proyecto quedó en esa versión
+    private static final String REEMPLAZAR_TAREAS =
+            "DELETE FROM tareas WHERE proyecto_id = (SELECT id FROM proyectos WHERE session_id = ? AND version_sesion = ?)";
+    private static final String GUARDAR_TAREA =
+            "INSERT INTO tareas (proyecto_id, posicion, numero, texto, completada) " +
+            "SELECT id, ?, ?, ?, ? FROM proyectos WHERE session_id = ? AND version_sesion = ? " +
+            "ON CONFLICT (proyecto_id, posicion) DO UPDATE SET numero = EXCLUDED.numero, " +
+            "texto = EXCLUDED.texto, completada = EXCLUDED.completada";
+    private static final String COMPLETAR_TAREA =
+            "UPDATE tareas SET completada = TRUE " +
+            "WHERE numero = ? AND proyecto_id = (SELECT id FROM proyectos WHERE session_id = ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ProyectoRepository proyectoRepository;
+    private final TareaRepository tareaRepository;
+    private final int maxIntentos;
+    // Con el almacén compartido se guardan instantáneas versionadas en lugar de cambios incrementales
+    private final boolean instantaneas;
+
+    private final Map<String, Cambios> pendientes = new ConcurrentHashMap<>();
+    // Las escrituras se serializan para que los cambios de una sesión se apliquen en orden
+    private final ReentrantLock escritura = new ReentrantLock();
+
+    private final Timer tiempoEscritura;
+    private final Counter sesionesEscritas;
+    private final Counter sesionesDescartadas;
+    private final Counter rehidratadas;
+
+    public ProyectosWriteBehind(DataSource dataSource,
+                                PlatformTransactionManager transactionManager,
+                                ProyectoRepository proyectoRepository,
+                                TareaRepository tareaRepository,
+                                @Value("${proyectos.write-behind.max-intentos:5}") int maxIntentos,
+                                @Value("${sesiones.store:memoria}") String almacenSesiones,
+                                MeterRegistry meterRegistry) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.proyectoRepository = proyectoRepository;
+        this.tareaRepository = tareaRepository;
+        this.maxIntentos = maxIntentos;
+        this.instantaneas = "jdbc".equals(almacenSesiones);
+
+        meterRegistry.gauge("proyectos.write_behind.pendientes", pendientes, Map::size);
+        this.tiempoEscritura = Timer.builder("proyectos.write_behind.escritura")
+                .description("Tiempo de escritura de los cambios pendientes de proyectos y tareas")
+                .register(meterRegistry);
+        this.sesionesEscritas = meterRegistry.counter("proyectos.write_behind.sesiones_escritas");
+        this.sesionesDescartadas = meterRegistry.counter("proyectos.write_behind.sesiones_descartadas");
+        this.rehidratadas = meterRegistry.counter("proyectos.write_behind.sesiones_rehidratadas");
+    }
+
+    /**
+     * Anota el proyecto completo de la sesión (nombre, contexto y tareas), que reemplaza al guardado.
+     * Debe llamarse dentro de la actualización atómica de la sesión para respetar el orden de los cambios.
+     */
+    public void proyectoGuardado(String sessionId, SessionState estado) {
+        if (instantaneas) {
+            return;
+        }
+        anotarProyecto(sessionId, estado, 0);
+    }
+
+    /**
+     * Anota el estado completo de una versión de la sesión confirmada en el almacén compartido.
+     * Una sesión sin proyecto se guarda como proyecto vacío para que su versión quede registrada.
+     */
+    public void estadoConfirmado(String sessionId, long version, SessionState estado) {
+        anotarProyecto(sessionId, estado, version);
+    }
+
+    private void anotarProyecto(String sessionId, SessionState estado, long version) {
+        ListaTareas tareas = estado.getTareas();
+        List<ListaTareas.Linea> lineas = tareas != null ? List.copyOf(tareas.lineas()) : List.of();
+        BitSet completadas = new BitSet();
+        for (ListaTareas.Linea linea : lineas) {
+            if (linea.numero() > 0 && tareas.estaCompletada(linea.numero())) {
+                completadas.set(linea.numero());
+            }
+        }
+        ProyectoCompleto proyecto = new ProyectoCompleto(estado.getUsuario(), recortar(estado.getNombreProyecto()),
+                estado.getContextoProyecto(), lineas, completadas, version, LocalDateTime.now());
+        pendientes.compute(sessionId, (clave, cambios) -> {
+            if (cambios != null && cambios.proyecto != null && cambios.proyecto.version() > version) {
+                return cambios;
+            }
+            Cambios nuevos = new Cambios();
+            nuevos.proyecto = proyecto;
+            return nuevos;
+        });
+    }
+
+    /**
+     * Anota una línea de tarea agregada al final de la lista
+     */
+    public void tareaAgregada(String sessionId, int posicion, ListaTareas.Linea linea) {
+        if (instantaneas) {
+            return;
+        }
+        pendientes.compute(sessionId, (clave, cambios) -> {
+            Cambios actuales = cambios != null ? cambios : new Cambios();
+            actuales.agregadas.put(posicion, linea);
+            return actuales;
+        });
+    }
+
+    /**
+     * Anota una tarea marcada como completada
+     */
+    public void tareaCompletada(String sessionId, int numero) {
+        if (instantaneas) {
+            return;
+        }
+        pendientes.compute(sessionId, (clave, cambios) -> {
+            Cambios actuales = cambios != null ? cambios : new Cambios();
+            actuales.completadas.set(numero);
+            return actuales;
+        });
+    }
+
+    /**
+     * Anota que la sesión ya no tiene proyecto: se descarta todo lo pendiente y se borra el guardado
+     */
+    public void proyectoEliminado(String sessionId) {
+        if (instantaneas) {
+            return;
+        }
+        pendientes.compute(sessionId, (clave, cambios) -> {
+            Cambios nuevos = new Cambios();
+            nuevos.eliminar = true;
+            return nuevos;
+        });
+    }
+
+    /**
+     * Reconstruye el estado de una sesión desde la base de datos, aplicando antes sus cambios pendientes
+     *
+     * @return El estado guardado y su versión, o vacío si la sesión no tiene nada guardado
+     */
+    public Optional<ProyectoGuardado> cargar(String sessionId) {
+        if (pendientes.containsKey(sessionId)) {
+            escribir(List.of(sessionId));
+        }
+        Optional<Proyecto> guardado = proyectoRepository.findBySessionId(sessionId);
+        if (guardado.isEmpty()) {
+            return Optional.empty();
+        }
+        Proyecto proyecto = guardado.get();
+        SessionState estado = new SessionState();
+        if (proyecto.getNombre() == null && proyecto.getContexto() == null) {
+            // Sesión reiniciada: no hay proyecto, pero se conserva su versión
+            return Optional.of(new ProyectoGuardado(estado, proyecto.getVersionSesion()));
+        }
+        if (proyecto.getUser() != null) {
+            estado.setUsuario(proyecto.getUser().getCorreo());
+        }
+        estado.setNombreProyecto(proyecto.getNombre());
+        estado.setContextoProyecto(proyecto.getContexto());
+        List<Tarea> lineas = tareaRepository.findByProyectoIdOrderByPosicionAsc(proyecto.getId());
+        if (!lineas.isEmpty()) {
+            ListaTareas tareas = new ListaTareas();
+            for (Tarea tarea : lineas) {
+                tareas.agregarLinea(tarea.getTexto());
+                if (Boolean.TRUE.equals(tarea.getCompletada()) && tarea.getNumero() > 0) {
+                    tareas.marcarCompletada(tarea.getNumero());
+                }
+            }
+            estado.setTareas(tareas);
+        }
+        rehidratadas.increment();
+        logger.info("Sesión {} recuperada de la base de datos: proyecto {} con {} líneas de tareas",
+                sessionId, proyecto.getNombre(), lineas.size());
+        return Optional.of(new ProyectoGuardado(estado, proyecto.getVersionSesion()));
+    }
+
+    @Scheduled(fixedDelayString = "${proyectos.write-behind.intervalo:PT2S}")
+    public void escribirPendientes() {
+        if (!pendientes.isEmpty()) {
+            escribir(new ArrayList<>(pendientes.keySet()));
+        }
+    }
+
+    private void escribir(List<String> sessionIds) {
+        escritura.lock();
+        try {
+            Map<String, Cambios> lote = new LinkedHashMap<>();
+            for (String sessionId : sessionIds) {
+                Cambios cambios = pendientes.remove(sessionId);
+                if (cambios != null) {
+                    lote.put(sessionId, cambios);
+                }
+            }
+            if (lote.isEmpty()) {
+                return;
+            }
+            try {
+                tiempoEscritura.record(() -> transactionTemplate.executeWithoutResult(status -> aplicar(lote)));
+                sesionesEscritas.increment(lote.size());
+            } catch (RuntimeException e) {
+                // Se reintenta sesión a sesión para que una sesión con datos defectuosos no bloquee al resto
+                logger.warn("Error al escribir los cambios de {} sesiones, se reintenta una a una", lote.size(), e);
+                lote.forEach(this::escribirSesion);
+            }
+        } finally {
+            escritura.unlock();
+        }
+    }
+
+    private void escribirSesion(String sessionId, Cambios cambios) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> aplicar(Map.of(sessionId, cambios)));
+            sesionesEscritas.increment();
+        } catch (RuntimeException e) {
+            if (++cambios.intentos >= maxIntentos) {
+                sesionesDescartadas.increment();
+                logger.error("Se descartan los cambios de la sesión {} tras {} intentos", sessionId, cambios.intentos, e);
+                return;
+            }
+            logger.warn("Error al escribir los cambios de la sesión {} (intento {})", sessionId, cambios.intentos, e);
+            // Los cambios llegados mientras tanto van después de los que fallaron
+            pendientes.merge(sessionId, cambios, (posteriores, fallidos) -> posteriores.despuesDe(fallidos));
+        }
+    }
+
+    /**
+     * Aplica los cambios de todas las sesiones del lote por fases, una sentencia en batch por fase.
+     * El orden de las fases respeta el de los cambios dentro de cada sesión.
+     */
+    private void aplicar(Map<String, Cambios> lote) {
+        List<Object[]> borrarTareas = new ArrayList<>();
+        List<Object[]> borrarProyectos = new ArrayList<>();
+        List<Object[]> guardarProyectos = new ArrayList<>();
+        List<Object[]> reemplazarTareas = new ArrayList<>();
+        List<Object[]> guardarTareas = new ArrayList<>();
+        List<Object[]> completarTareas = new ArrayList<>();
+
+        lote.forEach((sessionId, cambios) -> {
+            if (cambios.eliminar) {
+                borrarTareas.add(new Object[]{sessionId});
+                borrarProyectos.add(new Object[]{sessionId});
+            }
+            ProyectoCompleto proyecto = cambios.proyecto;
+            if (proyecto != null) {
+                Timestamp ahora = Timestamp.valueOf(proyecto.fecha());
+                guardarProyectos.add(new Object[]{sessionId, proyecto.usuario(), proyecto.nombre(),
+                        proyecto.contexto(), proyecto.version(), ahora, ahora});
+                reemplazarTareas.add(new Object[]{sessionId, proyecto.version()});
+                for (int posicion = 0; posicion < proyecto.lineas().size(); posicion++) {
+                    ListaTareas.Linea linea = proyecto.lineas().get(posicion);
+                    boolean completada = linea.numero() > 0 && proyecto.completadas().get(linea.numero());
+                    guardarTareas.add(new Object[]{posicion, linea.numero(), linea.texto(), completada,
+                            sessionId, proyecto.version()});
+                }
+            }
+            // Los cambios incrementales solo se anotan con el almacén en memoria, donde la versión es siempre 0
+            cambios.agregadas.forEach((posicion, linea) ->
+                    guardarTareas.add(new Object[]{posicion, linea.numero(), linea.texto(), false, sessionId, 0L}));
+            cambios.completadas.stream().forEach(numero ->
+                    completarTareas.add(new Object[]{numero, sessionId}));
+        });
+
+        ejecutar(BORRAR_TAREAS, borrarTareas);
+        ejecutar(BORRAR_PROYECTO, borrarProyectos);
+        ejecutar(GUARDAR_PROYECTO, guardarProyectos);
+        ejecutar(REEMPLAZAR_TAREAS, reemplazarTareas);
+        ejecutar(GUARDAR_TAREA, guardarTareas);
+        ejecutar(COMPLETAR_TAREA, completarTareas);
+    }
+
+    private void ejecutar(String sql, List<Object[]> filas) {
+        if (!filas.isEmpty()) {
+            jdbcTemplate.batchUpdate(sql, filas);
+        }
+    }
+
+    private static String recortar(String nombre) {
+        return nombre != null && nombre.length() > MAX_NOMBRE ? nombre.substring(0, MAX_NOMBRE) : nombre;
+    }
+
+    @PreDestroy
+    public void cerrar() {
+        // Lo pendiente se escribe antes de cerrar la conexión a la base de datos
+        escribirPendientes();
+    }
+
+    /**
+     * Estado de una sesión reconstruido desde la base de datos y versión de la sesión que refleja
+     */
+    public record ProyectoGuardado(SessionState estado, long version) {
+    }
+
+    /**
+     * Proyecto completo tal como estaba en la sesión al guardarlo
+     */
+    private record ProyectoCompleto(String usuario, String nombre, String contexto, List<ListaTareas.Linea> lineas,
+                                    BitSet completadas, long version, LocalDateTime fecha) {
+    }
+
+    /**
+     * Cambios pendientes de una sesión, ya combinados
+     */
+    private static final class Cambios {
+        // Borrar el proyecto guardado (la sesión se reinició)
+        boolean eliminar;
+        // Proyecto que reemplaza al guardado, con sus tareas
+        ProyectoCompleto proyecto;
+        // Líneas agregadas por posición y números de tareas completadas después del proyecto
+        final Map<Integer, ListaTareas.Linea> agregadas = new LinkedHashMap<>();
+        final BitSet completadas = new BitSet();
+        int intentos;
+
+        /**
+         * Combina estos cambios con otros anteriores: un reemplazo o un borrado invalida lo anterior
+         */
+        Cambios despuesDe(Cambios anteriores) {
+            if (eliminar || proyecto != null) {
+                return this;
+            }
+            anteriores.agregadas.putAll(agregadas);
+            anteriores.completadas.or(completadas);
+            return anteriores;
+        }
+    }
+}
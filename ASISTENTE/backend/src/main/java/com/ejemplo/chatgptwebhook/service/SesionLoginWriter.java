@@ -0,0 +1,162 @@
+package com.ejemplo.chatgptwebhook.service;
+
+import com.ejemplo.chatgptwebhook.model.SesionLogin;
+import com.ejemplo.chatgptwebhook.repository.SesionLoginRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Escritura diferida (write-behind) de las sesiones de login.
+ * El login solo encola el registro; un hilo en segundo plano lo guarda en lotes, cuando se
+ * llena un lote o pasa el intervalo de vaciado, en una única transacción con inserciones JDBC
+ * en batch. Si la cola está llena el registro se guarda en el hilo que llama (contrapresión
+ * sin perder registros) y al parar la aplicación se vacía la cola antes de cerrar.
+ */
+@Component
+public class SesionLoginWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(SesionLoginWriter.class);
+
+    private final SesionLoginRepository sesionLoginRepository;
+    private final BlockingQueue<SesionLogin> cola;
+    private final int tamanoLote;
+    private final long intervaloNanos;
+    private final Duration esperaCierre;
+    private final Thread hilo;
+    private volatile boolean activo = true;
+
+    private final Timer tiempoLote;
+    private final Counter guardadas;
+    private final Counter sincronas;
+    private final Counter perdidas;
+
+    public SesionLoginWriter(SesionLoginRepository sesionLoginRepository,
+                             @Value("${sesiones-login.writer.queue-size:10000}") int maxCola,
+                             @Value("${sesiones-login.writer.batch-size:50}") int tamanoLote,
+                             @Value("${sesiones-login.writer.flush-interval:1s}") Duration intervalo,
+                             @Value("${sesiones-login.writer.shutdown-timeout:10s}") Duration esperaCierre,
+                             MeterRegistry meterRegistry) {
+        this.sesionLoginRepository = sesionLoginRepository;
+        this.cola = new ArrayBlockingQueue<>(maxCola);
+        this.tamanoLote = tamanoLote;
+        this.intervaloNanos = intervalo.toNanos();
+        this.esperaCierre = esperaCierre;
+        this.hilo = new Thread(this::ejecutar, "sesiones-login-writer");
+        this.hilo.setDaemon(true);
+
+        meterRegistry.gauge("sesiones_login.cola", cola, BlockingQueue::size);
+        this.tiempoLote = Timer.builder("sesiones_login.lote")
+                .description("Tiempo de guardado de cada lote de sesiones de login")
+                .register(meterRegistry);
+        this.guardadas = meterRegistry.counter("sesiones_login.guardadas");
+        this.sincronas = meterRegistry.counter("sesiones_login.sincronas");
+        this.perdidas = meterRegistry.counter("sesiones_login.perdidas");
+    }
+
+    @PostConstruct
+    public void iniciar() {
+        hilo.start();
+    }
+
+    /**
+     * Encola una sesión de login para guardarla en segundo plano.
+     * Si la cola está llena (o el escritor ya se detuvo) se guarda de inmediato.
+     */
+    public void registrar(SesionLogin sesion) {
+        if (activo && cola.offer(sesion)) {
+            return;
+        }
+        sincronas.increment();
+        sesionLoginRepository.save(sesion);
+        guardadas.increment();
+    }
+
+    private void ejecutar() {
+        List<SesionLogin> lote = new ArrayList<>(tamanoLote);
+        while (activo || !cola.isEmpty()) {
+            try {
+                llenarLote(lote);
+            } catch (InterruptedException e) {
+                // Se vacía lo pendiente y se termina
+                activo = false;
+                cola.drainTo(lote);
+            }
+            if (!lote.isEmpty()) {
+                guardar(lote);
+                lote.clear();
+            }
+        }
+    }
+
+    /**
+     * Espera la primera sesión y completa el lote hasta llenarlo o agotar el intervalo
+     */
+    private void llenarLote(List<SesionLogin> lote) throws InterruptedException {
+        SesionLogin primera = cola.poll(intervaloNanos, TimeUnit.NANOSECONDS);
+        if (primera == null) {
+            return;
+        }
+        lote.add(primera);
+        long limite = System.nanoTime() + intervaloNanos;
+        while (lote.size() < tamanoLote) {
+            cola.drainTo(lote, tamanoLote - lote.size());
+            long restante = limite - System.nanoTime();
+            if (lote.size() >= tamanoLote || restante <= 0 || !activo) {
+                return;
+            }
+            SesionLogin siguiente = cola.poll(restante, TimeUnit.NANOSECONDS);
+            if (siguiente == null) {
+                return;
+            }
+            lote.add(siguiente);
+        }
+    }
+
+    private void guardar(List<SesionLogin> lote) {
+        try {
+            tiempoLote.record(() -> sesionLoginRepository.saveAll(lote));
+            guardadas.increment(lote.size());
+        } catch (RuntimeException e) {
+            // Un registro defectuoso no debe descartar el lote entero: se reintenta uno a uno
+            logger.warn("Error al guardar un lote de {} sesiones de login, se reintenta una a una", lote.size(), e);
+            for (SesionLogin sesion : lote) {
+                try {
+                    sesion.setId(null);
+                    sesionLoginRepository.save(sesion);
+                    guardadas.increment();
+                } catch (RuntimeException ex) {
+                    perdidas.increment();
+                    logger.error("No se pudo guardar la sesión de login {}", sesion, ex);
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void cerrar() {
+        activo = false;
+        try {
+            hilo.join(esperaCierre.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (hilo.isAlive()) {
+            hilo.interrupt();
+            logger.warn("El escritor de sesiones de login no terminó a tiempo; quedan {} pendientes", cola.size());
+        }
+    }
+}
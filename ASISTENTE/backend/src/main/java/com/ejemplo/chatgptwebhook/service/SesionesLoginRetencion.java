@@ -0,0 +1,259 @@
+package com.ejemplo.chatgptwebhook.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Mantenimiento de las particiones mensuales de sesiones_login.
+ * Cada día crea por adelantado las particiones de los próximos meses y archiva las que quedan
+ * fuera del periodo de retención: las vuelca a un CSV comprimido con gzip y después las separa
+ * de la tabla y las elimina. Así el tamaño de la tabla no crece con el tiempo de funcionamiento.
+ * sesiones_login no tiene partición por defecto (crear después la partición de un mes con filas en
+ * ella fallaría): si faltan particiones de los próximos meses se registra un error y la métrica
+ * sesiones_login.retencion.meses_con_particion baja, para alertar antes de que los logins fallen.
+ */
+@Component
+public class SesionesLoginRetencion {
+
+    private static final Logger logger = LoggerFactory.getLogger(SesionesLoginRetencion.class);
+
+    private static final Pattern NOMBRE_PARTICION = Pattern.compile("sesiones_login_p(\\d{6})");
+    private static final DateTimeFormatter FORMATO_MES = DateTimeFormatter.ofPattern("yyyyMM");
+    private static final String COLUMNAS = "id,user_id,fecha_login,fecha_logout,ip_address,user_agent,activa";
+    private static final int FILAS_POR_LECTURA = 5000;
+
+    // Evita que dos instancias archiven la misma partición a la vez
+    private static final long BLOQUEO_RETENCION = 0x5e5109e5L;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int mesesRetencion;
+    private final int mesesAdelantados;
+    private final Path directorio;
+    private final Counter filasArchivadas;
+    private final Counter particionesArchivadas;
+    // Meses consecutivos desde el actual que ya tienen partición (-1 hasta la primera ejecución)
+    private final AtomicInteger mesesConParticion = new AtomicInteger(-1);
+
+    public SesionesLoginRetencion(DataSource dataSource,
+                                  PlatformTransactionManager transactionManager,
+                                  @Value("${sesiones-login.retencion.meses:12}") int mesesRetencion,
+                                  @Value("${sesiones-login.retencion.meses-adelantados:3}") int mesesAdelantados,
+                                  @Value("${sesiones-login.retencion.directorio:archivo/sesiones_login}") String directorio,
+                                  MeterRegistry meterRegistry) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        // Las particiones se leen por bloques con un cursor en lugar de cargarlas enteras en memoria
+        this.jdbcTemplate.setFetchSize(FILAS_POR_LECTURA);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.mesesRetencion = mesesRetencion;
+        this.mesesAdelantados = mesesAdelantados;
+        this.directorio = Paths.get(directorio);
+        this.filasArchivadas = meterRegistry.counter("sesiones_login.retencion.filas_archivadas");
+        this.particionesArchivadas = meterRegistry.counter("sesiones_login.retencion.particiones_archivadas");
+        meterRegistry.gauge("sesiones_login.retencion.meses_con_particion", mesesConParticion);
+    }
+
+    @Scheduled(cron = "${sesiones-login.retencion.cron:0 30 3 * * *}")
+    public void ejecutar() {
+        YearMonth actual = YearMonth.now();
+        try {
+            crearParticiones(actual);
+        } catch (RuntimeException e) {
+            logger.error("Error al crear las particiones de sesiones_login", e);
+        }
+
+        List<String> particiones = listarParticiones();
+        comprobarParticionesAdelantadas(actual, particiones);
+
+        YearMonth limite = actual.minusMonths(mesesRetencion);
+        for (String particion : particiones) {
+            Matcher m = NOMBRE_PARTICION.matcher(particion);
+            if (!m.matches() || !YearMonth.parse(m.group(1), FORMATO_MES).isBefore(limite)) {
+                continue;
+            }
+            try {
+                archivar(particion);
+            } catch (RuntimeException e) {
+                logger.error("Error al archivar la partición {}", particion, e);
+            }
+        }
+    }
+
+    private void crearParticiones(YearMonth actual) {
+        for (int i = 0; i <= mesesAdelantados; i++) {
+            jdbcTemplate.queryForObject("SELECT sesiones_login_crear_particion(?)", String.class,
+                    actual.plusMonths(i).atDay(1));
+        }
+    }
+
+    /**
+     * Un login en un mes sin partición falla: se avisa mientras todavía quedan días para crearla a mano
+     */
+    private void comprobarParticionesAdelantadas(YearMonth actual, List<String> particiones) {
+        Set<YearMonth> meses = new HashSet<>();
+        for (String particion : particiones) {
+            Matcher m = NOMBRE_PARTICION.matcher(particion);
+            if (m.matches()) {
+                meses.add(YearMonth.parse(m.group(1), FORMATO_MES));
+            }
+        }
+        int cubiertos = 0;
+        while (meses.contains(actual.plusMonths(cubiertos))) {
+            cubiertos++;
+        }
+        mesesConParticion.set(cubiertos);
+        if (cubiertos <= mesesAdelantados) {
+            logger.error("sesiones_login solo tiene particiones hasta {} (se esperaban hasta {}): los logins " +
+                            "fallarán a partir de {} si no se crean con SELECT sesiones_login_crear_particion('{}-01')",
+                    actual.plusMonths(cubiertos - 1L), actual.plusMonths(mesesAdelantados),
+                    actual.plusMonths(cubiertos), actual.plusMonths(cubiertos));
+        }
+    }
+
+    private List<String> listarParticiones() {
+        return jdbcTemplate.queryForList(
+                "SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid " +
+                "WHERE i.inhparent = 'sesiones_login'::regclass ORDER BY c.relname", String.class);
+    }
+
+    /**
+     * Archiva y elimina una partición en una sola transacción: la partición queda bloqueada
+     * contra escrituras mientras se vuelca, y solo se elimina si el fichero ya está en disco.
+     */
+    private void archivar(String particion) {
+        transactionTemplate.executeWithoutResult(status -> {
+            Boolean bloqueado = jdbcTemplate.queryForObject(
+                    "SELECT pg_try_advisory_xact_lock(?)", Boolean.class, BLOQUEO_RETENCION);
+            if (!Boolean.TRUE.equals(bloqueado)) {
+                logger.info("Otra instancia está archivando particiones de sesiones_login");
+                return;
+            }
+            jdbcTemplate.execute("LOCK TABLE " + particion + " IN SHARE MODE");
+
+            Path destino = directorio.resolve(particion + ".csv.gz");
+            long filas = volcar(particion, destino);
+
+            // Al separar la partición no se disparan los triggers del contador de sesiones activas
+            jdbcTemplate.update("UPDATE sesiones_login_contadores SET activas = activas - " +
+                    "(SELECT COUNT(*) FROM " + particion + " WHERE activa) WHERE id = 1");
+            jdbcTemplate.execute("ALTER TABLE sesiones_login DETACH PARTITION " + particion);
+            jdbcTemplate.execute("DROP TABLE " + particion);
+
+            filasArchivadas.increment(filas);
+            particionesArchivadas.increment();
+            logger.info("Partición {} archivada en {} ({} filas)", particion, destino, filas);
+        });
+    }
+
+    /**
+     * Vuelca la partición a un CSV comprimido. Se escribe en un fichero temporal, se sincroniza
+     * con el disco y se renombra, para no dejar nunca un archivo incompleto con el nombre final.
+     * Si el volcado falla, el temporal se borra.
+     */
+    private long volcar(String particion, Path destino) {
+        Path temporal = destino.resolveSibling(destino.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(directorio);
+            long filas;
+            try (FileOutputStream fichero = new FileOutputStream(temporal.toFile());
+                 BufferedOutputStream buffer = new BufferedOutputStream(fichero, 64 * 1024);
+                 GZIPOutputStream gzip = new GZIPOutputStream(buffer);
+                 Writer writer = new OutputStreamWriter(gzip, StandardCharsets.UTF_8)) {
+
+                writer.write(COLUMNAS);
+                writer.write('\n');
+                filas = jdbcTemplate.query("SELECT " + COLUMNAS + " FROM " + particion + " ORDER BY fecha_login",
+                        (ResultSetExtractor<Long>) rs -> escribirFilas(rs, writer));
+                writer.flush();
+                gzip.finish();
+                buffer.flush();
+                fichero.getFD().sync();
+            }
+            Files.move(temporal, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return filas;
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo escribir " + destino, e);
+        } finally {
+            // Tras el renombrado ya no existe
+            try {
+                Files.deleteIfExists(temporal);
+            } catch (IOException e) {
+                logger.warn("No se pudo borrar el fichero temporal {}", temporal, e);
+            }
+        }
+    }
+
+    private static long escribirFilas(ResultSet rs, Writer writer) throws SQLException {
+        int columnas = rs.getMetaData().getColumnCount();
+        long filas = 0;
+        try {
+            while (rs.next()) {
+                for (int i = 1; i <= columnas; i++) {
+                    if (i > 1) {
+                        writer.write(',');
+                    }
+                    escribirCampo(rs.getString(i), writer);
+                }
+                writer.write('\n');
+                filas++;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return filas;
+    }
+
+    /**
+     * Campo CSV (RFC 4180): entre comillas si contiene separadores, comillas o saltos de línea
+     */
+    private static void escribirCampo(String valor, Writer writer) throws IOException {
+        if (valor == null) {
+            return;
+        }
+        boolean comillas = false;
+        for (int i = 0; i < valor.length() && !comillas; i++) {
+            char c = valor.charAt(i);
+            comillas = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!comillas) {
+            writer.write(valor);
+            return;
+        }
+        writer.write('"');
+        writer.write(valor.replace("\"", "\"\""));
+        writer.write('"');
+    }
+}
@@ -0,0 +1,48 @@
+package com.ejemplo.chatgptwebhook.service;
+
+import com.ejemplo.chatgptwebhook.model.SessionState;
+
+import java.time.Duration;
+import java.util.function.Function;
+
+/**
+ * Almacén del estado de las sesiones del menú.
+ * La implementación se elige con la propiedad sesiones.store: "memoria" (por defecto, una sola
+ * instancia) o "jdbc" (compartido entre instancias a través de la base de datos).
+ */
+public interface SessionStateStore {
+
+    /**
+     * Devuelve una copia del estado de la sesión, o un estado nuevo si no existe
+     */
+    SessionState leer(String sessionId);
+
+    /**
+     * Indica si la sesión tiene estado guardado
+     */
+    boolean existe(String sessionId);
+
+    /**
+     * Modifica atómicamente el estado de la sesión, creándola si no existe.
+     * Si otra instancia modifica la sesión a la vez, la función puede volver a aplicarse sobre el
+     * estado más reciente, por lo que no debe tener efectos que no se puedan repetir.
+     *
+     * @param sessionId ID de la sesión
+     * @param cambio Función que modifica el estado y devuelve un resultado
+     * @return El resultado de la última aplicación de la función
+     */
+    <T> T actualizar(String sessionId, Function<SessionState, T> cambio);
+
+    void eliminar(String sessionId);
+
+    /**
+     * Programa la eliminación de una sesión finalizada pasado el retraso indicado.
+     * Si la sesión vuelve a estar activa antes de que venza, no se elimina.
+     */
+    void programarEliminacion(String sessionId, Duration retraso);
+
+    /**
+     * Cancela la eliminación diferida de una sesión, si estaba programada
+     */
+    void cancelarEliminacion(String sessionId);
+}
@@ -0,0 +1,193 @@
+package com.ejemplo.chatgptwebhook.util;
+
+import com.ejemplo.chatgptwebhook.model.ListaTareas;
+
+/**
+ * Analizador de las respuestas de ChatGPT al crear un proyecto.
+ * Extrae el nombre del proyecto y las tareas numeradas (con sus viñetas de detalle) recorriendo
+ * la respuesta una sola vez, sin expresiones regulares: el tiempo es lineal en el tamaño de la
+ * respuesta aunque el formato sea extraño o malintencionado.
+ */
+public final class AnalizadorRespuestaProyecto {
+
+    private static final String NOMBRE_POR_DEFECTO = "Proyecto definido con ChatGPT";
+
+    // Marcadores del nombre del proyecto, por orden de prioridad:
+    // proyecto llamado "X", proyecto: X, proyecto "X", llamado "X", proyecto Xxx
+    // ("nombre del proyecto: X" queda cubierto por "proyecto: X")
+    private static final int LLAMADO_ENTRE_COMILLAS = 0;
+    private static final int DOS_PUNTOS = 1;
+    private static final int ENTRE_COMILLAS = 2;
+    private static final int SOLO_LLAMADO = 3;
+    private static final int MAYUSCULA = 4;
+    private static final int MARCADORES = 5;
+
+    private static final String PROYECTO = "proyecto";
+    private static final String LLAMADO = "llamado";
+
+    // Dígitos máximos del número de una tarea
+    private static final int MAX_DIGITOS = 6;
+
+    private AnalizadorRespuestaProyecto() {
+    }
+
+    /**
+     * Resultado del análisis: nombre del proyecto (null si la respuesta está vacía)
+     * y tareas encontradas (null si la respuesta está vacía)
+     */
+    public record Resultado(String nombre, ListaTareas tareas) {
+    }
+
+    /**
+     * Analiza la respuesta de ChatGPT en una única pasada.
+     * Si no hay tareas numeradas, la lista contiene la respuesta completa.
+     */
+    public static Resultado analizar(String respuesta) {
+        if (respuesta == null || respuesta.isEmpty()) {
+            return new Resultado(null, null);
+        }
+
+        int longitud = respuesta.length();
+        String[] candidatos = new String[MARCADORES];
+        Escaner escaner = new Escaner(respuesta);
+        int siguienteProyecto = respuesta.indexOf(PROYECTO);
+        int siguienteLlamado = respuesta.indexOf(LLAMADO);
+
+        ListaTareas tareas = new ListaTareas();
+        boolean dentroDeTarea = false;
+
+        int inicio = 0;
+        while (inicio <= longitud) {
+            int fin = respuesta.indexOf('\n', inicio);
+            if (fin < 0) {
+                fin = longitud;
+            }
+
+            // Marcadores del nombre que caen en esta línea
+            while (siguienteProyecto >= 0 && siguienteProyecto < fin) {
+                escaner.trasProyecto(siguienteProyecto + PROYECTO.length(), fin, candidatos);
+                siguienteProyecto = respuesta.indexOf(PROYECTO, siguienteProyecto + 1);
+            }
+            while (siguienteLlamado >= 0 && siguienteLlamado < fin) {
+                int despues = siguienteLlamado + LLAMADO.length();
+                if (candidatos[SOLO_LLAMADO] == null && respuesta.startsWith(" \"", despues)) {
+                    candidatos[SOLO_LLAMADO] = escaner.entreComillas(despues + 2);
+                }
+                siguienteLlamado = respuesta.indexOf(LLAMADO, siguienteLlamado + 1);
+            }
+
+            // Tareas numeradas y sus líneas de detalle
+            if (esTarea(respuesta, inicio, fin)) {
+                tareas.agregarLinea(respuesta.substring(inicio, fin).stripTrailing());
+                dentroDeTarea = true;
+            } else if (!estaEnBlanco(respuesta, inicio, fin)) {
+                if (dentroDeTarea && esDetalle(respuesta.charAt(inicio))) {
+                    tareas.agregarLinea(respuesta.substring(inicio, fin).stripTrailing());
+                } else {
+                    dentroDeTarea = false;
+                }
+            }
+
+            inicio = fin + 1;
+        }
+
+        if (tareas.total() == 0) {
+            tareas = ListaTareas.desdeTexto(respuesta);
+        }
+        return new Resultado(elegirNombre(candidatos), tareas);
+    }
+
+    private static String elegirNombre(String[] candidatos) {
+        for (String candidato : candidatos) {
+            if (candidato != null && !candidato.isBlank()) {
+                return candidato.trim();
+            }
+        }
+        return NOMBRE_POR_DEFECTO;
+    }
+
+    /**
+     * Línea de tarea: "N." al inicio de la línea, espacio y texto
+     */
+    private static boolean esTarea(String texto, int inicio, int fin) {
+        int i = inicio;
+        while (i < fin && i - inicio < MAX_DIGITOS && texto.charAt(i) >= '0' && texto.charAt(i) <= '9') {
+            i++;
+        }
+        if (i == inicio || i + 1 >= fin || texto.charAt(i) != '.' || !Character.isWhitespace(texto.charAt(i + 1))) {
+            return false;
+        }
+        return !estaEnBlanco(texto, i + 1, fin);
+    }
+
+    /**
+     * Línea de detalle de una tarea: sangrada o con viñeta
+     */
+    private static boolean esDetalle(char primero) {
+        return Character.isWhitespace(primero) || primero == '-' || primero == '*' || primero == '•' || primero == '+';
+    }
+
+    private static boolean estaEnBlanco(String texto, int inicio, int fin) {
+        for (int i = inicio; i < fin; i++) {
+            if (!Character.isWhitespace(texto.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Estado de la búsqueda del nombre. Cada marcador se resuelve como mucho una vez y, si no
+     * quedan comillas de cierre en el resto del texto, no se vuelven a buscar: así la búsqueda
+     * completa sigue siendo lineal.
+     */
+    private static final class Escaner {
+        private final String texto;
+        private boolean sinComillas;
+
+        Escaner(String texto) {
+            this.texto = texto;
+        }
+
+        void trasProyecto(int pos, int finLinea, String[] candidatos) {
+            if (candidatos[LLAMADO_ENTRE_COMILLAS] == null && texto.startsWith(" llamado \"", pos)) {
+                candidatos[LLAMADO_ENTRE_COMILLAS] = entreComillas(pos + 10);
+            }
+            if (candidatos[DOS_PUNTOS] == null && texto.startsWith(": ", pos) && pos + 2 < finLinea) {
+                candidatos[DOS_PUNTOS] = texto.substring(pos + 2, finLinea);
+            }
+            if (candidatos[ENTRE_COMILLAS] == null && texto.startsWith(" \"", pos)) {
+                candidatos[ENTRE_COMILLAS] = entreComillas(pos + 2);
+            }
+            if (candidatos[MAYUSCULA] == null && pos + 2 < finLinea && texto.charAt(pos) == ' ') {
+                char inicial = texto.charAt(pos + 1);
+                if (inicial >= 'A' && inicial <= 'Z' && !esFinDeNombre(texto.charAt(pos + 2))) {
+                    int fin = pos + 3;
+                    while (fin < finLinea && !esFinDeNombre(texto.charAt(fin))) {
+                        fin++;
+                    }
+                    candidatos[MAYUSCULA] = texto.substring(pos + 1, fin);
+                }
+            }
+        }
+
+        /**
+         * Texto no vacío hasta la siguiente comilla, o null si no hay comilla de cierre
+         */
+        String entreComillas(int desde) {
+            if (sinComillas) {
+                return null;
+            }
+            int cierre = texto.indexOf('"', desde);
+            if (cierre < 0) {
+                sinComillas = true;
+                return null;
+            }
+            return cierre > desde ? texto.substring(desde, cierre) : null;
+        }
+
+        private static boolean esFinDeNombre(char c) {
+            return c == ',' || c == '.' || c == '\n';
+        }
+    }
+}
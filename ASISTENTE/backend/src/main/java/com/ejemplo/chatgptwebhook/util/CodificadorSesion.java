@@ -0,0 +1,126 @@
+package com.ejemplo.chatgptwebhook.util;
+
+import com.ejemplo.chatgptwebhook.model.ListaTareas;
+import com.ejemplo.chatgptwebhook.model.SessionState;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serialización binaria compacta del estado de una sesión del menú, para guardarlo fuera de la JVM.
+ * Formato: versión del formato, banderas de los campos presentes, enteros como varint y textos
+ * como longitud varint más bytes UTF-8. De las tareas se guardan solo las líneas y los números
+ * completados: el resto se reconstruye al decodificar.
+ */
+public final class CodificadorSesion {
+
+    private static final byte FORMATO = 1;
+
+    private static final int ACTIVA = 1;
+    private static final int CONTEXTO = 1 << 1;
+    private static final int NOMBRE = 1 << 2;
+    private static final int TAREAS = 1 << 3;
+    private static final int USUARIO = 1 << 4;
+
+    private CodificadorSesion() {
+    }
+
+    public static byte[] codificar(SessionState estado) {
+        ByteArrayOutputStream salida = new ByteArrayOutputStream(estado.bytesEstimados() / 2 + 16);
+        ListaTareas tareas = estado.getTareas();
+        int banderas = (estado.isActiva() ? ACTIVA : 0)
+                | (estado.getContextoProyecto() != null ? CONTEXTO : 0)
+                | (estado.getNombreProyecto() != null ? NOMBRE : 0)
+                | (tareas != null ? TAREAS : 0)
+                | (estado.getUsuario() != null ? USUARIO : 0);
+        salida.write(FORMATO);
+        salida.write(banderas);
+        escribirVarint(salida, estado.getInteracciones());
+        if (estado.getContextoProyecto() != null) {
+            escribirTexto(salida, estado.getContextoProyecto());
+        }
+        if (estado.getNombreProyecto() != null) {
+            escribirTexto(salida, estado.getNombreProyecto());
+        }
+        if (estado.getUsuario() != null) {
+            escribirTexto(salida, estado.getUsuario());
+        }
+        if (tareas != null) {
+            escribirVarint(salida, tareas.lineas().size());
+            for (ListaTareas.Linea linea : tareas.lineas()) {
+                escribirTexto(salida, linea.texto());
+            }
+            escribirVarint(salida, tareas.completadas());
+            tareas.numerosCompletados().forEach(numero -> escribirVarint(salida, numero));
+        }
+        return salida.toByteArray();
+    }
+
+    public static SessionState decodificar(byte[] datos) {
+        ByteBuffer entrada = ByteBuffer.wrap(datos);
+        byte formato = entrada.get();
+        if (formato != FORMATO) {
+            throw new IllegalArgumentException("Formato de sesión desconocido: " + formato);
+        }
+        int banderas = entrada.get();
+        SessionState estado = new SessionState();
+        estado.setActiva((banderas & ACTIVA) != 0);
+        estado.setInteracciones(leerVarint(entrada));
+        if ((banderas & CONTEXTO) != 0) {
+            estado.setContextoProyecto(leerTexto(entrada));
+        }
+        if ((banderas & NOMBRE) != 0) {
+            estado.setNombreProyecto(leerTexto(entrada));
+        }
+        if ((banderas & USUARIO) != 0) {
+            estado.setUsuario(leerTexto(entrada));
+        }
+        if ((banderas & TAREAS) != 0) {
+            ListaTareas tareas = new ListaTareas();
+            int lineas = leerVarint(entrada);
+            for (int i = 0; i < lineas; i++) {
+                tareas.agregarLinea(leerTexto(entrada));
+            }
+            int completadas = leerVarint(entrada);
+            for (int i = 0; i < completadas; i++) {
+                tareas.marcarCompletada(leerVarint(entrada));
+            }
+            estado.setTareas(tareas);
+        }
+        return estado;
+    }
+
+    private static void escribirTexto(ByteArrayOutputStream salida, String texto) {
+        byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+        escribirVarint(salida, bytes.length);
+        salida.write(bytes, 0, bytes.length);
+    }
+
+    private static String leerTexto(ByteBuffer entrada) {
+        int longitud = leerVarint(entrada);
+        String texto = new String(entrada.array(), entrada.position(), longitud, StandardCharsets.UTF_8);
+        entrada.position(entrada.position() + longitud);
+        return texto;
+    }
+
+    private static void escribirVarint(ByteArrayOutputStream salida, int valor) {
+        while ((valor & ~0x7F) != 0) {
+            salida.write((valor & 0x7F) | 0x80);
+            valor >>>= 7;
+        }
+        salida.write(valor);
+    }
+
+    private static int leerVarint(ByteBuffer entrada) {
+        int valor = 0;
+        for (int desplazamiento = 0; desplazamiento < 32; desplazamiento += 7) {
+            byte b = entrada.get();
+            valor |= (b & 0x7F) << desplazamiento;
+            if ((b & 0x80) == 0) {
+                return valor;
+            }
+        }
+        throw new IllegalArgumentException("Varint demasiado largo");
+    }
+}
@@ -0,0 +1,45 @@
+package com.ejemplo.chatgptwebhook.util;
+
+import com.ejemplo.chatgptwebhook.model.ChatGptRequest;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Estimador local y rápido del número de tokens de un texto.
+ * Usa la aproximación de OpenAI de ~4 caracteres por token, suficiente para presupuestos
+ * y límites de velocidad sin necesidad de un tokenizador real.
+ */
+public final class EstimadorTokens {
+
+    private static final int CARACTERES_POR_TOKEN = 4;
+
+    // Tokens fijos que OpenAI añade por cada mensaje (rol y separadores)
+    private static final int TOKENS_POR_MENSAJE = 4;
+
+    private EstimadorTokens() {
+    }
+
+    // Estimar tokens de un texto
+    public static int estimar(String texto) {
+        if (texto == null || texto.isEmpty()) {
+            return 0;
+        }
+        return (texto.length() + CARACTERES_POR_TOKEN - 1) / CARACTERES_POR_TOKEN;
+    }
+
+    // Estimar tokens de una lista de mensajes de chat
+    public static int estimarMensajes(List<Map<String, String>> mensajes) {
+        int total = 0;
+        for (Map<String, String> mensaje : mensajes) {
+            total += TOKENS_POR_MENSAJE + estimar(mensaje.get("content"));
+        }
+        return total;
+    }
+
+    // Estimar el coste total de una petición: prompt más el máximo de tokens de respuesta
+    public static int estimarPeticion(ChatGptRequest request) {
+        int maxTokens = request.getMaxTokens() != null ? request.getMaxTokens() : 0;
+        return estimarMensajes(request.getMessages()) + maxTokens;
+    }
+}
@@ -0,0 +1,140 @@
+package com.ejemplo.chatgptwebhook.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Rueda de temporización (hashed timer wheel) para expiraciones diferidas por clave.
+ * Todas las expiraciones pendientes viven en una única estructura atendida por un solo hilo:
+ * en cada tick se revisa una ranura de la rueda y las claves vencidas se entregan juntas
+ * en una sola llamada a la acción. Programar y cancelar son O(1); las entradas canceladas
+ * se descartan de forma perezosa cuando su ranura vuelve a revisarse.
+ * Solo el hilo de la rueda toca las ranuras: programar deja la entrada en una cola de entrada que
+ * el hilo vacía al principio de cada tick, así ninguna entrada cae en una ranura ya revisada.
+ *
+ * @param <K> Tipo de la clave que expira
+ */
+public final class ExpiryWheel<K> implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExpiryWheel.class);
+
+    private final long tickNanos;
+    private final int mascara;
+    // Solo las usa el hilo de la rueda
+    private final List<ArrayDeque<Entrada<K>>> ranuras;
+    // Entradas programadas que el hilo de la rueda todavía no ha colocado en su ranura
+    private final Queue<Entrada<K>> entrantes = new ConcurrentLinkedQueue<>();
+    private final Map<K, Entrada<K>> pendientes = new ConcurrentHashMap<>();
+    private final AtomicLong tickActual = new AtomicLong();
+    private final Consumer<List<K>> accion;
+    private final ScheduledExecutorService hilo;
+
+    /**
+     * @param nombre Nombre del hilo de la rueda
+     * @param tick Resolución de la rueda: las expiraciones se retrasan como mucho un tick
+     * @param numeroRanuras Número de ranuras (se redondea a potencia de dos)
+     * @param accion Acción que recibe, en cada tick, todas las claves vencidas
+     */
+    public ExpiryWheel(String nombre, Duration tick, int numeroRanuras, Consumer<List<K>> accion) {
+        this.tickNanos = tick.toNanos();
+        int tamano = Integer.highestOneBit(Math.max(1, numeroRanuras - 1)) << 1;
+        this.mascara = tamano - 1;
+        this.ranuras = new ArrayList<>(tamano);
+        for (int i = 0; i < tamano; i++) {
+            ranuras.add(new ArrayDeque<>());
+        }
+        this.accion = accion;
+        this.hilo = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, nombre);
+            t.setDaemon(true);
+            return t;
+        });
+        hilo.scheduleAtFixedRate(this::avanzar, tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Programa la expiración de una clave; si ya tenía una pendiente, la sustituye
+     */
+    public void programar(K clave, Duration retraso) {
+        long ticks = Math.max(1, (retraso.toNanos() + tickNanos - 1) / tickNanos);
+        // +1 porque el tick actual ya está en curso: la clave nunca expira antes del retraso
+        long objetivo = tickActual.get() + ticks + 1;
+        Entrada<K> entrada = new Entrada<>(clave, objetivo);
+        pendientes.put(clave, entrada);
+        entrantes.add(entrada);
+    }
+
+    /**
+     * Cancela la expiración pendiente de una clave
+     *
+     * @return true si había una expiración pendiente
+     */
+    public boolean cancelar(K clave) {
+        return pendientes.remove(clave) != null;
+    }
+
+    /**
+     * Número de expiraciones pendientes
+     */
+    public int pendientes() {
+        return pendientes.size();
+    }
+
+    private void avanzar() {
+        long tick = tickActual.incrementAndGet();
+        int indice = (int) (tick & mascara);
+        // Las entradas recién programadas van a su ranura; si su tick ya llegó (el hilo que programó
+        // se retrasó), a la de este tick
+        Entrada<K> nueva;
+        while ((nueva = entrantes.poll()) != null) {
+            ranuras.get(nueva.objetivo <= tick ? indice : (int) (nueva.objetivo & mascara)).add(nueva);
+        }
+        // Se reemplaza la ranura por una vacía para no revisar las entradas que se reencolen
+        ArrayDeque<Entrada<K>> ranura = ranuras.set(indice, new ArrayDeque<>());
+
+        List<K> vencidas = new ArrayList<>();
+        Entrada<K> entrada;
+        while ((entrada = ranura.poll()) != null) {
+            if (pendientes.get(entrada.clave) != entrada) {
+                // Cancelada o reprogramada
+                continue;
+            }
+            if (entrada.objetivo > tick) {
+                // Vence en una vuelta posterior de la rueda
+                ranuras.get(indice).add(entrada);
+            } else if (pendientes.remove(entrada.clave, entrada)) {
+                vencidas.add(entrada.clave);
+            }
+        }
+
+        if (!vencidas.isEmpty()) {
+            try {
+                accion.accept(vencidas);
+            } catch (RuntimeException e) {
+                logger.error("Error al procesar {} expiraciones", vencidas.size(), e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        hilo.shutdownNow();
+    }
+
+    private record Entrada<K>(K clave, long objetivo) {
+    }
+}
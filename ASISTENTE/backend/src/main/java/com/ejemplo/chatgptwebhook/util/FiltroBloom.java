@@ -0,0 +1,93 @@
+package com.ejemplo.chatgptwebhook.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Filtro de Bloom para cadenas, seguro para usar desde varios hilos.
+ * Responde "seguro que no está" o "puede estar": nunca da falsos negativos y la tasa de falsos
+ * positivos se mantiene cerca de la indicada mientras no se superen los elementos esperados.
+ * Las k posiciones de cada elemento se obtienen con doble hashing a partir de un hash de 128 bits.
+ */
+public final class FiltroBloom {
+
+    private static final int MAX_HASHES = 16;
+
+    private final AtomicLongArray bits;
+    private final long numeroBits;
+    private final int numeroHashes;
+
+    /**
+     * @param elementosEsperados Número de elementos para el que se dimensiona el filtro
+     * @param tasaFalsosPositivos Tasa de falsos positivos deseada (p. ej. 0.01)
+     */
+    public FiltroBloom(long elementosEsperados, double tasaFalsosPositivos) {
+        long n = Math.max(1, elementosEsperados);
+        double ln2 = Math.log(2);
+        long m = (long) Math.ceil(-n * Math.log(tasaFalsosPositivos) / (ln2 * ln2));
+        int palabras = (int) Math.min(Integer.MAX_VALUE - 8, (Math.max(64, m) + 63) / 64);
+        this.bits = new AtomicLongArray(palabras);
+        this.numeroBits = (long) palabras * 64;
+        this.numeroHashes = Math.max(1, Math.min(MAX_HASHES, (int) Math.round((double) numeroBits / n * ln2)));
+    }
+
+    public void agregar(String valor) {
+        long[] hash = hash(valor);
+        long combinado = hash[0];
+        for (int i = 0; i < numeroHashes; i++) {
+            long bit = (combinado & Long.MAX_VALUE) % numeroBits;
+            int palabra = (int) (bit >>> 6);
+            long mascara = 1L << bit;
+            long actual;
+            while (((actual = bits.get(palabra)) & mascara) == 0
+                    && !bits.compareAndSet(palabra, actual, actual | mascara)) {
+                // Otro hilo modificó la palabra: se reintenta
+            }
+            combinado += hash[1];
+        }
+    }
+
+    /**
+     * @return false si el valor seguro que no se ha agregado; true si puede haberse agregado
+     */
+    public boolean puedeContener(String valor) {
+        long[] hash = hash(valor);
+        long combinado = hash[0];
+        for (int i = 0; i < numeroHashes; i++) {
+            long bit = (combinado & Long.MAX_VALUE) % numeroBits;
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+            combinado += hash[1];
+        }
+        return true;
+    }
+
+    /**
+     * Memoria ocupada por el array de bits
+     */
+    public long bytes() {
+        return numeroBits / 8;
+    }
+
+    /**
+     * Dos hashes de 64 bits independientes de los bytes UTF-8 del valor
+     */
+    private static long[] hash(String valor) {
+        byte[] datos = valor.getBytes(StandardCharsets.UTF_8);
+        long h1 = 0x9E3779B97F4A7C15L;
+        long h2 = 0xC2B2AE3D27D4EB4FL ^ datos.length;
+        for (byte b : datos) {
+            h1 = (h1 ^ (b & 0xff)) * 0x100000001B3L;
+            h2 = Long.rotateLeft(h2 ^ (b & 0xff), 31) * 0x9E3779B97F4A7C15L;
+        }
+        // El segundo hash debe ser impar para recorrer posiciones distintas
+        return new long[]{mezclar(h1), mezclar(h2) | 1};
+    }
+
+    private static long mezclar(long z) {
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return z ^ (z >>> 33);
+    }
+}
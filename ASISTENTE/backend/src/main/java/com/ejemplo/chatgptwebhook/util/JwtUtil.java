@@ -2,6 +2,7 @@ package com.ejemplo.chatgptwebhook.util;
 
 import io.jsonwebtoken.*;
 import io.jsonwebtoken.security.Keys;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Component;
@@ -10,6 +11,7 @@ import javax.crypto.SecretKey;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Optional;
 import java.util.function.Function;
 
 @Component
@@ -21,10 +23,31 @@ public class JwtUtil {
     @Value("${jwt.expiration:86400000}") // 24 horas por defecto
     private Long expiration;
 
-    // Generar clave secreta
-    private SecretKey getSigningKey() {
+    // Clave de firma y parser inmutables, construidos una sola vez al arrancar
+    private SecretKey signingKey;
+    private JwtParser parser;
+
+    @PostConstruct
+    void init() {
         byte[] keyBytes = secret.getBytes();
-        return Keys.hmacShaKeyFor(keyBytes);
+        this.signingKey = Keys.hmacShaKeyFor(keyBytes);
+        this.parser = Jwts.parserBuilder()
+                .setSigningKey(signingKey)
+                .build();
+    }
+
+    // Obtener clave secreta
+    private SecretKey getSigningKey() {
+        return signingKey;
+    }
+
+    // Verificar firma y expiración del token y devolver sus claims (una sola vez por petición)
+    public Optional<Claims> parseToken(String token) {
+        try {
+            return Optional.of(extractAllClaims(token));
+        } catch (JwtException | IllegalArgumentException e) {
+            return Optional.empty();
+        }
     }
 
     // Extraer username del token
@@ -45,11 +68,7 @@ public class JwtUtil {
 
     // Extraer todos los claims del token
     private Claims extractAllClaims(String token) {
-        return Jwts.parserBuilder()
-                .setSigningKey(getSigningKey())
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
+        return parser.parseClaimsJws(token).getBody();
     }
 
     // Verificar si el token ha expirado
@@ -85,17 +104,15 @@ public class JwtUtil {
         return (username.equals(userDetails.getUsername()) && !isTokenExpired(token));
     }
 
+    // Validar claims ya verificados contra el usuario cargado
+    public boolean validateToken(Claims claims, UserDetails userDetails) {
+        return userDetails.getUsername().equals(claims.getSubject())
+                && !claims.getExpiration().before(new Date());
+    }
+
     // Validar token (solo verificar estructura y expiración)
     public Boolean validateToken(String token) {
-        try {
-            Jwts.parserBuilder()
-                .setSigningKey(getSigningKey())
-                .build()
-                .parseClaimsJws(token);
-            return true;
-        } catch (JwtException | IllegalArgumentException e) {
-            return false;
-        }
+        return parseToken(token).isPresent();
     }
 
     // Obtener tiempo de expiración en segundos
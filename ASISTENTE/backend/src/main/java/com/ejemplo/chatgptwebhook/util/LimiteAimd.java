@@ -0,0 +1,82 @@
+package com.ejemplo.chatgptwebhook.util;
+
+/**
+ * Límite de concurrencia adaptativo AIMD (aumento aditivo, disminución multiplicativa).
+ * Mientras las peticiones terminan bien y el límite se está usando, sube una plaza por cada ronda de
+ * peticiones (1/límite por petición correcta); cuando una petición falla o tarda más de lo aceptable
+ * (señal de saturación), se reduce en proporción, una sola vez por ronda: las peticiones admitidas antes
+ * de la última reducción informan del límite anterior y no vuelven a reducirlo.
+ * Así el número de peticiones admitidas se ajusta solo a la capacidad real del servidor.
+ */
+public final class LimiteAimd {
+
+    private final double minimo;
+    private final double maximo;
+    private final double factorReduccion;
+
+    // Estado protegido por el monitor de esta instancia
+    private double limite;
+    private int enCurso;
+    private long ultimaReduccion = System.nanoTime();
+
+    /**
+     * @param inicial Límite inicial
+     * @param minimo Límite mínimo (nunca se baja de aquí)
+     * @param maximo Límite máximo
+     * @param factorReduccion Factor por el que se multiplica el límite ante una señal de saturación (p. ej. 0.9)
+     */
+    public LimiteAimd(int inicial, int minimo, int maximo, double factorReduccion) {
+        this.minimo = Math.max(1, minimo);
+        this.maximo = Math.max(this.minimo, maximo);
+        this.factorReduccion = factorReduccion;
+        this.limite = Math.min(this.maximo, Math.max(this.minimo, inicial));
+    }
+
+    /**
+     * Admite una petición si hay hueco bajo el límite actual
+     *
+     * @return false si se supera el límite (la petición debe rechazarse)
+     */
+    public synchronized boolean adquirir() {
+        if (enCurso >= (int) limite) {
+            return false;
+        }
+        enCurso++;
+        return true;
+    }
+
+    /**
+     * Libera una petición admitida y ajusta el límite según cómo terminó
+     *
+     * @param saturada true si la petición falló o tardó demasiado
+     * @param admitidaNanos Instante (System.nanoTime()) en que se admitió la petición
+     */
+    public synchronized void liberar(boolean saturada, long admitidaNanos) {
+        if (saturada) {
+            if (admitidaNanos - ultimaReduccion >= 0) {
+                limite = Math.max(minimo, limite * factorReduccion);
+                ultimaReduccion = System.nanoTime();
+            }
+        } else if (enCurso * 2 >= limite) {
+            // Solo crece si se está usando: con poca carga no hay información sobre la capacidad
+            limite = Math.min(maximo, limite + 1 / limite);
+        }
+        enCurso--;
+    }
+
+    /**
+     * Libera una petición admitida sin ajustar el límite: su resultado no dice nada de la capacidad
+     * (por ejemplo, un 401 o un 400 que se responde sin llamar a ChatGPT)
+     */
+    public synchronized void descartar() {
+        enCurso--;
+    }
+
+    public synchronized int limite() {
+        return (int) limite;
+    }
+
+    public synchronized int enCurso() {
+        return enCurso;
+    }
+}
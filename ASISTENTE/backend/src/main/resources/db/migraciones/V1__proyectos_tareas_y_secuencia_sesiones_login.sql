@@ -0,0 +1,44 @@
+-- ============================================
+-- ESQUEMA PARA PRODUCCIÓN (ddl-auto=validate)
+-- ============================================
+-- Con el perfil prod Hibernate no crea tablas: solo comprueba que existen, y lo hace antes de los
+-- scripts de db/*.sql (spring.jpa.defer-datasource-initialization). Este script crea lo que Hibernate
+-- validaría y no existe aún en una base de datos anterior a la persistencia de proyectos y a la
+-- escritura en batch de sesiones_login. Hay que ejecutarlo a mano antes de desplegar, por ejemplo:
+--   psql -h <host> -U asistente_user -d asistente_db -f V1__proyectos_tareas_y_secuencia_sesiones_login.sql
+-- Todas las sentencias son idempotentes.
+
+-- Identificadores de sesiones_login, reservados de 50 en 50 para insertar en batch. Al arrancar,
+-- db/sesiones_login.sql adelanta la secuencia más allá del MAX(id) de las filas existentes
+CREATE SEQUENCE IF NOT EXISTS sesiones_login_seq INCREMENT BY 50;
+
+-- Proyecto creado en cada sesión del menú (ProyectosWriteBehind)
+CREATE TABLE IF NOT EXISTS proyectos (
+    id                  BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    session_id          VARCHAR(100) NOT NULL,
+    user_id             BIGINT,
+    nombre              VARCHAR(255),
+    contexto            TEXT,
+    version_sesion      BIGINT NOT NULL DEFAULT 0,
+    fecha_creacion      TIMESTAMP(6) NOT NULL,
+    fecha_actualizacion TIMESTAMP(6) NOT NULL,
+    CONSTRAINT uk_proyectos_session_id UNIQUE (session_id),
+    CONSTRAINT fk_proyectos_usuario FOREIGN KEY (user_id) REFERENCES users (id)
+);
+
+-- Tablas creadas antes de que los proyectos guardaran la versión de la sesión
+ALTER TABLE proyectos ADD COLUMN IF NOT EXISTS version_sesion BIGINT NOT NULL DEFAULT 0;
+
+CREATE INDEX IF NOT EXISTS idx_proyectos_usuario ON proyectos (user_id);
+
+-- Líneas de la lista de tareas de cada proyecto, en su posición original
+CREATE TABLE IF NOT EXISTS tareas (
+    id          BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    proyecto_id BIGINT NOT NULL,
+    posicion    INTEGER NOT NULL,
+    numero      INTEGER NOT NULL,
+    texto       TEXT NOT NULL,
+    completada  BOOLEAN NOT NULL,
+    CONSTRAINT uk_tareas_proyecto_posicion UNIQUE (proyecto_id, posicion),
+    CONSTRAINT fk_tareas_proyecto FOREIGN KEY (proyecto_id) REFERENCES proyectos (id)
+);
@@ -0,0 +1,21 @@
+-- ============================================
+-- ESTADO COMPARTIDO DE LAS SESIONES DEL MENÚ
+-- ============================================
+-- Solo lo usa el almacén de sesiones compartido (sesiones.store=jdbc). Se ejecuta en cada arranque;
+-- todas las sentencias son idempotentes.
+
+-- Una fila por sesión con su estado serializado en binario y la versión para las escrituras con
+-- comparación de versión. Las filas se reescriben a menudo: el fillfactor deja sitio en cada página
+-- para que las actualizaciones no tengan que mover la fila (HOT)
+CREATE TABLE IF NOT EXISTS sesiones_estado (
+    session_id  VARCHAR(100) PRIMARY KEY,
+    version     BIGINT NOT NULL,
+    activa      BOOLEAN NOT NULL,
+    datos       BYTEA NOT NULL,
+    actualizada TIMESTAMP NOT NULL DEFAULT now(),
+    eliminar_en TIMESTAMP
+) WITH (fillfactor = 70);
+
+-- Limpieza periódica: sesiones con eliminación programada y sesiones sin cambios durante el TTL
+CREATE INDEX IF NOT EXISTS idx_sesiones_estado_eliminar_en ON sesiones_estado (eliminar_en) WHERE eliminar_en IS NOT NULL;
+CREATE INDEX IF NOT EXISTS idx_sesiones_estado_actualizada ON sesiones_estado (actualizada);
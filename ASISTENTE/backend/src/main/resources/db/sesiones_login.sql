@@ -0,0 +1,156 @@
+-- ============================================
+-- ESQUEMA COMPLEMENTARIO DE SESIONES_LOGIN
+-- ============================================
+-- Se ejecuta en cada arranque, después de que Hibernate cree o actualice las tablas
+-- (spring.jpa.defer-datasource-initialization). Todas las sentencias son idempotentes.
+
+-- Partición mensual por fecha_login: crea (si no existe) la partición del mes que contiene la fecha
+CREATE OR REPLACE FUNCTION sesiones_login_crear_particion(mes DATE) RETURNS TEXT AS '
+DECLARE
+    inicio DATE := date_trunc(''month'', mes);
+    nombre TEXT := ''sesiones_login_p'' || to_char(inicio, ''YYYYMM'');
+BEGIN
+    EXECUTE format(''CREATE TABLE IF NOT EXISTS %I PARTITION OF sesiones_login FOR VALUES FROM (%L) TO (%L)'',
+                   nombre, inicio, (inicio + INTERVAL ''1 month'')::date);
+    RETURN nombre;
+END;
+' LANGUAGE plpgsql;
+
+-- Hibernate crea sesiones_login como tabla normal: se convierte a tabla particionada por meses
+-- copiando las filas existentes (solo la primera vez; luego la tabla ya está particionada).
+-- La clave primaria incluye fecha_login porque toda clave única debe contener la clave de partición
+DO '
+DECLARE
+    mes DATE;
+BEGIN
+    IF EXISTS (SELECT 1 FROM pg_class c JOIN pg_namespace n ON n.oid = c.relnamespace
+                WHERE c.relname = ''sesiones_login'' AND c.relkind = ''r'' AND n.nspname = current_schema()) THEN
+        ALTER TABLE sesiones_login RENAME TO sesiones_login_sin_particionar;
+
+        CREATE TABLE sesiones_login (
+            id           BIGINT       NOT NULL,
+            user_id      BIGINT       NOT NULL,
+            fecha_login  TIMESTAMP(6) NOT NULL,
+            fecha_logout TIMESTAMP(6),
+            ip_address   VARCHAR(45),
+            user_agent   VARCHAR(500),
+            activa       BOOLEAN      NOT NULL,
+            CONSTRAINT pk_sesiones_login PRIMARY KEY (id, fecha_login)
+        ) PARTITION BY RANGE (fecha_login);
+
+        FOR mes IN
+            SELECT g::date FROM generate_series(
+                (SELECT date_trunc(''month'', COALESCE(MIN(fecha_login), now())) FROM sesiones_login_sin_particionar),
+                (SELECT date_trunc(''month'', GREATEST(MAX(fecha_login), now())) FROM sesiones_login_sin_particionar),
+                INTERVAL ''1 month'') g
+        LOOP
+            PERFORM sesiones_login_crear_particion(mes);
+        END LOOP;
+
+        INSERT INTO sesiones_login (id, user_id, fecha_login, fecha_logout, ip_address, user_agent, activa)
+        SELECT id, user_id, fecha_login, fecha_logout, ip_address, user_agent, activa
+          FROM sesiones_login_sin_particionar;
+
+        DROP TABLE sesiones_login_sin_particionar;
+
+        -- Tabla recién creada (primera conversión o ddl-auto=create-drop): el contador se vuelve a inicializar
+        IF to_regclass(''sesiones_login_contadores'') IS NOT NULL THEN
+            DELETE FROM sesiones_login_contadores;
+        END IF;
+    END IF;
+END;
+';
+
+-- Clave foránea e índices declarados en la entidad (con sus mismos nombres, para que Hibernate no los duplique)
+DO '
+BEGIN
+    IF NOT EXISTS (SELECT 1 FROM pg_constraint WHERE conname = ''fk_sesiones_login_usuario'') THEN
+        ALTER TABLE sesiones_login ADD CONSTRAINT fk_sesiones_login_usuario FOREIGN KEY (user_id) REFERENCES users (id);
+    END IF;
+END;
+';
+CREATE INDEX IF NOT EXISTS idx_sesiones_login_usuario_fecha ON sesiones_login (user_id, fecha_login);
+CREATE INDEX IF NOT EXISTS idx_sesiones_login_fecha ON sesiones_login (fecha_login);
+CREATE INDEX IF NOT EXISTS idx_sesiones_login_ip ON sesiones_login (ip_address);
+
+-- Particiones del mes actual y los dos siguientes (el job de retención las sigue creando por adelantado
+-- y avisa si faltan). No hay partición DEFAULT a propósito: con filas de un mes en ella, crear después
+-- la partición de ese mes fallaría y el job dejaría de poder adelantarse
+SELECT sesiones_login_crear_particion((now() + make_interval(months => n))::date)
+  FROM generate_series(0, 2) n;
+
+-- La secuencia de ids la crea Hibernate empezando en 1: en una tabla con filas de la antigua
+-- columna IDENTITY se adelanta para que los nuevos ids no choquen
+SELECT setval('sesiones_login_seq', t.maximo)
+  FROM (SELECT MAX(id) AS maximo FROM sesiones_login) t
+ WHERE t.maximo >= (SELECT last_value FROM sesiones_login_seq);
+
+-- Índice parcial para las consultas de sesiones activas de un usuario (la última primero)
+CREATE INDEX IF NOT EXISTS idx_sesiones_login_activas_usuario
+    ON sesiones_login (user_id, fecha_login DESC)
+    WHERE activa;
+
+-- Contador de sesiones activas mantenido por triggers: evita contar la tabla entera.
+-- El job de retención lo descuenta al eliminar una partición archivada
+CREATE TABLE IF NOT EXISTS sesiones_login_contadores (
+    id      SMALLINT PRIMARY KEY CHECK (id = 1),
+    activas BIGINT   NOT NULL
+);
+
+-- Triggers por sentencia con tablas de transición: un lote de inserciones actualiza el contador una sola vez
+CREATE OR REPLACE FUNCTION sesiones_login_contar() RETURNS trigger AS '
+DECLARE
+    delta BIGINT := 0;
+BEGIN
+    IF TG_OP IN (''INSERT'', ''UPDATE'') THEN
+        delta := delta + (SELECT COUNT(*) FROM nuevas WHERE activa);
+    END IF;
+    IF TG_OP IN (''UPDATE'', ''DELETE'') THEN
+        delta := delta - (SELECT COUNT(*) FROM viejas WHERE activa);
+    END IF;
+    IF delta <> 0 THEN
+        UPDATE sesiones_login_contadores SET activas = activas + delta WHERE id = 1;
+    END IF;
+    RETURN NULL;
+END;
+' LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS sesiones_login_contar_insert ON sesiones_login;
+CREATE TRIGGER sesiones_login_contar_insert
+    AFTER INSERT ON sesiones_login
+    REFERENCING NEW TABLE AS nuevas
+    FOR EACH STATEMENT EXECUTE PROCEDURE sesiones_login_contar();
+
+DROP TRIGGER IF EXISTS sesiones_login_contar_update ON sesiones_login;
+CREATE TRIGGER sesiones_login_contar_update
+    AFTER UPDATE ON sesiones_login
+    REFERENCING OLD TABLE AS viejas NEW TABLE AS nuevas
+    FOR EACH STATEMENT EXECUTE PROCEDURE sesiones_login_contar();
+
+DROP TRIGGER IF EXISTS sesiones_login_contar_delete ON sesiones_login;
+CREATE TRIGGER sesiones_login_contar_delete
+    AFTER DELETE ON sesiones_login
+    REFERENCING OLD TABLE AS viejas
+    FOR EACH STATEMENT EXECUTE PROCEDURE sesiones_login_contar();
+
+-- El contador solo se inicializa cuando no existe (primer arranque o tabla recreada), después de crear
+-- los triggers: en los demás arranques no se cuenta la tabla ni se pisa el valor que mantienen los
+-- triggers mientras otras instancias atienden logins
+INSERT INTO sesiones_login_contadores (id, activas)
+SELECT 1, (SELECT COUNT(*) FROM sesiones_login WHERE activa)
+ WHERE NOT EXISTS (SELECT 1 FROM sesiones_login_contadores WHERE id = 1)
+ON CONFLICT (id) DO NOTHING;
+
+-- Mantenimiento manual si el contador se desviara: SELECT sesiones_login_recalcular_contador();
+-- Bloquea las escrituras en sesiones_login mientras cuenta, para que ningún delta concurrente se pierda
+CREATE OR REPLACE FUNCTION sesiones_login_recalcular_contador() RETURNS BIGINT AS '
+DECLARE
+    total BIGINT;
+BEGIN
+    LOCK TABLE sesiones_login IN SHARE MODE;
+    SELECT COUNT(*) INTO total FROM sesiones_login WHERE activa;
+    INSERT INTO sesiones_login_contadores (id, activas) VALUES (1, total)
+    ON CONFLICT (id) DO UPDATE SET activas = EXCLUDED.activas;
+    RETURN total;
+END;
+' LANGUAGE plpgsql;
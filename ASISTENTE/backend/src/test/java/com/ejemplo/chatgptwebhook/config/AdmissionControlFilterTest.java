@@ -0,0 +1,287 @@
+package com.ejemplo.chatgptwebhook.config;
+
+import com.ejemplo.chatgptwebhook.util.LimiteAimd;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Control de admisión de los endpoints que llaman a ChatGPT.
+ * La prueba de goodput con carga creciente es de carga: mvn test -Pcarga
+ */
+class AdmissionControlFilterTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdmissionControlFilterTest.class);
+
+    private static final Duration RETRY_AFTER = Duration.ofSeconds(2);
+
+    // Servidor simulado de la prueba de carga: 8 peticiones a la vez de 50 ms, 160 peticiones/s
+    private static final int CAPACIDAD = 8;
+    private static final Duration SERVICIO = Duration.ofMillis(50);
+    private static final int PETICIONES_POR_SEGUNDO = (int) (CAPACIDAD * 1000 / SERVICIO.toMillis());
+    // Plazo del cliente: una respuesta más lenta ya no le sirve
+    private static final Duration LATENCIA_MAXIMA = Duration.ofMillis(250);
+    private static final int SEGUNDOS = 2;
+
+    @Test
+    void rechazaAlInstanteCon503YRetryAfterCuandoElLimiteEstaLleno() throws Exception {
+        LimiteAimd limite = new LimiteAimd(2, 1, 2, 0.9);
+        AdmissionControlFilter filtro = nuevoFiltro(limite, Duration.ofSeconds(45));
+        CountDownLatch dentro = new CountDownLatch(2);
+        CountDownLatch terminar = new CountDownLatch(1);
+        FilterChain bloqueada = (request, response) -> {
+            dentro.countDown();
+            esperar(terminar);
+        };
+
+        ExecutorService hilos = Executors.newFixedThreadPool(2);
+        List<Future<MockHttpServletResponse>> admitidas = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            admitidas.add(hilos.submit(() -> filtrar(filtro, "/api/menu/procesar/1/datos", bloqueada)));
+        }
+        assertThat(dentro.await(5, TimeUnit.SECONDS)).isTrue();
+
+        FilterChain noDebeLlamarse = (request, response) -> {
+            throw new AssertionError("La petición rechazada no debe llegar al controlador");
+        };
+        MockHttpServletResponse rechazada = filtrar(filtro, "/webhook/chat", noDebeLlamarse);
+
+        assertThat(rechazada.getStatus()).isEqualTo(503);
+        assertThat(rechazada.getHeader("Retry-After")).isEqualTo("2");
+        assertThat(rechazada.getContentAsString()).contains("saturado");
+
+        // El rechazo de una petición del frontend (otro origen) lleva las cabeceras CORS
+        MockHttpServletRequest desdeElFrontend = new MockHttpServletRequest("POST", "/webhook/chat");
+        desdeElFrontend.addHeader(HttpHeaders.ORIGIN, "http://localhost:5500");
+        MockHttpServletResponse rechazadaCors = new MockHttpServletResponse();
+        filtro.doFilter(desdeElFrontend, rechazadaCors, noDebeLlamarse);
+        assertThat(rechazadaCors.getStatus()).isEqualTo(503);
+        assertThat(rechazadaCors.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN)).isEqualTo("http://localhost:5500");
+        assertThat(rechazadaCors.getHeader(HttpHeaders.ACCESS_CONTROL_EXPOSE_HEADERS)).contains("Retry-After");
+
+        terminar.countDown();
+        for (Future<MockHttpServletResponse> admitida : admitidas) {
+            assertThat(admitida.get(5, TimeUnit.SECONDS).getStatus()).isEqualTo(200);
+        }
+        hilos.shutdown();
+        assertThat(limite.enCurso()).isZero();
+        assertThat(filtrar(filtro, "/webhook/chat", responder(200)).getStatus()).isEqualTo(200);
+    }
+
+    @Test
+    void soloLas2xxHacenCrecerElLimiteYLos4xxNoLoModifican() throws Exception {
+        LimiteAimd limite = new LimiteAimd(1, 1, 10, 0.5);
+        AdmissionControlFilter filtro = nuevoFiltro(limite, Duration.ofSeconds(45));
+
+        filtrar(filtro, "/api/menu/procesar/2/datos", responder(200));
+        assertThat(limite.limite()).isEqualTo(2);
+
+        filtrar(filtro, "/api/menu/procesar/2/datos", responder(401));
+        filtrar(filtro, "/api/menu/procesar/2/datos", responder(400));
+        assertThat(limite.limite()).isEqualTo(2);
+
+        filtrar(filtro, "/api/menu/procesar/2/datos", responder(503));
+        assertThat(limite.limite()).isEqualTo(1);
+
+        FilterChain conExcepcion = (request, response) -> {
+            throw new ServletException("fallo del controlador");
+        };
+        limite = new LimiteAimd(4, 1, 10, 0.5);
+        AdmissionControlFilter otroFiltro = nuevoFiltro(limite, Duration.ofSeconds(45));
+        assertThatThrownBy(() -> filtrar(otroFiltro, "/webhook/chat", conExcepcion)).isInstanceOf(ServletException.class);
+        assertThat(limite.limite()).isEqualTo(2);
+        assertThat(limite.enCurso()).isZero();
+    }
+
+    @Test
+    void unaRespuestaLentaReduceElLimiteSalvoEnUnStream() throws Exception {
+        FilterChain lenta = (request, response) -> {
+            LockSupport.parkNanos(Duration.ofMillis(30).toNanos());
+            ((HttpServletResponse) response).setStatus(200);
+        };
+
+        LimiteAimd limite = new LimiteAimd(4, 1, 10, 0.5);
+        filtrar(nuevoFiltro(limite, Duration.ofMillis(10)), "/webhook/chat", lenta);
+        assertThat(limite.limite()).isEqualTo(2);
+
+        LimiteAimd limiteStream = new LimiteAimd(1, 1, 10, 0.5);
+        filtrar(nuevoFiltro(limiteStream, Duration.ofMillis(10)), "/webhook/chat/stream", lenta);
+        assertThat(limiteStream.limite()).isEqualTo(2);
+    }
+
+    @Test
+    void unaPeticionAsincronaConservaSuPlazaHastaTerminarLaRespuesta() throws Exception {
+        LimiteAimd limite = new LimiteAimd(1, 1, 10, 0.5);
+        AdmissionControlFilter filtro = nuevoFiltro(limite, Duration.ofSeconds(45));
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/menu/procesar/1/datos");
+        request.setAsyncSupported(true);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        filtro.doFilter(request, response, (req, resp) -> req.startAsync(req, resp));
+        assertThat(limite.enCurso()).isEqualTo(1);
+
+        response.setStatus(200);
+        ((MockAsyncContext) request.getAsyncContext()).complete();
+        assertThat(limite.enCurso()).isZero();
+        assertThat(limite.limite()).isEqualTo(2);
+    }
+
+    @Test
+    void soloSeRegistraEnLosEndpointsCarosYNoFiltraLasPeticionesPrevias() throws Exception {
+        FilterRegistrationBean<AdmissionControlFilter> registro = new AdmissionControlConfig()
+                .admissionControlFilter(1, 1, 1, 0.9, Duration.ofSeconds(45), RETRY_AFTER,
+                        new CorsConfig().corsConfigurationSource(), new SimpleMeterRegistry());
+
+        // Las opciones del menú, el login y la salud no pasan por el control de admisión
+        assertThat(registro.getUrlPatterns())
+                .containsExactlyInAnyOrder("/api/menu/procesar/*", "/webhook/chat", "/webhook/chat/stream");
+
+        LimiteAimd limite = new LimiteAimd(1, 1, 1, 0.9);
+        AdmissionControlFilter filtro = nuevoFiltro(limite, Duration.ofSeconds(45));
+        assertThat(limite.adquirir()).isTrue();
+        MockHttpServletRequest preflight = new MockHttpServletRequest("OPTIONS", "/webhook/chat");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filtro.doFilter(preflight, response, responder(200));
+        assertThat(response.getStatus()).isEqualTo(200);
+    }
+
+    /**
+     * Goodput (respuestas correctas dentro del plazo del cliente por segundo) con carga ofrecida de la
+     * mitad al cuádruple de la capacidad del servidor. Con el control de admisión el exceso se rechaza y
+     * el goodput se mantiene cerca de la capacidad; sin él, la cola crece y casi nada llega a tiempo.
+     */
+    @Tag("carga")
+    @Test
+    void elGoodputSeMantieneAlSuperarLaCapacidad() throws Exception {
+        List<Double> goodputs = new ArrayList<>();
+        for (int factor : new int[]{50, 100, 200, 400}) {
+            LimiteAimd limite = new LimiteAimd(20, 4, 200, 0.9);
+            Resultado resultado = medir(nuevoFiltro(limite, LATENCIA_MAXIMA), PETICIONES_POR_SEGUNDO * factor / 100);
+            logger.info("Con control de admisión, carga {}%: {} (límite final {})", factor, resultado, limite.limite());
+            goodputs.add(resultado.goodput());
+        }
+        Resultado sinControl = medir(null, PETICIONES_POR_SEGUNDO * 4);
+        logger.info("Sin control de admisión, carga 400%: {}", sinControl);
+
+        // Por debajo de la capacidad se atiende todo; por encima, el goodput no cae
+        assertThat(goodputs.get(0)).isGreaterThan(PETICIONES_POR_SEGUNDO * 0.45);
+        for (double goodput : goodputs.subList(1, goodputs.size())) {
+            assertThat(goodput).isGreaterThan(PETICIONES_POR_SEGUNDO * 0.75);
+        }
+        assertThat(sinControl.goodput()).isLessThan(goodputs.get(3) / 2);
+    }
+
+    /**
+     * Carga abierta: las peticiones llegan a ritmo constante, haya o no respuesta a las anteriores.
+     * La latencia se mide desde el instante previsto de llegada, incluida la espera por un hilo cliente.
+     */
+    private static Resultado medir(AdmissionControlFilter filtro, int porSegundo) throws Exception {
+        Semaphore servidor = new Semaphore(CAPACIDAD, true);
+        FilterChain controlador = (request, response) -> {
+            servidor.acquireUninterruptibly();
+            try {
+                LockSupport.parkNanos(SERVICIO.toNanos());
+            } finally {
+                servidor.release();
+            }
+            ((HttpServletResponse) response).setStatus(200);
+        };
+        AtomicInteger aTiempo = new AtomicInteger();
+        AtomicInteger rechazadas = new AtomicInteger();
+        AtomicInteger tarde = new AtomicInteger();
+
+        ExecutorService clientes = Executors.newFixedThreadPool(500);
+        long inicio = System.nanoTime();
+        int total = porSegundo * SEGUNDOS;
+        for (int i = 0; i < total; i++) {
+            long llegada = inicio + i * 1_000_000_000L / porSegundo;
+            LockSupport.parkNanos(llegada - System.nanoTime());
+            clientes.execute(() -> {
+                MockHttpServletRequest request = new MockHttpServletRequest("POST", "/webhook/chat");
+                MockHttpServletResponse response = new MockHttpServletResponse();
+                try {
+                    if (filtro != null) {
+                        filtro.doFilter(request, response, controlador);
+                    } else {
+                        controlador.doFilter(request, response);
+                    }
+                } catch (IOException | ServletException e) {
+                    throw new IllegalStateException(e);
+                }
+                long latencia = System.nanoTime() - llegada;
+                if (response.getStatus() == 503) {
+                    rechazadas.incrementAndGet();
+                } else if (latencia <= LATENCIA_MAXIMA.toNanos()) {
+                    aTiempo.incrementAndGet();
+                } else {
+                    tarde.incrementAndGet();
+                }
+            });
+        }
+        clientes.shutdown();
+        assertThat(clientes.awaitTermination(2, TimeUnit.MINUTES)).isTrue();
+        return new Resultado(porSegundo, aTiempo.get(), rechazadas.get(), tarde.get());
+    }
+
+    private record Resultado(int porSegundo, int aTiempo, int rechazadas, int tarde) {
+        double goodput() {
+            return (double) aTiempo / SEGUNDOS;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d peticiones/s ofrecidas, goodput %.0f/s (%d a tiempo, %d rechazadas, %d tarde)",
+                    porSegundo, goodput(), aTiempo, rechazadas, tarde);
+        }
+    }
+
+    private static AdmissionControlFilter nuevoFiltro(LimiteAimd limite, Duration latenciaMaxima) {
+        return new AdmissionControlFilter(limite, latenciaMaxima, RETRY_AFTER,
+                new CorsConfig().corsConfigurationSource(), new SimpleMeterRegistry());
+    }
+
+    private static MockHttpServletResponse filtrar(AdmissionControlFilter filtro, String uri, FilterChain chain)
+            throws ServletException, IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filtro.doFilter(new MockHttpServletRequest("POST", uri), response, chain);
+        return response;
+    }
+
+    private static FilterChain responder(int status) {
+        return (request, response) -> ((HttpServletResponse) response).setStatus(status);
+    }
+
+    private static void esperar(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
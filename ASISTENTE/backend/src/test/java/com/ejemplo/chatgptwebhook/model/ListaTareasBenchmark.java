@@ -0,0 +1,200 @@
+package com.ejemplo.chatgptwebhook.model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Comparación de ListaTareas con el modelo anterior de MenuService, que guardaba las tareas como un
+ * único String y lo volvía a analizar con expresiones regulares en cada operación.
+ * Los métodos *Texto reproducen aquel código; los métodos *Lista usan ListaTareas.
+ *
+ * Ejecución: mvn test-compile y después, con el classpath de test,
+ * java com.ejemplo.chatgptwebhook.model.ListaTareasBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListaTareasBenchmark {
+
+    // Tareas que se agregan en cada invocación de los benchmarks de agregar
+    private static final int AGREGADAS = 100;
+
+    @Param({"10", "1000", "10000"})
+    public int tareas;
+
+    private String texto;
+    private Set<Integer> completadasTexto;
+    private ListaTareas lista;
+
+    @Setup
+    public void preparar() {
+        StringBuilder generado = new StringBuilder();
+        for (int i = 1; i <= tareas; i++) {
+            if (i > 1) {
+                generado.append('\n');
+            }
+            generado.append(i).append(". Tarea de prueba número ").append(i).append(" con una descripción de longitud media");
+        }
+        texto = generado.toString();
+        lista = ListaTareas.desdeTexto(texto);
+
+        // Una de cada tres tareas completada
+        completadasTexto = new HashSet<>();
+        for (int i = 1; i <= tareas; i += 3) {
+            completadasTexto.add(i);
+            lista.marcarCompletada(i);
+        }
+    }
+
+    @Benchmark
+    public int contarTexto() {
+        return contarTareas(texto);
+    }
+
+    @Benchmark
+    public int contarLista() {
+        return lista.total();
+    }
+
+    @Benchmark
+    public String buscarUltimaTexto() {
+        return extraerTextoTarea(texto, tareas);
+    }
+
+    @Benchmark
+    public String buscarUltimaLista() {
+        return lista.texto(tareas);
+    }
+
+    @Benchmark
+    public String renderizarConEstadoTexto() {
+        return formatearTareasConEstado(texto, completadasTexto);
+    }
+
+    @Benchmark
+    public String renderizarConEstadoLista() {
+        return lista.renderizarConEstado();
+    }
+
+    /**
+     * Antes: cada tarea nueva contaba las tareas dos veces y reconstruía el String completo
+     */
+    @Benchmark
+    @OperationsPerInvocation(AGREGADAS)
+    public String agregarTexto() {
+        String actual = texto;
+        for (int i = 0; i < AGREGADAS; i++) {
+            int numero = contarTareas(actual) + 1;
+            actual = actual + "\n" + String.format("%d. %s", numero, "Nueva tarea agregada desde el menú");
+            contarTareas(actual);
+        }
+        return actual;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(AGREGADAS)
+    public ListaTareas agregarLista(Agregado agregado) {
+        ListaTareas destino = agregado.lista;
+        for (int i = 0; i < AGREGADAS; i++) {
+            destino.agregar("Nueva tarea agregada desde el menú");
+        }
+        return destino;
+    }
+
+    /**
+     * Copia propia de la lista para cada invocación de agregarLista (fuera de la medición)
+     */
+    @State(Scope.Thread)
+    public static class Agregado {
+        ListaTareas lista;
+
+        @Setup(Level.Invocation)
+        public void preparar(ListaTareasBenchmark benchmark) {
+            lista = benchmark.lista.copia();
+        }
+    }
+
+    // Implementación anterior de MenuService, sin cambios salvo los logs
+
+    private static int contarTareas(String tareas) {
+        if (tareas == null || tareas.isEmpty()) {
+            return 0;
+        }
+        Pattern pattern = Pattern.compile("^\\d+\\.", Pattern.MULTILINE);
+        Matcher matcher = pattern.matcher(tareas);
+        int contador = 0;
+        while (matcher.find()) {
+            contador++;
+        }
+        return contador;
+    }
+
+    private static String formatearTareasConEstado(String tareas, Set<Integer> tareasCompletadas) {
+        if (tareas == null || tareas.isEmpty()) {
+            return "";
+        }
+        String[] lineasTareas = tareas.split("\n");
+        StringBuilder tareasFormateadas = new StringBuilder();
+        for (String linea : lineasTareas) {
+            if (linea.trim().isEmpty()) continue;
+            Pattern pattern = Pattern.compile("^(\\d+)\\.");
+            Matcher matcher = pattern.matcher(linea.trim());
+            if (matcher.find()) {
+                int numeroTarea = Integer.parseInt(matcher.group(1));
+                boolean completada = tareasCompletadas.contains(numeroTarea);
+                String estado = completada ? "✅" : "⏳";
+                String estadoTexto = completada ? " **(COMPLETADA)**" : " (Pendiente)";
+                tareasFormateadas.append(estado).append(" ").append(linea.trim()).append(estadoTexto).append("\n");
+            } else {
+                tareasFormateadas.append("⏳ ").append(linea.trim()).append(" (Pendiente)").append("\n");
+            }
+        }
+        return tareasFormateadas.toString().trim();
+    }
+
+    private static String extraerTextoTarea(String tareas, int numeroTarea) {
+        if (tareas == null || tareas.isEmpty()) {
+            return "Descripción no disponible";
+        }
+        String[] lineasTareas = tareas.split("\n");
+        for (String linea : lineasTareas) {
+            if (linea.trim().isEmpty()) continue;
+            Pattern pattern = Pattern.compile("^" + numeroTarea + "\\. (.+)");
+            Matcher matcher = pattern.matcher(linea.trim());
+            if (matcher.find()) {
+                return matcher.group(1);
+            }
+        }
+        return "Tarea #" + numeroTarea;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ListaTareasBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
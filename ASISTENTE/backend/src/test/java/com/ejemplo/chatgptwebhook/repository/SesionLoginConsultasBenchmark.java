@@ -0,0 +1,248 @@
+package com.ejemplo.chatgptwebhook.repository;
+
+import org.h2.api.Trigger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Consultas calientes de SesionLoginRepository sobre una tabla sesiones_login de 10 millones de filas,
+ * con H2 en modo PostgreSQL como sustituto embebido de la base de datos.
+ * - antes: la tabla sin índices, la última sesión con ORDER BY sin límite y el total con COUNT(*);
+ * - despues: los índices de SesionLogin y db/sesiones_login.sql, LIMIT 1 y el contador mantenido por trigger.
+ *
+ * H2 no tiene índices parciales ni triggers por sentencia: el índice de sesiones activas incluye la columna
+ * activa y el contador se mantiene con un trigger por fila. Las particiones mensuales tampoco se reproducen.
+ * La base de datos se crea en un directorio temporal (unos 2 GB con 10 millones de filas).
+ *
+ * Ejecución: mvn test-compile y después, con el classpath de test,
+ * java com.ejemplo.chatgptwebhook.repository.SesionLoginConsultasBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SesionLoginConsultasBenchmark {
+
+    private static final LocalDateTime INICIO = LocalDateTime.of(2024, 6, 1, 0, 0);
+    private static final int USUARIOS = 100_000;
+    // Cada usuario tiene una sesión activa de cada 50
+    private static final int CADA_ACTIVA = 50;
+
+    @Param({"10000000"})
+    public int filas;
+
+    @Param({"antes", "despues"})
+    public String esquema;
+
+    private Path directorio;
+    private Connection conexion;
+    private PreparedStatement ultimaSesion;
+    private PreparedStatement sesionesActivas;
+    private PreparedStatement contarActivas;
+    private PreparedStatement porIp;
+    private PreparedStatement porRangoFechas;
+    private PreparedStatement insertarLogin;
+    private long siguienteId;
+
+    @Setup
+    public void preparar() throws IOException, SQLException {
+        directorio = Files.createTempDirectory("sesiones-login-benchmark");
+        // OPTIMIZE_REUSE_RESULTS=FALSE: H2 no devuelve el resultado anterior cuando la tabla no ha cambiado
+        conexion = DriverManager.getConnection(
+                "jdbc:h2:file:" + directorio.resolve("bd") + ";MODE=PostgreSQL;CACHE_SIZE=262144;OPTIMIZE_REUSE_RESULTS=FALSE",
+                "sa", "");
+        boolean despues = "despues".equals(esquema);
+
+        try (Statement sql = conexion.createStatement()) {
+            sql.execute("""
+                    CREATE TABLE sesiones_login (
+                        id           BIGINT       NOT NULL PRIMARY KEY,
+                        user_id      BIGINT       NOT NULL,
+                        fecha_login  TIMESTAMP(6) NOT NULL,
+                        fecha_logout TIMESTAMP(6),
+                        ip_address   VARCHAR(45),
+                        user_agent   VARCHAR(500),
+                        activa       BOOLEAN      NOT NULL)""");
+            // Una sesión por segundo hacia atrás desde INICIO, repartidas entre USUARIOS usuarios y 65536 IPs
+            sql.execute("INSERT INTO sesiones_login "
+                    + "SELECT x, MOD(x, " + USUARIOS + "), DATEADD(SECOND, -x, TIMESTAMP '" + Timestamp.valueOf(INICIO) + "'), "
+                    + "NULL, CONCAT('10.0.', MOD(x, 256), '.', MOD(x / 256, 256)), 'Mozilla/5.0', MOD(x / " + USUARIOS + ", " + CADA_ACTIVA + ") = 0 "
+                    + "FROM SYSTEM_RANGE(1, " + filas + ")");
+
+            if (despues) {
+                sql.execute("CREATE INDEX idx_sesiones_login_usuario_fecha ON sesiones_login (user_id, fecha_login)");
+                sql.execute("CREATE INDEX idx_sesiones_login_fecha ON sesiones_login (fecha_login)");
+                sql.execute("CREATE INDEX idx_sesiones_login_ip ON sesiones_login (ip_address)");
+                sql.execute("CREATE INDEX idx_sesiones_login_activas_usuario ON sesiones_login (activa, user_id, fecha_login DESC)");
+
+                sql.execute("CREATE TABLE sesiones_login_contadores (id SMALLINT PRIMARY KEY CHECK (id = 1), activas BIGINT NOT NULL)");
+                sql.execute("INSERT INTO sesiones_login_contadores SELECT 1, COUNT(*) FROM sesiones_login WHERE activa");
+                sql.execute("CREATE TRIGGER sesiones_login_contar AFTER INSERT, UPDATE, DELETE ON sesiones_login "
+                        + "FOR EACH ROW CALL \"" + ContadorActivas.class.getName() + "\"");
+            }
+            sql.execute("ANALYZE");
+        }
+
+        String columnas = "id, user_id, fecha_login, fecha_logout, ip_address, user_agent, activa";
+        ultimaSesion = conexion.prepareStatement("SELECT " + columnas + " FROM sesiones_login "
+                + "WHERE user_id = ? AND activa = TRUE ORDER BY fecha_login DESC" + (despues ? " LIMIT 1" : ""));
+        sesionesActivas = conexion.prepareStatement("SELECT " + columnas + " FROM sesiones_login WHERE user_id = ? AND activa = TRUE");
+        contarActivas = conexion.prepareStatement(despues
+                ? "SELECT COALESCE((SELECT activas FROM sesiones_login_contadores WHERE id = 1), 0)"
+                : "SELECT COUNT(*) FROM sesiones_login WHERE activa = TRUE");
+        porIp = conexion.prepareStatement("SELECT " + columnas + " FROM sesiones_login WHERE ip_address = ?");
+        porRangoFechas = conexion.prepareStatement("SELECT " + columnas + " FROM sesiones_login WHERE fecha_login BETWEEN ? AND ?");
+        insertarLogin = conexion.prepareStatement("INSERT INTO sesiones_login (" + columnas + ") VALUES (?, ?, ?, NULL, ?, ?, TRUE)");
+        siguienteId = filas + 1L;
+    }
+
+    @TearDown
+    public void cerrar() throws SQLException, IOException {
+        try (Statement sql = conexion.createStatement()) {
+            sql.execute("SHUTDOWN");
+        } catch (SQLException e) {
+            // La base de datos ya está cerrada
+        }
+        try (Stream<Path> ficheros = Files.walk(directorio)) {
+            for (Path fichero : ficheros.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(fichero);
+            }
+        }
+    }
+
+    /**
+     * findLastActiveSessionByUser: antes leía todas las sesiones activas ordenadas y se quedaba con la primera
+     */
+    @Benchmark
+    public Object[] ultimaSesionActiva() throws SQLException {
+        ultimaSesion.setLong(1, usuarioAleatorio());
+        List<Object[]> sesiones = leer(ultimaSesion);
+        return sesiones.isEmpty() ? null : sesiones.get(0);
+    }
+
+    @Benchmark
+    public List<Object[]> sesionesActivasDeUsuario() throws SQLException {
+        sesionesActivas.setLong(1, usuarioAleatorio());
+        return leer(sesionesActivas);
+    }
+
+    @Benchmark
+    public long contarSesionesActivas() throws SQLException {
+        try (ResultSet resultado = contarActivas.executeQuery()) {
+            resultado.next();
+            return resultado.getLong(1);
+        }
+    }
+
+    @Benchmark
+    public List<Object[]> sesionesPorIp() throws SQLException {
+        int n = ThreadLocalRandom.current().nextInt(65_536);
+        porIp.setString(1, "10.0." + (n % 256) + "." + (n / 256));
+        return leer(porIp);
+    }
+
+    /**
+     * findSessionsByDateRange con una ventana de una hora
+     */
+    @Benchmark
+    public List<Object[]> sesionesDeUnaHora() throws SQLException {
+        LocalDateTime desde = INICIO.minusSeconds(ThreadLocalRandom.current().nextLong(filas - 3600L));
+        porRangoFechas.setTimestamp(1, Timestamp.valueOf(desde));
+        porRangoFechas.setTimestamp(2, Timestamp.valueOf(desde.plusHours(1)));
+        return leer(porRangoFechas);
+    }
+
+    /**
+     * Coste de escritura de los índices y del contador al registrar un login
+     */
+    @Benchmark
+    public int registrarLogin() throws SQLException {
+        insertarLogin.setLong(1, siguienteId++);
+        insertarLogin.setLong(2, usuarioAleatorio());
+        insertarLogin.setTimestamp(3, Timestamp.valueOf(INICIO));
+        insertarLogin.setString(4, "10.1.0.1");
+        insertarLogin.setString(5, "Mozilla/5.0");
+        return insertarLogin.executeUpdate();
+    }
+
+    private static long usuarioAleatorio() {
+        return ThreadLocalRandom.current().nextInt(USUARIOS);
+    }
+
+    private static List<Object[]> leer(PreparedStatement consulta) throws SQLException {
+        List<Object[]> filas = new ArrayList<>();
+        try (ResultSet resultado = consulta.executeQuery()) {
+            int columnas = resultado.getMetaData().getColumnCount();
+            while (resultado.next()) {
+                Object[] fila = new Object[columnas];
+                for (int i = 0; i < columnas; i++) {
+                    fila[i] = resultado.getObject(i + 1);
+                }
+                filas.add(fila);
+            }
+        }
+        return filas;
+    }
+
+    /**
+     * Equivalente en H2 de sesiones_login_contar(): suma o resta las filas activas insertadas, modificadas o borradas
+     */
+    public static class ContadorActivas implements Trigger {
+
+        // Posición de la columna activa en sesiones_login
+        private static final int ACTIVA = 6;
+
+        @Override
+        public void fire(Connection conexion, Object[] anterior, Object[] nueva) throws SQLException {
+            int delta = (nueva != null && Boolean.TRUE.equals(nueva[ACTIVA]) ? 1 : 0)
+                    - (anterior != null && Boolean.TRUE.equals(anterior[ACTIVA]) ? 1 : 0);
+            if (delta != 0) {
+                try (PreparedStatement actualizar = conexion.prepareStatement(
+                        "UPDATE sesiones_login_contadores SET activas = activas + ? WHERE id = 1")) {
+                    actualizar.setInt(1, delta);
+                    actualizar.executeUpdate();
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SesionLoginConsultasBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
@@ -0,0 +1,285 @@
+package com.ejemplo.chatgptwebhook.service;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.springframework.core.io.ClassPathResource;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Base de datos H2 en memoria que sustituye a PostgreSQL en las pruebas de JdbcSessionStateStore y
+ * ProyectosWriteBehind. El esquema se crea a partir de db/sesiones_estado.sql y de db/migraciones
+ * (proyectos y tareas) y las sentencias se traducen al conectarse: las CTE que modifican datos con
+ * RETURNING pasan a FINAL TABLE / OLD TABLE, los ON CONFLICT ... DO UPDATE a MERGE y los intervalos
+ * de make_interval a DATEADD. pg_notify no envía nada: los mensajes se acumulan y la prueba los
+ * reparte a las instancias cuando quiere, como haría el hilo de LISTEN.
+ * Es pública para que H2 pueda llamar a la función pg_notify.
+ */
+public class BaseSesionesH2 implements AutoCloseable {
+
+    private static final String LEER = "SELECT version, datos FROM sesiones_estado";
+
+    private static final Pattern CTE_CON_RETURNING = Pattern.compile(
+            "WITH \\w+ AS \\(((INSERT|UPDATE|DELETE) .*) RETURNING [^)]*\\) SELECT (.*) FROM \\w+", Pattern.DOTALL);
+    private static final Pattern CONFLICTO_CON_COLUMNA = Pattern.compile("ON CONFLICT \\(\\w+\\) DO NOTHING");
+    private static final Pattern CONFLICTO_CON_ACTUALIZACION = Pattern.compile(
+            "INSERT INTO (\\w+) \\(([^)]*)\\) (.*) ON CONFLICT \\(([^)]*)\\) DO UPDATE SET (.*?)(?: WHERE (.*))?", Pattern.DOTALL);
+    private static final Pattern INTERVALO = Pattern.compile("now\\(\\) ([+-]) make_interval\\(secs => \\?\\)");
+
+    // Mensajes de pg_notify de cada base de datos, por nombre
+    private static final Map<String, Queue<String>> NOTIFICACIONES = new ConcurrentHashMap<>();
+
+    private final String nombre = "sesiones-" + UUID.randomUUID();
+    private final JdbcDataSource h2 = new JdbcDataSource();
+    private final AtomicInteger lecturas = new AtomicInteger();
+    private volatile boolean caida;
+    private volatile Runnable alFallar;
+    // Tipo de cada columna (tabla.columna), para dar tipo a los parámetros de los MERGE
+    private final Map<String, String> tipos = new ConcurrentHashMap<>();
+    private final DataSource dataSource;
+
+    BaseSesionesH2() throws IOException, SQLException {
+        h2.setURL(url());
+        h2.setUser("sa");
+        NOTIFICACIONES.put(nombre.toUpperCase(), new ConcurrentLinkedQueue<>());
+        try (Connection conexion = h2.getConnection(); Statement sql = conexion.createStatement()) {
+            // Solo lo que necesitan las claves ajenas de proyectos
+            sql.execute("CREATE TABLE users (id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, correo VARCHAR(100))");
+            for (String sentencia : esquema()) {
+                sql.execute(sentencia);
+            }
+            sql.execute("CREATE ALIAS pg_notify FOR \"" + BaseSesionesH2.class.getName() + ".notificar\"");
+            try (ResultSet columnas = sql.executeQuery(
+                    "SELECT LOWER(TABLE_NAME), LOWER(COLUMN_NAME), DATA_TYPE FROM INFORMATION_SCHEMA.COLUMNS")) {
+                while (columnas.next()) {
+                    tipos.put(columnas.getString(1) + "." + columnas.getString(2), columnas.getString(3));
+                }
+            }
+        }
+        this.dataSource = (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{DataSource.class}, (proxy, metodo, args) -> {
+                    Object resultado = invocar(metodo, h2, args);
+                    return resultado instanceof Connection conexion ? traducir(conexion) : resultado;
+                });
+    }
+
+    String url() {
+        return "jdbc:h2:mem:" + nombre + ";MODE=PostgreSQL;DB_CLOSE_DELAY=-1";
+    }
+
+    DataSource dataSource() {
+        return dataSource;
+    }
+
+    /**
+     * Consultas de sesiones hechas a la base de datos (las que no se sirvieron de la caché local)
+     */
+    int lecturas() {
+        return lecturas.get();
+    }
+
+    /**
+     * Mensajes notificados desde la última llamada, en orden
+     */
+    List<String> recogerNotificaciones() {
+        Queue<String> cola = NOTIFICACIONES.get(nombre.toUpperCase());
+        List<String> mensajes = new ArrayList<>();
+        for (String mensaje = cola.poll(); mensaje != null; mensaje = cola.poll()) {
+            mensajes.add(mensaje);
+        }
+        return mensajes;
+    }
+
+    /**
+     * Mientras está caída, toda sentencia que no sea una consulta falla al prepararse
+     */
+    void simularCaida(boolean caida) {
+        this.caida = caida;
+    }
+
+    /**
+     * Acción que se ejecuta una vez, en el primer fallo simulado: cambios que llegan mientras una escritura falla
+     */
+    void alFallar(Runnable accion) {
+        this.alFallar = accion;
+    }
+
+    int filas() throws SQLException {
+        return consultarNumero("SELECT COUNT(*) FROM sesiones_estado").intValue();
+    }
+
+    Long version(String sessionId) throws SQLException {
+        return consultarNumero("SELECT version FROM sesiones_estado WHERE session_id = '" + sessionId + "'");
+    }
+
+    @Override
+    public void close() throws SQLException {
+        try (Connection conexion = h2.getConnection(); Statement sql = conexion.createStatement()) {
+            sql.execute("SHUTDOWN");
+        }
+        NOTIFICACIONES.remove(nombre.toUpperCase());
+    }
+
+    /**
+     * Función pg_notify de H2: recibe la conexión de la sentencia para saber a qué base de datos pertenece
+     */
+    public static String notificar(Connection conexion, String canal, String mensaje) throws SQLException {
+        NOTIFICACIONES.get(conexion.getCatalog()).add(mensaje);
+        return mensaje;
+    }
+
+    String aH2(String sql) {
+        Matcher conflicto = CONFLICTO_CON_ACTUALIZACION.matcher(sql);
+        if (conflicto.matches()) {
+            return aMerge(conflicto);
+        }
+        Matcher cte = CTE_CON_RETURNING.matcher(sql);
+        if (cte.matches()) {
+            String tabla = "DELETE".equals(cte.group(2)) ? "OLD TABLE" : "FINAL TABLE";
+            sql = "SELECT " + cte.group(3) + " FROM " + tabla + " (" + cte.group(1) + ")";
+        }
+        sql = CONFLICTO_CON_COLUMNA.matcher(sql).replaceAll("ON CONFLICT DO NOTHING");
+        return INTERVALO.matcher(sql).replaceAll(intervalo ->
+                "DATEADD(MILLISECOND, " + ("-".equals(intervalo.group(1)) ? "-" : "") + "CAST(? * 1000 AS BIGINT), now())");
+    }
+
+    /**
+     * INSERT ... ON CONFLICT (clave) DO UPDATE SET ... [WHERE ...] como MERGE; las filas propuestas se
+     * llaman EXCLUDED, como en PostgreSQL, y los parámetros quedan en el mismo orden. H2 no deduce el
+     * tipo de un parámetro suelto en un SELECT: se convierte al de su columna
+     */
+    private String aMerge(Matcher conflicto) {
+        String tabla = conflicto.group(1);
+        List<String> columnas = List.of(conflicto.group(2).split(",\\s*"));
+        String origen = conflicto.group(3).startsWith("VALUES (")
+                ? conflicto.group(3).substring("VALUES (".length(), conflicto.group(3).length() - 1)
+                : conflicto.group(3).substring("SELECT ".length());
+        List<String> expresiones = expresiones(origen);
+        StringBuilder filas = new StringBuilder("SELECT ");
+        for (int i = 0; i < columnas.size(); i++) {
+            String expresion = expresiones.get(i).strip();
+            filas.append(i > 0 ? ", " : "").append("?".equals(expresion)
+                    ? "CAST(? AS " + tipos.get(tabla + "." + columnas.get(i)) + ")"
+                    : expresion);
+        }
+        // Lo que sigue a la lista del SELECT (FROM ... WHERE ...)
+        filas.append(expresiones.get(columnas.size()));
+        List<String> condiciones = new ArrayList<>();
+        for (String clave : conflicto.group(4).split(",\\s*")) {
+            condiciones.add(tabla + "." + clave + " = EXCLUDED." + clave);
+        }
+        List<String> valores = new ArrayList<>();
+        for (String columna : columnas) {
+            valores.add("EXCLUDED." + columna);
+        }
+        return "MERGE INTO " + tabla + " USING (" + filas + ") AS EXCLUDED(" + String.join(", ", columnas) + ")"
+                + " ON " + String.join(" AND ", condiciones)
+                + " WHEN MATCHED" + (conflicto.group(6) != null ? " AND " + conflicto.group(6) : "")
+                + " THEN UPDATE SET " + conflicto.group(5)
+                + " WHEN NOT MATCHED THEN INSERT (" + String.join(", ", columnas) + ") VALUES (" + String.join(", ", valores) + ")";
+    }
+
+    /**
+     * Expresiones de una lista separadas por las comas de primer nivel, seguidas del resto de la
+     * sentencia a partir del primer FROM de primer nivel (vacío si no hay)
+     */
+    private static List<String> expresiones(String lista) {
+        List<String> expresiones = new ArrayList<>();
+        int nivel = 0;
+        int inicio = 0;
+        for (int i = 0; i < lista.length(); i++) {
+            char c = lista.charAt(i);
+            if (c == '(') {
+                nivel++;
+            } else if (c == ')') {
+                nivel--;
+            } else if (nivel == 0 && c == ',') {
+                expresiones.add(lista.substring(inicio, i));
+                inicio = i + 1;
+            } else if (nivel == 0 && lista.startsWith(" FROM ", i)) {
+                expresiones.add(lista.substring(inicio, i));
+                expresiones.add(lista.substring(i));
+                return expresiones;
+            }
+        }
+        expresiones.add(lista.substring(inicio));
+        expresiones.add("");
+        return expresiones;
+    }
+
+    private Connection traducir(Connection conexion) {
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{Connection.class}, (proxy, metodo, args) -> {
+                    if ("prepareStatement".equals(metodo.getName()) && args[0] instanceof String sql) {
+                        if (sql.startsWith(LEER)) {
+                            lecturas.incrementAndGet();
+                        }
+                        if (caida && !sql.startsWith("SELECT")) {
+                            Runnable accion = alFallar;
+                            alFallar = null;
+                            if (accion != null) {
+                                accion.run();
+                            }
+                            throw new SQLException("Base de datos caída (simulada)");
+                        }
+                        args[0] = aH2(sql);
+                    }
+                    return invocar(metodo, conexion, args);
+                });
+    }
+
+    private static Object invocar(Method metodo, Object destino, Object[] args) throws Throwable {
+        try {
+            return metodo.invoke(destino, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Sentencias de db/sesiones_estado.sql y de las migraciones de proyectos sin lo que H2 no admite
+     * (fillfactor e índices parciales)
+     */
+    private static List<String> esquema() throws IOException {
+        String script = (new ClassPathResource("db/sesiones_estado.sql").getContentAsString(StandardCharsets.UTF_8)
+                + new ClassPathResource("db/migraciones/V1__proyectos_tareas_y_secuencia_sesiones_login.sql")
+                        .getContentAsString(StandardCharsets.UTF_8))
+                .replaceAll("--[^\n]*", "");
+        List<String> sentencias = new ArrayList<>();
+        for (String sentencia : script.split(";")) {
+            sentencia = sentencia.strip()
+                    .replaceAll("\\s*WITH \\(fillfactor = \\d+\\)", "")
+                    .replaceAll("(CREATE INDEX .*\\)) WHERE .*", "$1");
+            if (!sentencia.isEmpty()) {
+                sentencias.add(sentencia);
+            }
+        }
+        return sentencias;
+    }
+
+    private Long consultarNumero(String consulta) throws SQLException {
+        try (Connection conexion = h2.getConnection();
+             Statement sql = conexion.createStatement();
+             ResultSet resultado = sql.executeQuery(consulta)) {
+            return resultado.next() ? resultado.getLong(1) : null;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.ejemplo.chatgptwebhook.service;
+
+import com.ejemplo.chatgptwebhook.config.OpenAiClientConfig;
+import com.ejemplo.chatgptwebhook.config.OpenAiHttpProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static com.ejemplo.chatgptwebhook.service.ServidorOpenAiSimulado.error;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Reintentos y circuit breaker de ChatGptService contra un servidor HTTP simulado,
+ * con el mismo WebClient (pool, timeouts) que se usa en producción
+ */
+class ChatGptServiceResilienciaTest {
+
+    private static final Duration ESPERA = Duration.ofSeconds(10);
+
+    private ServidorOpenAiSimulado servidor;
+    private ConnectionProvider pool;
+    private MeterRegistry registry;
+    private OpenAiCircuitBreaker circuitBreaker;
+
+    @BeforeEach
+    void arrancar() {
+        servidor = new ServidorOpenAiSimulado();
+        registry = new SimpleMeterRegistry();
+    }
+
+    @AfterEach
+    void parar() {
+        if (pool != null) {
+            pool.dispose();
+        }
+        servidor.close();
+    }
+
+    @Test
+    void reintentaUn503YDevuelveLaRespuestaSiguiente() {
+        ChatGptService servicio = servicio(3, 2, Duration.ofSeconds(30));
+        servidor.encolar(error(503, "server_error"));
+
+        String respuesta = servicio.solicitarMensajeConTokens("hola", 50, false).block(ESPERA);
+
+        assertThat(respuesta).isEqualTo(ServidorOpenAiSimulado.CONTENIDO);
+        assertThat(servidor.peticiones()).isEqualTo(2);
+        assertThat(registry.counter("openai.reintentos").count()).isEqualTo(1);
+        assertThat(circuitBreaker.getEstado()).isEqualTo(OpenAiCircuitBreaker.Estado.CERRADO);
+    }
+
+    @Test
+    void respetaRetryAfterEnUn429PorVelocidad() {
+        ChatGptService servicio = servicio(3, 5, Duration.ofSeconds(30));
+        servidor.encolar(error(429, "rate_limit_exceeded", Map.of("retry-after-ms", "400")));
+
+        long inicio = System.nanoTime();
+        String respuesta = servicio.solicitarMensajeConTokens("hola", 50, false).block(ESPERA);
+        long transcurrido = Duration.ofNanos(System.nanoTime() - inicio).toMillis();
+
+        assertThat(respuesta).isEqualTo(ServidorOpenAiSimulado.CONTENIDO);
+        assertThat(servidor.peticiones()).isEqualTo(2);
+        assertThat(transcurrido).isGreaterThanOrEqualTo(400);
+    }
+
+    @Test
+    void noReintentaSiRetryAfterSuperaLaEsperaMaxima() {
+        ChatGptService servicio = servicio(3, 5, Duration.ofSeconds(30));
+        servidor.encolar(error(429, "rate_limit_exceeded", Map.of("Retry-After", "60")));
+
+        assertThatThrownBy(() -> servicio.solicitarMensajeConTokens("hola", 50, false).block(ESPERA))
+                .isInstanceOf(WebClientResponseException.TooManyRequests.class);
+        assertThat(servidor.peticiones()).isEqualTo(1);
+    }
+
+    @Test
+    void noReintentaErroresDeLaPeticionNiCuotaAgotada() {
+        ChatGptService servicio = servicio(3, 5, Duration.ofSeconds(30));
+        servidor.encolar(error(400, "invalid_request_error"), error(429, "insufficient_quota"));
+
+        assertThatThrownBy(() -> servicio.solicitarMensajeConTokens("uno", 50, false).block(ESPERA))
+                .isInstanceOf(WebClientResponseException.BadRequest.class);
+        assertThatThrownBy(() -> servicio.solicitarMensajeConTokens("dos", 50, false).block(ESPERA))
+                .isInstanceOf(WebClientResponseException.TooManyRequests.class);
+
+        assertThat(servidor.peticiones()).isEqualTo(2);
+        assertThat(registry.counter("openai.reintentos").count()).isZero();
+        // Ni la cuota ni una petición mal formada indican que OpenAI esté caído
+        assertThat(circuitBreaker.getEstado()).isEqualTo(OpenAiCircuitBreaker.Estado.CERRADO);
+    }
+
+    @Test
+    void agotaLosReintentosYPropagaElUltimoError() {
+        ChatGptService servicio = servicio(2, 10, Duration.ofSeconds(30));
+        servidor.porDefecto(error(502, "bad_gateway"));
+
+        assertThatThrownBy(() -> servicio.solicitarMensajeConTokens("hola", 50, false).block(ESPERA))
+                .isInstanceOf(WebClientResponseException.BadGateway.class);
+        assertThat(servidor.peticiones()).isEqualTo(3);
+        assertThat(registry.counter("openai.reintentos").count()).isEqualTo(2);
+    }
+
+    @Test
+    void noReintentaSiElReintentoEmpezariaFueraDeLaVentana() {
+        ChatGptService servicio = servicio(3, 5, Duration.ofSeconds(30), Duration.ofMillis(300));
+        servidor.encolar(error(429, "rate_limit_exceeded", Map.of("retry-after-ms", "400")));
+
+        assertThatThrownBy(() -> servicio.solicitarMensajeConTokens("hola", 50, false).block(ESPERA))
+                .isInstanceOf(WebClientResponseException.TooManyRequests.class);
+        assertThat(servidor.peticiones()).isEqualTo(1);
+        assertThat(registry.counter("openai.reintentos").count()).isZero();
+    }
+
+    @Test
+    void elCircuitoSeAbreFallaRapidoYSeCierraTrasUnaSondaCorrecta() throws InterruptedException {
+        Duration apertura = Duration.ofMillis(300);
+        ChatGptService servicio = servicio(0, 2, apertura);
+        servidor.encolar(error(503, "server_error"), error(503, "server_error"));
+
+        for (String mensaje : new String[]{"uno", "dos"}) {
+            assertThatThrownBy(() -> servicio.solicitarMensajeConTokens(mensaje, 50, false).block(ESPERA))
+                    .isInstanceOf(WebClientResponseException.ServiceUnavailable.class);
+        }
+        esperarEstado(OpenAiCircuitBreaker.Estado.ABIERTO);
+        assertThat(registry.counter("openai.circuito.aperturas").count()).isEqualTo(1);
+
+        // Con el circuito abierto se falla sin contactar con OpenAI
+        assertThatThrownBy(() -> servicio.solicitarMensajeConTokens("tres", 50, false).block(ESPERA))
+                .isInstanceOf(OpenAiCircuitBreaker.CircuitoAbiertoException.class);
+        assertThat(servidor.peticiones()).isEqualTo(2);
+        assertThat(registry.counter("openai.circuito.rechazos").count()).isEqualTo(1);
+        assertThat(ChatGptService.esRechazoPorSaturacion(new OpenAiCircuitBreaker.CircuitoAbiertoException())).isTrue();
+
+        Thread.sleep(apertura.toMillis() + 100);
+
+        assertThat(servicio.solicitarMensajeConTokens("cuatro", 50, false).block(ESPERA))
+                .isEqualTo(ServidorOpenAiSimulado.CONTENIDO);
+        assertThat(servidor.peticiones()).isEqualTo(3);
+        esperarEstado(OpenAiCircuitBreaker.Estado.CERRADO);
+    }
+
+    @Test
+    void unaSondaFallidaVuelveAAbrirElCircuito() throws InterruptedException {
+        Duration apertura = Duration.ofMillis(200);
+        ChatGptService servicio = servicio(0, 1, apertura);
+        servidor.encolar(error(500, "server_error"), error(500, "server_error"));
+
+        assertThatThrownBy(() -> servicio.solicitarMensajeConTokens("uno", 50, false).block(ESPERA))
+                .isInstanceOf(WebClientResponseException.InternalServerError.class);
+        esperarEstado(OpenAiCircuitBreaker.Estado.ABIERTO);
+
+        Thread.sleep(apertura.toMillis() + 100);
+
+        assertThatThrownBy(() -> servicio.solicitarMensajeConTokens("dos", 50, false).block(ESPERA))
+                .isInstanceOf(WebClientResponseException.InternalServerError.class);
+        esperarEstado(OpenAiCircuitBreaker.Estado.ABIERTO);
+        assertThat(registry.counter("openai.circuito.aperturas").count()).isEqualTo(2);
+    }
+
+    /**
+     * El circuito registra el resultado en doFinally, que puede ejecutarse justo después de que
+     * block() haya recibido la señal en el hilo de la prueba
+     */
+    private void esperarEstado(OpenAiCircuitBreaker.Estado esperado) throws InterruptedException {
+        long limite = System.nanoTime() + ESPERA.toNanos();
+        while (circuitBreaker.getEstado() != esperado && System.nanoTime() < limite) {
+            Thread.sleep(5);
+        }
+        assertThat(circuitBreaker.getEstado()).isEqualTo(esperado);
+    }
+
+    private ChatGptService servicio(int maxReintentos, int umbralFallos, Duration apertura) {
+        return servicio(maxReintentos, umbralFallos, apertura, Duration.ofSeconds(30));
+    }
+
+    private ChatGptService servicio(int maxReintentos, int umbralFallos, Duration apertura, Duration ventanaReintentos) {
+        OpenAiHttpProperties props = new OpenAiHttpProperties();
+        props.setResponseTimeout(Duration.ofSeconds(5));
+        OpenAiClientConfig config = new OpenAiClientConfig();
+        pool = config.openAiConnectionProvider(props);
+        WebClient webClient = config.openAiWebClient(pool, props, "clave-de-prueba", servidor.url());
+
+        circuitBreaker = new OpenAiCircuitBreaker(umbralFallos, apertura, 1, registry);
+        return new ChatGptService(webClient,
+                new ObjectMapper(),
+                new ChatGptResponseCache(false, 1_000_000, Duration.ofMinutes(1), registry),
+                new OpenAiFairScheduler(20, 500, Duration.ofSeconds(5), 1000, 4, 1, registry),
+                new OpenAiRateLimiter(10_000, 10_000_000, 20, 200, Duration.ofSeconds(5), registry),
+                new OpenAiRetry(maxReintentos, Duration.ofMillis(10), Duration.ofSeconds(2), ventanaReintentos, registry),
+                circuitBreaker,
+                new ConversationMemory(false, 1500, 1_000_000, Duration.ofMinutes(1), registry),
+                registry);
+    }
+}
@@ -0,0 +1,269 @@
+package com.ejemplo.chatgptwebhook.service;
+
+import com.ejemplo.chatgptwebhook.model.SessionState;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * JdbcSessionStateStore sobre H2 (BaseSesionesH2). Cada instancia del almacén simula una instancia
+ * de la aplicación; las notificaciones se reparten a mano en lugar de con el hilo de LISTEN, que
+ * no se arranca.
+ */
+class JdbcSessionStateStoreTest {
+
+    private BaseSesionesH2 base;
+    private ProyectosWriteBehind proyectosWriteBehind;
+    private final List<JdbcSessionStateStore> instancias = new ArrayList<>();
+
+    @BeforeEach
+    void crearBase() throws Exception {
+        base = new BaseSesionesH2();
+        proyectosWriteBehind = mock(ProyectosWriteBehind.class);
+        when(proyectosWriteBehind.cargar(anyString())).thenReturn(Optional.empty());
+    }
+
+    @AfterEach
+    void cerrarBase() throws Exception {
+        base.close();
+    }
+
+    @Test
+    void leerUnaSesionDesconocidaNoCreaSuFila() throws Exception {
+        JdbcSessionStateStore almacen = nuevaInstancia(new SimpleMeterRegistry());
+
+        assertThat(almacen.leer("sesion-1").isActiva()).isTrue();
+        assertThat(almacen.existe("sesion-1")).isTrue();
+        almacen.leer("sesion-1");
+
+        assertThat(base.filas()).isZero();
+        assertThat(base.recogerNotificaciones()).isEmpty();
+        // La sesión vacía queda en la caché local: ni la tabla ni el proyecto se consultan otra vez
+        assertThat(base.lecturas()).isEqualTo(1);
+        verify(proyectosWriteBehind, times(1)).cargar("sesion-1");
+    }
+
+    @Test
+    void laPrimeraModificacionCreaLaFilaContinuandoLaVersionDelProyecto() throws Exception {
+        SessionState guardado = new SessionState();
+        guardado.setNombreProyecto("Huerto Urbano");
+        when(proyectosWriteBehind.cargar("sesion-1"))
+                .thenReturn(Optional.of(new ProyectosWriteBehind.ProyectoGuardado(guardado, 7)));
+        JdbcSessionStateStore almacen = nuevaInstancia(new SimpleMeterRegistry());
+
+        assertThat(almacen.leer("sesion-1").getNombreProyecto()).isEqualTo("Huerto Urbano");
+        assertThat(base.filas()).isZero();
+
+        almacen.actualizar("sesion-1", estado -> {
+            estado.setInteracciones(1);
+            return null;
+        });
+
+        assertThat(base.version("sesion-1")).isEqualTo(8);
+        assertThat(base.recogerNotificaciones()).containsExactly("sesion-1:8");
+        verify(proyectosWriteBehind).estadoConfirmado(eq("sesion-1"), eq(8L), any(SessionState.class));
+    }
+
+    @Test
+    void laCacheLocalSirveLasLecturasYLasModificacionesSinConsultarLaTabla() throws Exception {
+        JdbcSessionStateStore almacen = nuevaInstancia(new SimpleMeterRegistry());
+        almacen.actualizar("sesion-1", estado -> {
+            estado.setNombreProyecto("Huerto Urbano");
+            return null;
+        });
+        int lecturas = base.lecturas();
+
+        for (int i = 0; i < 100; i++) {
+            assertThat(almacen.leer("sesion-1").getNombreProyecto()).isEqualTo("Huerto Urbano");
+        }
+        almacen.actualizar("sesion-1", estado -> {
+            estado.setInteracciones(estado.getInteracciones() + 1);
+            return null;
+        });
+        // Las notificaciones de las escrituras propias no invalidan la versión que ya se tiene
+        repartirNotificaciones();
+        almacen.leer("sesion-1");
+
+        assertThat(base.lecturas()).isEqualTo(lecturas);
+        assertThat(base.version("sesion-1")).isEqualTo(2);
+    }
+
+    @Test
+    void otraInstanciaVeLosCambiosAlRecibirLaNotificacion() {
+        MeterRegistry registroB = new SimpleMeterRegistry();
+        JdbcSessionStateStore a = nuevaInstancia(new SimpleMeterRegistry());
+        JdbcSessionStateStore b = nuevaInstancia(registroB);
+
+        cambiarNombre(a, "Huerto Urbano");
+        repartirNotificaciones();
+        assertThat(b.leer("sesion-1").getNombreProyecto()).isEqualTo("Huerto Urbano");
+
+        cambiarNombre(a, "Mercadillo Digital");
+        // Hasta que llega la notificación, b sirve la versión que tenía en su caché
+        assertThat(b.leer("sesion-1").getNombreProyecto()).isEqualTo("Huerto Urbano");
+        repartirNotificaciones();
+        assertThat(b.leer("sesion-1").getNombreProyecto()).isEqualTo("Mercadillo Digital");
+        assertThat(registroB.counter("menu.sesiones.invalidaciones").count()).isEqualTo(1);
+    }
+
+    @Test
+    void unConflictoDeVersionVuelveAAplicarElCambioSobreLaUltimaVersion() throws Exception {
+        MeterRegistry registroB = new SimpleMeterRegistry();
+        JdbcSessionStateStore a = nuevaInstancia(new SimpleMeterRegistry());
+        JdbcSessionStateStore b = nuevaInstancia(registroB);
+        sumarInteraccion(a);
+        repartirNotificaciones();
+        b.leer("sesion-1");
+
+        // a modifica la sesión y b no recibe la notificación antes de su propia modificación
+        sumarInteraccion(a);
+        AtomicInteger aplicaciones = new AtomicInteger();
+        int resultado = b.actualizar("sesion-1", estado -> {
+            aplicaciones.incrementAndGet();
+            estado.setInteracciones(estado.getInteracciones() + 1);
+            return estado.getInteracciones();
+        });
+
+        assertThat(aplicaciones).hasValue(2);
+        assertThat(resultado).isEqualTo(3);
+        assertThat(base.version("sesion-1")).isEqualTo(3);
+        assertThat(registroB.counter("menu.sesiones.conflictos").count()).isEqualTo(1);
+        repartirNotificaciones();
+        assertThat(a.leer("sesion-1").getInteracciones()).isEqualTo(3);
+    }
+
+    @Test
+    void dosInstanciasConcurrentesNoPierdenModificaciones() throws Exception {
+        JdbcSessionStateStore a = nuevaInstancia(new SimpleMeterRegistry());
+        JdbcSessionStateStore b = nuevaInstancia(new SimpleMeterRegistry());
+        sumarInteraccion(a);
+        AtomicInteger confirmadas = new AtomicInteger(1);
+
+        ExecutorService hilos = Executors.newFixedThreadPool(4);
+        List<Future<?>> tareas = new ArrayList<>();
+        for (JdbcSessionStateStore almacen : List.of(a, a, b, b)) {
+            tareas.add(hilos.submit(() -> {
+                for (int i = 0; i < 50; i++) {
+                    try {
+                        sumarInteraccion(almacen);
+                        confirmadas.incrementAndGet();
+                    } catch (IllegalStateException e) {
+                        // Demasiados conflictos seguidos: la modificación no se aplicó y se informa del error
+                    }
+                    repartirNotificaciones();
+                }
+            }));
+        }
+        for (Future<?> tarea : tareas) {
+            tarea.get(30, TimeUnit.SECONDS);
+        }
+        hilos.shutdown();
+        repartirNotificaciones();
+
+        // Cada modificación confirmada se aplicó una vez sobre la anterior, sin perder ninguna
+        assertThat(confirmadas.get()).isGreaterThan(1);
+        assertThat(base.version("sesion-1")).isEqualTo(confirmadas.get());
+        assertThat(a.leer("sesion-1").getInteracciones()).isEqualTo(confirmadas.get());
+        assertThat(b.leer("sesion-1").getInteracciones()).isEqualTo(confirmadas.get());
+    }
+
+    @Test
+    void eliminarInvalidaLaSesionEnLasDemasInstancias() throws Exception {
+        JdbcSessionStateStore a = nuevaInstancia(new SimpleMeterRegistry());
+        JdbcSessionStateStore b = nuevaInstancia(new SimpleMeterRegistry());
+        cambiarNombre(a, "Huerto Urbano");
+        repartirNotificaciones();
+        assertThat(b.leer("sesion-1").getNombreProyecto()).isEqualTo("Huerto Urbano");
+
+        a.eliminar("sesion-1");
+        repartirNotificaciones();
+
+        assertThat(base.filas()).isZero();
+        assertThat(b.leer("sesion-1").getNombreProyecto()).isNull();
+    }
+
+    @Test
+    void limpiarBorraSoloLasSesionesFinalizadasCuyaEliminacionVencio() throws Exception {
+        JdbcSessionStateStore almacen = nuevaInstancia(new SimpleMeterRegistry());
+        almacen.actualizar("finalizada", estado -> {
+            estado.setActiva(false);
+            return null;
+        });
+        sumarInteraccion(almacen, "reactivada");
+        almacen.programarEliminacion("finalizada", Duration.ZERO);
+        almacen.programarEliminacion("reactivada", Duration.ZERO);
+        almacen.cancelarEliminacion("reactivada");
+        sumarInteraccion(almacen, "pendiente");
+        almacen.actualizar("pendiente", estado -> {
+            estado.setActiva(false);
+            return null;
+        });
+        almacen.programarEliminacion("pendiente", Duration.ofHours(1));
+        base.recogerNotificaciones();
+        Thread.sleep(10);
+
+        almacen.limpiar();
+
+        assertThat(base.filas()).isEqualTo(2);
+        assertThat(base.version("finalizada")).isNull();
+        assertThat(base.recogerNotificaciones()).containsExactly("finalizada:-1");
+    }
+
+    private JdbcSessionStateStore nuevaInstancia(MeterRegistry registro) {
+        JdbcSessionStateStore almacen = new JdbcSessionStateStore(base.dataSource(), proyectosWriteBehind,
+                Duration.ofMinutes(30), 64L * 1024 * 1024, Duration.ofMinutes(5), base.url(), "sa", "", registro);
+        instancias.add(almacen);
+        return almacen;
+    }
+
+    /**
+     * Entrega a todas las instancias las notificaciones pendientes, como el hilo de LISTEN de cada una
+     */
+    private synchronized void repartirNotificaciones() {
+        for (String mensaje : base.recogerNotificaciones()) {
+            for (JdbcSessionStateStore almacen : instancias) {
+                ReflectionTestUtils.invokeMethod(almacen, "procesar", mensaje);
+            }
+        }
+    }
+
+    private static void cambiarNombre(JdbcSessionStateStore almacen, String nombre) {
+        almacen.actualizar("sesion-1", estado -> {
+            estado.setNombreProyecto(nombre);
+            return null;
+        });
+    }
+
+    private static void sumarInteraccion(JdbcSessionStateStore almacen) {
+        sumarInteraccion(almacen, "sesion-1");
+    }
+
+    private static void sumarInteraccion(JdbcSessionStateStore almacen, String sessionId) {
+        almacen.actualizar(sessionId, estado -> {
+            estado.setInteracciones(estado.getInteracciones() + 1);
+            return null;
+        });
+    }
+}
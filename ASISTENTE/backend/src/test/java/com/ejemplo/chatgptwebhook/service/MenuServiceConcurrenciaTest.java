@@ -0,0 +1,124 @@
+package com.ejemplo.chatgptwebhook.service;
+
+import com.ejemplo.chatgptwebhook.config.OpenAiClientConfig;
+import com.ejemplo.chatgptwebhook.config.OpenAiHttpProperties;
+import com.ejemplo.chatgptwebhook.controller.MenuController;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Prueba de carga de la opción 1 (/api/menu/procesar/1/datos): con pocos hilos de servidor, muchas
+ * generaciones de proyecto quedan en curso a la vez porque ningún hilo espera a OpenAI
+ */
+class MenuServiceConcurrenciaTest {
+
+    private static final int HILOS_SERVIDOR = 4;
+    private static final int PETICIONES = 48;
+    private static final Duration RETRASO_OPENAI = Duration.ofSeconds(1);
+
+    private ServidorOpenAiSimulado servidor;
+    private ConnectionProvider pool;
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void arrancar() {
+        servidor = new ServidorOpenAiSimulado();
+        servidor.porDefecto(ServidorOpenAiSimulado.exito(RETRASO_OPENAI));
+
+        MeterRegistry registry = new SimpleMeterRegistry();
+        OpenAiHttpProperties props = new OpenAiHttpProperties();
+        props.setMaxConnections(PETICIONES * 2);
+        OpenAiClientConfig config = new OpenAiClientConfig();
+        pool = config.openAiConnectionProvider(props);
+        WebClient webClient = config.openAiWebClient(pool, props, "clave-de-prueba", servidor.url());
+        ChatGptService chatGptService = new ChatGptService(webClient,
+                new ObjectMapper(),
+                new ChatGptResponseCache(false, 1_000_000, Duration.ofMinutes(1), registry),
+                new OpenAiFairScheduler(PETICIONES, 500, Duration.ofSeconds(30), 1000, 4, 1, registry),
+                new OpenAiRateLimiter(10_000, 100_000_000, PETICIONES, 500, Duration.ofSeconds(30), registry),
+                new OpenAiRetry(0, Duration.ofMillis(10), Duration.ofSeconds(1), Duration.ofSeconds(30), registry),
+                new OpenAiCircuitBreaker(5, Duration.ofSeconds(30), 1, registry),
+                new ConversationMemory(false, 1500, 1_000_000, Duration.ofMinutes(1), registry),
+                registry);
+
+        MenuService menuService = new MenuService();
+        ReflectionTestUtils.setField(menuService, "chatGptService", chatGptService);
+        ReflectionTestUtils.setField(menuService, "sessionStore", mock(SessionStateStore.class));
+        ReflectionTestUtils.setField(menuService, "proyectosWriteBehind", mock(ProyectosWriteBehind.class));
+
+        MenuController controller = new MenuController();
+        ReflectionTestUtils.setField(controller, "menuService", menuService);
+        ReflectionTestUtils.setField(controller, "retryAfter", Duration.ofSeconds(2));
+        mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+    }
+
+    @AfterEach
+    void parar() {
+        pool.dispose();
+        servidor.close();
+    }
+
+    @Test
+    void atiendeMasGeneracionesEnCursoQueHilosDeServidor() throws Exception {
+        ExecutorService hilosServidor = Executors.newFixedThreadPool(HILOS_SERVIDOR);
+        long inicio = System.nanoTime();
+        List<Future<MvcResult>> enviadas = new ArrayList<>();
+        try {
+            for (int i = 0; i < PETICIONES; i++) {
+                // Ideas distintas para que ChatGptService no agrupe las llamadas
+                String idea = "Aplicación de prueba número " + i;
+                enviadas.add(hilosServidor.submit(() -> mockMvc.perform(post("/api/menu/procesar/1/datos")
+                                .contentType(MediaType.TEXT_PLAIN)
+                                .content(idea)
+                                .param("sessionId", "sesion-" + idea.hashCode()))
+                        .andExpect(request().asyncStarted())
+                        .andReturn()));
+            }
+            List<MvcResult> resultados = new ArrayList<>();
+            for (Future<MvcResult> enviada : enviadas) {
+                resultados.add(enviada.get());
+            }
+
+            for (MvcResult resultado : resultados) {
+                resultado.getAsyncResult(RETRASO_OPENAI.multipliedBy(10).toMillis());
+                String cuerpo = mockMvc.perform(asyncDispatch(resultado))
+                        .andExpect(status().isOk())
+                        .andReturn().getResponse().getContentAsString();
+                assertThat(cuerpo).contains(ServidorOpenAiSimulado.CONTENIDO);
+            }
+        } finally {
+            hilosServidor.shutdownNow();
+        }
+
+        Duration total = Duration.ofNanos(System.nanoTime() - inicio);
+        // Todas las generaciones llegaron a estar en curso a la vez en OpenAI con solo HILOS_SERVIDOR hilos
+        assertThat(servidor.maxEnCurso()).isGreaterThan(HILOS_SERVIDOR).isEqualTo(PETICIONES);
+        // Con un hilo bloqueado por petición harían falta PETICIONES / HILOS_SERVIDOR rondas de OpenAI
+        assertThat(total).isLessThan(RETRASO_OPENAI.multipliedBy(PETICIONES / HILOS_SERVIDOR / 2));
+    }
+}
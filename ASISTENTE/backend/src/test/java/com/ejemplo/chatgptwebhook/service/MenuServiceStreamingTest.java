@@ -0,0 +1,139 @@
+package com.ejemplo.chatgptwebhook.service;
+
+import com.ejemplo.chatgptwebhook.config.OpenAiClientConfig;
+import com.ejemplo.chatgptwebhook.config.OpenAiHttpProperties;
+import com.ejemplo.chatgptwebhook.model.SessionState;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Opción 1 en streaming (/api/menu/procesar/1/stream) contra un servidor de OpenAI simulado:
+ * el proyecto solo se guarda en la sesión cuando el stream termina sin errores
+ */
+class MenuServiceStreamingTest {
+
+    private static final String SESION = "sesion-stream";
+
+    private ServidorOpenAiSimulado servidor;
+    private ConnectionProvider pool;
+    private InMemorySessionStateStore sessionStore;
+    private ProyectosWriteBehind proyectosWriteBehind;
+    private MenuService menuService;
+    private volatile String hiloGuardado;
+
+    @BeforeEach
+    void arrancar() {
+        servidor = new ServidorOpenAiSimulado();
+
+        MeterRegistry registry = new SimpleMeterRegistry();
+        OpenAiHttpProperties props = new OpenAiHttpProperties();
+        OpenAiClientConfig config = new OpenAiClientConfig();
+        pool = config.openAiConnectionProvider(props);
+        WebClient webClient = config.openAiWebClient(pool, props, "clave-de-prueba", servidor.url());
+        ChatGptService chatGptService = new ChatGptService(webClient,
+                new ObjectMapper(),
+                new ChatGptResponseCache(false, 1_000_000, Duration.ofMinutes(1), registry),
+                new OpenAiFairScheduler(8, 100, Duration.ofSeconds(5), 1000, 4, 1, registry),
+                new OpenAiRateLimiter(10_000, 100_000_000, 8, 100, Duration.ofSeconds(5), registry),
+                new OpenAiRetry(0, Duration.ofMillis(10), Duration.ofSeconds(1), Duration.ofSeconds(30), registry),
+                new OpenAiCircuitBreaker(5, Duration.ofSeconds(30), 1, registry),
+                new ConversationMemory(false, 1500, 1_000_000, Duration.ofMinutes(1), registry),
+                registry);
+
+        proyectosWriteBehind = mock(ProyectosWriteBehind.class);
+        when(proyectosWriteBehind.cargar(anyString())).thenReturn(Optional.empty());
+        sessionStore = new InMemorySessionStateStore(proyectosWriteBehind, Duration.ofMinutes(30),
+                64L * 1024 * 1024, Duration.ofSeconds(1), registry);
+        // Hilo en el que se guarda el proyecto en la sesión
+        doAnswer(invocacion -> {
+            hiloGuardado = Thread.currentThread().getName();
+            return null;
+        }).when(proyectosWriteBehind).proyectoGuardado(anyString(), any());
+
+        menuService = new MenuService();
+        ReflectionTestUtils.setField(menuService, "chatGptService", chatGptService);
+        ReflectionTestUtils.setField(menuService, "sessionStore", sessionStore);
+        ReflectionTestUtils.setField(menuService, "proyectosWriteBehind", proyectosWriteBehind);
+
+        // Proyecto anterior de la sesión, que un stream fallido no debe sustituir
+        sessionStore.actualizar(SESION, estado -> {
+            estado.setNombreProyecto("Huerto Urbano");
+            estado.setContextoProyecto("1. Preparar la tierra");
+            return null;
+        });
+    }
+
+    @AfterEach
+    void parar() {
+        sessionStore.cerrar();
+        pool.dispose();
+        servidor.close();
+    }
+
+    @Test
+    void unErrorDeOpenAiNoSustituyeElProyectoDeLaSesion() {
+        servidor.porDefecto(ServidorOpenAiSimulado.error(500, "server_error"));
+
+        String respuesta = String.join("", menuService.transmitirIdeaProyecto("Una red social de recetas", SESION)
+                .collectList()
+                .block(Duration.ofSeconds(10)));
+
+        assertThat(respuesta).doesNotContain("Proyecto creado exitosamente");
+        assertThat(respuesta).contains("MOSTRAR_MENU_PRINCIPAL");
+        SessionState estado = sessionStore.leer(SESION);
+        assertThat(estado.getNombreProyecto()).isEqualTo("Huerto Urbano");
+        assertThat(estado.getContextoProyecto()).isEqualTo("1. Preparar la tierra");
+        verify(proyectosWriteBehind, never()).proyectoGuardado(anyString(), any());
+    }
+
+    @Test
+    void unStreamCompletoGuardaElProyectoEnLaSesion() {
+        servidor.porDefecto(ServidorOpenAiSimulado.exitoStream(
+                "1. Definir las recetas\n", "2. Publicar la web\n", "El nombre del proyecto: Recetario"));
+
+        String respuesta = String.join("", menuService.transmitirIdeaProyecto("Una red social de recetas", SESION)
+                .collectList()
+                .block(Duration.ofSeconds(10)));
+
+        assertThat(respuesta).contains("2. Publicar la web").contains("Proyecto creado exitosamente");
+        SessionState estado = sessionStore.leer(SESION);
+        assertThat(estado.getNombreProyecto()).isEqualTo("Recetario");
+        assertThat(estado.getTareas().total()).isEqualTo(2);
+        assertThat(hiloGuardado).isNotNull().doesNotStartWith("reactor-http");
+    }
+
+    /**
+     * El guardado puede esperar a la base de datos (almacén jdbc, recarga del proyecto): no debe ocupar
+     * el hilo de E/S de Reactor Netty que entregó la respuesta de OpenAI
+     */
+    @Test
+    void laVersionNormalGuardaElProyectoFueraDelHiloDeEntradaSalida() {
+        servidor.porDefecto(ServidorOpenAiSimulado.exito(Duration.ZERO));
+
+        String respuesta = menuService.generarProyecto("Una red social de recetas", SESION, null)
+                .block(Duration.ofSeconds(10));
+
+        assertThat(respuesta).contains(ServidorOpenAiSimulado.CONTENIDO);
+        assertThat(sessionStore.leer(SESION).getContextoProyecto()).isEqualTo(ServidorOpenAiSimulado.CONTENIDO);
+        assertThat(hiloGuardado).isNotNull().doesNotStartWith("reactor-http");
+    }
+}
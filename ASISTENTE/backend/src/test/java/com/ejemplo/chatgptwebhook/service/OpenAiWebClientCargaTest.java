@@ -0,0 +1,159 @@
+package com.ejemplo.chatgptwebhook.service;
+
+import com.ejemplo.chatgptwebhook.config.OpenAiClientConfig;
+import com.ejemplo.chatgptwebhook.config.OpenAiHttpProperties;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.search.Search;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * WebClient de OpenAI (pool y timeouts de openai.http.*) contra un servidor simulado.
+ * La prueba de latencia con concurrencia es de carga: mvn test -Pcarga
+ */
+class OpenAiWebClientCargaTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(OpenAiWebClientCargaTest.class);
+
+    private ServidorOpenAiSimulado servidor;
+    private SimpleMeterRegistry registry;
+    private ConnectionProvider pool;
+
+    @BeforeEach
+    void arrancar() {
+        servidor = new ServidorOpenAiSimulado();
+        // Reactor Netty publica las métricas del pool en el registro global
+        registry = new SimpleMeterRegistry();
+        Metrics.addRegistry(registry);
+    }
+
+    @AfterEach
+    void parar() {
+        if (pool != null) {
+            pool.dispose();
+        }
+        servidor.close();
+        Metrics.removeRegistry(registry);
+    }
+
+    @Tag("carga")
+    @Test
+    void latenciaConMasClientesQueConexiones() {
+        int conexiones = 16;
+        int clientes = 64;
+        int peticionesPorCliente = 25;
+        Duration retraso = Duration.ofMillis(40);
+        servidor.porDefecto(ServidorOpenAiSimulado.exito(retraso));
+
+        OpenAiHttpProperties props = new OpenAiHttpProperties();
+        props.setMaxConnections(conexiones);
+        props.setPendingAcquireMaxCount(clientes);
+        WebClient webClient = webClient(props);
+
+        // Calentamiento: abre las conexiones del pool antes de medir
+        enviar(webClient, conexiones, 2);
+
+        long inicio = System.nanoTime();
+        List<Long> latencias = enviar(webClient, clientes, peticionesPorCliente);
+        Duration total = Duration.ofNanos(System.nanoTime() - inicio);
+
+        Collections.sort(latencias);
+        long p50 = percentil(latencias, 0.50);
+        long p90 = percentil(latencias, 0.90);
+        long p99 = percentil(latencias, 0.99);
+        double porSegundo = latencias.size() / (total.toNanos() / 1e9);
+        logger.info("{} peticiones, {} clientes, {} conexiones, servidor {} ms: p50={} ms p90={} ms p99={} ms max={} ms, {} peticiones/s",
+                latencias.size(), clientes, conexiones, retraso.toMillis(), p50, p90, p99,
+                latencias.get(latencias.size() - 1), String.format("%.0f", porSegundo));
+
+        assertThat(latencias).hasSize(clientes * peticionesPorCliente);
+        // El pool nunca abre más conexiones de las configuradas
+        assertThat(servidor.maxEnCurso()).isLessThanOrEqualTo(conexiones);
+        // La cola del pool es FIFO: ninguna petición espera mucho más que la mediana (sin inanición)
+        assertThat(p99).isLessThan(p50 * 4);
+        // Las métricas del pool se publican con el nombre del ConnectionProvider
+        assertThat(Search.in(registry).name(n -> n.startsWith("reactor.netty.connection.provider"))
+                .tag("name", "openai").meters()).isNotEmpty();
+    }
+
+    @Test
+    void unServidorColgadoNoRetieneLaConexion() {
+        servidor.porDefecto(ServidorOpenAiSimulado.exito(Duration.ofSeconds(30)));
+        OpenAiHttpProperties props = new OpenAiHttpProperties();
+        props.setResponseTimeout(Duration.ofMillis(300));
+        WebClient webClient = webClient(props);
+
+        long inicio = System.nanoTime();
+        // Transitorio para OpenAiRetry: se reintenta y cuenta como fallo en el circuit breaker
+        assertThatThrownBy(() -> peticion(webClient).block(Duration.ofSeconds(10)))
+                .isInstanceOf(WebClientRequestException.class);
+        assertThat(Duration.ofNanos(System.nanoTime() - inicio)).isLessThan(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void rechazaRapidoCuandoLaColaDelPoolEstaLlena() {
+        servidor.porDefecto(ServidorOpenAiSimulado.exito(Duration.ofMillis(500)));
+        OpenAiHttpProperties props = new OpenAiHttpProperties();
+        props.setMaxConnections(1);
+        props.setPendingAcquireMaxCount(1);
+        WebClient webClient = webClient(props);
+
+        List<Throwable> errores = Flux.range(0, 4)
+                .flatMap(i -> peticion(webClient).then(Mono.<Throwable>empty()).onErrorResume(Mono::just))
+                .collectList()
+                .block(Duration.ofSeconds(10));
+
+        // Una petición en curso y otra en cola; el resto se rechaza sin esperar
+        assertThat(errores).hasSize(2);
+        assertThat(servidor.peticiones()).isEqualTo(2);
+    }
+
+    private WebClient webClient(OpenAiHttpProperties props) {
+        OpenAiClientConfig config = new OpenAiClientConfig();
+        pool = config.openAiConnectionProvider(props);
+        return config.openAiWebClient(pool, props, "clave-de-prueba", servidor.url());
+    }
+
+    private static Mono<String> peticion(WebClient webClient) {
+        return webClient.post().bodyValue("{}").retrieve().bodyToMono(String.class);
+    }
+
+    /**
+     * Lanza clientes concurrentes que envían sus peticiones una tras otra y devuelve la latencia de cada una en ms
+     */
+    private static List<Long> enviar(WebClient webClient, int clientes, int peticionesPorCliente) {
+        List<Long> latencias = Collections.synchronizedList(new ArrayList<>());
+        Flux.range(0, clientes)
+                .flatMap(cliente -> Flux.range(0, peticionesPorCliente)
+                        .concatMap(i -> Mono.defer(() -> {
+                            long inicio = System.nanoTime();
+                            return peticion(webClient)
+                                    .doOnSuccess(r -> latencias.add(Duration.ofNanos(System.nanoTime() - inicio).toMillis()));
+                        })), clientes)
+                .blockLast(Duration.ofMinutes(2));
+        return new ArrayList<>(latencias);
+    }
+
+    private static long percentil(List<Long> ordenadas, double percentil) {
+        int indice = (int) Math.ceil(percentil * ordenadas.size()) - 1;
+        return ordenadas.get(Math.max(0, indice));
+    }
+}
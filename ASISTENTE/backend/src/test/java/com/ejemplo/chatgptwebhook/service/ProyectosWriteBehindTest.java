@@ -0,0 +1,181 @@
+package com.ejemplo.chatgptwebhook.service;
+
+import com.ejemplo.chatgptwebhook.model.ListaTareas;
+import com.ejemplo.chatgptwebhook.model.SessionState;
+import com.ejemplo.chatgptwebhook.repository.ProyectoRepository;
+import com.ejemplo.chatgptwebhook.repository.TareaRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Escritura en segundo plano de proyectos y tareas sobre H2 (BaseSesionesH2): combinación de los
+ * cambios pendientes, reintentos tras una escritura fallida y versiones de las instantáneas
+ */
+class ProyectosWriteBehindTest {
+
+    private static final String SESION = "sesion-1";
+
+    private BaseSesionesH2 base;
+    private JdbcTemplate jdbc;
+    private MeterRegistry registry;
+
+    @BeforeEach
+    void crearBase() throws Exception {
+        base = new BaseSesionesH2();
+        jdbc = new JdbcTemplate(base.dataSource());
+        registry = new SimpleMeterRegistry();
+    }
+
+    @AfterEach
+    void cerrarBase() throws Exception {
+        base.close();
+    }
+
+    @Test
+    void unProyectoNuevoReemplazaLosCambiosDeTareasPendientes() {
+        ProyectosWriteBehind writeBehind = nuevo(5, "memoria");
+        writeBehind.proyectoGuardado(SESION, estado("Huerto Urbano", "1. Preparar la tierra", "2. Sembrar"));
+        writeBehind.escribirPendientes();
+
+        writeBehind.tareaAgregada(SESION, 2, new ListaTareas.Linea(3, "3. Regar"));
+        writeBehind.tareaCompletada(SESION, 1);
+        writeBehind.proyectoGuardado(SESION, estado("Mercadillo Digital", "1. Elegir la plataforma"));
+        writeBehind.escribirPendientes();
+
+        assertThat(nombre()).isEqualTo("Mercadillo Digital");
+        assertThat(tareas()).containsExactly("0 1. Elegir la plataforma");
+    }
+
+    @Test
+    void unProyectoNuevoDescartaLosCambiosDeTareasQueFallaron() {
+        ProyectosWriteBehind writeBehind = nuevo(5, "memoria");
+        writeBehind.proyectoGuardado(SESION, estado("Huerto Urbano", "1. Preparar la tierra"));
+        writeBehind.escribirPendientes();
+
+        writeBehind.tareaAgregada(SESION, 1, new ListaTareas.Linea(2, "2. Sembrar"));
+        writeBehind.tareaCompletada(SESION, 1);
+        base.simularCaida(true);
+        // El proyecto nuevo llega mientras falla la escritura de los cambios anteriores
+        base.alFallar(() -> writeBehind.proyectoGuardado(SESION,
+                estado("Mercadillo Digital", "1. Elegir la plataforma")));
+        writeBehind.escribirPendientes();
+        base.simularCaida(false);
+
+        // Los cambios fallidos son anteriores al proyecto nuevo: no se aplican sobre él
+        writeBehind.escribirPendientes();
+
+        assertThat(nombre()).isEqualTo("Mercadillo Digital");
+        assertThat(tareas()).containsExactly("0 1. Elegir la plataforma");
+        assertThat(pendientes()).isZero();
+    }
+
+    @Test
+    void lasTareasAgregadasTrasUnaEscrituraFallidaSeAplicanDespuesDeLoQueFallo() {
+        ProyectosWriteBehind writeBehind = nuevo(5, "memoria");
+        writeBehind.proyectoGuardado(SESION, estado("Huerto Urbano", "1. Preparar la tierra"));
+        base.simularCaida(true);
+        // Una tarea llega mientras falla la escritura del proyecto y otra después
+        base.alFallar(() -> writeBehind.tareaAgregada(SESION, 1, new ListaTareas.Linea(2, "2. Sembrar")));
+        writeBehind.escribirPendientes();
+        base.simularCaida(false);
+        assertThat(nombre()).isNull();
+
+        writeBehind.tareaAgregada(SESION, 2, new ListaTareas.Linea(3, "3. Regar"));
+        writeBehind.tareaCompletada(SESION, 1);
+        writeBehind.escribirPendientes();
+
+        assertThat(nombre()).isEqualTo("Huerto Urbano");
+        assertThat(tareas()).containsExactly("0 1. Preparar la tierra (completada)", "1 2. Sembrar", "2 3. Regar");
+        assertThat(registry.counter("proyectos.write_behind.sesiones_escritas").count()).isEqualTo(1);
+    }
+
+    @Test
+    void unaVersionAnteriorDeLaSesionNoSobrescribeUnaPosterior() {
+        ProyectosWriteBehind writeBehind = nuevo(5, "jdbc");
+        writeBehind.estadoConfirmado(SESION, 5, estado("Mercadillo Digital", "1. Elegir la plataforma", "2. Publicar"));
+        writeBehind.escribirPendientes();
+
+        // Escritura retrasada de una versión anterior (otra instancia, un reintento)
+        writeBehind.estadoConfirmado(SESION, 3, estado("Huerto Urbano", "1. Preparar la tierra"));
+        writeBehind.escribirPendientes();
+
+        assertThat(nombre()).isEqualTo("Mercadillo Digital");
+        assertThat(jdbc.queryForObject("SELECT version_sesion FROM proyectos WHERE session_id = ?", Long.class, SESION))
+                .isEqualTo(5);
+        assertThat(tareas()).containsExactly("0 1. Elegir la plataforma", "1 2. Publicar");
+
+        // Entre los cambios pendientes también se conserva la versión más reciente
+        writeBehind.estadoConfirmado(SESION, 8, estado("Recetario", "1. Definir las recetas"));
+        writeBehind.estadoConfirmado(SESION, 7, estado("Huerto Urbano", "1. Preparar la tierra"));
+        writeBehind.escribirPendientes();
+
+        assertThat(nombre()).isEqualTo("Recetario");
+        assertThat(tareas()).containsExactly("0 1. Definir las recetas");
+    }
+
+    @Test
+    void unaSesionQueFallaSeReintentaSolaHastaMaxIntentos() {
+        ProyectosWriteBehind writeBehind = nuevo(3, "memoria");
+        // Identificador más largo que la columna session_id: su escritura falla siempre
+        String defectuosa = "x".repeat(101);
+        writeBehind.proyectoGuardado(SESION, estado("Huerto Urbano", "1. Preparar la tierra"));
+        writeBehind.proyectoGuardado(defectuosa, estado("Mercadillo Digital", "1. Elegir la plataforma"));
+
+        // El lote falla y se reintenta sesión a sesión: la sesión correcta no espera a la defectuosa
+        writeBehind.escribirPendientes();
+        assertThat(nombre()).isEqualTo("Huerto Urbano");
+        assertThat(pendientes()).isEqualTo(1);
+
+        writeBehind.escribirPendientes();
+        assertThat(pendientes()).isEqualTo(1);
+        assertThat(registry.counter("proyectos.write_behind.sesiones_descartadas").count()).isZero();
+
+        writeBehind.escribirPendientes();
+        assertThat(pendientes()).isZero();
+        assertThat(registry.counter("proyectos.write_behind.sesiones_descartadas").count()).isEqualTo(1);
+        assertThat(registry.counter("proyectos.write_behind.sesiones_escritas").count()).isEqualTo(1);
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM proyectos", Integer.class)).isEqualTo(1);
+    }
+
+    private ProyectosWriteBehind nuevo(int maxIntentos, String almacenSesiones) {
+        return new ProyectosWriteBehind(base.dataSource(), new DataSourceTransactionManager(base.dataSource()),
+                mock(ProyectoRepository.class), mock(TareaRepository.class), maxIntentos, almacenSesiones, registry);
+    }
+
+    private static SessionState estado(String nombre, String... tareas) {
+        SessionState estado = new SessionState();
+        estado.setNombreProyecto(nombre);
+        estado.setContextoProyecto(String.join("\n", tareas));
+        estado.setTareas(ListaTareas.desdeTexto(String.join("\n", tareas)));
+        return estado;
+    }
+
+    private String nombre() {
+        List<String> nombres = jdbc.queryForList("SELECT nombre FROM proyectos WHERE session_id = ?", String.class, SESION);
+        return nombres.isEmpty() ? null : nombres.get(0);
+    }
+
+    /**
+     * Tareas guardadas de la sesión en orden, como "posición texto [(completada)]"
+     */
+    private List<String> tareas() {
+        return jdbc.query("SELECT t.posicion, t.texto, t.completada FROM tareas t " +
+                        "JOIN proyectos p ON p.id = t.proyecto_id WHERE p.session_id = ? ORDER BY t.posicion",
+                (fila, i) -> fila.getInt(1) + " " + fila.getString(2) + (fila.getBoolean(3) ? " (completada)" : ""),
+                SESION);
+    }
+
+    private int pendientes() {
+        return (int) registry.get("proyectos.write_behind.pendientes").gauge().value();
+    }
+}
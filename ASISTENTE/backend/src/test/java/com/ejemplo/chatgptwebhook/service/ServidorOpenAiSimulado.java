@@ -0,0 +1,111 @@
+package com.ejemplo.chatgptwebhook.service;
+
+import io.netty.handler.codec.http.HttpResponseStatus;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Servidor HTTP local que sustituye a la API de OpenAI en las pruebas.
+ * Responde con las respuestas encoladas en orden y, cuando se agotan, con la respuesta por defecto
+ * (un completado correcto tras el retraso configurado).
+ */
+class ServidorOpenAiSimulado implements AutoCloseable {
+
+    static final String CONTENIDO = "respuesta simulada";
+
+    private final Queue<Respuesta> guion = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger peticiones = new AtomicInteger();
+    private final AtomicInteger enCurso = new AtomicInteger();
+    private final AtomicInteger maxEnCurso = new AtomicInteger();
+    private volatile Respuesta porDefecto = exito(Duration.ZERO);
+    private final DisposableServer servidor;
+
+    ServidorOpenAiSimulado() {
+        this.servidor = HttpServer.create()
+                .host("127.0.0.1")
+                .port(0)
+                .handle((request, response) -> request.receive().aggregate().asString().defaultIfEmpty("")
+                        .flatMap(cuerpo -> {
+                            peticiones.incrementAndGet();
+                            maxEnCurso.accumulateAndGet(enCurso.incrementAndGet(), Math::max);
+                            Respuesta respuesta = guion.poll();
+                            Respuesta elegida = respuesta != null ? respuesta : porDefecto;
+                            return Mono.delay(elegida.retraso())
+                                    .then(Mono.defer(() -> {
+                                        response.status(elegida.status())
+                                                .header("Content-Type", "application/json");
+                                        elegida.cabeceras().forEach(response::header);
+                                        return response.sendString(Mono.just(elegida.cuerpo())).then();
+                                    }))
+                                    .doFinally(senal -> enCurso.decrementAndGet());
+                        }))
+                .bindNow();
+    }
+
+    String url() {
+        return "http://127.0.0.1:" + servidor.port() + "/v1/chat/completions";
+    }
+
+    void encolar(Respuesta... respuestas) {
+        guion.addAll(List.of(respuestas));
+    }
+
+    void porDefecto(Respuesta respuesta) {
+        this.porDefecto = respuesta;
+    }
+
+    int peticiones() {
+        return peticiones.get();
+    }
+
+    int maxEnCurso() {
+        return maxEnCurso.get();
+    }
+
+    @Override
+    public void close() {
+        servidor.disposeNow();
+    }
+
+    static Respuesta exito(Duration retraso) {
+        return new Respuesta(200, Map.of(), retraso,
+                "{\"choices\":[{\"index\":0,\"message\":{\"role\":\"assistant\",\"content\":\"" + CONTENIDO + "\"}}]}");
+    }
+
+    /**
+     * Respuesta en streaming (stream=true): un evento por fragmento y el evento final [DONE]
+     */
+    static Respuesta exitoStream(String... fragmentos) {
+        StringBuilder cuerpo = new StringBuilder();
+        for (String fragmento : fragmentos) {
+            cuerpo.append("data: {\"choices\":[{\"index\":0,\"delta\":{\"content\":\"")
+                  .append(fragmento.replace("\n", "\\n"))
+                  .append("\"}}]}\n\n");
+        }
+        cuerpo.append("data: [DONE]\n\n");
+        return new Respuesta(200, Map.of("Content-Type", "text/event-stream"), Duration.ZERO, cuerpo.toString());
+    }
+
+    static Respuesta error(int status, String codigo) {
+        return error(status, codigo, Map.of());
+    }
+
+    static Respuesta error(int status, String codigo, Map<String, String> cabeceras) {
+        return new Respuesta(status, cabeceras, Duration.ZERO,
+                "{\"error\":{\"message\":\"simulado\",\"code\":\"" + codigo + "\"}}");
+    }
+
+    record Respuesta(int codigo, Map<String, String> cabeceras, Duration retraso, String cuerpo) {
+        HttpResponseStatus status() {
+            return HttpResponseStatus.valueOf(codigo);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.ejemplo.chatgptwebhook.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rendimiento de AnalizadorRespuestaProyecto.
+ * Con una respuesta típica de ChatGPT se compara con el análisis anterior de MenuService (seis patrones
+ * compilados en cada llamada y una expresión DOTALL con cuantificadores anidados). Con las entradas
+ * malintencionadas solo se mide el analizador nuevo: el tiempo por KB debe ser el mismo con 100 KB y
+ * con 1 MB. Las mismas entradas se comprueban en AnalizadorRespuestaProyectoTest.
+ *
+ * Ejecución: mvn test-compile y después, con el classpath de test,
+ * java com.ejemplo.chatgptwebhook.util.AnalizadorRespuestaProyectoBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnalizadorRespuestaProyectoBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Malintencionada {
+        @Param({"tareas-sin-salto", "espacios-tras-numero", "comillas-sin-cerrar", "detalles-infinitos", "tipicas-concatenadas"})
+        public String entrada;
+
+        @Param({"102400", "1048576"})
+        public int tamano;
+
+        String texto;
+
+        @Setup
+        public void preparar() {
+            texto = switch (entrada) {
+                case "tareas-sin-salto" -> repetir("1. ", tamano);
+                case "espacios-tras-numero" -> repetir("1." + " ".repeat(1000) + "\n", tamano);
+                case "comillas-sin-cerrar" -> repetir("proyecto llamado \"", tamano);
+                case "detalles-infinitos" -> "1. Tarea\n" + repetir(" - detalle\n", tamano);
+                case "tipicas-concatenadas" -> repetir(respuestaTipica() + "\n", tamano);
+                default -> throw new IllegalArgumentException(entrada);
+            };
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Tipica {
+        String texto = respuestaTipica();
+    }
+
+    @Benchmark
+    public AnalizadorRespuestaProyecto.Resultado analizarMalintencionada(Malintencionada estado) {
+        return AnalizadorRespuestaProyecto.analizar(estado.texto);
+    }
+
+    @Benchmark
+    public AnalizadorRespuestaProyecto.Resultado analizarTipica(Tipica estado) {
+        return AnalizadorRespuestaProyecto.analizar(estado.texto);
+    }
+
+    @Benchmark
+    public void analizarTipicaAnterior(Tipica estado, Blackhole blackhole) {
+        blackhole.consume(extraerNombreProyecto(estado.texto));
+        blackhole.consume(extraerTareasProyecto(estado.texto));
+    }
+
+    /**
+     * Respuesta con el formato habitual de ChatGPT: introducción, diez tareas con viñetas y nombre final
+     */
+    private static String respuestaTipica() {
+        StringBuilder respuesta = new StringBuilder("¡Claro! Vamos a desarrollar tu idea paso a paso.\n\n");
+        for (int i = 1; i <= 10; i++) {
+            respuesta.append(i).append(". **Fase ").append(i).append(":** Definir y documentar los entregables de la fase\n")
+                     .append("   - Revisar los requisitos con el equipo\n")
+                     .append("   - Estimar el esfuerzo y las dependencias\n\n");
+        }
+        return respuesta.append("El nombre del proyecto: Plataforma de Huertos Urbanos\n").toString();
+    }
+
+    private static String repetir(String patron, int tamano) {
+        return patron.repeat(tamano / patron.length() + 1).substring(0, tamano);
+    }
+
+    // Implementación anterior de MenuService, sin cambios salvo los logs
+
+    private static String extraerNombreProyecto(String respuestaChatGPT) {
+        if (respuestaChatGPT == null || respuestaChatGPT.isEmpty()) {
+            return null;
+        }
+        String[] patrones = {
+            "proyecto llamado \"([^\"]+)\"",
+            "proyecto: ([^\n]+)",
+            "nombre del proyecto: ([^\n]+)",
+            "proyecto \"([^\"]+)\"",
+            "llamado \"([^\"]+)\"",
+            "proyecto ([A-Z][^,.\\n]+)"
+        };
+        for (String patron : patrones) {
+            Pattern pattern = Pattern.compile(patron);
+            Matcher matcher = pattern.matcher(respuestaChatGPT);
+            if (matcher.find()) {
+                String nombreEncontrado = matcher.group(1).trim();
+                if (!nombreEncontrado.isEmpty()) {
+                    return nombreEncontrado;
+                }
+            }
+        }
+        return "Proyecto definido con ChatGPT";
+    }
+
+    private static String extraerTareasProyecto(String respuestaChatGPT) {
+        if (respuestaChatGPT == null || respuestaChatGPT.isEmpty()) {
+            return null;
+        }
+        Pattern pattern = Pattern.compile(
+            "(?:^|\\n)(\\d+\\.\\s+[^\\n]+(?:\\n(?!\\d+\\.).*)*)",
+            Pattern.MULTILINE | Pattern.DOTALL
+        );
+        Matcher matcher = pattern.matcher(respuestaChatGPT);
+        StringBuilder tareasEncontradas = new StringBuilder();
+        while (matcher.find()) {
+            String tarea = matcher.group(1).trim();
+            if (!tarea.isEmpty()) {
+                tareasEncontradas.append(tarea).append("\n");
+            }
+        }
+        String tareas = tareasEncontradas.toString().trim();
+        return !tareas.isEmpty() ? tareas : respuestaChatGPT;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(AnalizadorRespuestaProyectoBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
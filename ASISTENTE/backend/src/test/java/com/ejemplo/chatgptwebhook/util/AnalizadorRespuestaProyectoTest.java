@@ -0,0 +1,189 @@
+package com.ejemplo.chatgptwebhook.util;
+
+import com.ejemplo.chatgptwebhook.model.ListaTareas;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+class AnalizadorRespuestaProyectoTest {
+
+    // Tamaño de las entradas malintencionadas
+    private static final int TAMANO = 100 * 1024;
+
+    @Test
+    void extraeNombreTareasYDetalles() {
+        String respuesta = """
+                Te propongo el proyecto llamado "Huerto Urbano" para tu idea.
+
+                1. Definir los requisitos
+                   - Entrevistar a los vecinos
+                   * Priorizar funciones
+                2. Diseñar la base de datos
+                Texto suelto que no es detalle
+                - Viñeta fuera de una tarea
+                3. Implementar la API
+                """;
+
+        AnalizadorRespuestaProyecto.Resultado resultado = AnalizadorRespuestaProyecto.analizar(respuesta);
+
+        assertThat(resultado.nombre()).isEqualTo("Huerto Urbano");
+        ListaTareas tareas = resultado.tareas();
+        assertThat(tareas.total()).isEqualTo(3);
+        assertThat(tareas.texto(2)).isEqualTo("Diseñar la base de datos");
+        assertThat(tareas.renderizar()).isEqualTo("""
+                1. Definir los requisitos
+                   - Entrevistar a los vecinos
+                   * Priorizar funciones
+                2. Diseñar la base de datos
+                3. Implementar la API""");
+    }
+
+    @Test
+    void respetaLaPrioridadDeLosMarcadoresDelNombre() {
+        assertThat(AnalizadorRespuestaProyecto.analizar("El proyecto Gestor, y el proyecto \"Citas\"").nombre())
+                .isEqualTo("Citas");
+        assertThat(AnalizadorRespuestaProyecto.analizar("Nombre del proyecto: Agenda Vecinal\n1. Tarea").nombre())
+                .isEqualTo("Agenda Vecinal");
+        assertThat(AnalizadorRespuestaProyecto.analizar("Un proyecto Mercadillo Digital. Fin").nombre())
+                .isEqualTo("Mercadillo Digital");
+        assertThat(AnalizadorRespuestaProyecto.analizar("sin nombre\n1. Tarea").nombre())
+                .isEqualTo("Proyecto definido con ChatGPT");
+    }
+
+    @Test
+    void sinTareasNumeradasGuardaLaRespuestaCompleta() {
+        AnalizadorRespuestaProyecto.Resultado resultado = AnalizadorRespuestaProyecto.analizar("Primera línea\n\nSegunda línea");
+
+        assertThat(resultado.tareas().total()).isZero();
+        assertThat(resultado.tareas().renderizar()).isEqualTo("Primera línea\nSegunda línea");
+    }
+
+    @Test
+    void respuestaVaciaNoTieneNombreNiTareas() {
+        assertThat(AnalizadorRespuestaProyecto.analizar("")).isEqualTo(new AnalizadorRespuestaProyecto.Resultado(null, null));
+        assertThat(AnalizadorRespuestaProyecto.analizar(null)).isEqualTo(new AnalizadorRespuestaProyecto.Resultado(null, null));
+    }
+
+    /**
+     * Entradas pensadas para provocar backtracking catastrófico en el análisis anterior con expresiones
+     * regulares, o recorridos repetidos del texto por cada marcador
+     */
+    static Stream<Arguments> entradasMalintencionadas() {
+        return Stream.of(
+                Arguments.of("tareas sin salto de línea", repetir("1. ", TAMANO)),
+                Arguments.of("números sin punto", repetir("1234567890", TAMANO)),
+                Arguments.of("detalles infinitos", "1. Tarea\n" + repetir(" - detalle\n", TAMANO)),
+                Arguments.of("líneas de dígitos y puntos", repetir("9999999.\n", TAMANO)),
+                Arguments.of("espacios tras el número", repetir("1." + " ".repeat(1000) + "\n", TAMANO)),
+                Arguments.of("comillas sin cerrar", repetir("proyecto \"", TAMANO)),
+                Arguments.of("llamado sin cerrar", repetir("proyecto llamado \"", TAMANO)),
+                Arguments.of("llamado suelto", repetir("llamado \"x", TAMANO)),
+                Arguments.of("comillas vacías", repetir("proyecto \"\"", TAMANO)),
+                Arguments.of("dos puntos sin salto", repetir("proyecto: ", TAMANO)),
+                Arguments.of("mayúsculas sin fin", "proyecto A" + "a".repeat(TAMANO)),
+                Arguments.of("marcadores en una línea", repetir("proyecto Proyecto ", TAMANO)),
+                Arguments.of("solo saltos de línea", "\n".repeat(TAMANO)),
+                Arguments.of("solo espacios", " ".repeat(TAMANO)));
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("entradasMalintencionadas")
+    void analizaEntradasMalintencionadasDe100KbEnTiempoLineal(String caso, String entrada) {
+        assertThat(entrada.length()).isGreaterThanOrEqualTo(TAMANO);
+        // Una pasada lineal sobre 100 KB tarda milisegundos; el análisis anterior tardaba minutos en algunos casos
+        AnalizadorRespuestaProyecto.Resultado resultado = assertTimeoutPreemptively(Duration.ofSeconds(2),
+                () -> AnalizadorRespuestaProyecto.analizar(entrada));
+        assertThat(resultado.nombre()).isNotNull();
+        assertThat(resultado.tareas()).isNotNull();
+    }
+
+    /**
+     * Al multiplicar por 8 el tamaño de la entrada, el tiempo crece de forma proporcional y no cuadrática
+     */
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("entradasMalintencionadas")
+    void elTiempoCreceLinealmenteConElTamano(String caso, String entrada) {
+        String pequena = entrada.substring(0, entrada.length() / 8);
+
+        long tiempoPequena = mejorTiempo(pequena);
+        long tiempoGrande = mejorTiempo(entrada);
+
+        // Lineal: unas 8 veces más; cuadrático: unas 64. El margen absorbe el ruido de las entradas pequeñas
+        assertThat(tiempoGrande)
+                .as("%s: %d ns con 1/8 de la entrada, %d ns con la entrada completa", caso, tiempoPequena, tiempoGrande)
+                .isLessThan(Math.max(tiempoPequena * 24, Duration.ofMillis(5).toNanos()));
+    }
+
+    /**
+     * Fuzzing con semilla fija: textos aleatorios formados por los fragmentos que el analizador reconoce.
+     * Las tareas encontradas deben ser exactamente las líneas con formato "N. texto"; si no hay ninguna,
+     * la lista conserva la respuesta completa.
+     */
+    @Test
+    void fuzzingConservaExactamenteLasLineasDeTarea() {
+        String[] fragmentos = {"1", "23", "456789", ".", ". ", " ", "\n", "\n", "-", "*", "•", "\"", "proyecto",
+                " llamado ", "llamado \"", ": ", "Huerto", "a", ",", "\t"};
+        Random aleatorio = new Random(20240611L);
+
+        for (int caso = 0; caso < 5_000; caso++) {
+            StringBuilder texto = new StringBuilder();
+            int piezas = aleatorio.nextInt(200);
+            for (int i = 0; i < piezas; i++) {
+                texto.append(fragmentos[aleatorio.nextInt(fragmentos.length)]);
+            }
+            String respuesta = texto.toString();
+
+            AnalizadorRespuestaProyecto.Resultado resultado = AnalizadorRespuestaProyecto.analizar(respuesta);
+            if (respuesta.isEmpty()) {
+                continue;
+            }
+
+            List<String> esperadas = respuesta.lines()
+                    .filter(AnalizadorRespuestaProyectoTest::esLineaDeTarea)
+                    .map(String::stripTrailing)
+                    .toList();
+            if (esperadas.isEmpty()) {
+                // Sin tareas numeradas se guarda la respuesta completa, sin las líneas en blanco
+                assertThat(resultado.tareas().renderizar()).as("entrada: %s", respuesta)
+                        .isEqualTo(String.join("\n", respuesta.lines().filter(linea -> !linea.isBlank()).toList()));
+            } else {
+                List<String> encontradas = resultado.tareas().lineas().stream()
+                        .filter(linea -> linea.numero() > 0)
+                        .map(ListaTareas.Linea::texto)
+                        .toList();
+                assertThat(encontradas).as("entrada: %s", respuesta).isEqualTo(esperadas);
+            }
+            assertThat(resultado.nombre()).as("entrada: %s", respuesta).isNotBlank();
+        }
+    }
+
+    /**
+     * Definición de referencia de una tarea, escrita con una expresión regular sin cuantificadores anidados
+     */
+    private static boolean esLineaDeTarea(String linea) {
+        return linea.matches("\\d{1,6}\\.\\s.*") && !linea.substring(linea.indexOf('.') + 1).isBlank();
+    }
+
+    private static String repetir(String patron, int tamano) {
+        return patron.repeat(tamano / patron.length() + 1);
+    }
+
+    private static long mejorTiempo(String entrada) {
+        long mejor = Long.MAX_VALUE;
+        for (int i = 0; i < 7; i++) {
+            long inicio = System.nanoTime();
+            AnalizadorRespuestaProyecto.analizar(entrada);
+            mejor = Math.min(mejor, System.nanoTime() - inicio);
+        }
+        return mejor;
+    }
+}
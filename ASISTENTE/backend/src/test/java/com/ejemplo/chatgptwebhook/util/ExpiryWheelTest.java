@@ -0,0 +1,87 @@
+package com.ejemplo.chatgptwebhook.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ExpiryWheelTest {
+
+    @Test
+    void entregaLasClavesVencidasYNoLasCanceladas() throws Exception {
+        Set<String> vencidas = ConcurrentHashMap.newKeySet();
+        try (ExpiryWheel<String> rueda = new ExpiryWheel<>("prueba-rueda", Duration.ofMillis(5), 8, vencidas::addAll)) {
+            rueda.programar("a", Duration.ofMillis(20));
+            rueda.programar("b", Duration.ofMillis(20));
+            rueda.programar("c", Duration.ofMillis(20));
+            assertThat(rueda.cancelar("b")).isTrue();
+
+            esperarHasta(() -> rueda.pendientes() == 0);
+            Thread.sleep(50);
+            assertThat(vencidas).containsExactlyInAnyOrder("a", "c");
+        }
+    }
+
+    @Test
+    void reprogramarSustituyeLaExpiracionAnterior() throws Exception {
+        Set<String> vencidas = ConcurrentHashMap.newKeySet();
+        try (ExpiryWheel<String> rueda = new ExpiryWheel<>("prueba-rueda", Duration.ofMillis(5), 8, vencidas::addAll)) {
+            rueda.programar("a", Duration.ofMillis(10));
+            rueda.programar("a", Duration.ofSeconds(30));
+            Thread.sleep(100);
+            assertThat(vencidas).isEmpty();
+            assertThat(rueda.pendientes()).isEqualTo(1);
+        }
+    }
+
+    /**
+     * Retrasos múltiplos del número de ranuras, programados desde muchos hilos mientras la rueda avanza:
+     * ninguna entrada puede quedar en una ranura ya revisada sin llegar a vencer
+     */
+    @Test
+    void ningunaExpiracionSePierdeConProgramacionConcurrente() throws Exception {
+        int hilos = 8;
+        int porHilo = 5_000;
+        CountDownLatch todas = new CountDownLatch(hilos * porHilo);
+        Set<Integer> vencidas = ConcurrentHashMap.newKeySet();
+        try (ExpiryWheel<Integer> rueda = new ExpiryWheel<>("prueba-rueda", Duration.ofMillis(1), 4,
+                (List<Integer> claves) -> claves.forEach(clave -> {
+                    vencidas.add(clave);
+                    todas.countDown();
+                }))) {
+            ExecutorService executor = Executors.newFixedThreadPool(hilos);
+            for (int h = 0; h < hilos; h++) {
+                int base = h * porHilo;
+                executor.execute(() -> {
+                    for (int i = 0; i < porHilo; i++) {
+                        rueda.programar(base + i, Duration.ofMillis(4L * (1 + i % 3)));
+                    }
+                });
+            }
+            executor.shutdown();
+            assertThat(executor.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+
+            assertThat(todas.await(30, TimeUnit.SECONDS))
+                    .as("expiraciones pendientes: %d", rueda.pendientes())
+                    .isTrue();
+            assertThat(vencidas).hasSize(hilos * porHilo);
+            assertThat(rueda.pendientes()).isZero();
+        }
+    }
+
+    private static void esperarHasta(java.util.function.BooleanSupplier condicion) throws InterruptedException {
+        long limite = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condicion.getAsBoolean() && System.nanoTime() < limite) {
+            Thread.sleep(5);
+        }
+        assertThat(condicion.getAsBoolean()).isTrue();
+    }
+}
@@ -0,0 +1,112 @@
+package com.ejemplo.chatgptwebhook.util;
+
+import com.ejemplo.chatgptwebhook.security.VerifiedTokenCache;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.crypto.SecretKey;
+import java.time.Duration;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coste de autenticar una petición con JWT en JwtAuthenticationFilter, sin contar la carga del usuario:
+ * - antes: tres análisis del token, cada uno reconstruyendo la clave HMAC y el parser
+ *   (extractUsername y después validateToken, que vuelve a extraer usuario y expiración);
+ * - despues: un único parseToken con la clave y el parser construidos al arrancar;
+ * - despuesConCache: token ya verificado en VerifiedTokenCache (solo el SHA-256 del token).
+ *
+ * Ejecución: mvn test-compile y después, con el classpath de test,
+ * java com.ejemplo.chatgptwebhook.util.JwtUtilBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JwtUtilBenchmark {
+
+    private static final String SECRETO = "mi-clave-secreta-super-segura-para-jwt-tokens-de-autenticacion-2024";
+
+    private JwtUtil jwtUtil;
+    private VerifiedTokenCache verifiedTokenCache;
+    private UserDetails usuario;
+    private String token;
+
+    @Setup
+    public void preparar() {
+        jwtUtil = new JwtUtil();
+        ReflectionTestUtils.setField(jwtUtil, "secret", SECRETO);
+        ReflectionTestUtils.setField(jwtUtil, "expiration", Duration.ofHours(24).toMillis());
+        jwtUtil.init();
+
+        usuario = new User("ana@ejemplo.com", "no-se-usa", List.of());
+        token = jwtUtil.generateToken(usuario.getUsername(), Map.of("nombre", "Ana"));
+
+        verifiedTokenCache = new VerifiedTokenCache(Duration.ofMinutes(5), 10_000, new SimpleMeterRegistry());
+        Claims claims = jwtUtil.parseToken(token).orElseThrow();
+        verifiedTokenCache.guardar(verifiedTokenCache.clave(token), usuario, claims.getExpiration());
+    }
+
+    @Benchmark
+    public boolean antes() {
+        String username = extraerClaimsAnterior(token).getSubject();
+        return username != null && validarTokenAnterior(token, usuario);
+    }
+
+    @Benchmark
+    public boolean despues() {
+        Claims claims = jwtUtil.parseToken(token).orElse(null);
+        return claims != null && jwtUtil.validateToken(claims, usuario);
+    }
+
+    @Benchmark
+    public UserDetails despuesConCache() {
+        return verifiedTokenCache.obtener(verifiedTokenCache.clave(token));
+    }
+
+    // Implementación anterior de JwtUtil: clave y parser nuevos en cada análisis
+
+    private static Claims extraerClaimsAnterior(String token) {
+        SecretKey clave = Keys.hmacShaKeyFor(SECRETO.getBytes());
+        return Jwts.parserBuilder()
+                .setSigningKey(clave)
+                .build()
+                .parseClaimsJws(token)
+                .getBody();
+    }
+
+    private static boolean validarTokenAnterior(String token, UserDetails userDetails) {
+        String username = extraerClaimsAnterior(token).getSubject();
+        Date expiracion = extraerClaimsAnterior(token).getExpiration();
+        return username.equals(userDetails.getUsername()) && !expiracion.before(new Date());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(JwtUtilBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
@@ -0,0 +1,70 @@
+package com.ejemplo.chatgptwebhook.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LimiteAimdTest {
+
+    @Test
+    void creceUnaPlazaPorRondaDePeticionesCorrectas() {
+        LimiteAimd limite = new LimiteAimd(10, 1, 100, 0.5);
+
+        // Una ronda: el límite lleno y todas las peticiones terminan bien. Solo cuentan las que terminan
+        // mientras se usa al menos la mitad del límite (unas 5 de 10, 0.1 plazas cada una)
+        rondaCorrecta(limite);
+        assertThat(limite.limite()).isEqualTo(10);
+        rondaCorrecta(limite);
+        rondaCorrecta(limite);
+        assertThat(limite.limite()).isEqualTo(11);
+    }
+
+    @Test
+    void seReduceUnaSolaVezPorLasPeticionesAdmitidasAntesDeLaReduccion() {
+        LimiteAimd limite = new LimiteAimd(40, 4, 100, 0.5);
+        long admitidas = System.nanoTime();
+        for (int i = 0; i < 40; i++) {
+            limite.adquirir();
+        }
+
+        // Todas las peticiones de la ronda saturada terminan lentas: el límite baja una vez, no 40
+        for (int i = 0; i < 40; i++) {
+            limite.liberar(true, admitidas);
+        }
+        assertThat(limite.limite()).isEqualTo(20);
+
+        // Una petición admitida después de la reducción sí vuelve a reducirlo
+        limite.adquirir();
+        limite.liberar(true, System.nanoTime());
+        assertThat(limite.limite()).isEqualTo(10);
+        assertThat(limite.enCurso()).isZero();
+    }
+
+    @Test
+    void noBajaDelMinimoNiSubeDelMaximo() {
+        LimiteAimd limite = new LimiteAimd(2, 2, 2, 0.5);
+
+        limite.adquirir();
+        limite.liberar(true, System.nanoTime());
+        assertThat(limite.limite()).isEqualTo(2);
+
+        for (int i = 0; i < 10; i++) {
+            limite.adquirir();
+            limite.adquirir();
+            long admitidas = System.nanoTime();
+            limite.liberar(false, admitidas);
+            limite.liberar(false, admitidas);
+        }
+        assertThat(limite.limite()).isEqualTo(2);
+    }
+
+    private static void rondaCorrecta(LimiteAimd limite) {
+        while (limite.adquirir()) {
+            // Hasta llenar el límite
+        }
+        long admitidas = System.nanoTime();
+        while (limite.enCurso() > 0) {
+            limite.liberar(false, admitidas);
+        }
+    }
+}